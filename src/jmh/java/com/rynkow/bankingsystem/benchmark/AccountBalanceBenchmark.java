@@ -0,0 +1,73 @@
+package com.rynkow.bankingsystem.benchmark;
+
+import com.rynkow.bankingsystem.model.Account;
+import com.rynkow.bankingsystem.model.Currency;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deposit + withdraw round trips on a single shared account.
+ * Run with -t 1,4,16 and -prof gc to compare contention and allocation rate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AccountBalanceBenchmark {
+    private static final BigDecimal AMOUNT = new BigDecimal("12.34");
+    private static final long AMOUNT_UNITS = 123400;
+
+    private Account account;
+    private BigDecimalBalance bigDecimalBalance;
+
+    @Setup(Level.Trial)
+    public void createAccounts() {
+        account = new Account("user", Currency.PLN);
+        account.deposit(BigDecimal.valueOf(1_000_000));
+        bigDecimalBalance = new BigDecimalBalance();
+        bigDecimalBalance.deposit(BigDecimal.valueOf(1_000_000));
+    }
+
+    @Benchmark
+    public long fixedPointUnits() {
+        account.deposit(AMOUNT_UNITS);
+        return account.withdraw(AMOUNT_UNITS);
+    }
+
+    @Benchmark
+    public BigDecimal fixedPointBigDecimalApi() {
+        account.deposit(AMOUNT);
+        account.withdraw(AMOUNT);
+        return account.getBalance();
+    }
+
+    @Benchmark
+    public BigDecimal bigDecimalBaseline() {
+        bigDecimalBalance.deposit(AMOUNT);
+        bigDecimalBalance.withdraw(AMOUNT);
+        return bigDecimalBalance.balance;
+    }
+
+    // balance handling before the fixed-point change, kept here as the baseline
+    private static class BigDecimalBalance {
+        private volatile BigDecimal balance = BigDecimal.ZERO;
+
+        synchronized void deposit(BigDecimal amount) {
+            if (amount.signum() < 1)
+                throw new IllegalArgumentException("deposit amount not positive");
+            balance = balance.add(amount);
+        }
+
+        synchronized void withdraw(BigDecimal amount) {
+            if (amount.signum() < 1)
+                throw new IllegalArgumentException("withdraw amount not positive");
+            if (balance.compareTo(amount) < 0)
+                throw new IllegalStateException("insufficient Balance");
+            balance = balance.subtract(amount);
+        }
+    }
+}
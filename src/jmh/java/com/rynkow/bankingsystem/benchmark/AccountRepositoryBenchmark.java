@@ -0,0 +1,65 @@
+package com.rynkow.bankingsystem.benchmark;
+
+import com.rynkow.bankingsystem.model.Account;
+import com.rynkow.bankingsystem.model.Currency;
+import com.rynkow.bankingsystem.repository.AccountRepository;
+import com.rynkow.bankingsystem.repository.HashAccountRepository;
+import com.rynkow.bankingsystem.repository.ListAccountRepository;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Optional;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AccountRepositoryBenchmark {
+    @Param({"hash", "list"})
+    public String repositoryType;
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int users;
+
+    private AccountRepository repository;
+    private String[] userIds;
+    private SplittableRandom random;
+
+    @Setup(Level.Trial)
+    public void createAccounts() {
+        if (repositoryType.equals("list")) {
+            ListAccountRepository listRepository = ListAccountRepository.getInstance();
+            listRepository.clear();
+            repository = listRepository;
+        } else {
+            repository = new HashAccountRepository();
+        }
+
+        userIds = new String[users];
+        for (int i = 0; i < users; i++) {
+            userIds[i] = "user" + i;
+            for (Currency currency : Currency.values()) {
+                Account account = new Account(userIds[i], currency);
+                // ListAccountRepository.save scans every account, which makes filling it quadratic
+                if (repository instanceof ListAccountRepository)
+                    repository.getAccounts().add(account);
+                else
+                    repository.save(account);
+            }
+        }
+        random = new SplittableRandom(42);
+    }
+
+    @Benchmark
+    public Optional<Account> getAccountByUserIdAndCurrency() {
+        return repository.getAccountByUserIdAndCurrency(userIds[random.nextInt(users)], Currency.PLN);
+    }
+
+    @Benchmark
+    public int getAccountsByUserId() {
+        return repository.getAccountsByUserId(userIds[random.nextInt(users)]).size();
+    }
+}
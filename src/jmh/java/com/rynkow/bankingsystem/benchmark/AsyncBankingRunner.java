@@ -0,0 +1,112 @@
+package com.rynkow.bankingsystem.benchmark;
+
+import com.rynkow.bankingsystem.BankingSystem;
+import com.rynkow.bankingsystem.async.AsyncBankingSystem;
+import com.rynkow.bankingsystem.journal.Mutation;
+import com.rynkow.bankingsystem.journal.MutationLog;
+import com.rynkow.bankingsystem.metrics.BankingMetrics;
+import com.rynkow.bankingsystem.model.Currency;
+import com.rynkow.bankingsystem.repository.HashAccountRepository;
+import com.rynkow.bankingsystem.server.VirtualThreads;
+import com.rynkow.bankingsystem.service.JsonCurrencyExchangeService;
+
+import java.math.BigDecimal;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Keeps a fixed number of deposits in flight through AsyncBankingSystem - each completion submits the next one - and prints
+ * the throughput, on virtual threads and on a pool of platform threads. Every deposit waits for its journal write, simulated
+ * by a mutation log whose awaitDurable sleeps:
+ * <pre>
+ * java -cp target/benchmarks.jar com.rynkow.bankingsystem.benchmark.AsyncBankingRunner [durable wait us] [seconds] [pool threads]
+ * </pre>
+ * Defaults: 1000 us, 5 seconds per run, 200 platform threads. Runs with 1000, 10000 and 100000 deposits in flight, over 100000 users.
+ */
+public class AsyncBankingRunner {
+    private static final int USERS = 100_000;
+    private static final int[] IN_FLIGHT = {1_000, 10_000, 100_000};
+
+    public static void main(String[] args) throws Exception {
+        long waitNanos = (args.length > 0 ? Long.parseLong(args[0]) : 1000) * 1000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int poolThreads = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+
+        AtomicLong sequence = new AtomicLong();
+        MutationLog slowLog = new MutationLog() {
+            @Override
+            public long append(Mutation mutation) {
+                return sequence.incrementAndGet();
+            }
+
+            @Override
+            public void awaitDurable(long sequence) {
+                LockSupport.parkNanos(waitNanos);
+            }
+        };
+        BankingSystem bankingSystem = new BankingSystem(new HashAccountRepository(), JsonCurrencyExchangeService.getInstance(), slowLog,
+                BankingMetrics.DISABLED);
+        String[] userIds = new String[USERS];
+        for (int i = 0; i < USERS; i++) {
+            userIds[i] = "user" + i;
+            bankingSystem.apply(Mutation.newUser(0, userIds[i]), i + 1);
+        }
+
+        for (String executorType : new String[]{"virtual", "pool-" + poolThreads}) {
+            for (int inFlight : IN_FLIGHT) {
+                ExecutorService executor = executorType.equals("virtual")
+                        ? VirtualThreads.newThreadPerTaskExecutor("async-runner") : Executors.newFixedThreadPool(poolThreads);
+                try (AsyncBankingSystem async = new AsyncBankingSystem(bankingSystem, executor, inFlight)) {
+                    Run run = new Run(async, userIds, inFlight, System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds));
+                    long start = System.nanoTime();
+                    for (int i = 0; i < inFlight; i++)
+                        run.next();
+                    run.finished.await();
+                    double elapsed = (System.nanoTime() - start) / 1e9;
+                    double throughput = run.completed.sum() / elapsed;
+                    System.out.printf("%-9s %6d in flight: %8.0f deposits/s, mean latency %7.1f ms, %d failed, %d rejected%n",
+                            executorType, inFlight, throughput, inFlight / throughput * 1000, run.failed.sum(), async.getRejected());
+                }
+                executor.shutdown();
+                executor.awaitTermination(1, TimeUnit.MINUTES);
+            }
+        }
+    }
+
+    private static final class Run {
+        final AsyncBankingSystem async;
+        final String[] userIds;
+        final long deadline;
+        final LongAdder completed = new LongAdder();
+        final LongAdder failed = new LongAdder();
+        final CountDownLatch finished;
+
+        Run(AsyncBankingSystem async, String[] userIds, int inFlight, long deadline) {
+            this.async = async;
+            this.userIds = userIds;
+            this.deadline = deadline;
+            this.finished = new CountDownLatch(inFlight);
+        }
+
+        void next() {
+            if (System.nanoTime() > deadline) {
+                finished.countDown();
+                return;
+            }
+            String userId = userIds[ThreadLocalRandom.current().nextInt(userIds.length)];
+            async.depositFundsAsync(Currency.PLN, BigDecimal.ONE, userId).whenComplete((result, failure) -> {
+                if (failure == null)
+                    completed.increment();
+                else
+                    failed.increment();
+                next();
+            });
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.rynkow.bankingsystem.benchmark;
+
+import com.rynkow.bankingsystem.BankingSystem;
+import com.rynkow.bankingsystem.model.Currency;
+import com.rynkow.bankingsystem.model.HistoryOrder;
+import com.rynkow.bankingsystem.model.HistoryPage;
+import com.rynkow.bankingsystem.model.Transaction;
+import com.rynkow.bankingsystem.repository.HashAccountRepository;
+import com.rynkow.bankingsystem.service.JsonCurrencyExchangeService;
+import org.json.simple.parser.ParseException;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Every BankingSystem operation on a bank of the given number of accounts, with users picked from a Zipfian distribution
+ * (a few hot users, a long tail). Reports throughput and, through sample time, latency percentiles.
+ * <pre>
+ * java -jar target/benchmarks.jar BankingSystemBenchmark -t 4 -prof gc -p accounts=1000,100000,1000000
+ * </pre>
+ * -t sets the thread count, -prof gc adds the allocation rate per operation (gc.alloc.rate.norm),
+ * BankingSystemBenchmarkRunner runs the whole matrix of thread counts. 10M accounts need about -jvmArgs -Xmx12g.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class BankingSystemBenchmark {
+    private static final BigDecimal INITIAL_FUNDS = BigDecimal.valueOf(1_000_000_000);
+    private static final BigDecimal HISTORY_AMOUNT = BigDecimal.ONE;
+    private static final BigDecimal AMOUNT = new BigDecimal("0.01");
+    private static final int PAGE_SIZE = 20;
+
+    @Param({"1000", "100000"})
+    public int accounts;
+
+    // transactions per account before measuring
+    @Param({"10"})
+    public int historyDepth;
+
+    private BankingSystem bankingSystem;
+    private ZipfianGenerator users;
+    private String[] userIds;
+
+    @Setup(Level.Trial)
+    public void createBank() throws IOException, ParseException {
+        bankingSystem = new BankingSystem(new HashAccountRepository(), JsonCurrencyExchangeService.getInstance());
+        int userCount = Math.max(1, accounts / Currency.values().length);
+        userIds = new String[userCount];
+        for (int i = 0; i < userCount; i++) {
+            userIds[i] = "user" + i;
+            bankingSystem.newUser(userIds[i]);
+            for (Currency currency : Currency.values()) {
+                bankingSystem.depositFunds(currency, INITIAL_FUNDS, userIds[i]);
+                for (int j = 1; j < historyDepth; j++)
+                    bankingSystem.depositFunds(currency, HISTORY_AMOUNT, userIds[i]);
+            }
+        }
+        users = new ZipfianGenerator(userCount);
+    }
+
+    private String nextUser() {
+        return userIds[users.next()];
+    }
+
+    @Benchmark
+    public void sendFunds() {
+        bankingSystem.sendFunds(Currency.PLN, AMOUNT, nextUser(), nextUser());
+    }
+
+    @Benchmark
+    public void depositFunds() {
+        bankingSystem.depositFunds(Currency.EUR, AMOUNT, nextUser());
+    }
+
+    @Benchmark
+    public void withdrawFunds() {
+        bankingSystem.withdrawFunds(Currency.USD, AMOUNT, nextUser());
+    }
+
+    @Benchmark
+    public void exchangeCurrency() {
+        bankingSystem.exchangeCurrency(Currency.PLN, Currency.EUR, AMOUNT, nextUser());
+    }
+
+    @Benchmark
+    public List<Transaction> getAccountHistory() {
+        return bankingSystem.getAccountHistory(nextUser(), null, null, null, null);
+    }
+
+    @Benchmark
+    public HistoryPage getAccountHistoryPage() {
+        return bankingSystem.getAccountHistoryPage(nextUser(), null, null, null, null, HistoryOrder.DESCENDING, PAGE_SIZE, null);
+    }
+
+    @Benchmark
+    public Map<Currency, BigDecimal> getAccountBalance() {
+        return bankingSystem.getAccountBalance(nextUser());
+    }
+}
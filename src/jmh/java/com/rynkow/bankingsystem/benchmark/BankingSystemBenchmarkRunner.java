@@ -0,0 +1,35 @@
+package com.rynkow.bankingsystem.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs BankingSystemBenchmark for every thread count with the allocation profiler, results also go to a JSON file:
+ * <pre>
+ * java -cp target/benchmarks.jar com.rynkow.bankingsystem.benchmark.BankingSystemBenchmarkRunner [threads,...] [accounts,...] [result file]
+ * </pre>
+ * Defaults: threads 1,4,16, accounts 1000,100000,1000000, banking-system-benchmark.json.
+ */
+public class BankingSystemBenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException {
+        String[] threadCounts = (args.length > 0 ? args[0] : "1,4,16").split(",");
+        String[] accounts = (args.length > 1 ? args[1] : "1000,100000,1000000").split(",");
+        String resultFile = args.length > 2 ? args[2] : "banking-system-benchmark.json";
+
+        for (String threads : threadCounts) {
+            ChainedOptionsBuilder options = new OptionsBuilder()
+                    .include(BankingSystemBenchmark.class.getSimpleName())
+                    .threads(Integer.parseInt(threads))
+                    .param("accounts", accounts)
+                    .addProfiler(GCProfiler.class)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result(threads + "-threads-" + resultFile);
+            new Runner(options.build()).run();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.rynkow.bankingsystem.benchmark;
+
+import com.rynkow.bankingsystem.BankingSystem;
+import com.rynkow.bankingsystem.journal.FileJournal;
+import com.rynkow.bankingsystem.journal.JournalMode;
+import com.rynkow.bankingsystem.journal.MutationLog;
+import com.rynkow.bankingsystem.metrics.BankingMetrics;
+import com.rynkow.bankingsystem.model.BatchMode;
+import com.rynkow.bankingsystem.model.Currency;
+import com.rynkow.bankingsystem.model.OperationStatus;
+import com.rynkow.bankingsystem.model.TransferInstruction;
+import com.rynkow.bankingsystem.repository.HashAccountRepository;
+import com.rynkow.bankingsystem.service.JsonCurrencyExchangeService;
+import org.json.simple.parser.ParseException;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Comparator;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applies a payroll-like file of transfers, either one sendFunds call at a time or as a single batch.
+ * Without a journal the batch does the same work as the loop, with a group commit journal it waits for one fsync per
+ * chunk instead of one per transfer, for example:
+ * <pre>
+ * java -jar target/benchmarks.jar BatchTransferBenchmark -p journal=group-commit -p transfers=10000
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class BatchTransferBenchmark {
+    @Param({"10000"})
+    public int users;
+
+    @Param({"100000"})
+    public int transfers;
+
+    // number of distinct senders - 1 for a payroll file, all users for random settlement traffic
+    @Param({"1", "10000"})
+    public int senders;
+
+    @Param({"none", "group-commit"})
+    public String journal;
+
+    private BankingSystem bankingSystem;
+    private FileJournal fileJournal;
+    private Path journalDirectory;
+    private List<TransferInstruction> instructions;
+
+    // fresh accounts for every iteration, so the growing transaction history does not skew later iterations
+    @Setup(Level.Iteration)
+    public void createTransfers() throws IOException, ParseException {
+        MutationLog mutationLog = MutationLog.NONE;
+        if (journal.equals("group-commit")) {
+            journalDirectory = Files.createTempDirectory("batch-journal");
+            fileJournal = FileJournal.open(journalDirectory, JournalMode.GROUP_COMMIT);
+            mutationLog = fileJournal;
+        }
+        bankingSystem = new BankingSystem(new HashAccountRepository(), JsonCurrencyExchangeService.getInstance(), mutationLog, new BankingMetrics());
+        for (int i = 0; i < users; i++) {
+            bankingSystem.newUser("user" + i);
+            bankingSystem.depositFunds(Currency.PLN, BigDecimal.valueOf(1_000_000_000), "user" + i);
+        }
+
+        SplittableRandom random = new SplittableRandom(42);
+        instructions = new ArrayList<>(transfers);
+        for (int i = 0; i < transfers; i++)
+            instructions.add(new TransferInstruction(Currency.PLN, BigDecimal.valueOf(random.nextInt(1, 1000)),
+                    "user" + random.nextInt(senders), "user" + random.nextInt(users)));
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteJournal() throws IOException {
+        if (fileJournal == null)
+            return;
+        fileJournal.close();
+        try (var paths = Files.walk(journalDirectory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList())
+                Files.delete(path);
+        }
+        fileJournal = null;
+    }
+
+    @Benchmark
+    public int loopSendFunds() {
+        for (TransferInstruction instruction : instructions)
+            bankingSystem.sendFunds(instruction.currency, instruction.amount, instruction.senderId, instruction.receiverId);
+        return instructions.size();
+    }
+
+    @Benchmark
+    public List<OperationStatus> bestEffortBatch() {
+        return bankingSystem.sendFundsBatch(instructions, BatchMode.BEST_EFFORT);
+    }
+
+    @Benchmark
+    public List<OperationStatus> allOrNothingBatch() {
+        return bankingSystem.sendFundsBatch(instructions, BatchMode.ALL_OR_NOTHING);
+    }
+}
@@ -0,0 +1,143 @@
+package com.rynkow.bankingsystem.benchmark;
+
+import com.rynkow.bankingsystem.metrics.LatencyHistogram;
+import com.rynkow.bankingsystem.model.Account;
+import com.rynkow.bankingsystem.model.Currency;
+import com.rynkow.bankingsystem.repository.AccountRepository;
+import com.rynkow.bankingsystem.repository.CachingAccountRepository;
+import com.rynkow.bankingsystem.repository.HashAccountRepository;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Looks accounts up through CachingAccountRepository in front of a repository slowed down by a busy wait per lookup, and prints
+ * hit rates and latencies, next to no cache and a plain LRU cache of the same size:
+ * <pre>
+ * java -cp target/benchmarks.jar com.rynkow.bankingsystem.benchmark.CachingRepositoryRunner [users] [cache size] [backing lookup us] [lookups]
+ * </pre>
+ * Defaults: 1000000 users, cache of 10000 accounts, 20 us per backing lookup, 1000000 lookups. Users are Zipfian-distributed;
+ * in the scan workload every other lookup instead goes to the next user of a sequential scan through all users.
+ */
+public class CachingRepositoryRunner {
+
+    public static void main(String[] args) {
+        int users = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int cacheSize = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+        long delayNanos = (args.length > 2 ? Long.parseLong(args[2]) : 20) * 1000;
+        int lookups = args.length > 3 ? Integer.parseInt(args[3]) : 1_000_000;
+
+        HashAccountRepository accounts = new HashAccountRepository();
+        for (int i = 0; i < users; i++)
+            accounts.save(new Account("user" + i, Currency.PLN));
+        String[] userIds = new String[users];
+        for (int i = 0; i < users; i++)
+            userIds[i] = "user" + i;
+        AccountRepository slow = new SlowAccountRepository(accounts, delayNanos);
+        ZipfianGenerator zipfian = new ZipfianGenerator(users);
+
+        for (boolean scan : new boolean[]{false, true}) {
+            String workload = scan ? "zipfian + scan" : "zipfian";
+            run("none", workload, slow, null, userIds, zipfian, scan, lookups / 10);
+            run("lru", workload, new LruAccountRepository(slow, cacheSize), null, userIds, zipfian, scan, lookups);
+            CachingAccountRepository caching = new CachingAccountRepository(slow, cacheSize);
+            run("w-tinylfu", workload, caching, caching, userIds, zipfian, scan, lookups);
+        }
+    }
+
+    private static void run(String cache, String workload, AccountRepository repository, CachingAccountRepository caching,
+                            String[] userIds, ZipfianGenerator zipfian, boolean scan, int lookups) {
+        SlowAccountRepository.backingLookups = 0;
+        LatencyHistogram histogram = new LatencyHistogram();
+        int scanned = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < lookups; i++) {
+            String userId = scan && (i & 1) == 1 ? userIds[scanned++ % userIds.length] : userIds[zipfian.next()];
+            long lookupStart = System.nanoTime();
+            repository.getAccountByUserIdAndCurrency(userId, Currency.PLN).orElseThrow();
+            histogram.record(System.nanoTime() - lookupStart);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        String counters = caching == null ? "" : String.format(", %d evictions", caching.getEvictions());
+        System.out.printf("%-9s %-14s: hit rate %5.1f%%, %8.0f lookups/s, mean %6.0f ns, p50 %6d ns, p99 %6d ns%s%n", cache, workload,
+                100.0 * (lookups - SlowAccountRepository.backingLookups) / lookups, lookups / seconds, snapshot.meanNanos(),
+                snapshot.valueAtPercentile(50), snapshot.valueAtPercentile(99), counters);
+    }
+
+    // busy waits before every lookup by userId and currency, the delay of a lookup on disk or over the network
+    private static final class SlowAccountRepository extends ForwardingAccountRepository {
+        static long backingLookups;
+        private final long delayNanos;
+
+        SlowAccountRepository(AccountRepository repository, long delayNanos) {
+            super(repository);
+            this.delayNanos = delayNanos;
+        }
+
+        @Override
+        public Optional<Account> getAccountByUserIdAndCurrency(String userId, Currency currency) {
+            backingLookups++;
+            long end = System.nanoTime() + delayNanos;
+            while (System.nanoTime() < end)
+                Thread.onSpinWait();
+            return repository.getAccountByUserIdAndCurrency(userId, currency);
+        }
+    }
+
+    // least recently used accounts, for comparison
+    private static final class LruAccountRepository extends ForwardingAccountRepository {
+        private final Map<String, Account> cache;
+
+        LruAccountRepository(AccountRepository repository, int maximumSize) {
+            super(repository);
+            this.cache = new LinkedHashMap<>(maximumSize * 2, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Account> eldest) {
+                    return size() > maximumSize;
+                }
+            };
+        }
+
+        @Override
+        public Optional<Account> getAccountByUserIdAndCurrency(String userId, Currency currency) {
+            String key = userId + " " + currency;
+            Account account = cache.get(key);
+            if (account != null)
+                return Optional.of(account);
+            Optional<Account> found = repository.getAccountByUserIdAndCurrency(userId, currency);
+            found.ifPresent(value -> cache.put(key, value));
+            return found;
+        }
+    }
+
+    private abstract static class ForwardingAccountRepository implements AccountRepository {
+        final AccountRepository repository;
+
+        ForwardingAccountRepository(AccountRepository repository) {
+            this.repository = repository;
+        }
+
+        @Override
+        public List<Account> getAccounts() {
+            return repository.getAccounts();
+        }
+
+        @Override
+        public List<Account> getAccountsByUserId(String userId) {
+            return repository.getAccountsByUserId(userId);
+        }
+
+        @Override
+        public List<Account> getAccountsByCurrency(Currency currency) {
+            return repository.getAccountsByCurrency(currency);
+        }
+
+        @Override
+        public void save(Account account) {
+            repository.save(account);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.rynkow.bankingsystem.benchmark;
+
+import com.rynkow.bankingsystem.cluster.BankingCluster;
+import com.rynkow.bankingsystem.cluster.FundsAudit;
+import com.rynkow.bankingsystem.cluster.NodeUnavailableException;
+import com.rynkow.bankingsystem.journal.JournalMode;
+import com.rynkow.bankingsystem.model.Currency;
+import com.rynkow.bankingsystem.service.JsonCurrencyExchangeService;
+
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs random transfers on a BankingCluster while the network loses messages and random nodes crash and restart,
+ * then delivers what is left pending and runs FundsAudit:
+ * <pre>
+ * java -cp target/benchmarks.jar com.rynkow.bankingsystem.benchmark.ClusterChaosRunner [nodes] [threads] [seconds] [loss rate]
+ * </pre>
+ * Defaults: 4 nodes, 8 threads, 30 seconds, 1% of requests and 1% of responses lost. Journals go to a temporary directory.
+ */
+public class ClusterChaosRunner {
+    private static final int USERS = 1000;
+    private static final BigDecimal INITIAL_BALANCE = BigDecimal.valueOf(1000);
+    private static final long CRASH_INTERVAL_MILLIS = 200;
+    private static final long DOWNTIME_MILLIS = 50;
+
+    public static void main(String[] args) throws Exception {
+        int nodes = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+        double lossRate = args.length > 3 ? Double.parseDouble(args[3]) : 0.01;
+
+        Path directory = Files.createTempDirectory("cluster-chaos");
+        BankingCluster cluster = new BankingCluster(nodes, directory, JournalMode.GROUP_COMMIT, JsonCurrencyExchangeService.getInstance());
+        for (int i = 0; i < USERS; i++) {
+            cluster.newUser("user" + i);
+            cluster.depositFunds(Currency.PLN, INITIAL_BALANCE, "user" + i);
+        }
+        cluster.scheduleRecovery(10, TimeUnit.MILLISECONDS);
+        cluster.getNetwork().setLossRates(lossRate, lossRate);
+
+        LongAdder transfers = new LongAdder();
+        LongAdder unavailable = new LongAdder();
+        LongAdder rejected = new LongAdder();
+        LongAdder crashes = new LongAdder();
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        ExecutorService executor = Executors.newFixedThreadPool(threads + 1);
+        List<Future<?>> results = new ArrayList<>();
+        results.add(executor.submit(() -> {
+            SplittableRandom random = new SplittableRandom();
+            while (System.nanoTime() < end) {
+                Thread.sleep(CRASH_INTERVAL_MILLIS);
+                int nodeId = random.nextInt(nodes);
+                cluster.crash(nodeId);
+                crashes.increment();
+                Thread.sleep(DOWNTIME_MILLIS);
+                cluster.restart(nodeId);
+            }
+            return null;
+        }));
+        for (int t = 0; t < threads; t++)
+            results.add(executor.submit(() -> {
+                SplittableRandom random = new SplittableRandom();
+                while (System.nanoTime() < end) {
+                    try {
+                        cluster.sendFunds(Currency.PLN, BigDecimal.valueOf(random.nextInt(1, 100)), "user" + random.nextInt(USERS), "user" + random.nextInt(USERS));
+                        transfers.increment();
+                    } catch (NodeUnavailableException e) {
+                        unavailable.increment();
+                    } catch (RuntimeException e) {
+                        rejected.increment();
+                    }
+                }
+            }));
+        for (Future<?> result : results)
+            result.get();
+        executor.shutdown();
+
+        cluster.getNetwork().setLossRates(0, 0);
+        for (int i = 0; i < nodes; i++)
+            if (cluster.getNode(i) == null)
+                cluster.restart(i);
+        while (cluster.recoverTransfers() > 0)
+            Thread.sleep(1);
+        FundsAudit audit = FundsAudit.run(cluster);
+        System.out.printf("%d transfers (%.0f/s), %d unavailable, %d rejected, %d crashes, %d messages lost%n", transfers.sum(), (double) transfers.sum() / seconds,
+                unavailable.sum(), rejected.sum(), crashes.sum(), cluster.getNetwork().getLostMessages());
+        System.out.println(audit);
+        cluster.close();
+        if (!audit.isBalanced())
+            System.exit(1);
+    }
+}
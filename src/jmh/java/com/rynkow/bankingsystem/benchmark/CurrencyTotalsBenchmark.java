@@ -0,0 +1,80 @@
+package com.rynkow.bankingsystem.benchmark;
+
+import com.rynkow.bankingsystem.BankingSystem;
+import com.rynkow.bankingsystem.model.Account;
+import com.rynkow.bankingsystem.model.Currency;
+import com.rynkow.bankingsystem.model.Money;
+import com.rynkow.bankingsystem.repository.HashAccountRepository;
+import com.rynkow.bankingsystem.service.JsonCurrencyExchangeService;
+import org.json.simple.parser.ParseException;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Total PLN held, from the running totals and by summing the balances of all PLN accounts, while other threads transfer:
+ * <pre>
+ * java -jar target/benchmarks.jar CurrencyTotalsBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 3, jvmArgsAppend = "-Xmx2g")
+public class CurrencyTotalsBenchmark {
+    private static final BigDecimal AMOUNT = new BigDecimal("0.01");
+
+    @Param({"1000", "100000"})
+    public int users;
+
+    private HashAccountRepository repository;
+    private BankingSystem bankingSystem;
+    private ZipfianGenerator userIndexes;
+    private String[] userIds;
+
+    @Setup(Level.Trial)
+    public void createBank() throws IOException, ParseException {
+        repository = new HashAccountRepository();
+        bankingSystem = new BankingSystem(repository, JsonCurrencyExchangeService.getInstance());
+        userIds = new String[users];
+        for (int i = 0; i < users; i++) {
+            userIds[i] = "user" + i;
+            bankingSystem.newUser(userIds[i]);
+            bankingSystem.depositFunds(Currency.PLN, BigDecimal.valueOf(1_000_000), userIds[i]);
+        }
+        userIndexes = new ZipfianGenerator(users);
+    }
+
+    @Benchmark
+    @Group("totals")
+    public BigDecimal totalsRead() {
+        return bankingSystem.getTotals().getBalance(Currency.PLN);
+    }
+
+    @Benchmark
+    @Group("totals")
+    @GroupThreads(2)
+    public void totalsTransfer() {
+        bankingSystem.sendFunds(Currency.PLN, AMOUNT, userIds[userIndexes.next()], userIds[userIndexes.next()]);
+    }
+
+    @Benchmark
+    @Group("scan")
+    public BigDecimal scanRead() {
+        long units = 0;
+        for (Account account : repository.getAccountsByCurrency(Currency.PLN))
+            units += account.getBalanceUnits();
+        return Money.toBigDecimal(units);
+    }
+
+    @Benchmark
+    @Group("scan")
+    @GroupThreads(2)
+    public void scanTransfer() {
+        bankingSystem.sendFunds(Currency.PLN, AMOUNT, userIds[userIndexes.next()], userIds[userIndexes.next()]);
+    }
+}
@@ -0,0 +1,62 @@
+package com.rynkow.bankingsystem.benchmark;
+
+import com.rynkow.bankingsystem.BankingSystem;
+import com.rynkow.bankingsystem.journal.MutationLog;
+import com.rynkow.bankingsystem.metrics.BankingMetrics;
+import com.rynkow.bankingsystem.model.Currency;
+import com.rynkow.bankingsystem.model.TransactionHistory;
+import com.rynkow.bankingsystem.repository.HashAccountRepository;
+import com.rynkow.bankingsystem.service.JsonCurrencyExchangeService;
+import org.json.simple.parser.ParseException;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deposit + withdraw round trips through BankingSystem.depositFunds and withdrawFunds, locks, history and mutation log
+ * included, unlike AccountBalanceBenchmark which measures the Account balance alone. Per history implementation:
+ * <pre>
+ * java -jar target/benchmarks.jar DepositWithdrawBenchmark -t 1 -prof gc
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class DepositWithdrawBenchmark {
+    private static final int USERS = 1000;
+    private static final BigDecimal INITIAL_FUNDS = BigDecimal.valueOf(1_000_000);
+    private static final BigDecimal AMOUNT = new BigDecimal("12.34");
+
+    @Param({"heap", "off-heap"})
+    public String history;
+
+    private BankingSystem bankingSystem;
+    private String[] userIds;
+
+    // fresh bank every iteration, so the growing histories do not dominate later iterations
+    @Setup(Level.Iteration)
+    public void createBank() throws IOException, ParseException {
+        System.setProperty(TransactionHistory.IMPLEMENTATION_PROPERTY, history);
+        bankingSystem = new BankingSystem(new HashAccountRepository(), JsonCurrencyExchangeService.getInstance(), MutationLog.NONE,
+                BankingMetrics.DISABLED);
+        userIds = new String[USERS];
+        for (int i = 0; i < USERS; i++) {
+            userIds[i] = "user" + i;
+            bankingSystem.newUser(userIds[i]);
+            bankingSystem.depositFunds(Currency.PLN, INITIAL_FUNDS, userIds[i]);
+        }
+    }
+
+    @Benchmark
+    public void depositWithdraw() {
+        String userId = userIds[ThreadLocalRandom.current().nextInt(USERS)];
+        bankingSystem.depositFunds(Currency.PLN, AMOUNT, userId);
+        bankingSystem.withdrawFunds(Currency.PLN, AMOUNT, userId);
+    }
+}
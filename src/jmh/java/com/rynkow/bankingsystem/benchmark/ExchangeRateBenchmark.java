@@ -0,0 +1,52 @@
+package com.rynkow.bankingsystem.benchmark;
+
+import com.rynkow.bankingsystem.model.Currency;
+import com.rynkow.bankingsystem.service.ExchangeQuote;
+import com.rynkow.bankingsystem.service.JsonCurrencyExchangeService;
+import org.json.simple.parser.ParseException;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rate lookup on the exchange hot path: flat versioned table against the nested maps kept here as the baseline.
+ * Run with -t to check that concurrent readers do not slow each other down.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExchangeRateBenchmark {
+    private static final BigDecimal AMOUNT = new BigDecimal("123.45");
+
+    private JsonCurrencyExchangeService exchangeService;
+    private Map<Currency, Map<Currency, BigDecimal>> nestedRates;
+
+    @Setup(Level.Trial)
+    public void loadRates() throws IOException, ParseException {
+        exchangeService = JsonCurrencyExchangeService.getInstance();
+        nestedRates = new HashMap<>();
+        for (Currency baseCurrency : Currency.values()) {
+            nestedRates.put(baseCurrency, new HashMap<>());
+            for (Currency targetCurrency : Currency.values())
+                if (baseCurrency != targetCurrency)
+                    nestedRates.get(baseCurrency).put(targetCurrency, exchangeService.exchange(baseCurrency, targetCurrency, BigDecimal.ONE));
+        }
+    }
+
+    @Benchmark
+    public ExchangeQuote flatTable() {
+        return exchangeService.quote(Currency.PLN, Currency.EUR, AMOUNT);
+    }
+
+    @Benchmark
+    public BigDecimal nestedMapsBaseline() {
+        return AMOUNT.multiply(nestedRates.get(Currency.PLN).get(Currency.EUR));
+    }
+}
@@ -0,0 +1,104 @@
+package com.rynkow.bankingsystem.benchmark;
+
+import com.rynkow.bankingsystem.model.Currency;
+import com.rynkow.bankingsystem.model.HeapTransactionHistory;
+import com.rynkow.bankingsystem.model.Money;
+import com.rynkow.bankingsystem.model.OffHeapTransactionHistory;
+import com.rynkow.bankingsystem.model.Transaction;
+import com.rynkow.bankingsystem.model.TransactionHistory;
+import com.rynkow.bankingsystem.model.TransactionType;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Bytes per transaction and GC cost of keeping a large history, for one history implementation per JVM run:
+ * <pre>
+ * java -Xmx3g -cp target/benchmarks.jar com.rynkow.bankingsystem.benchmark.HistoryFootprint heap|off-heap [transactions] [accounts]
+ * </pre>
+ * Many accounts with few transactions each, e.g. "off-heap 1000000 200000", show the fixed cost of a history.
+ * After filling the histories it measures the full GC pause and the GC time spent while allocating short-lived garbage,
+ * which for the heap implementation includes tracing the retained history.
+ */
+public class HistoryFootprint {
+    private static final int GARBAGE_ROUNDS = 200;
+
+    public static void main(String[] args) {
+        Supplier<TransactionHistory> implementation = args.length > 0 && args[0].equals("off-heap") ? OffHeapTransactionHistory::new : HeapTransactionHistory::new;
+        int transactions = args.length > 1 ? Integer.parseInt(args[1]) : 5_000_000;
+        int accounts = args.length > 2 ? Integer.parseInt(args[2]) : 1_000;
+
+        long heapBefore = usedHeapAfterGc();
+        long directBefore = usedDirectMemory();
+        List<TransactionHistory> histories = new ArrayList<>(accounts);
+        for (int i = 0; i < accounts; i++)
+            histories.add(implementation.get());
+        long timestamp = System.currentTimeMillis();
+        for (int i = 0; i < transactions; i++) {
+            long balance = 1_000_000 + i;
+            histories.get(i % accounts).add(new Transaction(TransactionType.values()[i % TransactionType.values().length], Currency.PLN,
+                    Money.toBigDecimal(balance), Money.toBigDecimal(i % 2 == 0 ? 12_3400 : -12_3400), new Date(timestamp + i / accounts)));
+        }
+        long heap = usedHeapAfterGc() - heapBefore;
+        long direct = usedDirectMemory() - directBefore;
+
+        long fullGcStart = System.nanoTime();
+        System.gc();
+        long fullGcMillis = (System.nanoTime() - fullGcStart) / 1_000_000;
+
+        long collectionsBefore = collectionCount();
+        long collectionMillisBefore = collectionMillis();
+        long garbageStart = System.nanoTime();
+        long checksum = 0;
+        for (int round = 0; round < GARBAGE_ROUNDS; round++) {
+            // about 50 MB of short-lived objects per round
+            Object[] garbage = new Object[1 << 16];
+            for (int i = 0; i < garbage.length; i++)
+                garbage[i] = new byte[768];
+            checksum += garbage.length;
+        }
+        long garbageMillis = (System.nanoTime() - garbageStart) / 1_000_000;
+
+        System.out.printf("%s: %,d transactions in %,d accounts%n", args.length > 0 ? args[0] : "heap", transactions, accounts);
+        System.out.printf("heap bytes per transaction:   %.1f%n", (double) heap / transactions);
+        System.out.printf("direct bytes per transaction: %.1f%n", (double) direct / transactions);
+        System.out.printf("heap + direct bytes per account: %.1f%n", (double) (heap + direct) / accounts);
+        System.out.printf("full GC pause: %d ms%n", fullGcMillis);
+        System.out.printf("allocating %d MB of garbage: %d ms, %d collections, %d ms in GC%n", checksum * 768 >> 20, garbageMillis,
+                collectionCount() - collectionsBefore, collectionMillis() - collectionMillisBefore);
+        // keep the histories reachable until here
+        System.out.println(histories.get(accounts - 1).size() > 0 ? "" : "empty");
+    }
+
+    private static long usedHeapAfterGc() {
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static long usedDirectMemory() {
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class))
+            if (pool.getName().equals("direct"))
+                return pool.getMemoryUsed();
+        return 0;
+    }
+
+    private static long collectionCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans())
+            count += collector.getCollectionCount();
+        return count;
+    }
+
+    private static long collectionMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans())
+            millis += collector.getCollectionTime();
+        return millis;
+    }
+}
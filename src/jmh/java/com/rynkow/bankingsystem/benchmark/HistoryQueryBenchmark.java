@@ -0,0 +1,91 @@
+package com.rynkow.bankingsystem.benchmark;
+
+import com.rynkow.bankingsystem.BankingSystem;
+import com.rynkow.bankingsystem.model.Account;
+import com.rynkow.bankingsystem.model.Currency;
+import com.rynkow.bankingsystem.model.HistoryOrder;
+import com.rynkow.bankingsystem.model.HistoryPage;
+import com.rynkow.bankingsystem.model.Transaction;
+import com.rynkow.bankingsystem.model.TransactionType;
+import com.rynkow.bankingsystem.repository.HashAccountRepository;
+import com.rynkow.bankingsystem.service.JsonCurrencyExchangeService;
+import org.json.simple.parser.ParseException;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * "Last 7 days" history queries on a user with years of history in every currency,
+ * against the copy, filter and sort implementation kept here as the baseline, plus paged and streamed reads.
+ * Run with -prof gc to compare allocation per query.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HistoryQueryBenchmark {
+    private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    @Param({"1000", "100000"})
+    public int transactionsPerAccount;
+
+    private BankingSystem bankingSystem;
+    private List<Account> accounts;
+    private Date startDate;
+    private Date endDate;
+
+    @Setup(Level.Trial)
+    public void createHistory() throws IOException, ParseException {
+        HashAccountRepository repository = new HashAccountRepository();
+        bankingSystem = new BankingSystem(repository, JsonCurrencyExchangeService.getInstance());
+        bankingSystem.newUser("user");
+        accounts = repository.getAccountsByUserId("user");
+        // spread over three years
+        long step = 3 * 365 * DAY_MILLIS / transactionsPerAccount;
+        for (Account account : accounts)
+            for (int i = 0; i < transactionsPerAccount; i++)
+                account.addTransactionToHistory(new Transaction(i % 2 == 0 ? TransactionType.DEPOSIT : TransactionType.WITHDRAW,
+                        account.getCurrency(), BigDecimal.ZERO, BigDecimal.ONE, new Date(i * step)));
+        endDate = new Date(transactionsPerAccount * step);
+        startDate = new Date(endDate.getTime() - 7 * DAY_MILLIS);
+    }
+
+    @Benchmark
+    public List<Transaction> lastWeekOneCurrency() {
+        return bankingSystem.getAccountHistory("user", Currency.PLN, startDate, endDate, null);
+    }
+
+    @Benchmark
+    public List<Transaction> lastWeekAllCurrencies() {
+        return bankingSystem.getAccountHistory("user", null, startDate, endDate, TransactionType.DEPOSIT);
+    }
+
+    @Benchmark
+    public HistoryPage newestPageAllCurrencies() {
+        return bankingSystem.getAccountHistoryPage("user", null, null, null, null, HistoryOrder.DESCENDING, 50, null);
+    }
+
+    @Benchmark
+    public long streamWholeHistory() {
+        return bankingSystem.streamAccountHistory("user", null, null, null, null, HistoryOrder.ASCENDING).count();
+    }
+
+    @Benchmark
+    public List<Transaction> lastWeekAllCurrenciesBaseline() {
+        List<Transaction> transactions = new ArrayList<>();
+        for (Account account : accounts)
+            transactions.addAll(account.getTransactionHistory());
+        return transactions.stream()
+                .filter(transaction -> !transaction.transactionDate.before(startDate) && !transaction.transactionDate.after(endDate))
+                .filter(transaction -> transaction.type == TransactionType.DEPOSIT)
+                .sorted(Comparator.comparing((Transaction t) -> t.transactionDate)).toList();
+    }
+}
@@ -0,0 +1,79 @@
+package com.rynkow.bankingsystem.benchmark;
+
+import com.rynkow.bankingsystem.BankingSystem;
+import com.rynkow.bankingsystem.model.Currency;
+import com.rynkow.bankingsystem.repository.HashAccountRepository;
+import com.rynkow.bankingsystem.service.JsonCurrencyExchangeService;
+import org.json.simple.parser.ParseException;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Cost of idempotency keys on deposits: without a key, with a new key every call - which at the default 16 MB ceiling
+ * evicts an entry for every one it inserts - and with retried keys answered from the cache.
+ * <pre>
+ * java -jar target/benchmarks.jar IdempotencyBenchmark -t 4 -prof gc
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 3, jvmArgsAppend = "-Xmx2g")
+public class IdempotencyBenchmark {
+    private static final int USERS = 1000;
+    private static final int KEYS = 1 << 20;
+    private static final int RETRIED_KEYS = 1 << 10;
+    private static final BigDecimal AMOUNT = new BigDecimal("0.01");
+
+    @Param({"none", "new", "retried"})
+    public String key;
+
+    private BankingSystem bankingSystem;
+    private String[] userIds;
+    private String[] keys;
+    private final AtomicInteger threads = new AtomicInteger();
+
+    // fresh bank every iteration, so the growing histories do not turn later iterations into a GC benchmark
+    @Setup(Level.Iteration)
+    public void createBank() throws IOException, ParseException {
+        bankingSystem = new BankingSystem(new HashAccountRepository(), JsonCurrencyExchangeService.getInstance());
+        userIds = new String[USERS];
+        for (int i = 0; i < USERS; i++) {
+            userIds[i] = "user" + i;
+            bankingSystem.newUser(userIds[i]);
+        }
+        if (keys == null) {
+            keys = new String[KEYS];
+            for (int i = 0; i < KEYS; i++)
+                keys[i] = "deposit-" + Integer.toHexString(i * 0x9E3779B9);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Caller {
+        int next;
+
+        @Setup(Level.Iteration)
+        public void start(IdempotencyBenchmark benchmark) {
+            // threads take disjoint key ranges
+            next = benchmark.threads.getAndIncrement() * (KEYS / 16);
+        }
+    }
+
+    @Benchmark
+    public void depositFunds(Caller caller) {
+        int i = caller.next++;
+        String userId = userIds[i % USERS];
+        switch (key) {
+            case "new" -> bankingSystem.depositFunds(Currency.PLN, AMOUNT, userId, keys[i & (KEYS - 1)]);
+            case "retried" -> bankingSystem.depositFunds(Currency.PLN, AMOUNT, userIds[(i & (RETRIED_KEYS - 1)) % USERS], keys[i & (RETRIED_KEYS - 1)]);
+            default -> bankingSystem.depositFunds(Currency.PLN, AMOUNT, userId);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.rynkow.bankingsystem.benchmark;
+
+import com.rynkow.bankingsystem.BankingSystem;
+import com.rynkow.bankingsystem.journal.FileJournal;
+import com.rynkow.bankingsystem.journal.JournalMode;
+import com.rynkow.bankingsystem.model.Currency;
+import com.rynkow.bankingsystem.repository.HashAccountRepository;
+import com.rynkow.bankingsystem.service.JsonCurrencyExchangeService;
+import org.json.simple.parser.ParseException;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Durable deposits per second for every journal mode. Run with -t to see group commit batching concurrent writers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class JournalBenchmark {
+    private static final BigDecimal AMOUNT = BigDecimal.ONE;
+
+    @Param({"FSYNC_PER_OP", "GROUP_COMMIT", "ASYNC"})
+    public JournalMode mode;
+
+    @Param({"1000"})
+    public int users;
+
+    private Path directory;
+    private FileJournal journal;
+    private BankingSystem bankingSystem;
+
+    @Setup(Level.Trial)
+    public void openJournal() throws IOException, ParseException {
+        directory = Files.createTempDirectory("journal-benchmark");
+        journal = FileJournal.open(directory, mode);
+        bankingSystem = new BankingSystem(new HashAccountRepository(), JsonCurrencyExchangeService.getInstance(), journal);
+        for (int i = 0; i < users; i++)
+            bankingSystem.newUser("user" + i);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteJournal() throws IOException {
+        journal.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList())
+                Files.delete(file);
+        }
+    }
+
+    @Benchmark
+    public void depositFunds() {
+        bankingSystem.depositFunds(Currency.PLN, AMOUNT, "user" + ThreadLocalRandom.current().nextInt(users));
+    }
+}
@@ -0,0 +1,90 @@
+package com.rynkow.bankingsystem.benchmark;
+
+import com.rynkow.bankingsystem.BankingSystem;
+import com.rynkow.bankingsystem.metrics.LatencyHistogram;
+import com.rynkow.bankingsystem.model.Currency;
+import com.rynkow.bankingsystem.repository.MappedAccountRepository;
+import com.rynkow.bankingsystem.service.JsonCurrencyExchangeService;
+
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.SplittableRandom;
+import java.util.function.IntSupplier;
+
+/**
+ * Fills a MappedAccountRepository with more accounts than fit the heap, reopens it and measures lookup latency and deposits
+ * through BankingSystem, which record history:
+ * <pre>
+ * java -Xmx128m -cp target/benchmarks.jar com.rynkow.bankingsystem.benchmark.MappedRepositoryRunner directory [users] [operations]
+ * </pre>
+ * Defaults: 3000000 users (3 accounts each), 2000000 operations per phase. The directory is filled only when it holds no
+ * accounts yet, so later runs measure opening an existing repository. Lookups pick users uniformly or Zipfian-distributed.
+ */
+public class MappedRepositoryRunner {
+    private static final Currency[] CURRENCIES = Currency.values();
+
+    public static void main(String[] args) throws Exception {
+        Path directory = Paths.get(args[0]);
+        int users = args.length > 1 ? Integer.parseInt(args[1]) : 3_000_000;
+        int operations = args.length > 2 ? Integer.parseInt(args[2]) : 2_000_000;
+
+        if (!Files.exists(directory.resolve("accounts.idx"))) {
+            long start = System.nanoTime();
+            try (MappedAccountRepository repository = MappedAccountRepository.open(directory)) {
+                for (int i = 0; i < users; i++)
+                    for (Currency currency : CURRENCIES)
+                        repository.save(repository.newAccount("user" + i, currency));
+                repository.force();
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("created %d accounts in %.1f s: %.0f accounts/s%n", (long) users * CURRENCIES.length, seconds,
+                    users * CURRENCIES.length / seconds);
+        }
+
+        long openStart = System.nanoTime();
+        try (MappedAccountRepository repository = MappedAccountRepository.open(directory)) {
+            System.out.printf("opened %d accounts in %.1f ms, max heap %d MB%n", repository.getAccounts().size(),
+                    (System.nanoTime() - openStart) / 1e6, Runtime.getRuntime().maxMemory() >> 20);
+
+            SplittableRandom random = new SplittableRandom(1);
+            ZipfianGenerator zipfian = new ZipfianGenerator(users);
+            lookups(repository, "uniform", () -> random.nextInt(users), operations);
+            lookups(repository, "zipfian", zipfian::next, operations);
+            lookups(repository, "uniform", () -> random.nextInt(users), operations);
+
+            BankingSystem bankingSystem = new BankingSystem(repository, JsonCurrencyExchangeService.getInstance());
+            deposits(bankingSystem, "zipfian", zipfian::next, operations);
+            deposits(bankingSystem, "uniform", () -> random.nextInt(users), operations);
+            System.out.printf("used heap %d MB%n", (Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory()) >> 20);
+        }
+    }
+
+    // through BankingSystem, so every deposit also adds to the account's history
+    private static void deposits(BankingSystem bankingSystem, String distribution, IntSupplier users, int operations) {
+        long start = System.nanoTime();
+        for (int i = 0; i < operations; i++)
+            bankingSystem.depositFunds(Currency.PLN, BigDecimal.ONE, "user" + users.getAsInt());
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("deposits (%s): %.0f ops/s%n", distribution, operations / seconds);
+    }
+
+    private static void lookups(MappedAccountRepository repository, String distribution, IntSupplier users, int operations) {
+        LatencyHistogram histogram = new LatencyHistogram();
+        long start = System.nanoTime();
+        for (int i = 0; i < operations; i++) {
+            String userId = "user" + users.getAsInt();
+            Currency currency = CURRENCIES[i % CURRENCIES.length];
+            long lookupStart = System.nanoTime();
+            if (repository.getAccountByUserIdAndCurrency(userId, currency).isEmpty())
+                throw new IllegalStateException("missing " + userId);
+            histogram.record(System.nanoTime() - lookupStart);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        System.out.printf("lookups (%s): %.0f ops/s, mean %.0f ns, p50 %d ns, p99 %d ns, p99.9 %d ns, max %d us%n", distribution,
+                operations / seconds, snapshot.meanNanos(), snapshot.valueAtPercentile(50), snapshot.valueAtPercentile(99),
+                snapshot.valueAtPercentile(99.9), snapshot.maxNanos / 1000);
+    }
+}
@@ -0,0 +1,74 @@
+package com.rynkow.bankingsystem.benchmark;
+
+import com.rynkow.bankingsystem.BankingSystem;
+import com.rynkow.bankingsystem.journal.MutationLog;
+import com.rynkow.bankingsystem.metrics.BankingMetrics;
+import com.rynkow.bankingsystem.model.Currency;
+import com.rynkow.bankingsystem.repository.HashAccountRepository;
+import com.rynkow.bankingsystem.service.JsonCurrencyExchangeService;
+import org.json.simple.parser.ParseException;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the built-in metrics: the same operations with metrics enabled and with BankingMetrics.DISABLED.
+ * <pre>
+ * java -jar target/benchmarks.jar MetricsOverheadBenchmark -t 4
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 3, jvmArgsAppend = "-Xmx2g")
+public class MetricsOverheadBenchmark {
+    private static final int USERS = 1000;
+    private static final BigDecimal INITIAL_FUNDS = BigDecimal.valueOf(1_000_000_000);
+    private static final BigDecimal AMOUNT = new BigDecimal("0.01");
+
+    @Param({"enabled", "disabled"})
+    public String metrics;
+
+    private BankingSystem bankingSystem;
+    private ZipfianGenerator users;
+    private String[] userIds;
+
+    // fresh bank every iteration, so the growing histories do not turn later iterations into a GC benchmark
+    @Setup(Level.Iteration)
+    public void createBank() throws IOException, ParseException {
+        BankingMetrics bankingMetrics = metrics.equals("enabled") ? new BankingMetrics() : BankingMetrics.DISABLED;
+        bankingSystem = new BankingSystem(new HashAccountRepository(), JsonCurrencyExchangeService.getInstance(), MutationLog.NONE, bankingMetrics);
+        userIds = new String[USERS];
+        for (int i = 0; i < USERS; i++) {
+            userIds[i] = "user" + i;
+            bankingSystem.newUser(userIds[i]);
+            for (Currency currency : Currency.values())
+                bankingSystem.depositFunds(currency, INITIAL_FUNDS, userIds[i]);
+        }
+        users = new ZipfianGenerator(USERS);
+    }
+
+    private String nextUser() {
+        return userIds[users.next()];
+    }
+
+    @Benchmark
+    public void sendFunds() {
+        bankingSystem.sendFunds(Currency.PLN, AMOUNT, nextUser(), nextUser());
+    }
+
+    @Benchmark
+    public void depositFunds() {
+        bankingSystem.depositFunds(Currency.EUR, AMOUNT, nextUser());
+    }
+
+    @Benchmark
+    public Map<Currency, BigDecimal> getAccountBalance() {
+        return bankingSystem.getAccountBalance(nextUser());
+    }
+}
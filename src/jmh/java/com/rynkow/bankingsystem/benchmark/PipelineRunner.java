@@ -0,0 +1,106 @@
+package com.rynkow.bankingsystem.benchmark;
+
+import com.rynkow.bankingsystem.BankingOperations;
+import com.rynkow.bankingsystem.BankingSystem;
+import com.rynkow.bankingsystem.journal.Mutation;
+import com.rynkow.bankingsystem.journal.MutationLog;
+import com.rynkow.bankingsystem.metrics.BankingMetrics;
+import com.rynkow.bankingsystem.metrics.LatencyHistogram;
+import com.rynkow.bankingsystem.model.Currency;
+import com.rynkow.bankingsystem.pipeline.PipelinedBankingSystem;
+import com.rynkow.bankingsystem.repository.HashAccountRepository;
+import com.rynkow.bankingsystem.service.JsonCurrencyExchangeService;
+
+import java.math.BigDecimal;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sustained sendFunds throughput of the locked BankingSystem against PipelinedBankingSystem, with transfers between users
+ * chosen uniformly and between a handful of hot users, on a growing number of threads. Both engines journal every transfer,
+ * and the pipelined one replicates it too, to mutation logs whose awaitDurable takes the given time:
+ * <pre>
+ * java -cp target/benchmarks.jar com.rynkow.bankingsystem.benchmark.PipelineRunner [durable wait us] [seconds] [max threads]
+ * </pre>
+ * Defaults: 0 us, 3 seconds per run, up to 16 threads. Prints the throughput and the p99 latency of each run.
+ */
+public class PipelineRunner {
+    private static final int USERS = 10_000;
+    private static final int HOT_USERS = 4;
+    private static final BigDecimal INITIAL_FUNDS = BigDecimal.valueOf(1_000_000_000);
+    private static final BigDecimal AMOUNT = new BigDecimal("0.01");
+
+    public static void main(String[] args) throws Exception {
+        long waitNanos = (args.length > 0 ? Long.parseLong(args[0]) : 0) * 1000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        int maxThreads = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+
+        String[] userIds = new String[USERS];
+        for (int i = 0; i < USERS; i++)
+            userIds[i] = "user" + i;
+
+        for (int users : new int[]{USERS, HOT_USERS}) {
+            for (String engine : new String[]{"locked", "pipelined"}) {
+                for (int threads = 1; threads <= maxThreads; threads *= 4) {
+                    BankingOperations bankingSystem = engine.equals("pipelined")
+                            ? new PipelinedBankingSystem(JsonCurrencyExchangeService.getInstance(), log(waitNanos), log(waitNanos),
+                            PipelinedBankingSystem.DEFAULT_RING_SIZE)
+                            : new BankingSystem(new HashAccountRepository(), JsonCurrencyExchangeService.getInstance(), log(waitNanos),
+                            BankingMetrics.DISABLED);
+                    for (int i = 0; i < users; i++) {
+                        bankingSystem.newUser(userIds[i]);
+                        bankingSystem.depositFunds(Currency.PLN, INITIAL_FUNDS, userIds[i]);
+                    }
+                    run(engine, bankingSystem, userIds, users, threads, seconds);
+                    if (bankingSystem instanceof PipelinedBankingSystem pipelined)
+                        pipelined.close();
+                }
+            }
+        }
+    }
+
+    private static void run(String engine, BankingOperations bankingSystem, String[] userIds, int users, int threads, int seconds)
+            throws InterruptedException {
+        LatencyHistogram latencies = new LatencyHistogram();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long now = System.nanoTime();
+                while (now < deadline) {
+                    bankingSystem.sendFunds(Currency.PLN, AMOUNT, userIds[random.nextInt(users)], userIds[random.nextInt(users)]);
+                    long end = System.nanoTime();
+                    latencies.record(end - now);
+                    now = end;
+                }
+            });
+            workers[t].start();
+        }
+        long start = System.nanoTime();
+        for (Thread worker : workers)
+            worker.join();
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        LatencyHistogram.Snapshot snapshot = latencies.snapshot();
+        System.out.printf("%-9s %5d users %2d threads: %9.0f transfers/s, p99 %8.1f us%n", engine, users, threads,
+                snapshot.count / elapsed, snapshot.valueAtPercentile(99) / 1000.0);
+    }
+
+    private static MutationLog log(long waitNanos) {
+        AtomicLong sequence = new AtomicLong();
+        return new MutationLog() {
+            @Override
+            public long append(Mutation mutation) {
+                return sequence.incrementAndGet();
+            }
+
+            @Override
+            public void awaitDurable(long sequence) {
+                if (waitNanos > 0)
+                    LockSupport.parkNanos(waitNanos);
+            }
+        };
+    }
+}
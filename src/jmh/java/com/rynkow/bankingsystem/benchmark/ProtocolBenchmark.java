@@ -0,0 +1,92 @@
+package com.rynkow.bankingsystem.benchmark;
+
+import com.rynkow.bankingsystem.BankingSystem;
+import com.rynkow.bankingsystem.model.Currency;
+import com.rynkow.bankingsystem.repository.HashAccountRepository;
+import com.rynkow.bankingsystem.server.BankingClient;
+import com.rynkow.bankingsystem.server.BankingServer;
+import com.rynkow.bankingsystem.server.BinaryBankingClient;
+import com.rynkow.bankingsystem.server.BinaryBankingServer;
+import com.rynkow.bankingsystem.server.BinaryResponse;
+import com.rynkow.bankingsystem.service.JsonCurrencyExchangeService;
+import org.json.simple.parser.ParseException;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+
+/**
+ * Deposits over one loopback connection, text protocol against binary protocol, one request per round trip
+ * and PIPELINE_DEPTH requests per round trip. Client and server run in this JVM, so -prof gc shows the allocation of both.
+ * <pre>
+ * java -jar target/benchmarks.jar ProtocolBenchmark -prof gc
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class ProtocolBenchmark {
+    private static final int PIPELINE_DEPTH = 64;
+    private static final String USER = "protocolUser";
+
+    private BankingServer textServer;
+    private BinaryBankingServer binaryServer;
+    private BankingClient textClient;
+    private BinaryBankingClient binaryClient;
+    private final BinaryResponse response = new BinaryResponse();
+
+    @Setup(Level.Iteration)
+    public void startServers() throws IOException, ParseException {
+        BankingSystem bankingSystem = new BankingSystem(new HashAccountRepository(), JsonCurrencyExchangeService.getInstance());
+        bankingSystem.newUser(USER);
+        textServer = new BankingServer(bankingSystem, 0);
+        textServer.start();
+        binaryServer = new BinaryBankingServer(bankingSystem, 0);
+        binaryServer.start();
+        textClient = new BankingClient("localhost", textServer.getPort());
+        textClient.execute("login " + USER);
+        binaryClient = new BinaryBankingClient("localhost", binaryServer.getPort());
+    }
+
+    @TearDown(Level.Iteration)
+    public void stopServers() throws IOException {
+        textClient.close();
+        binaryClient.close();
+        textServer.close();
+        binaryServer.close();
+    }
+
+    @Benchmark
+    public void text() throws IOException {
+        textClient.execute("deposit PLN 0.01");
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PIPELINE_DEPTH)
+    public void textPipelined() throws IOException {
+        for (int i = 0; i < PIPELINE_DEPTH; i++)
+            textClient.send("deposit PLN 0.01");
+        textClient.flush();
+        for (int i = 0; i < PIPELINE_DEPTH; i++)
+            textClient.receive();
+    }
+
+    @Benchmark
+    public BinaryResponse binary() throws IOException {
+        binaryClient.deposit(USER, Currency.PLN, 100);
+        binaryClient.flush();
+        return binaryClient.receive(response);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PIPELINE_DEPTH)
+    public BinaryResponse binaryPipelined() throws IOException {
+        for (int i = 0; i < PIPELINE_DEPTH; i++)
+            binaryClient.deposit(USER, Currency.PLN, 100);
+        binaryClient.flush();
+        for (int i = 0; i < PIPELINE_DEPTH; i++)
+            binaryClient.receive(response);
+        return response;
+    }
+}
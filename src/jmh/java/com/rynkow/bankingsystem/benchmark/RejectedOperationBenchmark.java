@@ -0,0 +1,99 @@
+package com.rynkow.bankingsystem.benchmark;
+
+import com.rynkow.bankingsystem.BankingSystem;
+import com.rynkow.bankingsystem.journal.MutationLog;
+import com.rynkow.bankingsystem.metrics.BankingMetrics;
+import com.rynkow.bankingsystem.model.Currency;
+import com.rynkow.bankingsystem.model.OperationStatus;
+import com.rynkow.bankingsystem.repository.HashAccountRepository;
+import com.rynkow.bankingsystem.service.JsonCurrencyExchangeService;
+import org.json.simple.parser.ParseException;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of rejected operations - overdrafts and transfers to unknown accounts - through the throwing methods,
+ * each rejection creating an exception with its stack trace, and through the try methods returning an OperationStatus.
+ * <pre>
+ * java -jar target/benchmarks.jar RejectedOperationBenchmark -t 4
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class RejectedOperationBenchmark {
+    private static final int USERS = 1000;
+    private static final BigDecimal FUNDS = BigDecimal.TEN;
+    private static final BigDecimal OVERDRAFT = BigDecimal.valueOf(1_000);
+
+    private BankingSystem bankingSystem;
+    private ZipfianGenerator users;
+    private String[] userIds;
+
+    @Setup
+    public void createBank() throws IOException, ParseException {
+        bankingSystem = new BankingSystem(new HashAccountRepository(), JsonCurrencyExchangeService.getInstance(), MutationLog.NONE, new BankingMetrics());
+        userIds = new String[USERS];
+        for (int i = 0; i < USERS; i++) {
+            userIds[i] = "user" + i;
+            bankingSystem.newUser(userIds[i]);
+            bankingSystem.depositFunds(Currency.PLN, FUNDS, userIds[i]);
+        }
+        users = new ZipfianGenerator(USERS);
+    }
+
+    private String nextUser() {
+        return userIds[users.next()];
+    }
+
+    @Benchmark
+    public RuntimeException overdraftThrowing() {
+        try {
+            bankingSystem.withdrawFunds(Currency.PLN, OVERDRAFT, nextUser());
+            return null;
+        } catch (IllegalStateException e) {
+            return e;
+        }
+    }
+
+    @Benchmark
+    public OperationStatus overdraftStatus() {
+        return bankingSystem.tryWithdrawFunds(Currency.PLN, OVERDRAFT, nextUser());
+    }
+
+    @Benchmark
+    public RuntimeException sendOverdraftThrowing() {
+        try {
+            bankingSystem.sendFunds(Currency.PLN, OVERDRAFT, nextUser(), nextUser());
+            return null;
+        } catch (IllegalStateException e) {
+            return e;
+        }
+    }
+
+    @Benchmark
+    public OperationStatus sendOverdraftStatus() {
+        return bankingSystem.trySendFunds(Currency.PLN, OVERDRAFT, nextUser(), nextUser());
+    }
+
+    @Benchmark
+    public RuntimeException unknownAccountThrowing() {
+        try {
+            bankingSystem.sendFunds(Currency.PLN, FUNDS, nextUser(), "unknown");
+            return null;
+        } catch (RuntimeException e) {
+            return e;
+        }
+    }
+
+    @Benchmark
+    public OperationStatus unknownAccountStatus() {
+        return bankingSystem.trySendFunds(Currency.PLN, FUNDS, nextUser(), "unknown");
+    }
+}
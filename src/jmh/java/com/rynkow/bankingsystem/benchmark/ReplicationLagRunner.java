@@ -0,0 +1,138 @@
+package com.rynkow.bankingsystem.benchmark;
+
+import com.rynkow.bankingsystem.BankingSystem;
+import com.rynkow.bankingsystem.journal.MutationLog;
+import com.rynkow.bankingsystem.metrics.LatencyHistogram;
+import com.rynkow.bankingsystem.model.Currency;
+import com.rynkow.bankingsystem.replication.Replica;
+import com.rynkow.bankingsystem.replication.ReplicationPublisher;
+import com.rynkow.bankingsystem.repository.HashAccountRepository;
+import com.rynkow.bankingsystem.service.JsonCurrencyExchangeService;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs a write load on a primary publishing its mutations, with read replicas in separate processes following it over loopback,
+ * each also serving a read load, and prints the primary's throughput and every replica's reads and lag:
+ * <pre>
+ * java -cp target/benchmarks.jar com.rynkow.bankingsystem.benchmark.ReplicationLagRunner [replicas] [writer threads] [seconds] [writes/s]
+ * </pre>
+ * Defaults: 2 replicas, 4 writer threads, 20 seconds, 20000 writes/s (0 for as many as possible). The lag is sampled every millisecond,
+ * the delay is measured per mutation, see Replica. Without a journal a replica falling behind by more than the backlog fails.
+ */
+public class ReplicationLagRunner {
+    private static final int USERS = 10_000;
+    private static final BigDecimal AMOUNT = new BigDecimal("0.01");
+    private static final int READER_THREADS = 2;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("--replica")) {
+            runReplica(args[1], Integer.parseInt(args[2]));
+            return;
+        }
+        int replicas = args.length > 0 ? Integer.parseInt(args[0]) : 2;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        int rate = args.length > 3 ? Integer.parseInt(args[3]) : 20_000;
+        long intervalNanos = rate > 0 ? TimeUnit.SECONDS.toNanos(threads) / rate : 0;
+
+        ReplicationPublisher publisher = new ReplicationPublisher(0);
+        publisher.start();
+        BankingSystem primary = new BankingSystem(new HashAccountRepository(), JsonCurrencyExchangeService.getInstance(), publisher);
+        for (int i = 0; i < USERS; i++) {
+            primary.newUser("user" + i);
+            primary.depositFunds(Currency.PLN, BigDecimal.valueOf(1_000_000), "user" + i);
+        }
+
+        List<Process> processes = new ArrayList<>();
+        for (int i = 0; i < replicas; i++)
+            processes.add(new ProcessBuilder(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java",
+                    "-cp", System.getProperty("java.class.path"), ReplicationLagRunner.class.getName(),
+                    "--replica", "localhost:" + publisher.getPort(), Integer.toString(seconds))
+                    .redirectErrorStream(true).start());
+        while (publisher.getReplicaCount() < replicas)
+            Thread.sleep(10);
+
+        LongAdder writes = new LongAdder();
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> results = new ArrayList<>();
+        for (int t = 0; t < threads; t++)
+            results.add(executor.submit(() -> {
+                SplittableRandom random = new SplittableRandom();
+                long next = System.nanoTime();
+                while (System.nanoTime() < end) {
+                    next += intervalNanos;
+                    long ahead = next - System.nanoTime();
+                    if (ahead > 0)
+                        LockSupport.parkNanos(ahead);
+                    if (random.nextBoolean())
+                        primary.depositFunds(Currency.PLN, AMOUNT, "user" + random.nextInt(USERS));
+                    else
+                        primary.sendFunds(Currency.PLN, AMOUNT, "user" + random.nextInt(USERS), "user" + random.nextInt(USERS));
+                    writes.increment();
+                }
+            }));
+        for (Future<?> result : results)
+            result.get();
+        executor.shutdown();
+        System.out.printf("primary: %d writes/s, last sequence %d%n", writes.sum() / seconds, publisher.getLastSequence());
+        for (Process process : processes) {
+            try (BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+                output.lines().forEach(System.out::println);
+            }
+            process.waitFor();
+        }
+        publisher.close();
+    }
+
+    // follows the primary for the given seconds once it created the users, serving reads, then prints what it measured
+    private static void runReplica(String primaryAddress, int seconds) throws Exception {
+        int separator = primaryAddress.lastIndexOf(':');
+        Replica replica = new Replica(new BankingSystem(new HashAccountRepository(), JsonCurrencyExchangeService.getInstance()), MutationLog.NONE, 0,
+                new InetSocketAddress(primaryAddress.substring(0, separator), Integer.parseInt(primaryAddress.substring(separator + 1))));
+        replica.start();
+        // the primary creates the users before writing
+        while (replica.getAppliedSequence() < 2L * USERS)
+            Thread.sleep(1);
+
+        LongAdder reads = new LongAdder();
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        ExecutorService executor = Executors.newFixedThreadPool(READER_THREADS);
+        for (int t = 0; t < READER_THREADS; t++)
+            executor.submit(() -> {
+                SplittableRandom random = new SplittableRandom();
+                while (System.nanoTime() < end) {
+                    replica.getBankingSystem().getAccountBalance("user" + random.nextInt(USERS));
+                    reads.increment();
+                }
+            });
+        LatencyHistogram lagMillis = new LatencyHistogram();
+        while (System.nanoTime() < end) {
+            Thread.sleep(1);
+            lagMillis.record(replica.getLagMillis());
+        }
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+        LatencyHistogram.Snapshot lag = lagMillis.snapshot();
+        LatencyHistogram.Snapshot delay = replica.getDelay();
+        System.out.printf("replica %d: %d reads/s, applied %d, lag ms p50 %d p99 %d max %d, delay ms p50 %.0f p99 %.0f max %.0f, failure %s%n",
+                ProcessHandle.current().pid(), reads.sum() / seconds, replica.getAppliedSequence(),
+                lag.valueAtPercentile(50), lag.valueAtPercentile(99), lag.maxNanos,
+                delay.valueAtPercentile(50) / 1e6, delay.valueAtPercentile(99) / 1e6, delay.maxNanos / 1e6, replica.getFailure());
+        replica.close();
+    }
+}
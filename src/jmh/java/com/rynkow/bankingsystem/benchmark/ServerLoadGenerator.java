@@ -0,0 +1,110 @@
+package com.rynkow.bankingsystem.benchmark;
+
+import com.rynkow.bankingsystem.BankingSystem;
+import com.rynkow.bankingsystem.metrics.LatencyHistogram;
+import com.rynkow.bankingsystem.repository.HashAccountRepository;
+import com.rynkow.bankingsystem.server.BankingClient;
+import com.rynkow.bankingsystem.server.BankingServer;
+import com.rynkow.bankingsystem.server.VirtualThreads;
+import com.rynkow.bankingsystem.service.JsonCurrencyExchangeService;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Opens many concurrent sessions to a BankingServer, each running a mix of balance, deposit, withdraw and send
+ * commands back to back, then prints throughput and latency percentiles:
+ * <pre>
+ * java -cp target/benchmarks.jar com.rynkow.bankingsystem.benchmark.ServerLoadGenerator [sessions] [seconds] [host:port]
+ * </pre>
+ * Defaults: 1000 sessions, 30 seconds, a server started in this JVM. Against a separate server
+ * (BankingSystemCLI --port 7000) both processes need a file descriptor limit above the number of sessions.
+ */
+public class ServerLoadGenerator {
+    private static final int WARMUP_SECONDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+        BankingServer embeddedServer = null;
+        String host = "localhost";
+        int port;
+        if (args.length > 2) {
+            host = args[2].substring(0, args[2].lastIndexOf(':'));
+            port = Integer.parseInt(args[2].substring(args[2].lastIndexOf(':') + 1));
+        } else {
+            embeddedServer = new BankingServer(new BankingSystem(new HashAccountRepository(), JsonCurrencyExchangeService.getInstance()), 0);
+            embeddedServer.start();
+            port = embeddedServer.getPort();
+        }
+
+        // users of this run, so repeated runs against one server do not collide
+        String run = Long.toString(System.currentTimeMillis(), 36);
+        List<BankingClient> clients = new ArrayList<>(sessions);
+        for (int i = 0; i < sessions; i++) {
+            BankingClient client = new BankingClient(host, port);
+            client.execute("create load-" + run + "-" + i);
+            client.execute("deposit PLN 1000000");
+            clients.add(client);
+        }
+        System.out.printf("%d sessions connected%n", sessions);
+
+        LatencyHistogram latency = new LatencyHistogram();
+        LongAdder operations = new LongAdder();
+        LongAdder failures = new LongAdder();
+        long warmupEnd = System.nanoTime() + WARMUP_SECONDS * 1_000_000_000L;
+        long end = warmupEnd + seconds * 1_000_000_000L;
+        ExecutorService executor = VirtualThreads.newThreadPerTaskExecutor("load-session");
+        List<Future<?>> results = new ArrayList<>(sessions);
+        for (int i = 0; i < sessions; i++) {
+            BankingClient client = clients.get(i);
+            SplittableRandom random = new SplittableRandom(i);
+            results.add(executor.submit(() -> {
+                long now;
+                while ((now = System.nanoTime()) < end) {
+                    String command = nextCommand(random, run, sessions);
+                    try {
+                        client.execute(command);
+                    } catch (RuntimeException e) {
+                        failures.increment();
+                    }
+                    if (now >= warmupEnd) {
+                        latency.record(System.nanoTime() - now);
+                        operations.increment();
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> result : results)
+            result.get();
+        executor.shutdown();
+
+        LatencyHistogram.Snapshot snapshot = latency.snapshot();
+        System.out.printf("%d sessions, %d s: %.0f ops/s, %d failed commands%n", sessions, seconds, operations.sum() / (double) seconds, failures.sum());
+        System.out.printf("latency us: mean %.1f, p50 %.1f, p99 %.1f, p99.9 %.1f, max %.1f%n", snapshot.meanNanos() / 1000,
+                snapshot.valueAtPercentile(50) / 1000.0, snapshot.valueAtPercentile(99) / 1000.0,
+                snapshot.valueAtPercentile(99.9) / 1000.0, snapshot.maxNanos / 1000.0);
+
+        for (BankingClient client : clients)
+            client.close();
+        if (embeddedServer != null)
+            embeddedServer.close();
+    }
+
+    // mostly reads, as in production
+    private static String nextCommand(SplittableRandom random, String run, int sessions) {
+        int choice = random.nextInt(100);
+        if (choice < 60)
+            return "balance";
+        if (choice < 80)
+            return "deposit PLN 1";
+        if (choice < 90)
+            return "withdraw PLN 1";
+        return "send PLN 1 load-" + run + "-" + random.nextInt(sessions);
+    }
+}
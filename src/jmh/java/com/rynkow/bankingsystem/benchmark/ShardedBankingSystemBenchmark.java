@@ -0,0 +1,82 @@
+package com.rynkow.bankingsystem.benchmark;
+
+import com.rynkow.bankingsystem.BankingOperations;
+import com.rynkow.bankingsystem.BankingSystem;
+import com.rynkow.bankingsystem.ShardedBankingSystem;
+import com.rynkow.bankingsystem.model.Currency;
+import com.rynkow.bankingsystem.repository.HashAccountRepository;
+import com.rynkow.bankingsystem.service.JsonCurrencyExchangeService;
+import org.json.simple.parser.ParseException;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Locked BankingSystem against ShardedBankingSystem with one shard per processor, under Zipfian load.
+ * Run with increasing thread counts to see how each scales:
+ * <pre>
+ * for t in 1 2 4 8; do java -jar target/benchmarks.jar ShardedBankingSystemBenchmark -t $t; done
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class ShardedBankingSystemBenchmark {
+    private static final int USERS = 10_000;
+    private static final BigDecimal INITIAL_FUNDS = BigDecimal.valueOf(1_000_000_000);
+    private static final BigDecimal AMOUNT = new BigDecimal("0.01");
+
+    @Param({"locked", "sharded"})
+    public String engine;
+
+    private BankingOperations bankingSystem;
+    private ZipfianGenerator users;
+    private String[] userIds;
+
+    // fresh bank every iteration, so growing histories do not dominate later iterations
+    @Setup(Level.Iteration)
+    public void createBank() throws IOException, ParseException {
+        bankingSystem = engine.equals("sharded")
+                ? new ShardedBankingSystem(JsonCurrencyExchangeService.getInstance())
+                : new BankingSystem(new HashAccountRepository(), JsonCurrencyExchangeService.getInstance());
+        userIds = new String[USERS];
+        for (int i = 0; i < USERS; i++) {
+            userIds[i] = "user" + i;
+            bankingSystem.newUser(userIds[i]);
+            for (Currency currency : Currency.values())
+                bankingSystem.depositFunds(currency, INITIAL_FUNDS, userIds[i]);
+        }
+        users = new ZipfianGenerator(USERS);
+    }
+
+    @TearDown(Level.Iteration)
+    public void closeBank() {
+        if (bankingSystem instanceof ShardedBankingSystem sharded)
+            sharded.close();
+    }
+
+    private String nextUser() {
+        return userIds[users.next()];
+    }
+
+    @Benchmark
+    public void sendFunds() {
+        bankingSystem.sendFunds(Currency.PLN, AMOUNT, nextUser(), nextUser());
+    }
+
+    @Benchmark
+    public void depositFunds() {
+        bankingSystem.depositFunds(Currency.EUR, AMOUNT, nextUser());
+    }
+
+    @Benchmark
+    public Map<Currency, BigDecimal> getAccountBalance() {
+        return bankingSystem.getAccountBalance(nextUser());
+    }
+}
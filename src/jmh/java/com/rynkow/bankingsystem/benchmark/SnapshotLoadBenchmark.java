@@ -0,0 +1,96 @@
+package com.rynkow.bankingsystem.benchmark;
+
+import com.rynkow.bankingsystem.BankingSystem;
+import com.rynkow.bankingsystem.journal.Checkpointer;
+import com.rynkow.bankingsystem.journal.FileJournal;
+import com.rynkow.bankingsystem.journal.JournalMode;
+import com.rynkow.bankingsystem.model.Currency;
+import com.rynkow.bankingsystem.repository.HashAccountRepository;
+import com.rynkow.bankingsystem.service.JsonCurrencyExchangeService;
+import org.json.simple.parser.ParseException;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Startup time: loading a snapshot versus replaying the full journal of the same state (a new user and some deposits per user).
+ * Run with -p users=1000000 for a bigger bank, the heap has to fit it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = "-Xmx3g")
+public class SnapshotLoadBenchmark {
+    private static final BigDecimal AMOUNT = BigDecimal.TEN;
+
+    @Param({"100000"})
+    public int users;
+
+    @Param({"1", "10"})
+    public int depositsPerUser;
+
+    private Path snapshotDirectory;
+    private Path journalDirectory;
+
+    @Setup(Level.Trial)
+    public void writeJournals() throws IOException, ParseException {
+        snapshotDirectory = Files.createTempDirectory("snapshot-benchmark");
+        journalDirectory = Files.createTempDirectory("journal-benchmark");
+        writeActivity(journalDirectory);
+        HashAccountRepository repository = writeActivity(snapshotDirectory);
+        try (FileJournal journal = FileJournal.open(snapshotDirectory, JournalMode.ASYNC)) {
+            new Checkpointer(snapshotDirectory, journal, repository).checkpoint();
+        }
+    }
+
+    private HashAccountRepository writeActivity(Path directory) throws IOException, ParseException {
+        HashAccountRepository repository = new HashAccountRepository();
+        try (FileJournal journal = FileJournal.open(directory, JournalMode.ASYNC)) {
+            BankingSystem bankingSystem = new BankingSystem(repository, JsonCurrencyExchangeService.getInstance(), journal);
+            for (int i = 0; i < users; i++) {
+                bankingSystem.newUser("user" + i);
+                for (int j = 0; j < depositsPerUser; j++)
+                    bankingSystem.depositFunds(Currency.PLN, AMOUNT, "user" + i);
+            }
+        }
+        return repository;
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteJournals() throws IOException {
+        for (Path directory : new Path[]{snapshotDirectory, journalDirectory})
+            try (Stream<Path> files = Files.walk(directory)) {
+                for (Path file : files.sorted(Comparator.reverseOrder()).toList())
+                    Files.delete(file);
+            }
+    }
+
+    @Benchmark
+    public HashAccountRepository loadSnapshot() throws IOException, ParseException {
+        HashAccountRepository repository = new HashAccountRepository();
+        long sequence = Checkpointer.restore(snapshotDirectory, repository);
+        try (FileJournal journal = FileJournal.open(snapshotDirectory, JournalMode.ASYNC)) {
+            BankingSystem bankingSystem = new BankingSystem(repository, JsonCurrencyExchangeService.getInstance(), journal);
+            journal.replay(sequence + 1, bankingSystem::apply);
+        }
+        return repository;
+    }
+
+    @Benchmark
+    public HashAccountRepository replayFullJournal() throws IOException, ParseException {
+        HashAccountRepository repository = new HashAccountRepository();
+        try (FileJournal journal = FileJournal.open(journalDirectory, JournalMode.ASYNC)) {
+            BankingSystem bankingSystem = new BankingSystem(repository, JsonCurrencyExchangeService.getInstance(), journal);
+            journal.replay(bankingSystem::apply);
+        }
+        return repository;
+    }
+}
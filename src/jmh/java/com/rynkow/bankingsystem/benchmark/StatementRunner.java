@@ -0,0 +1,84 @@
+package com.rynkow.bankingsystem.benchmark;
+
+import com.rynkow.bankingsystem.BankingSystem;
+import com.rynkow.bankingsystem.journal.Mutation;
+import com.rynkow.bankingsystem.model.Account;
+import com.rynkow.bankingsystem.model.Currency;
+import com.rynkow.bankingsystem.repository.HashAccountRepository;
+import com.rynkow.bankingsystem.service.JsonCurrencyExchangeService;
+import com.rynkow.bankingsystem.statement.StatementGenerator;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.Comparator;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Generates the statements of a day for many users, each with a few transactions that day, and prints the time taken:
+ * <pre>
+ * java -Xmx8g -cp target/benchmarks.jar com.rynkow.bankingsystem.benchmark.StatementRunner [users] [transactions per user] [threads]
+ * </pre>
+ * Defaults: 1000000 users (3 accounts each), 4 transactions per user, one thread per processor. Statements go to a temporary directory,
+ * deleted afterwards.
+ */
+public class StatementRunner {
+    private static final LocalDate DAY = LocalDate.of(2024, 3, 15);
+    private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    public static void main(String[] args) throws Exception {
+        int users = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int transactions = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        HashAccountRepository repository = new HashAccountRepository();
+        BankingSystem bankingSystem = new BankingSystem(repository, JsonCurrencyExchangeService.getInstance());
+        long dayStart = DAY.atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+        SplittableRandom random = new SplittableRandom(1);
+        long sequence = 1;
+        for (int i = 0; i < users; i++)
+            bankingSystem.apply(Mutation.newUser(dayStart - 1, "user" + i), sequence++);
+        // transactions in time order, spread over the day, between random users
+        long step = DAY_MILLIS / ((long) users * transactions + 1);
+        for (long t = 0; t < (long) users * transactions; t++) {
+            long timestamp = dayStart + t * step;
+            String userId = "user" + random.nextInt(users);
+            Currency currency = Currency.values()[random.nextInt(Currency.values().length)];
+            Mutation mutation = random.nextInt(4) > 0
+                    ? Mutation.deposit(timestamp, userId, currency, 1 + random.nextInt(1_000_000))
+                    : Mutation.send(timestamp, userId, "user" + random.nextInt(users), currency, 1);
+            try {
+                bankingSystem.apply(mutation, sequence++);
+            } catch (IllegalStateException e) {
+                // a send from an empty account
+            }
+        }
+        long accounts = repository.getAccounts().size();
+
+        Path directory = Files.createTempDirectory("statements");
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        long start = System.nanoTime();
+        StatementGenerator.Summary summary = new StatementGenerator(repository, pool).generate(DAY, ZoneOffset.UTC, directory);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long bytes;
+        try (Stream<Path> files = Files.list(directory)) {
+            bytes = files.mapToLong(file -> file.toFile().length()).sum();
+        }
+        System.out.printf("%s, %d accounts in %.1f s with %d threads: %.0f accounts/s, %.0f MB/s%n", summary, accounts, seconds, threads,
+                accounts / seconds, bytes / seconds / (1 << 20));
+        pool.shutdown();
+        deleteRecursively(directory);
+    }
+
+    private static void deleteRecursively(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList())
+                Files.delete(path);
+        }
+    }
+}
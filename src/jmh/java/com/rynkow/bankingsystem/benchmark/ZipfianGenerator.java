@@ -0,0 +1,59 @@
+package com.rynkow.bankingsystem.benchmark;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Skewed choice of items 0..n-1, item of rank k is picked with probability proportional to 1 / k^theta
+ * (Gray et al., "Quickly Generating Billion-Record Synthetic Databases", as used by YCSB).
+ * Ranks are scrambled, so the popular items are spread over the whole range instead of being the first ones created.
+ * Thread safe.
+ */
+public class ZipfianGenerator {
+    public static final double DEFAULT_THETA = 0.99;
+
+    private final int items;
+    private final double theta;
+    private final double alpha;
+    private final double zetaN;
+    private final double eta;
+
+    public ZipfianGenerator(int items) {
+        this(items, DEFAULT_THETA);
+    }
+
+    public ZipfianGenerator(int items, double theta) {
+        this.items = items;
+        this.theta = theta;
+        this.zetaN = zeta(items, theta);
+        this.alpha = 1 / (1 - theta);
+        this.eta = (1 - Math.pow(2.0 / items, 1 - theta)) / (1 - zeta(2, theta) / zetaN);
+    }
+
+    public int next() {
+        return scramble(nextRank());
+    }
+
+    // 0 is the most popular rank
+    public int nextRank() {
+        double u = ThreadLocalRandom.current().nextDouble();
+        double uz = u * zetaN;
+        if (uz < 1)
+            return 0;
+        if (uz < 1 + Math.pow(0.5, theta))
+            return Math.min(1, items - 1);
+        return (int) Math.min(items - 1, (long) (items * Math.pow(eta * u - eta + 1, alpha)));
+    }
+
+    private int scramble(int rank) {
+        // a bijection on 0..items-1 would be nicer, a multiplicative hash is close enough for picking users
+        long hash = (rank + 1) * 0x9E3779B97F4A7C15L;
+        return (int) Long.remainderUnsigned(hash ^ (hash >>> 29), items);
+    }
+
+    private static double zeta(long n, double theta) {
+        double sum = 0;
+        for (long i = 1; i <= n; i++)
+            sum += 1 / Math.pow(i, theta);
+        return sum;
+    }
+}
@@ -0,0 +1,84 @@
+package com.rynkow.bankingsystem;
+
+import com.rynkow.bankingsystem.model.Currency;
+import com.rynkow.bankingsystem.model.OperationStatus;
+import com.rynkow.bankingsystem.model.Transaction;
+import com.rynkow.bankingsystem.model.TransactionType;
+
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The banking operations, as implemented by BankingSystem on a shared repository
+ * and by ShardedBankingSystem on accounts partitioned between single-threaded shards.
+ */
+public interface BankingOperations {
+
+    void newUser(String userId) throws IllegalArgumentException;
+
+    void sendFunds(Currency currency, BigDecimal amount, String senderId, String receiverId) throws RuntimeException;
+
+    void depositFunds(Currency currency, BigDecimal amount, String userId) throws RuntimeException;
+
+    void withdrawFunds(Currency currency, BigDecimal amount, String userId) throws RuntimeException;
+
+    void exchangeCurrency(Currency baseCurrency, Currency targetCurrency, BigDecimal amount, String userId) throws RuntimeException;
+
+    /**
+     * Like sendFunds, but a rejected transfer returns its status instead of throwing. Implementations which check transfers
+     * without exceptions override it, by default the status is taken from the exception of sendFunds.
+     */
+    default OperationStatus trySendFunds(Currency currency, BigDecimal amount, String senderId, String receiverId) throws RuntimeException {
+        try {
+            sendFunds(currency, amount, senderId, receiverId);
+            return OperationStatus.APPLIED;
+        } catch (RuntimeException e) {
+            return statusOf(e);
+        }
+    }
+
+    // like depositFunds, returning the status of a rejected deposit instead of throwing, see trySendFunds
+    default OperationStatus tryDepositFunds(Currency currency, BigDecimal amount, String userId) throws RuntimeException {
+        try {
+            depositFunds(currency, amount, userId);
+            return OperationStatus.APPLIED;
+        } catch (RuntimeException e) {
+            return statusOf(e);
+        }
+    }
+
+    // like withdrawFunds, returning the status of a rejected withdrawal instead of throwing, see trySendFunds
+    default OperationStatus tryWithdrawFunds(Currency currency, BigDecimal amount, String userId) throws RuntimeException {
+        try {
+            withdrawFunds(currency, amount, userId);
+            return OperationStatus.APPLIED;
+        } catch (RuntimeException e) {
+            return statusOf(e);
+        }
+    }
+
+    // like exchangeCurrency, returning the status of a rejected exchange instead of throwing, see trySendFunds
+    default OperationStatus tryExchangeCurrency(Currency baseCurrency, Currency targetCurrency, BigDecimal amount, String userId) throws RuntimeException {
+        try {
+            exchangeCurrency(baseCurrency, targetCurrency, amount, userId);
+            return OperationStatus.APPLIED;
+        } catch (RuntimeException e) {
+            return statusOf(e);
+        }
+    }
+
+    // null filters match everything, transactions of different currencies are merged by date
+    List<Transaction> getAccountHistory(String userId, Currency currency, Date startDate, Date endDate, TransactionType transactionType) throws RuntimeException;
+
+    Map<Currency, BigDecimal> getAccountBalance(String userId) throws RuntimeException;
+
+    // malformed arguments, e.g. amounts with too many decimal places, still throw from the try methods
+    private static OperationStatus statusOf(RuntimeException exception) throws RuntimeException {
+        OperationStatus status = OperationStatus.of(exception);
+        if (status == null || status == OperationStatus.INVALID_AMOUNT)
+            throw exception;
+        return status;
+    }
+}
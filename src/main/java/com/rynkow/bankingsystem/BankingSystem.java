@@ -1,128 +1,926 @@
 package com.rynkow.bankingsystem;
 
+import com.rynkow.bankingsystem.idempotency.IdempotencyCache;
+import com.rynkow.bankingsystem.journal.Mutation;
+import com.rynkow.bankingsystem.journal.MutationLog;
+import com.rynkow.bankingsystem.journal.MutationType;
+import com.rynkow.bankingsystem.metrics.BankingMetrics;
+import com.rynkow.bankingsystem.metrics.CurrencyTotals;
+import com.rynkow.bankingsystem.metrics.Operation;
 import com.rynkow.bankingsystem.model.Account;
+import com.rynkow.bankingsystem.model.BatchMode;
 import com.rynkow.bankingsystem.model.Currency;
+import com.rynkow.bankingsystem.model.HistoryOrder;
+import com.rynkow.bankingsystem.model.HistoryPage;
+import com.rynkow.bankingsystem.model.Money;
+import com.rynkow.bankingsystem.model.OperationStatus;
 import com.rynkow.bankingsystem.model.Transaction;
 import com.rynkow.bankingsystem.model.TransactionType;
+import com.rynkow.bankingsystem.model.TransferInstruction;
 import com.rynkow.bankingsystem.repository.AccountRepository;
 import com.rynkow.bankingsystem.service.CurrencyExchangeService;
+import com.rynkow.bankingsystem.service.ExchangeQuote;
 
 import java.math.BigDecimal;
 import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Thread safe as long as the repository is - operations on different accounts run in parallel,
+ * operations on the same account are serialized by the account lock.
+ */
+public class BankingSystem implements BankingOperations {
+    // global lock order - operations locking several accounts always lock them in the same order, so they cannot deadlock
+    private static final Comparator<Account> LOCK_ORDER = Comparator.comparingLong(Account::getLockOrder);
+    private static final int BATCH_CHUNK_SIZE = 1024;
+    private static final int MAX_USER_ID_LENGTH = 256;
+    private static final int HISTORY_STREAM_PAGE_SIZE = 256;
 
-public class BankingSystem {
     private final AccountRepository accountRepository;
     private final CurrencyExchangeService exchangeService;
+    private final MutationLog mutationLog;
+    private final BankingMetrics metrics;
+    private final IdempotencyCache idempotencyCache;
+    private final CurrencyTotals totals = new CurrencyTotals();
+    // creating accounts takes the read lock, checkTotals the write lock, so no account appears while it checks
+    private final ReentrantReadWriteLock accountCreationLock = new ReentrantReadWriteLock();
+    private final Object newUserLock = new Object();
+    // a replica applies the primary's mutations and serves reads only, until it is promoted
+    private volatile boolean readOnly;
 
     public BankingSystem(AccountRepository accountRepository, CurrencyExchangeService exchangeService) {
+        this(accountRepository, exchangeService, MutationLog.NONE);
+    }
+
+    /**
+     * @param mutationLog log every successful mutation is appended to, e.g. a FileJournal.
+     *                    Operations return once their mutation is durable according to the log.
+     */
+    public BankingSystem(AccountRepository accountRepository, CurrencyExchangeService exchangeService, MutationLog mutationLog) {
+        this(accountRepository, exchangeService, mutationLog, new BankingMetrics());
+    }
+
+    /**
+     * @param metrics where calls, latencies, failures and lock waits of the public operations are recorded,
+     *                BankingMetrics.DISABLED to record nothing
+     */
+    public BankingSystem(AccountRepository accountRepository, CurrencyExchangeService exchangeService, MutationLog mutationLog, BankingMetrics metrics) {
+        this(accountRepository, exchangeService, mutationLog, metrics, new IdempotencyCache());
+    }
+
+    /**
+     * @param idempotencyCache where the outcomes of operations called with an idempotency key are kept
+     */
+    public BankingSystem(AccountRepository accountRepository, CurrencyExchangeService exchangeService, MutationLog mutationLog, BankingMetrics metrics,
+                         IdempotencyCache idempotencyCache) {
         this.accountRepository = accountRepository;
         this.exchangeService = exchangeService;
+        this.mutationLog = mutationLog;
+        this.metrics = metrics;
+        this.idempotencyCache = idempotencyCache;
+        // accounts already in the repository, e.g. restored from a snapshot
+        for (Account account : accountRepository.getAccounts())
+            totals.addAccount(account.getCurrency(), account.getBalanceUnits());
+    }
+
+    public BankingMetrics getMetrics() {
+        return metrics;
+    }
+
+    public IdempotencyCache getIdempotencyCache() {
+        return idempotencyCache;
+    }
+
+    /**
+     * Balance, number of accounts and today's flows per currency, kept up to date by every operation, see CurrencyTotals.
+     * Accounts saved to the repository other than through this BankingSystem after it was created are not counted.
+     */
+    public CurrencyTotals.Snapshot getTotals() {
+        return totals.snapshot();
+    }
+
+    /**
+     * Checks that the totals equal what the accounts hold: per currency, every account of the currency is locked,
+     * so operations on them wait meanwhile, and the sum of their balances is compared with the totals.
+     *
+     * @return the totals at the time of the check
+     * @throws IllegalStateException if they differ
+     */
+    public CurrencyTotals.Snapshot checkTotals() throws IllegalStateException {
+        StringBuilder differences = new StringBuilder();
+        CurrencyTotals.Snapshot snapshot = null;
+        for (Currency currency : Currency.values()) {
+            accountCreationLock.writeLock().lock();
+            try {
+                List<Account> accounts = new ArrayList<>(accountRepository.getAccountsByCurrency(currency));
+                accounts.sort(LOCK_ORDER);
+                for (Account account : accounts)
+                    lock(account);
+                try {
+                    long balance = 0;
+                    for (Account account : accounts)
+                        balance += account.getBalanceUnits();
+                    snapshot = totals.snapshot();
+                    if (snapshot.getBalanceUnits(currency) != balance || snapshot.getAccounts(currency) != accounts.size())
+                        differences.append(String.format("%s totals %s in %d accounts, accounts hold %s in %d; ", currency, snapshot.getBalance(currency).toPlainString(),
+                                snapshot.getAccounts(currency), Money.toBigDecimal(balance).toPlainString(), accounts.size()));
+                } finally {
+                    for (Account account : accounts)
+                        account.getLock().unlock();
+                }
+            } finally {
+                accountCreationLock.writeLock().unlock();
+            }
+        }
+        if (differences.length() > 0)
+            throw new IllegalStateException("totals differ from accounts: " + differences);
+        return snapshot;
+    }
+
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    // a read-only BankingSystem rejects every operation changing accounts, apply still changes them
+    public void setReadOnly(boolean readOnly) {
+        this.readOnly = readOnly;
+    }
+
+    private void checkWritable() throws IllegalStateException {
+        if (readOnly)
+            throw OperationStatus.READ_ONLY.toException();
     }
 
+    @Override
     public void sendFunds(Currency currency, BigDecimal amount, String senderId, String receiverId) throws RuntimeException {
-        Account senderAccount = accountRepository.getAccountByUserIdAndCurrency(senderId, currency)
-                .orElseThrow(() -> new RuntimeException("sender account not found"));
-        Account receiverAccount = accountRepository.getAccountByUserIdAndCurrency(receiverId, currency)
-                .orElseThrow(() -> new RuntimeException("receiver account not found"));
+        sendFunds(currency, amount, senderId, receiverId, null);
+    }
+
+    /**
+     * Like sendFunds, but a repeated call with the same idempotency key - e.g. a client retrying after a timeout -
+     * returns the outcome of the first call instead of transferring again, see IdempotencyCache.
+     *
+     * @param idempotencyKey null to always transfer
+     */
+    public void sendFunds(Currency currency, BigDecimal amount, String senderId, String receiverId, String idempotencyKey) throws RuntimeException {
+        if (idempotencyKey == null) {
+            throwIfFailed(trySendFunds(currency, amount, senderId, receiverId));
+            return;
+        }
+        long start = metrics.startCall(Operation.SEND_FUNDS);
+        OperationStatus status;
+        try {
+            checkWritable();
+            // the status is the outcome kept for retries, a rejected operation is rejected again without an exception to keep
+            status = idempotencyCache.execute(idempotencyKey, Operation.SEND_FUNDS, IdempotencyCache.fingerprint(currency, amount, senderId, receiverId), () -> doSendFunds(currency, amount, senderId, receiverId));
+        } catch (RuntimeException e) {
+            metrics.recordFailure(Operation.SEND_FUNDS, start, e);
+            throw e;
+        }
+        recordStatus(Operation.SEND_FUNDS, start, status);
+        throwIfFailed(status);
+    }
+
+    /**
+     * Like sendFunds, but a rejected transfer - unknown account, amount not positive, insufficient balance - returns its status
+     * instead of throwing, so it costs no exception. Malformed arguments, e.g. amounts with too many decimal places, still throw.
+     */
+    @Override
+    public OperationStatus trySendFunds(Currency currency, BigDecimal amount, String senderId, String receiverId) throws IllegalArgumentException {
+        long start = metrics.startCall(Operation.SEND_FUNDS);
+        OperationStatus status;
+        try {
+            status = doSendFunds(currency, amount, senderId, receiverId);
+        } catch (RuntimeException e) {
+            metrics.recordFailure(Operation.SEND_FUNDS, start, e);
+            throw e;
+        }
+        recordStatus(Operation.SEND_FUNDS, start, status);
+        return status;
+    }
+
+    private OperationStatus doSendFunds(Currency currency, BigDecimal amount, String senderId, String receiverId) throws IllegalArgumentException {
+        if (readOnly)
+            return OperationStatus.READ_ONLY;
+        Account senderAccount = accountRepository.getAccountByUserIdAndCurrency(senderId, currency).orElse(null);
+        if (senderAccount == null)
+            return OperationStatus.SENDER_NOT_FOUND;
+        Account receiverAccount = accountRepository.getAccountByUserIdAndCurrency(receiverId, currency).orElse(null);
+        if (receiverAccount == null)
+            return OperationStatus.RECEIVER_NOT_FOUND;
+
+        long units = Money.toUnits(amount);
+        if (units < 1)
+            return OperationStatus.INVALID_WITHDRAW_AMOUNT;
+
+        long sequence;
+        lockInOrder(senderAccount, receiverAccount);
+        try {
+            OperationStatus status = checkDebit(senderAccount, units);
+            if (status == OperationStatus.APPLIED && receiverAccount != senderAccount)
+                status = checkCredit(receiverAccount, units);
+            if (status != OperationStatus.APPLIED)
+                return status;
+
+            // logged before it is applied, so a failed append leaves the accounts as they were
+            long timestamp = System.currentTimeMillis();
+            sequence = mutationLog.append(Mutation.send(timestamp, senderId, receiverId, currency, units));
+            transfer(senderAccount, receiverAccount, units, timestamp);
+            senderAccount.setLastSequence(sequence);
+            receiverAccount.setLastSequence(sequence);
+        } finally {
+            unlock(senderAccount, receiverAccount);
+        }
+        mutationLog.awaitDurable(sequence);
+        return OperationStatus.APPLIED;
+    }
+
+    /**
+     * Applies many transfers in one call, waiting for the mutation log once per chunk of transfers instead of once per transfer.
+     * A best effort transfer locks its two accounts like sendFunds, an all-or-nothing batch locks all of its accounts at once.
+     *
+     * @return status of every transfer, in the order of the instructions
+     */
+    public List<OperationStatus> sendFundsBatch(List<TransferInstruction> transfers, BatchMode mode) {
+        return sendFundsBatch(transfers, mode, null);
+    }
+
+    /**
+     * Like sendFundsBatch, but a repeated call with the same idempotency key - e.g. a client retrying after a timeout -
+     * returns the outcome of the first call instead of transferring again, see IdempotencyCache.
+     *
+     * @param idempotencyKey null to always transfer
+     */
+    public List<OperationStatus> sendFundsBatch(List<TransferInstruction> transfers, BatchMode mode, String idempotencyKey) {
+        long start = metrics.startCall(Operation.SEND_FUNDS_BATCH);
+        List<OperationStatus> result;
+        try {
+            if (idempotencyKey == null) {
+                result = doSendFundsBatch(transfers, mode);
+            } else {
+                checkWritable();
+                result = idempotencyCache.execute(idempotencyKey, Operation.SEND_FUNDS_BATCH, IdempotencyCache.fingerprint(transfers, mode), () -> Collections.unmodifiableList(doSendFundsBatch(transfers, mode)));
+            }
+        } catch (RuntimeException e) {
+            metrics.recordFailure(Operation.SEND_FUNDS_BATCH, start, e);
+            throw e;
+        }
+        metrics.recordSuccess(Operation.SEND_FUNDS_BATCH, start);
+        return result;
+    }
 
-        Transaction sendTransaction = new Transaction(TransactionType.SEND, currency, senderAccount.getBalance(), amount.negate());
-        Transaction receiveTransaction = new Transaction(TransactionType.RECEIVE, currency, receiverAccount.getBalance(), amount);
+    private List<OperationStatus> doSendFundsBatch(List<TransferInstruction> transfers, BatchMode mode) {
+        checkWritable();
+        OperationStatus[] results = new OperationStatus[transfers.size()];
+        Account[] senders = new Account[transfers.size()];
+        Account[] receivers = new Account[transfers.size()];
+        long[] units = new long[transfers.size()];
+        resolveTransfers(transfers, senders, receivers, units, results);
+        if (mode == BatchMode.ALL_OR_NOTHING)
+            mutationLog.awaitDurable(applyAllOrNothing(transfers, senders, receivers, units, results));
+        else
+            // bounded chunks, so the log does not buffer a huge batch before its first wait
+            for (int from = 0; from < transfers.size(); from += BATCH_CHUNK_SIZE)
+                mutationLog.awaitDurable(applyBestEffort(transfers, from, Math.min(from + BATCH_CHUNK_SIZE, transfers.size()), senders, receivers, units, results));
 
-        senderAccount.withdraw(amount);
-        receiverAccount.deposit(amount);
+        return Arrays.asList(results);
+    }
+
+    // the repository is a hash index already, only the accounts of the previous transfer are reused - a payroll file has one sender
+    private void resolveTransfers(List<TransferInstruction> transfers, Account[] senders, Account[] receivers, long[] units, OperationStatus[] results) {
+        TransferInstruction previous = null;
+        for (int i = 0; i < transfers.size(); i++) {
+            TransferInstruction transfer = transfers.get(i);
+            boolean sameCurrency = previous != null && previous.currency == transfer.currency;
+            senders[i] = sameCurrency && previous.senderId.equals(transfer.senderId)
+                    ? senders[i - 1] : accountRepository.getAccountByUserIdAndCurrency(transfer.senderId, transfer.currency).orElse(null);
+            receivers[i] = sameCurrency && previous.receiverId.equals(transfer.receiverId)
+                    ? receivers[i - 1] : accountRepository.getAccountByUserIdAndCurrency(transfer.receiverId, transfer.currency).orElse(null);
+            previous = transfer;
+            if (senders[i] == null) {
+                results[i] = OperationStatus.SENDER_NOT_FOUND;
+                continue;
+            }
+            if (receivers[i] == null) {
+                results[i] = OperationStatus.RECEIVER_NOT_FOUND;
+                continue;
+            }
+            try {
+                units[i] = Money.toUnits(transfer.amount);
+            } catch (IllegalArgumentException e) {
+                results[i] = OperationStatus.INVALID_AMOUNT;
+                continue;
+            }
+            if (units[i] < 1)
+                results[i] = OperationStatus.INVALID_WITHDRAW_AMOUNT;
+        }
+    }
+
+    // returns the mutation log sequence of the last applied transfer
+    private long applyBestEffort(List<TransferInstruction> transfers, int from, int to, Account[] senders, Account[] receivers, long[] units,
+                                 OperationStatus[] results) {
+        long sequence = 0;
+        for (int i = from; i < to; i++) {
+            if (results[i] != null)
+                continue;
+            lockInOrder(senders[i], receivers[i]);
+            try {
+                // checked up front, a failed transfer should not cost an exception nor leave a debit without its credit
+                results[i] = checkTransfer(senders[i], receivers[i], units[i]);
+                if (results[i] == OperationStatus.APPLIED)
+                    sequence = applyTransfer(transfers.get(i), senders[i], receivers[i], units[i], System.currentTimeMillis());
+            } finally {
+                unlock(senders[i], receivers[i]);
+            }
+        }
+        return sequence;
+    }
+
+    // returns the mutation log sequence of the last applied transfer
+    private long applyAllOrNothing(List<TransferInstruction> transfers, Account[] senders, Account[] receivers, long[] units, OperationStatus[] results) {
+        Account[] involved = new Account[2 * transfers.size()];
+        int involvedCount = 0;
+        for (int i = 0; i < transfers.size(); i++) {
+            if (results[i] != null)
+                continue;
+            involved[involvedCount++] = senders[i];
+            involved[involvedCount++] = receivers[i];
+        }
+
+        // sorted, so repeated accounts are adjacent and locked only once
+        Arrays.sort(involved, 0, involvedCount, LOCK_ORDER);
+        for (int i = 0; i < involvedCount; i++)
+            if (i == 0 || involved[i] != involved[i - 1])
+                lock(involved[i]);
+        long sequence = 0;
+        try {
+            if (!validateTransfers(senders, receivers, units, results)) {
+                for (int i = 0; i < results.length; i++)
+                    if (results[i] == null)
+                        results[i] = OperationStatus.NOT_APPLIED;
+                return sequence;
+            }
+
+            long timestamp = System.currentTimeMillis();
+            for (int i = 0; i < results.length; i++) {
+                sequence = applyTransfer(transfers.get(i), senders[i], receivers[i], units[i], timestamp);
+                results[i] = OperationStatus.APPLIED;
+            }
+        } finally {
+            for (int i = 0; i < involvedCount; i++)
+                if (i == 0 || involved[i] != involved[i - 1])
+                    involved[i].getLock().unlock();
+        }
+        return sequence;
+    }
+
+    // called with both accounts locked
+    private static OperationStatus checkTransfer(Account sender, Account receiver, long units) {
+        OperationStatus status = checkDebit(sender, units);
+        if (status == OperationStatus.APPLIED && receiver != sender)
+            status = checkCredit(receiver, units);
+        return status;
+    }
 
-        senderAccount.addTransactionToHistory(sendTransaction);
-        receiverAccount.addTransactionToHistory(receiveTransaction);
+    // called with both accounts locked and the transfer checked, returns its mutation log sequence
+    private long applyTransfer(TransferInstruction transfer, Account sender, Account receiver, long units, long timestamp) {
+        long sequence = mutationLog.append(Mutation.send(timestamp, transfer.senderId, transfer.receiverId, transfer.currency, units));
+        transfer(sender, receiver, units, timestamp);
+        sender.setLastSequence(sequence);
+        receiver.setLastSequence(sequence);
+        return sequence;
     }
 
+    // dry run of an all-or-nothing batch on projected balances, called with all involved accounts locked
+    private static boolean validateTransfers(Account[] senders, Account[] receivers, long[] units, OperationStatus[] results) {
+        boolean valid = true;
+        Map<Account, Long> balances = new IdentityHashMap<>();
+        for (int i = 0; i < units.length; i++) {
+            if (results[i] != null) {
+                valid = false;
+                continue;
+            }
+            // a transfer to the sender's own account changes no balance
+            if (receivers[i] == senders[i]) {
+                if (balances.getOrDefault(senders[i], senders[i].getBalanceUnits()) < units[i]) {
+                    results[i] = OperationStatus.INSUFFICIENT_FUNDS;
+                    valid = false;
+                }
+                continue;
+            }
+            long senderBalance = balances.getOrDefault(senders[i], senders[i].getBalanceUnits());
+            if (senderBalance < units[i]) {
+                results[i] = OperationStatus.INSUFFICIENT_FUNDS;
+                valid = false;
+                continue;
+            }
+            long receiverBalance = balances.getOrDefault(receivers[i], receivers[i].getBalanceUnits());
+            if (receiverBalance > Long.MAX_VALUE - units[i]) {
+                results[i] = OperationStatus.BALANCE_OVERFLOW;
+                valid = false;
+                continue;
+            }
+            balances.put(senders[i], senderBalance - units[i]);
+            balances.put(receivers[i], receiverBalance + units[i]);
+        }
+        return valid;
+    }
+
+    @Override
     public void depositFunds(Currency currency, BigDecimal amount, String userId) throws RuntimeException {
-        Account account = accountRepository.getAccountByUserIdAndCurrency(userId, currency)
-                .orElseThrow(() -> new RuntimeException("account not found"));
+        depositFunds(currency, amount, userId, null);
+    }
+
+    /**
+     * Like depositFunds, but a repeated call with the same idempotency key - e.g. a client retrying after a timeout -
+     * returns the outcome of the first call instead of depositing again, see IdempotencyCache.
+     *
+     * @param idempotencyKey null to always deposit
+     */
+    public void depositFunds(Currency currency, BigDecimal amount, String userId, String idempotencyKey) throws RuntimeException {
+        if (idempotencyKey == null) {
+            throwIfFailed(tryDepositFunds(currency, amount, userId));
+            return;
+        }
+        long start = metrics.startCall(Operation.DEPOSIT_FUNDS);
+        OperationStatus status;
+        try {
+            checkWritable();
+            status = idempotencyCache.execute(idempotencyKey, Operation.DEPOSIT_FUNDS, IdempotencyCache.fingerprint(currency, amount, userId), () -> doDepositFunds(currency, amount, userId));
+        } catch (RuntimeException e) {
+            metrics.recordFailure(Operation.DEPOSIT_FUNDS, start, e);
+            throw e;
+        }
+        recordStatus(Operation.DEPOSIT_FUNDS, start, status);
+        throwIfFailed(status);
+    }
 
-        Transaction depositTransaction = new Transaction(TransactionType.DEPOSIT, currency, account.getBalance(), amount);
-        account.deposit(amount);
-        account.addTransactionToHistory(depositTransaction);
+    // like depositFunds, returning the status of a rejected deposit instead of throwing, see trySendFunds
+    @Override
+    public OperationStatus tryDepositFunds(Currency currency, BigDecimal amount, String userId) throws IllegalArgumentException {
+        long start = metrics.startCall(Operation.DEPOSIT_FUNDS);
+        OperationStatus status;
+        try {
+            status = doDepositFunds(currency, amount, userId);
+        } catch (RuntimeException e) {
+            metrics.recordFailure(Operation.DEPOSIT_FUNDS, start, e);
+            throw e;
+        }
+        recordStatus(Operation.DEPOSIT_FUNDS, start, status);
+        return status;
     }
 
+    private OperationStatus doDepositFunds(Currency currency, BigDecimal amount, String userId) throws IllegalArgumentException {
+        if (readOnly)
+            return OperationStatus.READ_ONLY;
+        Account account = accountRepository.getAccountByUserIdAndCurrency(userId, currency).orElse(null);
+        if (account == null)
+            return OperationStatus.ACCOUNT_NOT_FOUND;
+
+        long units = Money.toUnits(amount);
+        if (units < 1)
+            return OperationStatus.INVALID_DEPOSIT_AMOUNT;
+
+        long sequence;
+        lock(account);
+        try {
+            OperationStatus status = checkCredit(account, units);
+            if (status != OperationStatus.APPLIED)
+                return status;
+
+            long timestamp = System.currentTimeMillis();
+            sequence = mutationLog.append(Mutation.deposit(timestamp, userId, currency, units));
+            credit(account, TransactionType.DEPOSIT, units, timestamp);
+            totals.record(currency, TransactionType.DEPOSIT, units, timestamp);
+            account.setLastSequence(sequence);
+        } finally {
+            account.getLock().unlock();
+        }
+        mutationLog.awaitDurable(sequence);
+        return OperationStatus.APPLIED;
+    }
+
+    @Override
     public void withdrawFunds(Currency currency, BigDecimal amount, String userId) throws RuntimeException {
-        Account account = accountRepository.getAccountByUserIdAndCurrency(userId, currency)
-                .orElseThrow(() -> new RuntimeException("account not found"));
+        withdrawFunds(currency, amount, userId, null);
+    }
+
+    /**
+     * Like withdrawFunds, but a repeated call with the same idempotency key - e.g. a client retrying after a timeout -
+     * returns the outcome of the first call instead of withdrawing again, see IdempotencyCache.
+     *
+     * @param idempotencyKey null to always withdraw
+     */
+    public void withdrawFunds(Currency currency, BigDecimal amount, String userId, String idempotencyKey) throws RuntimeException {
+        if (idempotencyKey == null) {
+            throwIfFailed(tryWithdrawFunds(currency, amount, userId));
+            return;
+        }
+        long start = metrics.startCall(Operation.WITHDRAW_FUNDS);
+        OperationStatus status;
+        try {
+            checkWritable();
+            status = idempotencyCache.execute(idempotencyKey, Operation.WITHDRAW_FUNDS, IdempotencyCache.fingerprint(currency, amount, userId), () -> doWithdrawFunds(currency, amount, userId));
+        } catch (RuntimeException e) {
+            metrics.recordFailure(Operation.WITHDRAW_FUNDS, start, e);
+            throw e;
+        }
+        recordStatus(Operation.WITHDRAW_FUNDS, start, status);
+        throwIfFailed(status);
+    }
 
-        Transaction withdrawTransaction = new Transaction(TransactionType.WITHDRAW, currency, account.getBalance(), amount.negate());
-        account.withdraw(amount);
-        account.addTransactionToHistory(withdrawTransaction);
+    // like withdrawFunds, returning the status of a rejected withdrawal instead of throwing, see trySendFunds
+    @Override
+    public OperationStatus tryWithdrawFunds(Currency currency, BigDecimal amount, String userId) throws IllegalArgumentException {
+        long start = metrics.startCall(Operation.WITHDRAW_FUNDS);
+        OperationStatus status;
+        try {
+            status = doWithdrawFunds(currency, amount, userId);
+        } catch (RuntimeException e) {
+            metrics.recordFailure(Operation.WITHDRAW_FUNDS, start, e);
+            throw e;
+        }
+        recordStatus(Operation.WITHDRAW_FUNDS, start, status);
+        return status;
     }
 
+    private OperationStatus doWithdrawFunds(Currency currency, BigDecimal amount, String userId) throws IllegalArgumentException {
+        if (readOnly)
+            return OperationStatus.READ_ONLY;
+        Account account = accountRepository.getAccountByUserIdAndCurrency(userId, currency).orElse(null);
+        if (account == null)
+            return OperationStatus.ACCOUNT_NOT_FOUND;
+
+        long units = Money.toUnits(amount);
+        if (units < 1)
+            return OperationStatus.INVALID_WITHDRAW_AMOUNT;
+
+        long sequence;
+        lock(account);
+        try {
+            OperationStatus status = checkDebit(account, units);
+            if (status != OperationStatus.APPLIED)
+                return status;
+
+            long timestamp = System.currentTimeMillis();
+            sequence = mutationLog.append(Mutation.withdraw(timestamp, userId, currency, units));
+            debit(account, TransactionType.WITHDRAW, units, timestamp);
+            totals.record(currency, TransactionType.WITHDRAW, -units, timestamp);
+            account.setLastSequence(sequence);
+        } finally {
+            account.getLock().unlock();
+        }
+        mutationLog.awaitDurable(sequence);
+        return OperationStatus.APPLIED;
+    }
+
+    @Override
     public void exchangeCurrency(Currency baseCurrency, Currency targetCurrency, BigDecimal amount, String userId) throws RuntimeException {
-        Account baseCurrencyAccount = accountRepository.getAccountByUserIdAndCurrency(userId, baseCurrency)
-                .orElseThrow(() -> new RuntimeException("base currency account not found"));
-        Account targetCurrencyAccount = accountRepository.getAccountByUserIdAndCurrency(userId, targetCurrency)
-                .orElseThrow(() -> new RuntimeException("target currency account not found"));
+        exchangeCurrency(baseCurrency, targetCurrency, amount, userId, null);
+    }
 
-        BigDecimal receivedAmount = exchangeService.exchange(baseCurrency, targetCurrency, amount);
+    /**
+     * Like exchangeCurrency, but a repeated call with the same idempotency key - e.g. a client retrying after a timeout -
+     * returns the outcome of the first call instead of exchanging again, see IdempotencyCache.
+     *
+     * @param idempotencyKey null to always exchange
+     */
+    public void exchangeCurrency(Currency baseCurrency, Currency targetCurrency, BigDecimal amount, String userId, String idempotencyKey) throws RuntimeException {
+        if (idempotencyKey == null) {
+            throwIfFailed(tryExchangeCurrency(baseCurrency, targetCurrency, amount, userId));
+            return;
+        }
+        long start = metrics.startCall(Operation.EXCHANGE_CURRENCY);
+        OperationStatus status;
+        try {
+            checkWritable();
+            status = idempotencyCache.execute(idempotencyKey, Operation.EXCHANGE_CURRENCY, IdempotencyCache.fingerprint(baseCurrency, targetCurrency, amount, userId), () -> doExchangeCurrency(baseCurrency, targetCurrency, amount, userId));
+        } catch (RuntimeException e) {
+            metrics.recordFailure(Operation.EXCHANGE_CURRENCY, start, e);
+            throw e;
+        }
+        recordStatus(Operation.EXCHANGE_CURRENCY, start, status);
+        throwIfFailed(status);
+    }
+
+    /**
+     * Like exchangeCurrency, returning the status of a rejected exchange instead of throwing, see trySendFunds.
+     * An exchange between a currency and itself still throws.
+     */
+    @Override
+    public OperationStatus tryExchangeCurrency(Currency baseCurrency, Currency targetCurrency, BigDecimal amount, String userId) throws IllegalArgumentException {
+        long start = metrics.startCall(Operation.EXCHANGE_CURRENCY);
+        OperationStatus status;
+        try {
+            status = doExchangeCurrency(baseCurrency, targetCurrency, amount, userId);
+        } catch (RuntimeException e) {
+            metrics.recordFailure(Operation.EXCHANGE_CURRENCY, start, e);
+            throw e;
+        }
+        recordStatus(Operation.EXCHANGE_CURRENCY, start, status);
+        return status;
+    }
+
+    private OperationStatus doExchangeCurrency(Currency baseCurrency, Currency targetCurrency, BigDecimal amount, String userId) throws IllegalArgumentException {
+        if (readOnly)
+            return OperationStatus.READ_ONLY;
+        Account baseCurrencyAccount = accountRepository.getAccountByUserIdAndCurrency(userId, baseCurrency).orElse(null);
+        if (baseCurrencyAccount == null)
+            return OperationStatus.BASE_ACCOUNT_NOT_FOUND;
+        Account targetCurrencyAccount = accountRepository.getAccountByUserIdAndCurrency(userId, targetCurrency).orElse(null);
+        if (targetCurrencyAccount == null)
+            return OperationStatus.TARGET_ACCOUNT_NOT_FOUND;
 
-        Transaction baseCurrencyExchangeTransaction = new Transaction(TransactionType.EXCHANGE, baseCurrency, baseCurrencyAccount.getBalance(), amount.negate());
-        Transaction targetCurrencyExchangeTransaction = new Transaction(TransactionType.EXCHANGE, targetCurrency, targetCurrencyAccount.getBalance(), receivedAmount);
+        long units = Money.toUnits(amount);
+        ExchangeQuote quote = exchangeService.quote(baseCurrency, targetCurrency, amount);
+        long receivedUnits = Money.roundToUnits(quote.amount);
+        if (units < 1)
+            return OperationStatus.INVALID_WITHDRAW_AMOUNT;
+        if (receivedUnits < 1)
+            return OperationStatus.EXCHANGED_AMOUNT_TOO_SMALL;
 
-        baseCurrencyAccount.withdraw(amount);
-        targetCurrencyAccount.deposit(receivedAmount);
+        long sequence;
+        lockInOrder(baseCurrencyAccount, targetCurrencyAccount);
+        try {
+            // checked up front, so the withdrawal is never left without its deposit
+            OperationStatus status = checkDebit(baseCurrencyAccount, units);
+            if (status == OperationStatus.APPLIED)
+                status = checkCredit(targetCurrencyAccount, receivedUnits);
+            if (status != OperationStatus.APPLIED)
+                return status;
 
-        baseCurrencyAccount.addTransactionToHistory(baseCurrencyExchangeTransaction);
-        targetCurrencyAccount.addTransactionToHistory(targetCurrencyExchangeTransaction);
+            long timestamp = System.currentTimeMillis();
+            sequence = mutationLog.append(Mutation.exchange(timestamp, userId, baseCurrency, targetCurrency, units, receivedUnits, quote.rateVersion));
+            debit(baseCurrencyAccount, TransactionType.EXCHANGE, units, timestamp);
+            credit(targetCurrencyAccount, TransactionType.EXCHANGE, receivedUnits, timestamp);
+            totals.record(baseCurrency, TransactionType.EXCHANGE, -units, targetCurrency, TransactionType.EXCHANGE, receivedUnits, timestamp);
+            baseCurrencyAccount.setLastSequence(sequence);
+            targetCurrencyAccount.setLastSequence(sequence);
+        } finally {
+            unlock(baseCurrencyAccount, targetCurrencyAccount);
+        }
+        mutationLog.awaitDurable(sequence);
+        return OperationStatus.APPLIED;
     }
 
+    @Override
     public List<Transaction> getAccountHistory(String userId, Currency currency, Date startDate, Date endDate, TransactionType transactionType) throws RuntimeException {
-        List<Transaction> transactions = new ArrayList<>();
+        long start = metrics.startCall(Operation.GET_ACCOUNT_HISTORY);
+        List<Transaction> result;
+        try {
+            result = doGetAccountHistory(userId, currency, startDate, endDate, transactionType);
+        } catch (RuntimeException e) {
+            metrics.recordFailure(Operation.GET_ACCOUNT_HISTORY, start, e);
+            throw e;
+        }
+        metrics.recordSuccess(Operation.GET_ACCOUNT_HISTORY, start);
+        return result;
+    }
 
-        // get transaction history
-        // for specific currency
-        if (currency != null)
-            transactions.addAll(
-                    accountRepository.getAccountByUserIdAndCurrency(userId, currency)
-                            .orElseThrow(() -> new RuntimeException("account not found"))
-                            .getTransactionHistory()
-            );
-        // for all currencies
-        else {
-            List<Account> userAccounts = accountRepository.getAccountsByUserId(userId);
-            if (userAccounts.size() == 0) throw new RuntimeException("account not found");
-            for (Account account : userAccounts)
-                transactions.addAll(account.getTransactionHistory());
+    private List<Transaction> doGetAccountHistory(String userId, Currency currency, Date startDate, Date endDate, TransactionType transactionType) throws RuntimeException {
+        List<Account> accounts = getHistoryAccounts(userId, currency);
+        List<List<Transaction>> histories = new ArrayList<>(accounts.size());
+        for (Account account : accounts)
+            histories.add(account.getTransactionHistory(startDate, endDate, transactionType));
+        return Collections.unmodifiableList(mergeByDate(histories, HistoryOrder.ASCENDING, Integer.MAX_VALUE));
+    }
+
+    /**
+     * Reads the history a page at a time, filters work as in getAccountHistory.
+     * Memory used by a call is bounded by the page size times the number of currencies, not by the length of the history.
+     *
+     * @param continuationToken null for the first page, then the token of the previous page, with the other arguments unchanged
+     */
+    public HistoryPage getAccountHistoryPage(String userId, Currency currency, Date startDate, Date endDate, TransactionType transactionType,
+                                             HistoryOrder order, int pageSize, String continuationToken) throws RuntimeException {
+        long start = metrics.startCall(Operation.GET_ACCOUNT_HISTORY_PAGE);
+        HistoryPage result;
+        try {
+            result = doGetAccountHistoryPage(userId, currency, startDate, endDate, transactionType, order, pageSize, continuationToken);
+        } catch (RuntimeException e) {
+            metrics.recordFailure(Operation.GET_ACCOUNT_HISTORY_PAGE, start, e);
+            throw e;
+        }
+        metrics.recordSuccess(Operation.GET_ACCOUNT_HISTORY_PAGE, start);
+        return result;
+    }
+
+    private HistoryPage doGetAccountHistoryPage(String userId, Currency currency, Date startDate, Date endDate, TransactionType transactionType,
+                                             HistoryOrder order, int pageSize, String continuationToken) throws RuntimeException {
+        if (pageSize < 1)
+            throw new IllegalArgumentException("page size not positive");
+
+        List<Account> accounts = getHistoryAccounts(userId, currency);
+        // the token holds the date of the last returned transaction and, per currency, how many with exactly that date were returned
+        int[] skipped = new int[Currency.values().length];
+        if (continuationToken != null) {
+            long cursorTimestamp = parseContinuationToken(continuationToken, skipped);
+            if (order == HistoryOrder.ASCENDING)
+                startDate = new Date(cursorTimestamp);
+            else
+                endDate = new Date(cursorTimestamp);
         }
 
-        // filter and sort results
-        transactions = transactions.stream().filter(transaction -> {
-            // filter by date
-            if (startDate != null && transaction.transactionDate.before(startDate))
-                return false;
-            if (endDate != null && transaction.transactionDate.after(endDate))
-                return false;
+        List<List<Transaction>> histories = new ArrayList<>(accounts.size());
+        int available = 0;
+        for (Account account : accounts) {
+            // one more than the page to know whether there is a next page
+            List<Transaction> history = account.getTransactionHistory(startDate, endDate, transactionType, order,
+                    skipped[account.getCurrency().ordinal()], pageSize + 1);
+            histories.add(history);
+            available += history.size();
+        }
+        List<Transaction> page = mergeByDate(histories, order, pageSize);
+        if (available <= pageSize)
+            return new HistoryPage(Collections.unmodifiableList(page), null);
+
+        long lastTimestamp = page.get(page.size() - 1).transactionDate.getTime();
+        if (continuationToken == null || lastTimestamp != (order == HistoryOrder.ASCENDING ? startDate : endDate).getTime())
+            Arrays.fill(skipped, 0);
+        for (Transaction transaction : page)
+            if (transaction.transactionDate.getTime() == lastTimestamp)
+                skipped[transaction.currency.ordinal()]++;
+        return new HistoryPage(Collections.unmodifiableList(page), continuationToken(lastTimestamp, skipped));
+    }
+
+    /**
+     * Lazily evaluated history, read page by page as the stream is consumed, filters work as in getAccountHistory.
+     * Transactions added while the stream is consumed may or may not be included.
+     */
+    public Stream<Transaction> streamAccountHistory(String userId, Currency currency, Date startDate, Date endDate, TransactionType transactionType,
+                                                    HistoryOrder order) throws RuntimeException {
+        // the first page is read right away, so unknown accounts fail here and not in the terminal operation
+        HistoryPage firstPage = getAccountHistoryPage(userId, currency, startDate, endDate, transactionType, order, HISTORY_STREAM_PAGE_SIZE, null);
+        Iterator<Transaction> iterator = new Iterator<>() {
+            private HistoryPage page = firstPage;
+            private int position;
+
+            @Override
+            public boolean hasNext() {
+                if (position == page.transactions.size() && page.continuationToken != null) {
+                    page = getAccountHistoryPage(userId, currency, startDate, endDate, transactionType, order, HISTORY_STREAM_PAGE_SIZE, page.continuationToken);
+                    position = 0;
+                }
+                return position < page.transactions.size();
+            }
 
-            // filter by type
-            if (transactionType != null && !transaction.type.equals(transactionType))
-                return false;
+            @Override
+            public Transaction next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return page.transactions.get(position++);
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    // the user's accounts in currency order, which is the tie-break order for transactions with equal dates
+    private List<Account> getHistoryAccounts(String userId, Currency currency) throws RuntimeException {
+        if (currency != null)
+            return List.of(accountRepository.getAccountByUserIdAndCurrency(userId, currency)
+                    .orElseThrow(() -> OperationStatus.ACCOUNT_NOT_FOUND.toException()));
 
-            return true;
+        List<Account> userAccounts = new ArrayList<>(accountRepository.getAccountsByUserId(userId));
+        if (userAccounts.size() == 0) throw OperationStatus.ACCOUNT_NOT_FOUND.toException();
+        userAccounts.sort(Comparator.comparing(Account::getCurrency));
+        return userAccounts;
+    }
 
-        }).sorted(Comparator.comparing((Transaction t) -> t.transactionDate)).toList();
+    private static String continuationToken(long timestamp, int[] skipped) {
+        StringBuilder token = new StringBuilder().append(timestamp);
+        for (int count : skipped)
+            token.append(':').append(count);
+        return token.toString();
+    }
 
-        return transactions;
+    // returns the timestamp and fills skipped
+    private static long parseContinuationToken(String continuationToken, int[] skipped) throws IllegalArgumentException {
+        String[] parts = continuationToken.split(":");
+        if (parts.length != skipped.length + 1)
+            throw new IllegalArgumentException("invalid continuation token");
+        try {
+            for (int i = 0; i < skipped.length; i++) {
+                skipped[i] = Integer.parseInt(parts[i + 1]);
+                if (skipped[i] < 0)
+                    throw new IllegalArgumentException("invalid continuation token");
+            }
+            return Long.parseLong(parts[0]);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid continuation token");
+        }
     }
 
+    /**
+     * k-way merge of lists sorted by date in the given order, taking at most limit transactions.
+     * On equal dates earlier lists go first in ascending order and last in descending order, so one order is the reverse of the other.
+     */
+    public static List<Transaction> mergeByDate(List<List<Transaction>> histories, HistoryOrder order, int limit) {
+        int size = 0;
+        for (List<Transaction> history : histories)
+            size += history.size();
+        size = Math.min(size, limit);
+        List<Transaction> merged = new ArrayList<>(size);
+        boolean ascending = order == HistoryOrder.ASCENDING;
+        // k is the number of currencies, a linear scan for the next transaction beats a heap
+        int[] positions = new int[histories.size()];
+        while (merged.size() < size) {
+            int next = -1;
+            long nextTimestamp = 0;
+            for (int i = 0; i < positions.length; i++) {
+                List<Transaction> history = histories.get(i);
+                if (positions[i] < history.size()) {
+                    long timestamp = history.get(positions[i]).transactionDate.getTime();
+                    if (next < 0 || (ascending ? timestamp < nextTimestamp : timestamp >= nextTimestamp)) {
+                        next = i;
+                        nextTimestamp = timestamp;
+                    }
+                }
+            }
+            merged.add(histories.get(next).get(positions[next]++));
+        }
+        return merged;
+    }
+
+    @Override
     public void newUser(String userId) throws IllegalArgumentException {
-        if (accountRepository.getAccountsByUserId(userId).size() > 0)
-            throw new IllegalArgumentException("duplicated userId");
+        newUser(userId, null);
+    }
 
-        for (Currency currency : Currency.values()) {
-            Account newAccount = new Account(userId, currency);
-            accountRepository.save(newAccount);
+    /**
+     * Like newUser, but a repeated call with the same idempotency key - e.g. a client retrying after a timeout -
+     * returns the outcome of the first call instead of creating the user again, see IdempotencyCache.
+     *
+     * @param idempotencyKey null to always create the user
+     */
+    public void newUser(String userId, String idempotencyKey) throws IllegalArgumentException {
+        long start = metrics.startCall(Operation.NEW_USER);
+        try {
+            if (idempotencyKey == null) {
+                doNewUser(userId);
+            } else {
+                checkWritable();
+                idempotencyCache.execute(idempotencyKey, Operation.NEW_USER, IdempotencyCache.fingerprint(userId), () -> {
+                    doNewUser(userId);
+                    return null;
+                });
+            }
+        } catch (RuntimeException e) {
+            metrics.recordFailure(Operation.NEW_USER, start, e);
+            throw e;
         }
+        metrics.recordSuccess(Operation.NEW_USER, start);
     }
 
+    private void doNewUser(String userId) throws IllegalArgumentException {
+        checkWritable();
+        if (userId.length() > MAX_USER_ID_LENGTH)
+            throw new IllegalArgumentException("userId too long");
+
+        // the user is logged before its accounts are saved, so no operation on them can be logged before it, and a failed
+        // append leaves no user behind; creations are serialized, so a duplicate is found before it is logged
+        long sequence;
+        accountCreationLock.readLock().lock();
+        try {
+            synchronized (newUserLock) {
+                if (accountRepository.getAccountsByUserId(userId).size() > 0)
+                    throw OperationStatus.DUPLICATED_USER.toException();
+
+                List<Account> newAccounts = new ArrayList<>();
+                for (Currency currency : Currency.values())
+                    newAccounts.add(accountRepository.newAccount(userId, currency));
+                sequence = mutationLog.append(Mutation.newUser(System.currentTimeMillis(), userId));
+                for (Account account : newAccounts) {
+                    account.setLastSequence(sequence);
+                    accountRepository.save(account);
+                    totals.addAccount(account.getCurrency(), 0);
+                }
+            }
+        } finally {
+            accountCreationLock.readLock().unlock();
+        }
+        mutationLog.awaitDurable(sequence);
+    }
+
+    @Override
     public Map<Currency, BigDecimal> getAccountBalance(String userId) {
+        long start = metrics.startCall(Operation.GET_ACCOUNT_BALANCE);
+        Map<Currency, BigDecimal> result;
+        try {
+            result = doGetAccountBalance(userId);
+        } catch (RuntimeException e) {
+            metrics.recordFailure(Operation.GET_ACCOUNT_BALANCE, start, e);
+            throw e;
+        }
+        metrics.recordSuccess(Operation.GET_ACCOUNT_BALANCE, start);
+        return result;
+    }
+
+    private Map<Currency, BigDecimal> doGetAccountBalance(String userId) {
         List<Account> accounts = accountRepository.getAccountsByUserId(userId);
         if (accounts.size() == 0)
-            throw new RuntimeException("user account not found");
+            throw OperationStatus.USER_NOT_FOUND.toException();
 
         Map<Currency, BigDecimal> balances = new HashMap<>();
         for (Account account : accounts)
@@ -130,4 +928,217 @@ public class BankingSystem {
 
         return balances;
     }
+
+    /**
+     * Debits the sender of a transfer to a user of another node, the first leg of the ClusterNode transfer protocol.
+     * Only the sender's account changes here, the leg is journaled with the transfer id so the node can finish the transfer after a crash.
+     */
+    public void debitTransfer(long transferId, Currency currency, long units, String senderId, String receiverId) throws RuntimeException {
+        checkWritable();
+        Account senderAccount = accountRepository.getAccountByUserIdAndCurrency(senderId, currency)
+                .orElseThrow(() -> OperationStatus.SENDER_NOT_FOUND.toException());
+        applyTransferLeg(MutationType.TRANSFER_OUT, senderAccount, transferId, units, senderId, receiverId);
+    }
+
+    // credits the receiver of a transfer from a user of another node, the caller makes sure a transfer is credited once
+    public void creditTransfer(long transferId, Currency currency, long units, String senderId, String receiverId) throws RuntimeException {
+        checkWritable();
+        Account receiverAccount = accountRepository.getAccountByUserIdAndCurrency(receiverId, currency)
+                .orElseThrow(() -> OperationStatus.RECEIVER_NOT_FOUND.toException());
+        applyTransferLeg(MutationType.TRANSFER_IN, receiverAccount, transferId, units, senderId, receiverId);
+    }
+
+    // returns the amount of a transfer the receiver's node rejected to the sender
+    public void refundTransfer(long transferId, Currency currency, long units, String senderId, String receiverId) throws RuntimeException {
+        checkWritable();
+        Account senderAccount = accountRepository.getAccountByUserIdAndCurrency(senderId, currency)
+                .orElseThrow(() -> OperationStatus.SENDER_NOT_FOUND.toException());
+        applyTransferLeg(MutationType.TRANSFER_REFUND, senderAccount, transferId, units, senderId, receiverId);
+    }
+
+    // journals that the receiver's node credited the transfer, no balance changes
+    public void completeTransfer(long transferId, Currency currency, long units, String senderId, String receiverId) {
+        checkWritable();
+        long sequence = mutationLog.append(Mutation.transferLeg(MutationType.TRANSFER_COMPLETE, System.currentTimeMillis(), transferId, senderId, receiverId, currency, units));
+        mutationLog.awaitDurable(sequence);
+    }
+
+    private void applyTransferLeg(MutationType type, Account account, long transferId, long units, String senderId, String receiverId) {
+        long sequence;
+        lock(account);
+        try {
+            // checked before the leg is logged, a logged leg must apply
+            throwIfFailed(type == MutationType.TRANSFER_OUT ? checkDebit(account, units) : checkCredit(account, units));
+            long timestamp = System.currentTimeMillis();
+            sequence = mutationLog.append(Mutation.transferLeg(type, timestamp, transferId, senderId, receiverId, account.getCurrency(), units));
+            transferLeg(type, account, units, timestamp);
+            account.setLastSequence(sequence);
+        } finally {
+            account.getLock().unlock();
+        }
+        mutationLog.awaitDurable(sequence);
+    }
+
+    /**
+     * Applies a mutation read back from a mutation log, e.g. to rebuild state from a snapshot and a FileJournal on startup.
+     * The mutation is not logged again. Accounts which already reflect it (their last sequence is not lower, as after
+     * loading a snapshot) are skipped, so replaying a journal tail over a snapshot is safe.
+     * Must not run concurrently with regular operations on the same accounts.
+     */
+    public void apply(Mutation mutation, long sequence) throws IllegalStateException {
+        if (mutation.type == MutationType.NEW_USER) {
+            accountCreationLock.readLock().lock();
+            try {
+                for (Currency currency : Currency.values()) {
+                    if (accountRepository.getAccountByUserIdAndCurrency(mutation.userId, currency).isEmpty()) {
+                        accountRepository.save(new Account(mutation.userId, currency, 0, sequence));
+                        totals.addAccount(currency, 0);
+                    }
+                }
+            } finally {
+                accountCreationLock.readLock().unlock();
+            }
+            return;
+        }
+        if (mutation.type == MutationType.TRANSFER_COMPLETE)
+            return;
+
+        // the receiver of TRANSFER_IN is the only account of this node the transfer touches
+        Account account = getLoggedAccount(mutation.type == MutationType.TRANSFER_IN ? mutation.receiverId : mutation.userId, mutation.currency);
+        Account otherAccount = switch (mutation.type) {
+            case SEND -> getLoggedAccount(mutation.receiverId, mutation.currency);
+            case EXCHANGE -> getLoggedAccount(mutation.userId, mutation.targetCurrency);
+            default -> account;
+        };
+        lockInOrder(account, otherAccount);
+        try {
+            // decided before applying anything, the two accounts may be the same one
+            boolean applyToAccount = account.getLastSequence() < sequence;
+            boolean applyToOtherAccount = otherAccount.getLastSequence() < sequence;
+            switch (mutation.type) {
+                case DEPOSIT -> {
+                    if (applyToAccount) {
+                        credit(account, TransactionType.DEPOSIT, mutation.amount, mutation.timestamp);
+                        totals.record(mutation.currency, TransactionType.DEPOSIT, mutation.amount, mutation.timestamp);
+                    }
+                }
+                case WITHDRAW -> {
+                    if (applyToAccount) {
+                        debit(account, TransactionType.WITHDRAW, mutation.amount, mutation.timestamp);
+                        totals.record(mutation.currency, TransactionType.WITHDRAW, -mutation.amount, mutation.timestamp);
+                    }
+                }
+                case SEND -> {
+                    if (applyToAccount && applyToOtherAccount) {
+                        transfer(account, otherAccount, mutation.amount, mutation.timestamp);
+                    } else if (applyToAccount) {
+                        debit(account, TransactionType.SEND, mutation.amount, mutation.timestamp);
+                        totals.record(mutation.currency, TransactionType.SEND, -mutation.amount, mutation.timestamp);
+                    } else if (applyToOtherAccount) {
+                        credit(otherAccount, TransactionType.RECEIVE, mutation.amount, mutation.timestamp);
+                        totals.record(mutation.currency, TransactionType.RECEIVE, mutation.amount, mutation.timestamp);
+                    }
+                }
+                case EXCHANGE -> {
+                    if (applyToAccount)
+                        debit(account, TransactionType.EXCHANGE, mutation.amount, mutation.timestamp);
+                    if (applyToOtherAccount)
+                        credit(otherAccount, TransactionType.EXCHANGE, mutation.receivedAmount, mutation.timestamp);
+                    if (applyToAccount && applyToOtherAccount)
+                        totals.record(mutation.currency, TransactionType.EXCHANGE, -mutation.amount, mutation.targetCurrency, TransactionType.EXCHANGE, mutation.receivedAmount, mutation.timestamp);
+                    else if (applyToAccount)
+                        totals.record(mutation.currency, TransactionType.EXCHANGE, -mutation.amount, mutation.timestamp);
+                    else if (applyToOtherAccount)
+                        totals.record(mutation.targetCurrency, TransactionType.EXCHANGE, mutation.receivedAmount, mutation.timestamp);
+                }
+                case TRANSFER_OUT, TRANSFER_IN, TRANSFER_REFUND -> {
+                    if (applyToAccount)
+                        transferLeg(mutation.type, account, mutation.amount, mutation.timestamp);
+                }
+            }
+            account.setLastSequence(Math.max(account.getLastSequence(), sequence));
+            otherAccount.setLastSequence(Math.max(otherAccount.getLastSequence(), sequence));
+        } finally {
+            unlock(account, otherAccount);
+        }
+    }
+
+    private Account getLoggedAccount(String userId, Currency currency) throws IllegalStateException {
+        return accountRepository.getAccountByUserIdAndCurrency(userId, currency)
+                .orElseThrow(() -> new IllegalStateException("logged mutation refers to unknown account " + userId + " " + currency));
+    }
+
+    // balance changes and their history entries, called with the accounts locked
+
+    private void transfer(Account senderAccount, Account receiverAccount, long units, long timestamp) {
+        debit(senderAccount, TransactionType.SEND, units, timestamp);
+        credit(receiverAccount, TransactionType.RECEIVE, units, timestamp);
+        totals.record(senderAccount.getCurrency(), TransactionType.SEND, -units, receiverAccount.getCurrency(), TransactionType.RECEIVE, units, timestamp);
+    }
+
+    private void transferLeg(MutationType type, Account account, long units, long timestamp) {
+        if (type == MutationType.TRANSFER_OUT) {
+            debit(account, TransactionType.SEND, units, timestamp);
+            totals.record(account.getCurrency(), TransactionType.SEND, -units, timestamp);
+        } else {
+            credit(account, TransactionType.RECEIVE, units, timestamp);
+            totals.record(account.getCurrency(), TransactionType.RECEIVE, units, timestamp);
+        }
+    }
+
+    private void recordStatus(Operation operation, long start, OperationStatus status) {
+        if (status == OperationStatus.APPLIED)
+            metrics.recordSuccess(operation, start);
+        else
+            metrics.recordFailure(operation, start, status.message);
+    }
+
+    private static void throwIfFailed(OperationStatus status) throws RuntimeException {
+        if (status != OperationStatus.APPLIED)
+            throw status.toException();
+    }
+
+    // called with the account locked, so the debit that follows cannot fail
+    private static OperationStatus checkDebit(Account account, long units) {
+        return account.getBalanceUnits() < units ? OperationStatus.INSUFFICIENT_FUNDS : OperationStatus.APPLIED;
+    }
+
+    // called with the account locked, so the credit that follows cannot fail
+    private static OperationStatus checkCredit(Account account, long units) {
+        return account.getBalanceUnits() > Long.MAX_VALUE - units ? OperationStatus.BALANCE_OVERFLOW : OperationStatus.APPLIED;
+    }
+
+    private static void debit(Account account, TransactionType type, long units, long timestamp) {
+        long balance = account.withdraw(units);
+        account.addTransactionToHistory(type, balance, -units, timestamp);
+    }
+
+    private static void credit(Account account, TransactionType type, long units, long timestamp) {
+        long balance = account.deposit(units);
+        account.addTransactionToHistory(type, balance, units, timestamp);
+    }
+
+    private void lockInOrder(Account first, Account second) {
+        if (LOCK_ORDER.compare(first, second) > 0) {
+            Account tmp = first;
+            first = second;
+            second = tmp;
+        }
+        lock(first);
+        lock(second);
+    }
+
+    // only a lock which is not free right away is timed, uncontended locking costs no clock reads
+    private void lock(Account account) {
+        if (account.getLock().tryLock())
+            return;
+        long start = System.nanoTime();
+        account.getLock().lock();
+        metrics.recordLockWait(System.nanoTime() - start);
+    }
+
+    private static void unlock(Account first, Account second) {
+        first.getLock().unlock();
+        second.getLock().unlock();
+    }
 }
@@ -1,24 +1,103 @@
 package com.rynkow.bankingsystem;
 
+import com.rynkow.bankingsystem.journal.Checkpointer;
+import com.rynkow.bankingsystem.journal.FileJournal;
+import com.rynkow.bankingsystem.journal.JournalMode;
+import com.rynkow.bankingsystem.journal.MutationLog;
 import com.rynkow.bankingsystem.model.Currency;
-import com.rynkow.bankingsystem.model.Transaction;
-import com.rynkow.bankingsystem.repository.ListAccountRepository;
+import com.rynkow.bankingsystem.model.HistoryOrder;
+import com.rynkow.bankingsystem.replication.Replica;
+import com.rynkow.bankingsystem.replication.ReplicationPublisher;
+import com.rynkow.bankingsystem.repository.HashAccountRepository;
+import com.rynkow.bankingsystem.server.BankingServer;
+import com.rynkow.bankingsystem.server.BinaryBankingServer;
 import com.rynkow.bankingsystem.service.JsonCurrencyExchangeService;
 import org.json.simple.parser.ParseException;
 
+import javax.management.JMException;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.math.BigDecimal;
-import java.util.List;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 
 public class BankingSystemCLI {
+    private static final long CHECKPOINT_INTERVAL_MINUTES = 5;
+    // seconds between metrics reports printed to stderr, not printed when unset
+    private static final String METRICS_REPORT_PROPERTY = "bankingsystem.metrics.reportSeconds";
 
-    public static void main(String[] args) throws IOException, ParseException {
-        BankingSystem bankingSystem = new BankingSystem(ListAccountRepository.getInstance(), JsonCurrencyExchangeService.getInstance());
+    // usage: BankingSystemCLI [--port port] [--binary-port port] [--replication-port port] [--replica-of host:port] [journal directory] -
+    // with a journal directory the state survives restarts,
+    // with a port the commands are served over TCP to any number of clients instead of this console,
+    // as text lines (BankingServer) or binary frames (BinaryBankingServer),
+    // with a replication port the mutations are streamed to replicas (ReplicationPublisher),
+    // with --replica-of this is a read-only replica of the primary publishing there until the promote command
+    public static void main(String[] args) throws IOException, ParseException, JMException, InterruptedException {
+        Integer port = null;
+        Integer binaryPort = null;
+        Integer replicationPort = null;
+        String primaryAddress = null;
+        while (args.length > 1 && args[0].startsWith("--")) {
+            switch (args[0]) {
+                case "--port" -> port = Integer.parseInt(args[1]);
+                case "--binary-port" -> binaryPort = Integer.parseInt(args[1]);
+                case "--replication-port" -> replicationPort = Integer.parseInt(args[1]);
+                case "--replica-of" -> primaryAddress = args[1];
+                default -> throw new IllegalArgumentException("unknown option " + args[0]);
+            }
+            args = Arrays.copyOfRange(args, 2, args.length);
+        }
+        // rate file changes are picked up without a restart
+        JsonCurrencyExchangeService.getInstance().watch();
+        FileJournal journal = null;
+        long snapshotSequence = 0;
+        if (args.length > 0) {
+            snapshotSequence = Checkpointer.restore(Path.of(args[0]), HashAccountRepository.getInstance());
+            journal = FileJournal.open(Path.of(args[0]), JournalMode.GROUP_COMMIT);
+        }
+        MutationLog mutationLog = journal != null ? journal : MutationLog.NONE;
+        if (replicationPort != null) {
+            ReplicationPublisher publisher = new ReplicationPublisher(journal, replicationPort);
+            publisher.start();
+            System.out.println("replication listening on port " + publisher.getPort());
+            mutationLog = publisher;
+        }
+        BankingSystem bankingSystem = new BankingSystem(HashAccountRepository.getInstance(), JsonCurrencyExchangeService.getInstance(), mutationLog);
+        if (journal != null) {
+            journal.replay(snapshotSequence + 1, bankingSystem::apply);
+            new Checkpointer(Path.of(args[0]), journal, HashAccountRepository.getInstance()).schedule(CHECKPOINT_INTERVAL_MINUTES, TimeUnit.MINUTES);
+        }
+        bankingSystem.getMetrics().registerMBean();
+        if (System.getProperty(METRICS_REPORT_PROPERTY) != null)
+            bankingSystem.getMetrics().startReporting(Long.parseLong(System.getProperty(METRICS_REPORT_PROPERTY)), TimeUnit.SECONDS, System.err);
+        Replica replica = null;
+        if (primaryAddress != null) {
+            int separator = primaryAddress.lastIndexOf(':');
+            replica = new Replica(bankingSystem, mutationLog, journal != null ? journal.getAppendedSequence() : 0,
+                    new InetSocketAddress(primaryAddress.substring(0, separator), Integer.parseInt(primaryAddress.substring(separator + 1))));
+            replica.start();
+        }
+        // servers run until the process is stopped
+        if (port != null) {
+            BankingServer server = new BankingServer(bankingSystem, port);
+            server.start();
+            System.out.println("listening on port " + server.getPort());
+        }
+        if (binaryPort != null) {
+            BinaryBankingServer server = new BinaryBankingServer(bankingSystem, binaryPort);
+            server.start();
+            System.out.println("binary protocol listening on port " + server.getPort());
+        }
         BufferedReader br = new BufferedReader(new InputStreamReader(System.in));
+        if (replica != null)
+            followPrimary(br, replica);
+        if (port != null || binaryPort != null)
+            return;
         String activeUser;
         while (true) {
 
@@ -42,7 +121,7 @@ public class BankingSystemCLI {
             accountCommands:
             while (true) {
                 try {
-                    System.out.println("enter command: balance|history|deposit|withdraw|send|exchange|quit");
+                    System.out.println("enter command: balance|history|deposit|withdraw|send|exchange|metrics|totals|quit");
                     System.out.print(activeUser + "> ");
                     String command = br.readLine().trim();
                     switch (command) {
@@ -54,9 +133,9 @@ public class BankingSystemCLI {
                                 System.out.println("\t" + currency.name() + ": " + balance.get(currency).toString());
                             break;
                         case "history":
-                            List<Transaction> history = bankingSystem.getAccountHistory(activeUser, null, null, null, null);
-                            for (Transaction transaction : history)
-                                System.out.println("\t" + transaction.toString());
+                            // streamed page by page, long histories are never held in memory at once
+                            bankingSystem.streamAccountHistory(activeUser, null, null, null, null, HistoryOrder.ASCENDING)
+                                    .forEach(transaction -> System.out.println("\t" + transaction.toString()));
                             break;
                         case "deposit":
                             System.out.println("enter command: PLN|EUR|USD amount");
@@ -86,6 +165,12 @@ public class BankingSystemCLI {
                             if (exchangeCommand.length != 3) throw new RuntimeException("invalid exchange command");
                             bankingSystem.exchangeCurrency(Currency.valueOf(exchangeCommand[0]), Currency.valueOf(exchangeCommand[1]), new BigDecimal(exchangeCommand[2]), activeUser);
                             break;
+                        case "metrics":
+                            System.out.print(bankingSystem.getMetrics().report());
+                            break;
+                        case "totals":
+                            System.out.print(bankingSystem.checkTotals().report());
+                            break;
                         default:
                             throw new RuntimeException("invalid command: " + command);
                     }
@@ -95,4 +180,21 @@ public class BankingSystemCLI {
             }
         }
     }
+
+    // replica console, returns once the replica is promoted
+    private static void followPrimary(BufferedReader br, Replica replica) throws IOException, InterruptedException {
+        while (true) {
+            System.out.print("replica, enter command: lag|promote\n> ");
+            String command = br.readLine();
+            if (command == null || command.trim().equals("promote"))
+                break;
+            if (command.trim().equals("lag"))
+                System.out.printf("applied %d of %d, lag %d ms, %s%n", replica.getAppliedSequence(), replica.getPrimarySequence(), replica.getLagMillis(),
+                        replica.isConnected() ? "connected" : "disconnected: " + replica.getFailure());
+            else
+                System.out.println("invalid command: " + command);
+        }
+        replica.promote();
+        System.out.println("promoted to primary at sequence " + replica.getAppliedSequence());
+    }
 }
@@ -0,0 +1,228 @@
+package com.rynkow.bankingsystem;
+
+import com.rynkow.bankingsystem.model.Currency;
+import com.rynkow.bankingsystem.model.HistoryOrder;
+import com.rynkow.bankingsystem.model.Money;
+import com.rynkow.bankingsystem.model.OperationStatus;
+import com.rynkow.bankingsystem.model.Transaction;
+import com.rynkow.bankingsystem.model.TransactionHistory;
+import com.rynkow.bankingsystem.model.TransactionType;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * A partition of the users of a ShardedBankingSystem, owned by one worker thread.
+ * Commands reach the worker through a lock-free queue, everything else is touched by the worker only,
+ * so balances are plain fields and nothing is locked.
+ */
+class Shard {
+    private static final Currency[] CURRENCIES = Currency.values();
+
+    private final Queue<Call<?>> commands = new ConcurrentLinkedQueue<>();
+    // user id -> accounts by currency ordinal
+    private final Map<String, ShardAccount[]> accounts = new HashMap<>();
+    private final Thread worker;
+    private volatile boolean idle;
+    private volatile boolean running = true;
+
+    Shard(String name) {
+        worker = new Thread(this::processCommands, name);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    // runs the action on the worker, the future completes with its result or exception
+    <T> CompletableFuture<T> call(Supplier<T> action) {
+        Call<T> call = new Call<>(action);
+        if (!running) {
+            call.reject();
+            return call.result;
+        }
+        commands.add(call);
+        if (idle)
+            LockSupport.unpark(worker);
+        // close may have stopped the worker after the check above, then whoever takes the call back from the queue rejects it -
+        // if the worker took it, it runs it
+        if (!running && commands.remove(call))
+            call.reject();
+        return call.result;
+    }
+
+    private void processCommands() {
+        while (running) {
+            Call<?> command = commands.poll();
+            if (command != null) {
+                command.run();
+                continue;
+            }
+            idle = true;
+            // a command added before idle was set is seen here, one added after it unparks the worker
+            if (commands.isEmpty() && running)
+                LockSupport.park(this);
+            idle = false;
+        }
+        Call<?> command;
+        while ((command = commands.poll()) != null)
+            command.run();
+    }
+
+    void close() throws InterruptedException {
+        running = false;
+        LockSupport.unpark(worker);
+        worker.join();
+    }
+
+    // the methods below run on the worker
+
+    void newUser(String userId) throws IllegalArgumentException {
+        if (accounts.containsKey(userId))
+            throw OperationStatus.DUPLICATED_USER.toException();
+
+        ShardAccount[] userAccounts = new ShardAccount[CURRENCIES.length];
+        for (Currency currency : CURRENCIES)
+            userAccounts[currency.ordinal()] = new ShardAccount(currency);
+        accounts.put(userId, userAccounts);
+    }
+
+    boolean hasAccount(String userId) {
+        return accounts.containsKey(userId);
+    }
+
+    void deposit(String userId, Currency currency, long units) throws RuntimeException {
+        credit(getAccount(userId, currency, OperationStatus.ACCOUNT_NOT_FOUND), TransactionType.DEPOSIT, units, System.currentTimeMillis());
+    }
+
+    void withdraw(String userId, Currency currency, long units) throws RuntimeException {
+        debit(getAccount(userId, currency, OperationStatus.ACCOUNT_NOT_FOUND), TransactionType.WITHDRAW, units, System.currentTimeMillis());
+    }
+
+    // both users on this shard
+    void transfer(String senderId, String receiverId, Currency currency, long units) throws RuntimeException {
+        ShardAccount sender = getAccount(senderId, currency, OperationStatus.SENDER_NOT_FOUND);
+        ShardAccount receiver = getAccount(receiverId, currency, OperationStatus.RECEIVER_NOT_FOUND);
+        long timestamp = System.currentTimeMillis();
+        debit(sender, TransactionType.SEND, units, timestamp);
+        credit(receiver, TransactionType.RECEIVE, units, timestamp);
+    }
+
+    // first half of a transfer to another shard
+    void debitSender(String senderId, Currency currency, long units, boolean receiverExists) throws RuntimeException {
+        ShardAccount sender = getAccount(senderId, currency, OperationStatus.SENDER_NOT_FOUND);
+        if (!receiverExists)
+            throw OperationStatus.RECEIVER_NOT_FOUND.toException();
+        debit(sender, TransactionType.SEND, units, System.currentTimeMillis());
+    }
+
+    // second half of a transfer from another shard
+    void creditReceiver(String receiverId, Currency currency, long units) throws RuntimeException {
+        credit(getAccount(receiverId, currency, OperationStatus.RECEIVER_NOT_FOUND), TransactionType.RECEIVE, units, System.currentTimeMillis());
+    }
+
+    // undoes debitSender when the credit failed, e.g. on balance overflow
+    void refundSender(String senderId, Currency currency, long units) {
+        credit(getAccount(senderId, currency, OperationStatus.SENDER_NOT_FOUND), TransactionType.REFUND, units, System.currentTimeMillis());
+    }
+
+    void exchange(String userId, Currency baseCurrency, Currency targetCurrency, long units, long receivedUnits) throws RuntimeException {
+        ShardAccount base = getAccount(userId, baseCurrency, OperationStatus.BASE_ACCOUNT_NOT_FOUND);
+        ShardAccount target = getAccount(userId, targetCurrency, OperationStatus.TARGET_ACCOUNT_NOT_FOUND);
+        long timestamp = System.currentTimeMillis();
+        debit(base, TransactionType.EXCHANGE, units, timestamp);
+        credit(target, TransactionType.EXCHANGE, receivedUnits, timestamp);
+    }
+
+    Map<Currency, BigDecimal> getBalance(String userId) throws RuntimeException {
+        ShardAccount[] userAccounts = accounts.get(userId);
+        if (userAccounts == null)
+            throw OperationStatus.USER_NOT_FOUND.toException();
+
+        Map<Currency, BigDecimal> balances = new EnumMap<>(Currency.class);
+        for (ShardAccount account : userAccounts)
+            balances.put(account.currency, Money.toBigDecimal(account.balance));
+        return balances;
+    }
+
+    List<Transaction> getHistory(String userId, Currency currency, Date startDate, Date endDate, TransactionType transactionType) throws RuntimeException {
+        ShardAccount[] userAccounts = accounts.get(userId);
+        if (userAccounts == null)
+            throw OperationStatus.ACCOUNT_NOT_FOUND.toException();
+
+        List<List<Transaction>> histories = new ArrayList<>();
+        for (ShardAccount account : userAccounts)
+            if (currency == null || account.currency == currency)
+                histories.add(account.history.query(startDate, endDate, transactionType));
+        return Collections.unmodifiableList(BankingSystem.mergeByDate(histories, HistoryOrder.ASCENDING, Integer.MAX_VALUE));
+    }
+
+    private ShardAccount getAccount(String userId, Currency currency, OperationStatus notFound) throws RuntimeException {
+        ShardAccount[] userAccounts = accounts.get(userId);
+        if (userAccounts == null)
+            throw notFound.toException();
+        return userAccounts[currency.ordinal()];
+    }
+
+    private static void debit(ShardAccount account, TransactionType type, long units, long timestamp) throws RuntimeException {
+        if (units < 1)
+            throw OperationStatus.INVALID_WITHDRAW_AMOUNT.toException();
+        if (account.balance < units)
+            throw OperationStatus.INSUFFICIENT_FUNDS.toException();
+
+        long balance = account.balance;
+        account.balance = balance - units;
+        account.history.add(type, account.currency, balance, -units, timestamp);
+    }
+
+    private static void credit(ShardAccount account, TransactionType type, long units, long timestamp) throws RuntimeException {
+        if (units < 1)
+            throw OperationStatus.INVALID_DEPOSIT_AMOUNT.toException();
+        if (account.balance > Long.MAX_VALUE - units)
+            throw OperationStatus.BALANCE_OVERFLOW.toException();
+
+        long balance = account.balance;
+        account.balance = balance + units;
+        account.history.add(type, account.currency, balance, units, timestamp);
+    }
+
+    private static final class Call<T> {
+        final Supplier<T> action;
+        final CompletableFuture<T> result = new CompletableFuture<>();
+
+        Call(Supplier<T> action) {
+            this.action = action;
+        }
+
+        void run() {
+            try {
+                result.complete(action.get());
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        }
+
+        void reject() {
+            result.completeExceptionally(new IllegalStateException("sharded banking system closed"));
+        }
+    }
+
+    private static class ShardAccount {
+        final Currency currency;
+        final TransactionHistory history = TransactionHistory.create();
+        long balance;
+
+        ShardAccount(Currency currency) {
+            this.currency = currency;
+        }
+    }
+}
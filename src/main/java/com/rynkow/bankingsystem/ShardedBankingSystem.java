@@ -0,0 +1,170 @@
+package com.rynkow.bankingsystem;
+
+import com.rynkow.bankingsystem.model.Currency;
+import com.rynkow.bankingsystem.model.Money;
+import com.rynkow.bankingsystem.model.OperationStatus;
+import com.rynkow.bankingsystem.model.Transaction;
+import com.rynkow.bankingsystem.model.TransactionType;
+import com.rynkow.bankingsystem.service.CurrencyExchangeService;
+import com.rynkow.bankingsystem.service.ExchangeQuote;
+
+import java.io.Closeable;
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Users hash-partitioned between single-threaded shards, instead of all accounts in one repository guarded by account locks.
+ * Each operation runs on the shard owning its user, so cores do not share accounts and nothing is locked.
+ * A transfer between shards runs in two steps: the sender's shard debits the sender, then the receiver's shard credits
+ * the receiver - if the credit fails, the sender's shard refunds the sender. Between the steps the amount is in flight
+ * and visible in neither balance. Operations block the calling thread until done, as in BankingSystem.
+ * Not journaled, no batches, no metrics.
+ */
+public class ShardedBankingSystem implements BankingOperations, Closeable {
+    private static final int MAX_USER_ID_LENGTH = 256;
+
+    private final Shard[] shards;
+    private final CurrencyExchangeService exchangeService;
+
+    // one shard per processor
+    public ShardedBankingSystem(CurrencyExchangeService exchangeService) {
+        this(Runtime.getRuntime().availableProcessors(), exchangeService);
+    }
+
+    public ShardedBankingSystem(int shardCount, CurrencyExchangeService exchangeService) {
+        if (shardCount < 1)
+            throw new IllegalArgumentException("shard count not positive");
+
+        this.exchangeService = exchangeService;
+        this.shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++)
+            shards[i] = new Shard("shard-" + i);
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    @Override
+    public void newUser(String userId) throws IllegalArgumentException {
+        if (userId.length() > MAX_USER_ID_LENGTH)
+            throw new IllegalArgumentException("userId too long");
+
+        Shard shard = shardOf(userId);
+        await(shard.call(() -> {
+            shard.newUser(userId);
+            return null;
+        }));
+    }
+
+    @Override
+    public void sendFunds(Currency currency, BigDecimal amount, String senderId, String receiverId) throws RuntimeException {
+        long units = Money.toUnits(amount);
+        Shard senderShard = shardOf(senderId);
+        Shard receiverShard = shardOf(receiverId);
+        if (senderShard == receiverShard) {
+            await(senderShard.call(() -> {
+                senderShard.transfer(senderId, receiverId, currency, units);
+                return null;
+            }));
+            return;
+        }
+
+        // users are never removed, so a receiver found here is still there for the credit
+        CompletableFuture<Void> debit = receiverShard.call(() -> receiverShard.hasAccount(receiverId))
+                .thenCompose(receiverExists -> senderShard.call(() -> {
+                    senderShard.debitSender(senderId, currency, units, receiverExists);
+                    return null;
+                }));
+        CompletableFuture<Void> transfer = debit.thenCompose(debited -> receiverShard.<Void>call(() -> {
+            receiverShard.creditReceiver(receiverId, currency, units);
+            return null;
+        }).exceptionallyCompose(failure -> senderShard.call(() -> {
+            senderShard.refundSender(senderId, currency, units);
+            throw new CompletionException(failure);
+        })));
+        await(transfer);
+    }
+
+    @Override
+    public void depositFunds(Currency currency, BigDecimal amount, String userId) throws RuntimeException {
+        long units = Money.toUnits(amount);
+        Shard shard = shardOf(userId);
+        await(shard.call(() -> {
+            shard.deposit(userId, currency, units);
+            return null;
+        }));
+    }
+
+    @Override
+    public void withdrawFunds(Currency currency, BigDecimal amount, String userId) throws RuntimeException {
+        long units = Money.toUnits(amount);
+        Shard shard = shardOf(userId);
+        await(shard.call(() -> {
+            shard.withdraw(userId, currency, units);
+            return null;
+        }));
+    }
+
+    @Override
+    public void exchangeCurrency(Currency baseCurrency, Currency targetCurrency, BigDecimal amount, String userId) throws RuntimeException {
+        long units = Money.toUnits(amount);
+        ExchangeQuote quote = exchangeService.quote(baseCurrency, targetCurrency, amount);
+        long receivedUnits = Money.roundToUnits(quote.amount);
+        if (units > 0 && receivedUnits < 1)
+            throw OperationStatus.EXCHANGED_AMOUNT_TOO_SMALL.toException();
+
+        // all accounts of a user are on one shard
+        Shard shard = shardOf(userId);
+        await(shard.call(() -> {
+            shard.exchange(userId, baseCurrency, targetCurrency, units, receivedUnits);
+            return null;
+        }));
+    }
+
+    @Override
+    public List<Transaction> getAccountHistory(String userId, Currency currency, Date startDate, Date endDate, TransactionType transactionType) throws RuntimeException {
+        Shard shard = shardOf(userId);
+        return await(shard.call(() -> shard.getHistory(userId, currency, startDate, endDate, transactionType)));
+    }
+
+    @Override
+    public Map<Currency, BigDecimal> getAccountBalance(String userId) throws RuntimeException {
+        Shard shard = shardOf(userId);
+        return await(shard.call(() -> shard.getBalance(userId)));
+    }
+
+    // stops the shard workers once the commands already queued are done
+    @Override
+    public void close() {
+        try {
+            for (Shard shard : shards)
+                shard.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Shard shardOf(String userId) {
+        int hash = userId.hashCode();
+        return shards[((hash ^ (hash >>> 16)) & Integer.MAX_VALUE) % shards.length];
+    }
+
+    // the result, or the exception the operation failed with
+    private static <T> T await(CompletableFuture<T> result) throws RuntimeException {
+        try {
+            return result.join();
+        } catch (CompletionException e) {
+            Throwable cause = e;
+            while (cause instanceof CompletionException && cause.getCause() != null)
+                cause = cause.getCause();
+            if (cause instanceof RuntimeException runtimeException)
+                throw runtimeException;
+            throw e;
+        }
+    }
+}
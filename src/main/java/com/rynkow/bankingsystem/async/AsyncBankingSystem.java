@@ -0,0 +1,166 @@
+package com.rynkow.bankingsystem.async;
+
+import com.rynkow.bankingsystem.BankingOperations;
+import com.rynkow.bankingsystem.model.Currency;
+import com.rynkow.bankingsystem.model.OperationStatus;
+import com.rynkow.bankingsystem.model.Transaction;
+import com.rynkow.bankingsystem.model.TransactionType;
+import com.rynkow.bankingsystem.server.VirtualThreads;
+
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Runs the banking operations on an executor and returns futures of their results, so callers do not block a thread per
+ * request while an operation waits, e.g. for a durable journal write or a remote node. By default every operation runs on
+ * its own virtual thread.
+ * <p>
+ * Futures of failed operations complete exceptionally with a BankingFailureException telling the Failure. At most maxInFlight
+ * operations are submitted and not yet finished; further ones fail at once with Failure.OVERLOADED, without running, so a caller
+ * producing requests faster than they complete gets pushed back instead of queueing them without bound.
+ * Dependent stages run on the thread completing the future, after the operation's permit is released.
+ */
+public class AsyncBankingSystem implements AutoCloseable {
+    public static final int DEFAULT_MAX_IN_FLIGHT = 10_000;
+
+    private final BankingOperations operations;
+    private final Executor executor;
+    // the executor created by this facade, shut down on close
+    private final ExecutorService ownExecutor;
+    private final int maxInFlight;
+    private final Semaphore inFlight;
+    private final LongAdder rejected = new LongAdder();
+
+    public AsyncBankingSystem(BankingOperations operations) {
+        this(operations, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    public AsyncBankingSystem(BankingOperations operations, int maxInFlight) {
+        this(operations, VirtualThreads.newThreadPerTaskExecutor("banking-async"), maxInFlight, true);
+    }
+
+    /**
+     * @param executor runs the operations, it is not shut down on close
+     */
+    public AsyncBankingSystem(BankingOperations operations, Executor executor, int maxInFlight) {
+        this(operations, executor, maxInFlight, false);
+    }
+
+    private AsyncBankingSystem(BankingOperations operations, Executor executor, int maxInFlight, boolean ownExecutor) {
+        if (maxInFlight < 1)
+            throw new IllegalArgumentException("in-flight limit not positive");
+
+        this.operations = operations;
+        this.executor = executor;
+        this.ownExecutor = ownExecutor ? (ExecutorService) executor : null;
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore(maxInFlight);
+    }
+
+    public CompletableFuture<Void> newUserAsync(String userId) {
+        return submit(() -> {
+            operations.newUser(userId);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Void> sendFundsAsync(Currency currency, BigDecimal amount, String senderId, String receiverId) {
+        return submitStatus(() -> operations.trySendFunds(currency, amount, senderId, receiverId));
+    }
+
+    public CompletableFuture<Void> depositFundsAsync(Currency currency, BigDecimal amount, String userId) {
+        return submitStatus(() -> operations.tryDepositFunds(currency, amount, userId));
+    }
+
+    public CompletableFuture<Void> withdrawFundsAsync(Currency currency, BigDecimal amount, String userId) {
+        return submitStatus(() -> operations.tryWithdrawFunds(currency, amount, userId));
+    }
+
+    public CompletableFuture<Void> exchangeCurrencyAsync(Currency baseCurrency, Currency targetCurrency, BigDecimal amount, String userId) {
+        return submitStatus(() -> operations.tryExchangeCurrency(baseCurrency, targetCurrency, amount, userId));
+    }
+
+    public CompletableFuture<List<Transaction>> getAccountHistoryAsync(String userId, Currency currency, Date startDate, Date endDate,
+                                                                       TransactionType transactionType) {
+        return submit(() -> operations.getAccountHistory(userId, currency, startDate, endDate, transactionType));
+    }
+
+    public CompletableFuture<Map<Currency, BigDecimal>> getAccountBalanceAsync(String userId) {
+        return submit(() -> operations.getAccountBalance(userId));
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public int getInFlight() {
+        return maxInFlight - inFlight.availablePermits();
+    }
+
+    // operations failed with Failure.OVERLOADED
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    // operations already submitted still run
+    @Override
+    public void close() {
+        if (ownExecutor != null)
+            ownExecutor.shutdown();
+    }
+
+    // a rejected operation fails its future without the exception of the throwing operation
+    private CompletableFuture<Void> submitStatus(Supplier<OperationStatus> operation) {
+        return submit(() -> {
+            OperationStatus status = operation.get();
+            if (!status.isApplied())
+                throw BankingFailureException.of(status);
+            return null;
+        });
+    }
+
+    private <T> CompletableFuture<T> submit(Supplier<T> operation) {
+        if (!inFlight.tryAcquire())
+            return overloaded(null);
+
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                T result;
+                try {
+                    result = operation.get();
+                } catch (RuntimeException e) {
+                    inFlight.release();
+                    future.completeExceptionally(e instanceof BankingFailureException failure ? failure : BankingFailureException.of(e));
+                    return;
+                } catch (Error e) {
+                    inFlight.release();
+                    future.completeExceptionally(e);
+                    throw e;
+                }
+                // released first, so a dependent stage submitting the next operation is not rejected because of this one
+                inFlight.release();
+                future.complete(result);
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.release();
+            return overloaded(e);
+        }
+        return future;
+    }
+
+    private <T> CompletableFuture<T> overloaded(RejectedExecutionException cause) {
+        rejected.increment();
+        return CompletableFuture.failedFuture(new BankingFailureException(Failure.OVERLOADED,
+                cause == null ? maxInFlight + " operations in flight" : "executor rejected the operation", cause));
+    }
+}
@@ -0,0 +1,33 @@
+package com.rynkow.bankingsystem.async;
+
+import com.rynkow.bankingsystem.model.OperationStatus;
+
+/**
+ * An operation of AsyncBankingSystem failed, for the given reason. The exception thrown by the operation, if any, is the cause.
+ */
+public class BankingFailureException extends RuntimeException {
+    private final Failure failure;
+
+    public BankingFailureException(Failure failure, String message, Throwable cause) {
+        super(message, cause);
+        this.failure = failure;
+    }
+
+    // of an operation rejected with a status, there is no stack worth capturing
+    private BankingFailureException(Failure failure, String message) {
+        super(message, null, false, false);
+        this.failure = failure;
+    }
+
+    static BankingFailureException of(OperationStatus status) {
+        return new BankingFailureException(Failure.of(status), status.message);
+    }
+
+    static BankingFailureException of(RuntimeException exception) {
+        return new BankingFailureException(Failure.of(exception), exception.getMessage(), exception);
+    }
+
+    public Failure getFailure() {
+        return failure;
+    }
+}
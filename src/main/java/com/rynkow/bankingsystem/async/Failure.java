@@ -0,0 +1,42 @@
+package com.rynkow.bankingsystem.async;
+
+import com.rynkow.bankingsystem.cluster.NodeUnavailableException;
+import com.rynkow.bankingsystem.model.OperationStatus;
+
+/**
+ * Why an operation of AsyncBankingSystem failed.
+ */
+public enum Failure {
+    UNKNOWN_ACCOUNT, INSUFFICIENT_FUNDS, INVALID_AMOUNT, DUPLICATED_USER,
+    // any other invalid argument, e.g. a too long userId or the same base and target currency
+    INVALID_ARGUMENT,
+    // the banking system is a read-only replica
+    READ_ONLY,
+    // too many operations in flight, the operation did not run
+    OVERLOADED,
+    UNAVAILABLE, INTERNAL_ERROR;
+
+    // null for APPLIED
+    public static Failure of(OperationStatus status) {
+        return switch (status) {
+            case APPLIED -> null;
+            case READ_ONLY -> READ_ONLY;
+            case DUPLICATED_USER -> DUPLICATED_USER;
+            case ACCOUNT_NOT_FOUND, USER_NOT_FOUND, SENDER_NOT_FOUND, RECEIVER_NOT_FOUND, BASE_ACCOUNT_NOT_FOUND, TARGET_ACCOUNT_NOT_FOUND -> UNKNOWN_ACCOUNT;
+            case INVALID_DEPOSIT_AMOUNT, INVALID_WITHDRAW_AMOUNT, EXCHANGED_AMOUNT_TOO_SMALL, BALANCE_OVERFLOW, INVALID_AMOUNT -> INVALID_AMOUNT;
+            case INSUFFICIENT_FUNDS -> INSUFFICIENT_FUNDS;
+            // only batches skip operations, and the facade runs none
+            case NOT_APPLIED -> INTERNAL_ERROR;
+        };
+    }
+
+    // operations fail with the exceptions of OperationStatus, anything else is classified by its type only
+    static Failure of(RuntimeException exception) {
+        OperationStatus status = OperationStatus.of(exception);
+        if (status != null)
+            return of(status);
+        if (exception instanceof NodeUnavailableException)
+            return UNAVAILABLE;
+        return exception instanceof IllegalArgumentException ? INVALID_ARGUMENT : INTERNAL_ERROR;
+    }
+}
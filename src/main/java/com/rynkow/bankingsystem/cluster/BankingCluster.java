@@ -0,0 +1,196 @@
+package com.rynkow.bankingsystem.cluster;
+
+import com.rynkow.bankingsystem.BankingOperations;
+import com.rynkow.bankingsystem.journal.JournalMode;
+import com.rynkow.bankingsystem.model.Currency;
+import com.rynkow.bankingsystem.model.Money;
+import com.rynkow.bankingsystem.model.Transaction;
+import com.rynkow.bankingsystem.model.TransactionType;
+import com.rynkow.bankingsystem.service.CurrencyExchangeService;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Users hash-partitioned between ClusterNodes, each a BankingSystem with its own repository and journal in a subdirectory node-(id).
+ * Routes every operation over the ClusterNetwork to the node owning the user, a transfer between users of different nodes
+ * runs the transfer protocol described in ClusterNode, which never creates or loses money, whichever node crashes when.
+ * <p>
+ * Nodes can be crashed and restarted, and the network loses messages on demand, see ClusterNetwork.
+ * An operation whose node does not answer fails with NodeUnavailableException and may or may not have been applied,
+ * a transfer whose receiver's node does not answer succeeds and is credited once recoverTransfers reaches that node.
+ * FundsAudit checks the cluster holds exactly the money deposited into it.
+ */
+public class BankingCluster implements BankingOperations, Closeable {
+    private final Path directory;
+    private final JournalMode journalMode;
+    private final CurrencyExchangeService exchangeService;
+    private final ClusterNetwork network;
+    private ScheduledExecutorService recovery;
+
+    /**
+     * Starts the nodes, each from its journal if the directory already holds one.
+     * The number of nodes must stay the same over restarts, users are assigned to nodes by it.
+     */
+    public BankingCluster(int nodeCount, Path directory, JournalMode journalMode, CurrencyExchangeService exchangeService) throws IOException {
+        if (nodeCount < 1)
+            throw new IllegalArgumentException("node count not positive");
+
+        this.directory = directory;
+        this.journalMode = journalMode;
+        this.exchangeService = exchangeService;
+        this.network = new ClusterNetwork(nodeCount, System.nanoTime());
+        for (int i = 0; i < nodeCount; i++)
+            ClusterNode.start(i, nodeDirectory(i), journalMode, network, exchangeService);
+        recoverTransfers();
+    }
+
+    public int getNodeCount() {
+        return network.getNodeCount();
+    }
+
+    public ClusterNetwork getNetwork() {
+        return network;
+    }
+
+    // the running instance of the node, null if it is down
+    public ClusterNode getNode(int nodeId) {
+        return network.getNode(nodeId);
+    }
+
+    public int nodeOf(String userId) {
+        return partition(userId, network.getNodeCount());
+    }
+
+    static int partition(String userId, int nodeCount) {
+        int hash = userId.hashCode();
+        return ((hash ^ (hash >>> 16)) & Integer.MAX_VALUE) % nodeCount;
+    }
+
+    public void crash(int nodeId) {
+        ClusterNode node = network.getNode(nodeId);
+        if (node != null)
+            node.crash();
+    }
+
+    // starts a new instance of a crashed node from its journal and delivers its pending transfers
+    public ClusterNode restart(int nodeId) throws IOException {
+        if (network.getNode(nodeId) != null)
+            throw new IllegalStateException("node " + nodeId + " running");
+
+        ClusterNode node = ClusterNode.start(nodeId, nodeDirectory(nodeId), journalMode, network, exchangeService);
+        node.recoverTransfers();
+        return node;
+    }
+
+    /**
+     * Delivers the pending transfers of every running node again, see ClusterNode.recoverTransfers.
+     *
+     * @return number of transfers still pending on the running nodes
+     */
+    public int recoverTransfers() {
+        int pending = 0;
+        for (int i = 0; i < network.getNodeCount(); i++) {
+            ClusterNode node = network.getNode(i);
+            if (node != null)
+                pending += node.recoverTransfers();
+        }
+        return pending;
+    }
+
+    // runs recoverTransfers every period on a daemon thread until close
+    public synchronized void scheduleRecovery(long period, TimeUnit unit) {
+        if (recovery != null)
+            throw new IllegalStateException("recovery already scheduled");
+
+        recovery = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cluster-recovery");
+            thread.setDaemon(true);
+            return thread;
+        });
+        recovery.scheduleWithFixedDelay(this::recoverTransfers, period, period, unit);
+    }
+
+    @Override
+    public void newUser(String userId) throws IllegalArgumentException {
+        callOwner(userId, node -> {
+            node.getBankingSystem().newUser(userId);
+            return null;
+        });
+    }
+
+    @Override
+    public void sendFunds(Currency currency, BigDecimal amount, String senderId, String receiverId) throws RuntimeException {
+        int receiverNodeId = nodeOf(receiverId);
+        callOwner(senderId, node -> {
+            if (node.getId() == receiverNodeId)
+                node.getBankingSystem().sendFunds(currency, amount, senderId, receiverId);
+            else
+                node.sendToNode(currency, Money.toUnits(amount), senderId, receiverId, receiverNodeId);
+            return null;
+        });
+    }
+
+    @Override
+    public void depositFunds(Currency currency, BigDecimal amount, String userId) throws RuntimeException {
+        callOwner(userId, node -> {
+            node.getBankingSystem().depositFunds(currency, amount, userId);
+            return null;
+        });
+    }
+
+    @Override
+    public void withdrawFunds(Currency currency, BigDecimal amount, String userId) throws RuntimeException {
+        callOwner(userId, node -> {
+            node.getBankingSystem().withdrawFunds(currency, amount, userId);
+            return null;
+        });
+    }
+
+    // all accounts of a user are on one node
+    @Override
+    public void exchangeCurrency(Currency baseCurrency, Currency targetCurrency, BigDecimal amount, String userId) throws RuntimeException {
+        callOwner(userId, node -> {
+            node.getBankingSystem().exchangeCurrency(baseCurrency, targetCurrency, amount, userId);
+            return null;
+        });
+    }
+
+    @Override
+    public List<Transaction> getAccountHistory(String userId, Currency currency, Date startDate, Date endDate, TransactionType transactionType) throws RuntimeException {
+        return callOwner(userId, node -> node.getBankingSystem().getAccountHistory(userId, currency, startDate, endDate, transactionType));
+    }
+
+    @Override
+    public Map<Currency, BigDecimal> getAccountBalance(String userId) throws RuntimeException {
+        return callOwner(userId, node -> node.getBankingSystem().getAccountBalance(userId));
+    }
+
+    // stops recovery and the nodes, transfers still pending are delivered after the next start
+    @Override
+    public synchronized void close() {
+        if (recovery != null) {
+            recovery.shutdown();
+            recovery = null;
+        }
+        for (int i = 0; i < network.getNodeCount(); i++)
+            crash(i);
+    }
+
+    private <T> T callOwner(String userId, Function<ClusterNode, T> operation) throws RuntimeException {
+        return network.call(null, nodeOf(userId), ClusterNetwork.Message.CLIENT_REQUEST, operation);
+    }
+
+    private Path nodeDirectory(int nodeId) {
+        return directory.resolve("node-" + nodeId);
+    }
+}
@@ -0,0 +1,150 @@
+package com.rynkow.bankingsystem.cluster;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Simulated network between the nodes of a BankingCluster and its clients. A call is a request and a response, both can be lost:
+ * a lost request is not handled, a lost response is handled but its result never reaches the caller, and the caller cannot tell
+ * which one happened - it gets NodeUnavailableException either way, as from a node which is down.
+ * Nodes live in this JVM, a call runs the handler on the caller's thread.
+ * <p>
+ * Faults are injected at random (setLossRates) or for the next message of a type (scheduleFault), which also allows crashing
+ * the sending node right before a request or the receiving node right after handling one.
+ */
+public class ClusterNetwork {
+    public enum Message {
+        // a client operation sent to the node owning the user
+        CLIENT_REQUEST,
+        // a node asking the receiver's node whether the receiver exists, before debiting the sender
+        RECEIVER_CHECK,
+        // a node asking the receiver's node to credit a transfer
+        CREDIT
+    }
+
+    public enum Fault {
+        LOSE_REQUEST,
+        LOSE_RESPONSE,
+        // the sending node crashes instead of sending the request
+        CRASH_SENDER,
+        // the receiving node crashes after handling the request, before answering
+        CRASH_RECEIVER
+    }
+
+    private final AtomicReferenceArray<ClusterNode> nodes;
+    private final Map<Message, Queue<Fault>> scheduledFaults = new EnumMap<>(Message.class);
+    private final Random random;
+    private final LongAdder lostMessages = new LongAdder();
+    private volatile double requestLossRate;
+    private volatile double responseLossRate;
+
+    ClusterNetwork(int nodeCount, long seed) {
+        this.nodes = new AtomicReferenceArray<>(nodeCount);
+        this.random = new Random(seed);
+        for (Message message : Message.values())
+            scheduledFaults.put(message, new ConcurrentLinkedQueue<>());
+    }
+
+    public int getNodeCount() {
+        return nodes.length();
+    }
+
+    // fraction of requests and responses lost, 0 to 1, applied to every message type
+    public void setLossRates(double requestLossRate, double responseLossRate) {
+        this.requestLossRate = requestLossRate;
+        this.responseLossRate = responseLossRate;
+    }
+
+    // injects the fault into the next message of the type, faults scheduled for the same type are injected in order
+    public void scheduleFault(Message message, Fault fault) {
+        scheduledFaults.get(message).add(fault);
+    }
+
+    // requests and responses lost so far, including those lost to crashes
+    public long getLostMessages() {
+        return lostMessages.sum();
+    }
+
+    // whether the node is the running instance of its id, an instance which crashed never runs again
+    public boolean isRunning(ClusterNode node) {
+        return nodes.get(node.getId()) == node;
+    }
+
+    void register(ClusterNode node) {
+        if (!nodes.compareAndSet(node.getId(), null, node))
+            throw new IllegalStateException("node " + node.getId() + " already running");
+    }
+
+    void unregister(ClusterNode node) {
+        nodes.compareAndSet(node.getId(), node, null);
+    }
+
+    // the running instance of the node, null if it is down
+    ClusterNode getNode(int nodeId) {
+        return nodes.get(nodeId);
+    }
+
+    /**
+     * Sends a request to a node and waits for the response.
+     * A handler failing because its node crashed meanwhile ends in NodeUnavailableException too, so a caller getting any
+     * other exception knows the request was rejected, not interrupted.
+     *
+     * @param sender node sending the request, null for a client of the cluster
+     * @return the handler's result
+     */
+    <T> T call(ClusterNode sender, int receiverId, Message message, Function<ClusterNode, T> handler) throws RuntimeException {
+        if (sender != null && !isRunning(sender))
+            throw new NodeUnavailableException(sender.getId());
+        Fault fault = nextFault(message);
+        if (fault == Fault.CRASH_SENDER && sender != null) {
+            lostMessages.increment();
+            sender.crash();
+            throw new NodeUnavailableException(sender.getId());
+        }
+        ClusterNode receiver = nodes.get(receiverId);
+        if (receiver == null || fault == Fault.LOSE_REQUEST) {
+            lostMessages.increment();
+            throw new NodeUnavailableException(receiverId);
+        }
+
+        T result;
+        RuntimeException failure = null;
+        try {
+            result = handler.apply(receiver);
+        } catch (RuntimeException e) {
+            result = null;
+            failure = e;
+        }
+        if (fault == Fault.CRASH_RECEIVER)
+            receiver.crash();
+        if (fault == Fault.LOSE_RESPONSE || fault == Fault.CRASH_RECEIVER || !isRunning(receiver)) {
+            lostMessages.increment();
+            throw new NodeUnavailableException(receiverId);
+        }
+        if (failure != null)
+            throw failure;
+        return result;
+    }
+
+    private Fault nextFault(Message message) {
+        Fault fault = scheduledFaults.get(message).poll();
+        if (fault != null)
+            return fault;
+        double requestLossRate = this.requestLossRate;
+        double responseLossRate = this.responseLossRate;
+        if (requestLossRate == 0 && responseLossRate == 0)
+            return null;
+        double draw = random.nextDouble();
+        if (draw < requestLossRate)
+            return Fault.LOSE_REQUEST;
+        if (draw < requestLossRate + responseLossRate)
+            return Fault.LOSE_RESPONSE;
+        return null;
+    }
+}
@@ -0,0 +1,287 @@
+package com.rynkow.bankingsystem.cluster;
+
+import com.rynkow.bankingsystem.BankingSystem;
+import com.rynkow.bankingsystem.journal.FileJournal;
+import com.rynkow.bankingsystem.journal.JournalMode;
+import com.rynkow.bankingsystem.journal.Mutation;
+import com.rynkow.bankingsystem.journal.MutationLog;
+import com.rynkow.bankingsystem.model.Currency;
+import com.rynkow.bankingsystem.model.OperationStatus;
+import com.rynkow.bankingsystem.repository.AccountRepository;
+import com.rynkow.bankingsystem.repository.HashAccountRepository;
+import com.rynkow.bankingsystem.service.CurrencyExchangeService;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * One node of a BankingCluster: a BankingSystem over its own repository slice and journal, holding the users the cluster assigns to it.
+ * A transfer to a user of another node is driven by the sender's node:
+ * <ol>
+ * <li>ask the receiver's node whether the receiver exists - users are never removed, so the credit cannot fail for a missing account later,</li>
+ * <li>debit the sender, journaling TRANSFER_OUT with a transfer id unique in the cluster,</li>
+ * <li>ask the receiver's node to credit the transfer - it journals TRANSFER_IN and remembers the id,
+ * so a credit asked for again is acknowledged without being applied again,</li>
+ * <li>journal TRANSFER_COMPLETE once acknowledged, or credit the sender back with TRANSFER_REFUND if the receiver's node rejected it.</li>
+ * </ol>
+ * If the receiver's node does not answer, the credit may or may not have happened - the transfer stays pending and recoverTransfers asks
+ * again until the receiver's node answers. Meanwhile the amount is in flight, in no balance, but never lost. A node crashing at any point
+ * loses only what it did not journal: on restart the journal rebuilds the balances together with the pending outgoing
+ * and the credited incoming transfers, and the pending ones are delivered again.
+ * <p>
+ * Credited transfer ids are kept per sender node until the sender's node reports, with every credit request, the lowest id it still has pending -
+ * transfers below it are finished and never asked for again, so their ids are dropped and a stray repeated request for one is ignored.
+ * <p>
+ * A crash is simulated by closing the journal: a crashed instance fails every further mutation and BankingCluster starts
+ * a new instance from the same journal directory. Mutations appended but not yet flushed are written by the close,
+ * as if the crash came right after the next flush - what an operation reported as done is durable either way.
+ */
+public class ClusterNode {
+    private static final int NODE_ID_SHIFT = 48;
+
+    private final int id;
+    private final ClusterNetwork network;
+    private final AccountRepository accountRepository = new HashAccountRepository();
+    private final CrashableLog log;
+    private final BankingSystem bankingSystem;
+    // transfers debited here and not yet finished, by transfer id, guarded by itself for allocating ids
+    private final ConcurrentSkipListMap<Long, OutgoingTransfer> pendingTransfers = new ConcurrentSkipListMap<>();
+    // ids of credited transfers, by the id of the sender's node
+    private final Map<Integer, CreditedTransfers> creditedTransfers = new ConcurrentHashMap<>();
+    private long lastTransferId;
+
+    private ClusterNode(int id, FileJournal journal, ClusterNetwork network, CurrencyExchangeService exchangeService) {
+        this.id = id;
+        this.network = network;
+        this.log = new CrashableLog(journal);
+        this.bankingSystem = new BankingSystem(accountRepository, exchangeService, log);
+        this.lastTransferId = (long) id << NODE_ID_SHIFT;
+    }
+
+    // rebuilds the node from the journal in the directory and connects it to the network
+    static ClusterNode start(int id, Path directory, JournalMode journalMode, ClusterNetwork network, CurrencyExchangeService exchangeService) throws IOException {
+        FileJournal journal = FileJournal.open(directory, journalMode);
+        ClusterNode node = new ClusterNode(id, journal, network, exchangeService);
+        journal.replay(node::replay);
+        network.register(node);
+        return node;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public boolean isRunning() {
+        return network.isRunning(this);
+    }
+
+    // operations on the users of this node, cross-node transfers go through BankingCluster
+    public BankingSystem getBankingSystem() {
+        return bankingSystem;
+    }
+
+    public AccountRepository getAccountRepository() {
+        return accountRepository;
+    }
+
+    public int getPendingTransferCount() {
+        return pendingTransfers.size();
+    }
+
+    boolean hasUser(String userId) {
+        return !accountRepository.getAccountsByUserId(userId).isEmpty();
+    }
+
+    // sends to a user of another node, see the class comment - returns once the transfer is done or, if the receiver's node did not answer, pending
+    void sendToNode(Currency currency, long units, String senderId, String receiverId, int receiverNodeId) throws RuntimeException {
+        if (!network.call(this, receiverNodeId, ClusterNetwork.Message.RECEIVER_CHECK, node -> node.hasUser(receiverId)))
+            throw OperationStatus.RECEIVER_NOT_FOUND.toException();
+
+        // registered before the debit, so the lowest pending id reported to other nodes never skips a transfer about to be debited
+        OutgoingTransfer transfer;
+        synchronized (pendingTransfers) {
+            transfer = new OutgoingTransfer(++lastTransferId, currency, units, senderId, receiverId, receiverNodeId, true);
+            pendingTransfers.put(transfer.transferId, transfer);
+        }
+        try {
+            bankingSystem.debitTransfer(transfer.transferId, currency, units, senderId, receiverId);
+        } catch (RuntimeException e) {
+            pendingTransfers.remove(transfer.transferId);
+            throw e;
+        }
+        deliver(transfer);
+    }
+
+    /**
+     * Asks the receiver's nodes again to credit the pending transfers which are not being delivered right now.
+     *
+     * @return number of transfers still pending
+     */
+    public int recoverTransfers() {
+        for (OutgoingTransfer transfer : pendingTransfers.values())
+            if (transfer.delivering.compareAndSet(false, true)) {
+                try {
+                    deliver(transfer);
+                } catch (RuntimeException e) {
+                    // rejected and refunded, or this node crashed
+                }
+            }
+        return pendingTransfers.size();
+    }
+
+    // called with transfer.delivering set, finishes the transfer unless the receiver's node does not answer
+    private void deliver(OutgoingTransfer transfer) throws RuntimeException {
+        // the transfer is pending itself, so this is never above its id
+        long lowestPendingId = pendingTransfers.firstKey();
+        try {
+            network.call(this, transfer.receiverNodeId, ClusterNetwork.Message.CREDIT, node -> {
+                node.credit(lowestPendingId, transfer.transferId, transfer.currency, transfer.units, transfer.senderId, transfer.receiverId);
+                return null;
+            });
+        } catch (NodeUnavailableException e) {
+            transfer.delivering.set(false);
+            return;
+        } catch (RuntimeException e) {
+            bankingSystem.refundTransfer(transfer.transferId, transfer.currency, transfer.units, transfer.senderId, transfer.receiverId);
+            pendingTransfers.remove(transfer.transferId);
+            throw e;
+        }
+        // journaled before the transfer stops being pending, a finished transfer must not look finished to other nodes before it is durable
+        bankingSystem.completeTransfer(transfer.transferId, transfer.currency, transfer.units, transfer.senderId, transfer.receiverId);
+        pendingTransfers.remove(transfer.transferId);
+    }
+
+    // credits a transfer from another node once, however many times it is asked to
+    private void credit(long senderLowestPendingId, long transferId, Currency currency, long units, String senderId, String receiverId) throws RuntimeException {
+        CreditedTransfers credited = creditedTransfers.computeIfAbsent(nodeOf(transferId), nodeId -> new CreditedTransfers());
+        synchronized (credited) {
+            credited.forgetBelow(senderLowestPendingId);
+            if (transferId < credited.lowestPendingId || credited.ids.contains(transferId))
+                return;
+            bankingSystem.creditTransfer(transferId, currency, units, senderId, receiverId);
+            credited.ids.add(transferId);
+        }
+    }
+
+    // passes every journaled mutation of this node to the consumer, only mutations already flushed to the journal files are seen
+    void replayJournal(ObjLongConsumer<Mutation> consumer) throws IOException {
+        log.journal.replay(consumer);
+    }
+
+    // stops the node as if its process died, see the class comment
+    void crash() {
+        network.unregister(this);
+        log.crash();
+    }
+
+    static int nodeOf(long transferId) {
+        return (int) (transferId >>> NODE_ID_SHIFT);
+    }
+
+    private void replay(Mutation mutation, long sequence) {
+        bankingSystem.apply(mutation, sequence);
+        switch (mutation.type) {
+            case TRANSFER_OUT -> {
+                pendingTransfers.put(mutation.transferId, new OutgoingTransfer(mutation.transferId, mutation.currency, mutation.amount, mutation.userId,
+                        mutation.receiverId, BankingCluster.partition(mutation.receiverId, network.getNodeCount()), false));
+                lastTransferId = Math.max(lastTransferId, mutation.transferId);
+            }
+            case TRANSFER_REFUND, TRANSFER_COMPLETE -> pendingTransfers.remove(mutation.transferId);
+            case TRANSFER_IN -> creditedTransfers.computeIfAbsent(nodeOf(mutation.transferId), nodeId -> new CreditedTransfers()).ids.add(mutation.transferId);
+            default -> {
+            }
+        }
+    }
+
+    private static class OutgoingTransfer {
+        final long transferId;
+        final Currency currency;
+        final long units;
+        final String senderId;
+        final String receiverId;
+        final int receiverNodeId;
+        // set while a thread is delivering the transfer, so a transfer is never delivered by two threads at once
+        final AtomicBoolean delivering;
+
+        OutgoingTransfer(long transferId, Currency currency, long units, String senderId, String receiverId, int receiverNodeId, boolean delivering) {
+            this.transferId = transferId;
+            this.currency = currency;
+            this.units = units;
+            this.senderId = senderId;
+            this.receiverId = receiverId;
+            this.receiverNodeId = receiverNodeId;
+            this.delivering = new AtomicBoolean(delivering);
+        }
+    }
+
+    // transfers credited from one sender node, guarded by itself
+    private static class CreditedTransfers {
+        final TreeSet<Long> ids = new TreeSet<>();
+        // the sender's node has no pending transfer below this id
+        long lowestPendingId;
+
+        void forgetBelow(long senderLowestPendingId) {
+            if (senderLowestPendingId <= lowestPendingId)
+                return;
+            lowestPendingId = senderLowestPendingId;
+            ids.headSet(senderLowestPendingId).clear();
+        }
+    }
+
+    // fails every append once the node crashed, so a crashed instance changes nothing the next instance replays
+    private static class CrashableLog implements MutationLog {
+        final FileJournal journal;
+        private final ReentrantReadWriteLock crashLock = new ReentrantReadWriteLock();
+        private boolean crashed;
+
+        CrashableLog(FileJournal journal) {
+            this.journal = journal;
+        }
+
+        @Override
+        public long append(Mutation mutation) {
+            crashLock.readLock().lock();
+            try {
+                if (crashed)
+                    throw new IllegalStateException("node crashed");
+                return journal.append(mutation);
+            } finally {
+                crashLock.readLock().unlock();
+            }
+        }
+
+        @Override
+        public void awaitDurable(long sequence) {
+            crashLock.readLock().lock();
+            try {
+                if (crashed)
+                    throw new IllegalStateException("node crashed");
+                journal.awaitDurable(sequence);
+            } finally {
+                crashLock.readLock().unlock();
+            }
+        }
+
+        void crash() {
+            crashLock.writeLock().lock();
+            try {
+                if (crashed)
+                    return;
+                crashed = true;
+                journal.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                crashLock.writeLock().unlock();
+            }
+        }
+    }
+}
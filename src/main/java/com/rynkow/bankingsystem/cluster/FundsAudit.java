@@ -0,0 +1,137 @@
+package com.rynkow.bankingsystem.cluster;
+
+import com.rynkow.bankingsystem.journal.Mutation;
+import com.rynkow.bankingsystem.model.Account;
+import com.rynkow.bankingsystem.model.Currency;
+import com.rynkow.bankingsystem.model.Money;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Conservation-of-funds check of a BankingCluster: per currency, the money in all accounts plus the money in flight between nodes
+ * must equal the money deposited minus the money withdrawn, with exchanges moving money between currencies.
+ * What was deposited, withdrawn and sent between nodes is read from the journals of all nodes, the balances from their accounts.
+ * Also checks every cross-node transfer was debited once and then credited once or refunded once, never both.
+ * <p>
+ * Run it with every node running and no operation in progress, on journals written in GROUP_COMMIT or FSYNC_PER_OP mode -
+ * mutations an ASYNC journal has not flushed yet are missing from the journal files.
+ */
+public class FundsAudit {
+    // in Money units
+    public final Map<Currency, Long> expected;
+    public final Map<Currency, Long> balances;
+    public final Map<Currency, Long> inFlight;
+    public final int inFlightTransfers;
+    public final List<String> violations;
+
+    private FundsAudit(Map<Currency, Long> expected, Map<Currency, Long> balances, Map<Currency, Long> inFlight, int inFlightTransfers, List<String> violations) {
+        this.expected = expected;
+        this.balances = balances;
+        this.inFlight = inFlight;
+        this.inFlightTransfers = inFlightTransfers;
+        this.violations = violations;
+    }
+
+    public static FundsAudit run(BankingCluster cluster) throws IOException, IllegalStateException {
+        Map<Currency, Long> expected = zeroPerCurrency();
+        Map<Currency, Long> balances = zeroPerCurrency();
+        Map<Long, TransferLegs> transfers = new HashMap<>();
+        for (int i = 0; i < cluster.getNodeCount(); i++) {
+            ClusterNode node = cluster.getNode(i);
+            if (node == null)
+                throw new IllegalStateException("node " + i + " down");
+
+            for (Account account : node.getAccountRepository().getAccounts())
+                balances.merge(account.getCurrency(), account.getBalanceUnits(), Long::sum);
+            node.replayJournal((mutation, sequence) -> {
+                switch (mutation.type) {
+                    case DEPOSIT -> expected.merge(mutation.currency, mutation.amount, Long::sum);
+                    case WITHDRAW -> expected.merge(mutation.currency, -mutation.amount, Long::sum);
+                    case EXCHANGE -> {
+                        expected.merge(mutation.currency, -mutation.amount, Long::sum);
+                        expected.merge(mutation.targetCurrency, mutation.receivedAmount, Long::sum);
+                    }
+                    case TRANSFER_OUT, TRANSFER_IN, TRANSFER_REFUND, TRANSFER_COMPLETE ->
+                            transfers.computeIfAbsent(mutation.transferId, transferId -> new TransferLegs(mutation)).count(mutation);
+                    default -> {
+                    }
+                }
+            });
+        }
+
+        Map<Currency, Long> inFlight = zeroPerCurrency();
+        int inFlightTransfers = 0;
+        List<String> violations = new ArrayList<>();
+        for (Map.Entry<Long, TransferLegs> entry : transfers.entrySet()) {
+            TransferLegs legs = entry.getValue();
+            String transfer = "transfer " + entry.getKey() + " ";
+            if (legs.debits != 1)
+                violations.add(transfer + "debited " + legs.debits + " times");
+            if (legs.credits > 1)
+                violations.add(transfer + "credited " + legs.credits + " times");
+            if (legs.refunds > 1)
+                violations.add(transfer + "refunded " + legs.refunds + " times");
+            if (legs.credits > 0 && legs.refunds > 0)
+                violations.add(transfer + "credited and refunded");
+            if (legs.completions > 0 && legs.credits == 0)
+                violations.add(transfer + "completed without a credit");
+            if (legs.debits > 0 && legs.credits == 0 && legs.refunds == 0) {
+                inFlight.merge(legs.currency, legs.units, Long::sum);
+                inFlightTransfers++;
+            }
+        }
+        for (Currency currency : Currency.values())
+            if (expected.get(currency) != balances.get(currency) + inFlight.get(currency))
+                violations.add(String.format("%s: %s deposited, %s in accounts and %s in flight", currency, Money.toBigDecimal(expected.get(currency)),
+                        Money.toBigDecimal(balances.get(currency)), Money.toBigDecimal(inFlight.get(currency))));
+        return new FundsAudit(expected, balances, inFlight, inFlightTransfers, violations);
+    }
+
+    public boolean isBalanced() {
+        return violations.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return isBalanced()
+                ? String.format("balanced, %d transfers in flight", inFlightTransfers)
+                : String.join("\n", violations);
+    }
+
+    private static Map<Currency, Long> zeroPerCurrency() {
+        Map<Currency, Long> units = new EnumMap<>(Currency.class);
+        for (Currency currency : Currency.values())
+            units.put(currency, 0L);
+        return units;
+    }
+
+    // journaled legs of one cross-node transfer, from the journals of the sender's and the receiver's node
+    private static class TransferLegs {
+        final Currency currency;
+        final long units;
+        int debits;
+        int credits;
+        int refunds;
+        int completions;
+
+        TransferLegs(Mutation mutation) {
+            this.currency = mutation.currency;
+            this.units = mutation.amount;
+        }
+
+        void count(Mutation mutation) {
+            switch (mutation.type) {
+                case TRANSFER_OUT -> debits++;
+                case TRANSFER_IN -> credits++;
+                case TRANSFER_REFUND -> refunds++;
+                case TRANSFER_COMPLETE -> completions++;
+                default -> throw new IllegalArgumentException("not a transfer leg: " + mutation.type);
+            }
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.rynkow.bankingsystem.cluster;
+
+/**
+ * A node did not answer - it is down, or the request or the response was lost.
+ * The outcome of the call is unknown, the request may or may not have been handled.
+ */
+public class NodeUnavailableException extends RuntimeException {
+    private final int nodeId;
+
+    public NodeUnavailableException(int nodeId) {
+        super("node " + nodeId + " unavailable");
+        this.nodeId = nodeId;
+    }
+
+    public int getNodeId() {
+        return nodeId;
+    }
+}
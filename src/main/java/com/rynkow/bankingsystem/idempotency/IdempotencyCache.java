@@ -0,0 +1,382 @@
+package com.rynkow.bankingsystem.idempotency;
+
+import com.rynkow.bankingsystem.metrics.Operation;
+import com.rynkow.bankingsystem.model.OperationStatus;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Outcomes of operations by their idempotency key, so a client retrying an operation gets the outcome of the first attempt
+ * instead of running it again - see the BankingSystem operations taking an idempotency key.
+ * <p>
+ * Keys are hashed to stripes, each a fixed-size chained hash table under its own lock, with the entries linked in least recently
+ * used order: lookups, inserts and evictions are constant time, and the only allocation per key is its entry.
+ * An entry keeps a fingerprint of the operation's arguments, so a key reused with other arguments is rejected instead of
+ * answered with the outcome of a different request. Rejections - OperationStatus failures and invalid arguments - are outcomes
+ * like any other; after any other exception the key is forgotten, so a retry runs the operation again.
+ * An entry expires its time to live after the first attempt started; the least recently used ones are evicted
+ * once the estimated size of the stripe's table and entries exceeds its share of the memory ceiling.
+ * <p>
+ * Outcomes are kept in memory only, a restarted or promoted BankingSystem does not know the keys of earlier operations.
+ */
+public class IdempotencyCache {
+    public static final long DEFAULT_MAX_BYTES = 16L << 20;
+    public static final long DEFAULT_TTL_MILLIS = TimeUnit.HOURS.toMillis(1);
+    public static final int MAX_KEY_LENGTH = 256;
+    private static final int STRIPES = 64;
+    // estimated sizes, with compressed references: entry object, key String with its Latin-1 array, list of a batch outcome,
+    // exception with its stack trace
+    private static final int ENTRY_BYTES = 64;
+    private static final int STRING_BYTES = 40;
+    private static final int LIST_BYTES = 40;
+    private static final int EXCEPTION_BYTES = 1024;
+    // the tables have a bucket per entry of about this size, longer keys and batch outcomes make longer chains
+    private static final int TYPICAL_ENTRY_BYTES = 128;
+    // outcome of an operation returning nothing, and of one still running
+    private static final Object DONE = new Object();
+    private static final Object RUNNING = new Object();
+
+    private final long maxBytes;
+    private final long ttlNanos;
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    public IdempotencyCache() {
+        this(DEFAULT_MAX_BYTES, DEFAULT_TTL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param maxBytes memory ceiling of the cache, its tables are allocated per stripe on first use
+     * @param ttl      how long the outcome of an operation is kept
+     */
+    public IdempotencyCache(long maxBytes, long ttl, TimeUnit unit) {
+        if (maxBytes < (long) STRIPES * (TYPICAL_ENTRY_BYTES + EXCEPTION_BYTES))
+            throw new IllegalArgumentException("memory ceiling too low");
+        if (ttl <= 0)
+            throw new IllegalArgumentException("time to live not positive");
+
+        this.maxBytes = maxBytes;
+        this.ttlNanos = unit.toNanos(ttl);
+        for (int i = 0; i < STRIPES; i++)
+            stripes[i] = new Stripe(maxBytes / STRIPES);
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Runs the action, unless an operation with the same key ran within the time to live: then returns its result
+     * or throws its exception, after waiting for it if it is still running.
+     *
+     * @param operation   the operation the key is for, reusing a key for another operation fails
+     * @param fingerprint of the operation's arguments, see fingerprint - reusing a key with other arguments fails
+     * @throws IllegalArgumentException if the key is too long or was used for another operation or other arguments
+     */
+    public <T> T execute(String key, Operation operation, long fingerprint, Supplier<T> action) throws RuntimeException {
+        if (key.length() > MAX_KEY_LENGTH)
+            throw new IllegalArgumentException("idempotency key too long");
+
+        int hash = spread(key.hashCode());
+        Stripe stripe = stripes[hash & (STRIPES - 1)];
+        Entry entry;
+        boolean first = false;
+        stripe.lock.lock();
+        try {
+            long now = System.nanoTime();
+            entry = stripe.get(key, hash, now);
+            if (entry == null) {
+                entry = stripe.insert(key, hash, operation, fingerprint, now, now + ttlNanos);
+                first = true;
+            }
+        } finally {
+            stripe.lock.unlock();
+        }
+        if (entry.operation != operation)
+            throw new IllegalArgumentException("idempotency key already used for " + entry.operation);
+        if (entry.fingerprint != fingerprint)
+            throw new IllegalArgumentException("idempotency key already used for " + operation + " with other arguments");
+        if (!first)
+            return entry.awaitOutcome();
+
+        T result;
+        try {
+            result = action.get();
+        } catch (RuntimeException e) {
+            // a rejection is the outcome of the operation, after any other failure the outcome is unknown and a retry runs it again
+            if (OperationStatus.of(e) != null || e instanceof IllegalArgumentException) {
+                stripe.complete(entry, e, EXCEPTION_BYTES);
+            } else {
+                stripe.remove(entry);
+                entry.setOutcome(e);
+            }
+            throw e;
+        } catch (Error e) {
+            // the outcome is unknown, a retry runs the operation again
+            stripe.remove(entry);
+            entry.setOutcome(new IllegalStateException("operation failed: " + e));
+            throw e;
+        }
+        stripe.complete(entry, result != null ? result : DONE, result instanceof List<?> list ? LIST_BYTES + list.size() * Integer.BYTES : 0);
+        return result;
+    }
+
+    public long getSize() {
+        long size = 0;
+        for (Stripe stripe : stripes)
+            size += stripe.read(() -> (long) stripe.size);
+        return size;
+    }
+
+    public long getEstimatedBytes() {
+        long bytes = 0;
+        for (Stripe stripe : stripes)
+            bytes += stripe.read(() -> stripe.bytes);
+        return bytes;
+    }
+
+    // repeated keys answered from the cache
+    public long getHits() {
+        long hits = 0;
+        for (Stripe stripe : stripes)
+            hits += stripe.read(() -> stripe.hits);
+        return hits;
+    }
+
+    // entries dropped before they expired, because of the memory ceiling
+    public long getEvictions() {
+        long evictions = 0;
+        for (Stripe stripe : stripes)
+            evictions += stripe.read(() -> stripe.evictions);
+        return evictions;
+    }
+
+    // hash of the arguments of an operation, amounts compared by value
+    public static long fingerprint(Object... arguments) {
+        long hash = 0xcbf29ce484222325L;
+        for (Object argument : arguments) {
+            Object value = argument instanceof BigDecimal amount ? amount.stripTrailingZeros() : argument;
+            hash = (hash ^ Objects.hashCode(value)) * 0x100000001b3L;
+            hash ^= hash >>> 29;
+        }
+        return hash;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static long keyBytes(String key) {
+        return ENTRY_BYTES + ((STRING_BYTES + key.length() + 7) & ~7);
+    }
+
+    private static final class Entry {
+        final String key;
+        final int hash;
+        final Operation operation;
+        final long fingerprint;
+        final long expiresAt;
+        // estimated size of the entry and its outcome, guarded by the stripe lock
+        long bytes;
+        // hash chain and least recently used order, guarded by the stripe lock
+        Entry next;
+        Entry before;
+        Entry after;
+        // DONE, a result or an exception, guarded by this entry
+        private Object outcome = RUNNING;
+
+        Entry(String key, int hash, Operation operation, long fingerprint, long expiresAt) {
+            this.key = key;
+            this.hash = hash;
+            this.operation = operation;
+            this.fingerprint = fingerprint;
+            this.expiresAt = expiresAt;
+            this.bytes = keyBytes(key);
+        }
+
+        synchronized boolean isRunning() {
+            return outcome == RUNNING;
+        }
+
+        synchronized void setOutcome(Object outcome) {
+            this.outcome = outcome;
+            notifyAll();
+        }
+
+        @SuppressWarnings("unchecked")
+        synchronized <T> T awaitOutcome() throws RuntimeException {
+            boolean interrupted = false;
+            while (outcome == RUNNING) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+            if (outcome instanceof RuntimeException e)
+                throw e;
+            return outcome == DONE ? null : (T) outcome;
+        }
+    }
+
+    private static final class Stripe {
+        final ReentrantLock lock = new ReentrantLock();
+        final long maxBytes;
+        // allocated on first insert, guarded by the lock like everything below
+        Entry[] table;
+        // least and most recently used
+        Entry head;
+        Entry tail;
+        int size;
+        long bytes;
+        long hits;
+        long evictions;
+
+        Stripe(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        long read(Supplier<Long> value) {
+            lock.lock();
+            try {
+                return value.get();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // the entry of an unexpired key, now the most recently used
+        Entry get(String key, int hash, long now) {
+            if (table == null)
+                return null;
+            for (Entry entry = table[index(hash)]; entry != null; entry = entry.next) {
+                if (entry.hash == hash && entry.key.equals(key)) {
+                    if (entry.expiresAt - now <= 0 && !entry.isRunning()) {
+                        unlink(entry);
+                        return null;
+                    }
+                    hits++;
+                    moveToTail(entry);
+                    return entry;
+                }
+            }
+            return null;
+        }
+
+        Entry insert(String key, int hash, Operation operation, long fingerprint, long now, long expiresAt) {
+            if (table == null) {
+                int length = Integer.highestOneBit((int) Math.max(16, Math.min(1 << 30, maxBytes / TYPICAL_ENTRY_BYTES)));
+                table = new Entry[length];
+                bytes += 16 + (long) length * Integer.BYTES;
+            }
+            Entry entry = new Entry(key, hash, operation, fingerprint, expiresAt);
+            int index = index(hash);
+            entry.next = table[index];
+            table[index] = entry;
+            entry.before = tail;
+            if (tail != null)
+                tail.after = entry;
+            else
+                head = entry;
+            tail = entry;
+            size++;
+            bytes += entry.bytes;
+            // the least recently used entry is the one to expire or evict, expired ones further on go once they are looked up
+            // or reach the head
+            while (head != entry && head.expiresAt - now <= 0 && !head.isRunning())
+                unlink(head);
+            evict();
+            return entry;
+        }
+
+        void complete(Entry entry, Object outcome, long outcomeBytes) {
+            lock.lock();
+            try {
+                // still in the table unless evicted
+                if (entry.before != null || head == entry) {
+                    entry.bytes += outcomeBytes;
+                    bytes += outcomeBytes;
+                }
+                entry.setOutcome(outcome);
+                evict();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void remove(Entry entry) {
+            lock.lock();
+            try {
+                if (entry.before != null || head == entry)
+                    unlink(entry);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // evicts least recently used entries over the ceiling, running ones only if nothing else is left
+        private void evict() {
+            int skipped = 0;
+            while (bytes > maxBytes && head != null && skipped < size) {
+                Entry entry = head;
+                if (entry.isRunning() && skipped < size) {
+                    moveToTail(entry);
+                    skipped++;
+                    continue;
+                }
+                unlink(entry);
+                evictions++;
+            }
+        }
+
+        private void moveToTail(Entry entry) {
+            if (entry == tail)
+                return;
+            if (entry.before != null)
+                entry.before.after = entry.after;
+            else
+                head = entry.after;
+            entry.after.before = entry.before;
+            entry.before = tail;
+            entry.after = null;
+            tail.after = entry;
+            tail = entry;
+        }
+
+        private void unlink(Entry entry) {
+            int index = index(entry.hash);
+            if (table[index] == entry) {
+                table[index] = entry.next;
+            } else {
+                Entry previous = table[index];
+                while (previous.next != entry)
+                    previous = previous.next;
+                previous.next = entry.next;
+            }
+            if (entry.before != null)
+                entry.before.after = entry.after;
+            else
+                head = entry.after;
+            if (entry.after != null)
+                entry.after.before = entry.before;
+            else
+                tail = entry.before;
+            entry.next = null;
+            entry.before = null;
+            entry.after = null;
+            size--;
+            bytes -= entry.bytes;
+        }
+
+        private int index(int hash) {
+            // the low bits chose the stripe
+            return (hash >>> 6) & (table.length - 1);
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package com.rynkow.bankingsystem.journal;
+
+import com.rynkow.bankingsystem.model.Account;
+import com.rynkow.bankingsystem.model.Currency;
+import com.rynkow.bankingsystem.model.Money;
+import com.rynkow.bankingsystem.model.Transaction;
+import com.rynkow.bankingsystem.model.TransactionType;
+import com.rynkow.bankingsystem.repository.AccountRepository;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Writes snapshots of all accounts next to a FileJournal and drops the journal segments they cover.
+ * Writes are not stopped while a snapshot is taken: the journal is rotated first, then every account is copied under its own lock
+ * together with the sequence number of the last mutation applied to it. On startup, restore loads the latest snapshot and
+ * BankingSystem.apply replays the journal from the snapshot sequence on, skipping mutations an account already reflects.
+ * <p>
+ * Snapshot file snapshot-(last journaled sequence).snap: int magic, int version, long sequence, long account count, then per account:
+ * unsigned short userId byte length, UTF-8 userId, byte currency, long balance in Money units, long last sequence, int history length,
+ * then per transaction: byte type, long date in epoch milliseconds, long initial balance and long balance change in Money units.
+ * The history has to be in the snapshot, the journal segments it was built from are deleted. Other versions are rejected.
+ * <p>
+ * A failed scheduled checkpoint is counted, and thrown by the next checkpoint call.
+ */
+public class Checkpointer implements Closeable {
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".snap";
+    private static final int MAGIC = 0x534E4150;
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 2 * Integer.BYTES + 2 * Long.BYTES;
+    private static final int MAX_RECORD_SIZE = 2 + 0xFFFF + 1 + 2 * Long.BYTES + Integer.BYTES;
+    private static final int TRANSACTION_SIZE = 1 + 3 * Long.BYTES;
+    private static final int WRITE_BUFFER_SIZE = 1 << 20;
+    // a MappedByteBuffer is indexed by int, larger snapshots are read through several windows
+    private static final long MAP_WINDOW_SIZE = 1L << 30;
+    private static final Currency[] CURRENCIES = Currency.values();
+    private static final TransactionType[] TRANSACTION_TYPES = TransactionType.values();
+
+    private final Path directory;
+    private final FileJournal journal;
+    private final AccountRepository accountRepository;
+    private ScheduledExecutorService scheduler;
+    // last failure of a scheduled checkpoint not thrown yet, and the number of failed scheduled checkpoints, written by the scheduler
+    private volatile Exception scheduledFailure;
+    private volatile long failedCheckpoints;
+
+    public Checkpointer(Path directory, FileJournal journal, AccountRepository accountRepository) {
+        this.directory = directory;
+        this.journal = journal;
+        this.accountRepository = accountRepository;
+    }
+
+    /**
+     * Writes a snapshot and deletes older snapshots and the journal segments it covers.
+     *
+     * @return journal sequence number covered by the snapshot
+     */
+    public synchronized long checkpoint() throws IOException {
+        Exception failure = scheduledFailure;
+        if (failure != null) {
+            scheduledFailure = null;
+            throw new IOException("scheduled checkpoint failed", failure);
+        }
+        return writeCheckpoint();
+    }
+
+    public long getFailedCheckpoints() {
+        return failedCheckpoints;
+    }
+
+    private synchronized long writeCheckpoint() throws IOException {
+        long sequence = journal.rotate();
+        Path snapshot = directory.resolve(snapshotName(sequence));
+        Path temporary = directory.resolve(snapshotName(sequence) + ".tmp");
+        List<Account> accounts = accountRepository.getAccounts();
+
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+            buffer.putInt(MAGIC).putInt(VERSION).putLong(sequence).putLong(accounts.size());
+            for (Account account : accounts) {
+                byte[] userId = account.getUserId().getBytes(StandardCharsets.UTF_8);
+                if (buffer.remaining() < 2 + userId.length + 1 + 2 * Long.BYTES + Integer.BYTES)
+                    write(channel, buffer);
+                buffer.putShort((short) userId.length).put(userId).put((byte) account.getCurrency().ordinal());
+                // balance, last sequence and history are consistent with each other only under the account lock
+                List<Transaction> history;
+                account.getLock().lock();
+                try {
+                    history = account.getTransactionHistory();
+                    buffer.putLong(account.getBalanceUnits()).putLong(account.getLastSequence()).putInt(history.size());
+                } finally {
+                    account.getLock().unlock();
+                }
+                for (Transaction transaction : history) {
+                    if (buffer.remaining() < TRANSACTION_SIZE)
+                        write(channel, buffer);
+                    buffer.put((byte) transaction.type.ordinal()).putLong(transaction.transactionDate.getTime())
+                            .putLong(Money.toUnits(transaction.initialBalance)).putLong(Money.toUnits(transaction.balanceChange));
+                }
+            }
+            write(channel, buffer);
+            channel.force(true);
+        }
+        Files.move(temporary, snapshot, StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory();
+
+        journal.deleteSegmentsUpTo(sequence);
+        for (Path oldSnapshot : snapshots(directory))
+            if (!oldSnapshot.equals(snapshot))
+                Files.delete(oldSnapshot);
+        return sequence;
+    }
+
+    // takes a checkpoint every period on a daemon thread until close
+    public synchronized void schedule(long period, TimeUnit unit) {
+        if (scheduler != null)
+            throw new IllegalStateException("checkpoints already scheduled");
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "checkpointer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::scheduledCheckpoint, period, period, unit);
+    }
+
+    // the scheduler has no caller to throw to, the failure is kept for the next checkpoint call
+    private void scheduledCheckpoint() {
+        try {
+            writeCheckpoint();
+        } catch (IOException | RuntimeException e) {
+            scheduledFailure = e;
+            failedCheckpoints++;
+        }
+    }
+
+    /**
+     * Loads the latest snapshot in the directory into an empty repository.
+     * Follow with journal.replay(returned sequence + 1, bankingSystem::apply).
+     *
+     * @return journal sequence number covered by the snapshot, 0 if there is none
+     */
+    public static long restore(Path directory, AccountRepository accountRepository) throws IOException {
+        if (!Files.isDirectory(directory))
+            return 0;
+        List<Path> snapshots = snapshots(directory);
+        if (snapshots.isEmpty())
+            return 0;
+
+        Path snapshot = snapshots.get(snapshots.size() - 1);
+        try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+            long size = channel.size();
+            SnapshotReader reader = new SnapshotReader(channel);
+            MappedByteBuffer window = reader.window;
+            int version = size < HEADER_SIZE || window.getInt() != MAGIC ? 0 : window.getInt();
+            if (version == 0)
+                throw new IOException("not a snapshot file: " + snapshot);
+            if (version != VERSION)
+                throw new IOException("unsupported snapshot version " + version + ": " + snapshot);
+            long sequence = window.getLong();
+            long accountCount = window.getLong();
+            byte[] userIdBytes = new byte[0xFFFF];
+
+            for (long i = 0; i < accountCount; i++) {
+                window = reader.require(MAX_RECORD_SIZE);
+                int userIdLength = Short.toUnsignedInt(window.getShort());
+                window.get(userIdBytes, 0, userIdLength);
+                String userId = new String(userIdBytes, 0, userIdLength, StandardCharsets.UTF_8);
+                Currency currency = CURRENCIES[window.get()];
+                long balance = window.getLong();
+                long lastSequence = window.getLong();
+                int historyLength = window.getInt();
+                Account account = new Account(userId, currency, balance, lastSequence);
+                for (int j = 0; j < historyLength; j++) {
+                    window = reader.require(TRANSACTION_SIZE);
+                    TransactionType type = TRANSACTION_TYPES[window.get()];
+                    long date = window.getLong();
+                    long initialBalance = window.getLong();
+                    account.addTransactionToHistory(type, initialBalance, window.getLong(), date);
+                }
+                accountRepository.save(account);
+            }
+            return sequence;
+        }
+    }
+
+    // reads a snapshot through MAP_WINDOW_SIZE windows
+    private static class SnapshotReader {
+        private final FileChannel channel;
+        private final long size;
+        private MappedByteBuffer window;
+        private long windowStart;
+
+        SnapshotReader(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.size = channel.size();
+            this.window = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, MAP_WINDOW_SIZE));
+        }
+
+        // a record may straddle the window end, remap from the start of the record
+        MappedByteBuffer require(int bytes) throws IOException {
+            if (window.remaining() < bytes && windowStart + window.limit() < size) {
+                windowStart += window.position();
+                window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, Math.min(size - windowStart, MAP_WINDOW_SIZE));
+            }
+            return window;
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (scheduler == null)
+            return;
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+
+    // makes the rename durable, not supported on every platform
+    private void syncDirectory() {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static List<Path> snapshots(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            List<Path> snapshots = new ArrayList<>(files
+                    .filter(file -> file.getFileName().toString().startsWith(SNAPSHOT_PREFIX) && file.getFileName().toString().endsWith(SNAPSHOT_SUFFIX))
+                    .toList());
+            // fixed-width names, so lexicographic order is sequence order
+            snapshots.sort(null);
+            return snapshots;
+        }
+    }
+
+    private static String snapshotName(long sequence) {
+        return String.format("%s%020d%s", SNAPSHOT_PREFIX, sequence, SNAPSHOT_SUFFIX);
+    }
+}
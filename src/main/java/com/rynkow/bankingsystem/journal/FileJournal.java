@@ -0,0 +1,326 @@
+package com.rynkow.bankingsystem.journal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ObjLongConsumer;
+import java.util.stream.Stream;
+
+/**
+ * Append-only journal of mutations, stored as segment files named journal-(first sequence number).log in a directory.
+ * Records are encoded with MutationCodec, a torn record at the end of the last segment (crash during a write) is cut off on open.
+ * Segments covered by a snapshot can be dropped after rotate, see Checkpointer.
+ * The journal is fail-stop: after a failed write or fsync nothing more is written, the unwritten records are never
+ * reported durable and every later append, awaitDurable, rotate and close throws.
+ */
+public class FileJournal implements MutationLog, Closeable {
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final long ASYNC_FLUSH_INTERVAL_MILLIS = 10;
+
+    private final Path directory;
+    private final JournalMode mode;
+    private final Object appendLock = new Object();
+    // only one thread writes and fsyncs at a time, threads waiting for it are committed by the next flush as a group
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final ScheduledExecutorService asyncFlusher;
+
+    // guarded by appendLock
+    private ByteBuffer pending;
+    private long appendedSequence;
+    // guarded by flushLock
+    private FileChannel channel;
+    private long segmentFirstSequence;
+    private ByteBuffer flushing;
+    private volatile long durableSequence;
+    // first write failure, set once
+    private volatile IOException failure;
+
+    private FileJournal(Path directory, JournalMode mode, Path segment, long lastSequence) throws IOException {
+        this.directory = directory;
+        this.mode = mode;
+        this.channel = FileChannel.open(segment, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        this.channel.position(channel.size());
+        this.segmentFirstSequence = firstSequence(segment);
+        this.pending = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        this.flushing = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        this.appendedSequence = lastSequence;
+        this.durableSequence = lastSequence;
+
+        if (mode == JournalMode.ASYNC) {
+            asyncFlusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "journal-flusher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            asyncFlusher.scheduleWithFixedDelay(this::flushQuietly, ASYNC_FLUSH_INTERVAL_MILLIS, ASYNC_FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        } else
+            asyncFlusher = null;
+    }
+
+    /**
+     * Opens the journal in the given directory, creating it if needed.
+     * Call replay before the first append to rebuild state from the journal.
+     */
+    public static FileJournal open(Path directory, JournalMode mode) throws IOException {
+        Files.createDirectories(directory);
+        List<Path> segments = segments(directory);
+        if (segments.isEmpty())
+            return new FileJournal(directory, mode, directory.resolve(segmentName(1)), 0);
+
+        Path lastSegment = segments.get(segments.size() - 1);
+        long[] records = new long[1];
+        long validLength = readSegment(lastSegment, 0, (mutation, sequence) -> records[0]++);
+        try (FileChannel channel = FileChannel.open(lastSegment, StandardOpenOption.WRITE)) {
+            if (channel.size() > validLength)
+                channel.truncate(validLength);
+        }
+        return new FileJournal(directory, mode, lastSegment, firstSequence(lastSegment) + records[0] - 1);
+    }
+
+    // passes every journaled mutation with its sequence number, oldest first, to the consumer
+    public void replay(ObjLongConsumer<Mutation> consumer) throws IOException {
+        replay(0, consumer);
+    }
+
+    // replays mutations with sequence number >= fromSequence
+    public void replay(long fromSequence, ObjLongConsumer<Mutation> consumer) throws IOException {
+        List<Path> segments = segments(directory);
+        for (int i = 0; i < segments.size(); i++)
+            // skip segments that end before fromSequence
+            if (i + 1 == segments.size() || firstSequence(segments.get(i + 1)) > fromSequence)
+                readSegment(segments.get(i), fromSequence, consumer);
+    }
+
+    /**
+     * Starts a new segment. Every mutation appended before the call is in the previous segments, every later one in the new segment.
+     *
+     * @return sequence number of the last mutation in the previous segments
+     */
+    public long rotate() throws IOException {
+        flushLock.lock();
+        try {
+            synchronized (appendLock) {
+                flush();
+                // nothing appended since the last rotate
+                if (appendedSequence + 1 == segmentFirstSequence)
+                    return appendedSequence;
+                FileChannel nextChannel = FileChannel.open(directory.resolve(segmentName(appendedSequence + 1)), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+                channel.close();
+                channel = nextChannel;
+                segmentFirstSequence = appendedSequence + 1;
+                return appendedSequence;
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    // deletes segments which contain only mutations with sequence number <= sequence, the current segment is always kept
+    public void deleteSegmentsUpTo(long sequence) throws IOException {
+        List<Path> segments = segments(directory);
+        for (int i = 0; i + 1 < segments.size(); i++)
+            if (firstSequence(segments.get(i + 1)) <= sequence + 1)
+                Files.delete(segments.get(i));
+    }
+
+    @Override
+    public long append(Mutation mutation) {
+        throwIfFailed();
+        int frameSize = MutationCodec.frameSize(mutation);
+        if (mode == JournalMode.FSYNC_PER_OP) {
+            flushLock.lock();
+            try {
+                long sequence = appendFrame(mutation, frameSize);
+                flush();
+                return sequence;
+            } finally {
+                flushLock.unlock();
+            }
+        }
+
+        long sequence;
+        // buffer full, write it out and retry
+        while ((sequence = appendFrame(mutation, frameSize)) < 0)
+            flushLocked();
+        return sequence;
+    }
+
+    // returns -1 if the pending buffer has no room for the frame
+    private long appendFrame(Mutation mutation, int frameSize) {
+        synchronized (appendLock) {
+            if (pending.remaining() < frameSize) {
+                if (pending.position() > 0)
+                    return -1;
+                // frame larger than the whole buffer
+                pending = ByteBuffer.allocateDirect(frameSize);
+            }
+            MutationCodec.writeFrame(mutation, pending);
+            return ++appendedSequence;
+        }
+    }
+
+    @Override
+    public void awaitDurable(long sequence) {
+        throwIfFailed();
+        if (mode != JournalMode.GROUP_COMMIT || durableSequence >= sequence)
+            return;
+
+        flushLock.lock();
+        try {
+            // everything appended while the previous flush was running goes out in this single fsync
+            if (durableSequence < sequence)
+                flush();
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    public long getDurableSequence() {
+        return durableSequence;
+    }
+
+    public long getAppendedSequence() {
+        synchronized (appendLock) {
+            return appendedSequence;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (asyncFlusher != null) {
+            // not shutdownNow - interrupting a thread blocked in FileChannel.write closes the channel
+            asyncFlusher.shutdown();
+            try {
+                asyncFlusher.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flushLock.lock();
+        try {
+            if (failure == null)
+                flush();
+        } finally {
+            channel.close();
+            flushLock.unlock();
+        }
+        if (failure != null)
+            throw new IOException("journal write failed, unwritten records were lost", failure);
+    }
+
+    // the journal cannot tell which records reached the disk after a failed write, so it stops accepting any
+    private void throwIfFailed() {
+        if (failure != null)
+            throw new UncheckedIOException("journal write failed earlier, it accepts no more records", failure);
+    }
+
+    // writes and fsyncs everything appended so far, locks are always taken in flushLock -> appendLock order
+    private void flushLocked() {
+        flushLock.lock();
+        try {
+            flush();
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    // called with flushLock held
+    private void flush() {
+        throwIfFailed();
+        long sequence;
+        synchronized (appendLock) {
+            ByteBuffer full = pending;
+            pending = flushing;
+            flushing = full;
+            sequence = appendedSequence;
+        }
+        if (flushing.position() == 0) {
+            durableSequence = sequence;
+            return;
+        }
+        // appenders continue filling the other buffer while this one is written
+        try {
+            flushing.flip();
+            while (flushing.hasRemaining())
+                channel.write(flushing);
+            channel.force(false);
+        } catch (IOException e) {
+            // the records stay in the buffer and durableSequence stays behind them
+            failure = e;
+            throw new UncheckedIOException("journal write failed", e);
+        }
+        flushing.clear();
+        durableSequence = sequence;
+    }
+
+    // the async flusher has no caller to throw to, its failure is thrown by the next append or awaitDurable
+    private void flushQuietly() {
+        if (failure != null)
+            return;
+        try {
+            flushLocked();
+        } catch (UncheckedIOException ignored) {
+        }
+    }
+
+    // returns the length of the valid prefix of the segment
+    private static long readSegment(Path segment, long fromSequence, ObjLongConsumer<Mutation> consumer) throws IOException {
+        long validLength = 0;
+        long sequence = firstSequence(segment);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            while (channel.read(buffer) >= 0 || buffer.position() > 0) {
+                buffer.flip();
+                Mutation mutation;
+                int consumed = 0;
+                while ((mutation = MutationCodec.readFrame(buffer)) != null) {
+                    if (sequence >= fromSequence)
+                        consumer.accept(mutation, sequence);
+                    sequence++;
+                    consumed++;
+                }
+                validLength += buffer.position();
+                boolean endOfFile = channel.position() == channel.size();
+                if (consumed == 0 && (endOfFile || buffer.remaining() == buffer.capacity())) {
+                    // the rest cannot be a complete frame - torn or corrupted tail
+                    break;
+                }
+                buffer.compact();
+            }
+        }
+        return validLength;
+    }
+
+    private static List<Path> segments(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            List<Path> segments = new ArrayList<>(files
+                    .filter(file -> file.getFileName().toString().startsWith(SEGMENT_PREFIX) && file.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                    .toList());
+            // fixed-width names, so lexicographic order is sequence order
+            segments.sort(null);
+            return segments;
+        }
+    }
+
+    private static String segmentName(long firstSequence) {
+        return String.format("%s%020d%s", SEGMENT_PREFIX, firstSequence, SEGMENT_SUFFIX);
+    }
+
+    private static long firstSequence(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+}
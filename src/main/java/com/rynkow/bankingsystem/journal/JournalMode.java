@@ -0,0 +1,10 @@
+package com.rynkow.bankingsystem.journal;
+
+public enum JournalMode {
+    // every append is written and fsynced before it returns
+    FSYNC_PER_OP,
+    // appends are buffered, concurrent callers waiting for durability share a single fsync
+    GROUP_COMMIT,
+    // appends are flushed and fsynced periodically in the background, a crash may lose the last few milliseconds
+    ASYNC
+}
@@ -0,0 +1,75 @@
+package com.rynkow.bankingsystem.journal;
+
+import com.rynkow.bankingsystem.model.Currency;
+
+/**
+ * A single applied BankingSystem operation, with everything needed to apply it again on replay.
+ * Amounts are in Money units, exchanges carry the received amount so replay does not depend on current exchange rates.
+ */
+public class Mutation {
+    public final MutationType type;
+    public final long timestamp;
+    public final String userId;
+    // receiver of SEND and of the transfer legs, null otherwise
+    public final String receiverId;
+    // null for NEW_USER
+    public final Currency currency;
+    // target currency of EXCHANGE, null otherwise
+    public final Currency targetCurrency;
+    public final long amount;
+    // amount deposited to the target currency account by EXCHANGE
+    public final long receivedAmount;
+    // version of the exchange rates used by EXCHANGE
+    public final long rateVersion;
+    // id of the cross-node transfer of TRANSFER_OUT, TRANSFER_IN, TRANSFER_REFUND and TRANSFER_COMPLETE, 0 otherwise
+    public final long transferId;
+
+    public Mutation(MutationType type, long timestamp, String userId, String receiverId, Currency currency, Currency targetCurrency, long amount, long receivedAmount,
+                    long rateVersion, long transferId) {
+        this.type = type;
+        this.timestamp = timestamp;
+        this.userId = userId;
+        this.receiverId = receiverId;
+        this.currency = currency;
+        this.targetCurrency = targetCurrency;
+        this.amount = amount;
+        this.receivedAmount = receivedAmount;
+        this.rateVersion = rateVersion;
+        this.transferId = transferId;
+    }
+
+    public static Mutation newUser(long timestamp, String userId) {
+        return new Mutation(MutationType.NEW_USER, timestamp, userId, null, null, null, 0, 0, 0, 0);
+    }
+
+    public static Mutation deposit(long timestamp, String userId, Currency currency, long amount) {
+        return new Mutation(MutationType.DEPOSIT, timestamp, userId, null, currency, null, amount, 0, 0, 0);
+    }
+
+    public static Mutation withdraw(long timestamp, String userId, Currency currency, long amount) {
+        return new Mutation(MutationType.WITHDRAW, timestamp, userId, null, currency, null, amount, 0, 0, 0);
+    }
+
+    public static Mutation send(long timestamp, String senderId, String receiverId, Currency currency, long amount) {
+        return new Mutation(MutationType.SEND, timestamp, senderId, receiverId, currency, null, amount, 0, 0, 0);
+    }
+
+    public static Mutation exchange(long timestamp, String userId, Currency baseCurrency, Currency targetCurrency, long amount, long receivedAmount, long rateVersion) {
+        return new Mutation(MutationType.EXCHANGE, timestamp, userId, null, baseCurrency, targetCurrency, amount, receivedAmount, rateVersion, 0);
+    }
+
+    /**
+     * A cross-node transfer leg, see ClusterNode - the sender and receiver are on different nodes and each node journals
+     * only the legs touching its own accounts: TRANSFER_OUT and TRANSFER_REFUND on the sender's, TRANSFER_IN on the receiver's node.
+     * TRANSFER_COMPLETE changes no balance, it marks a transfer the sender's node no longer has to deliver.
+     */
+    public static Mutation transferLeg(MutationType type, long timestamp, long transferId, String senderId, String receiverId, Currency currency, long amount) {
+        return new Mutation(type, timestamp, senderId, receiverId, currency, null, amount, 0, 0, transferId);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %d %s %s %s %s %d %d %d %d", type, timestamp, userId, receiverId, currency, targetCurrency, amount, receivedAmount, rateVersion,
+                transferId);
+    }
+}
@@ -0,0 +1,157 @@
+package com.rynkow.bankingsystem.journal;
+
+import com.rynkow.bankingsystem.model.Currency;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32C;
+
+/**
+ * Binary encoding of mutations.
+ * Frame: int body length, int CRC32C of the body, body: byte type, long timestamp, string userId, then per type:
+ * DEPOSIT/WITHDRAW - byte currency, long amount; SEND - byte currency, long amount, string receiverId;
+ * EXCHANGE - byte currency, byte target currency, long amount, long received amount, long rate version;
+ * TRANSFER_OUT/TRANSFER_IN/TRANSFER_REFUND/TRANSFER_COMPLETE - long transfer id, byte currency, long amount, string receiverId.
+ * Strings are an unsigned short byte length followed by UTF-8 bytes.
+ */
+public final class MutationCodec {
+    public static final int HEADER_SIZE = 2 * Integer.BYTES;
+    private static final Currency[] CURRENCIES = Currency.values();
+    private static final MutationType[] TYPES = MutationType.values();
+
+    private MutationCodec() {
+    }
+
+    // called before writeFrame, rejects mutations that cannot be encoded before anything is written
+    public static int frameSize(Mutation mutation) throws IllegalArgumentException {
+        int size = HEADER_SIZE + 1 + Long.BYTES + stringSize(mutation.userId);
+        return switch (mutation.type) {
+            case NEW_USER -> size;
+            case DEPOSIT, WITHDRAW -> size + 1 + Long.BYTES;
+            case SEND -> size + 1 + Long.BYTES + stringSize(mutation.receiverId);
+            case EXCHANGE -> size + 2 + 3 * Long.BYTES;
+            case TRANSFER_OUT, TRANSFER_IN, TRANSFER_REFUND, TRANSFER_COMPLETE -> size + Long.BYTES + 1 + Long.BYTES + stringSize(mutation.receiverId);
+        };
+    }
+
+    public static void writeFrame(Mutation mutation, ByteBuffer out) {
+        int frameStart = out.position();
+        out.position(frameStart + HEADER_SIZE);
+        out.put((byte) mutation.type.ordinal());
+        out.putLong(mutation.timestamp);
+        putString(out, mutation.userId);
+        switch (mutation.type) {
+            case NEW_USER -> {
+            }
+            case DEPOSIT, WITHDRAW -> {
+                out.put((byte) mutation.currency.ordinal());
+                out.putLong(mutation.amount);
+            }
+            case SEND -> {
+                out.put((byte) mutation.currency.ordinal());
+                out.putLong(mutation.amount);
+                putString(out, mutation.receiverId);
+            }
+            case EXCHANGE -> {
+                out.put((byte) mutation.currency.ordinal());
+                out.put((byte) mutation.targetCurrency.ordinal());
+                out.putLong(mutation.amount);
+                out.putLong(mutation.receivedAmount);
+                out.putLong(mutation.rateVersion);
+            }
+            case TRANSFER_OUT, TRANSFER_IN, TRANSFER_REFUND, TRANSFER_COMPLETE -> {
+                out.putLong(mutation.transferId);
+                out.put((byte) mutation.currency.ordinal());
+                out.putLong(mutation.amount);
+                putString(out, mutation.receiverId);
+            }
+        }
+        int bodyLength = out.position() - frameStart - HEADER_SIZE;
+        out.putInt(frameStart, bodyLength);
+        out.putInt(frameStart + Integer.BYTES, checksum(out, frameStart + HEADER_SIZE, bodyLength));
+    }
+
+    /**
+     * Reads the frame at the buffer position and moves the position past it.
+     *
+     * @return the mutation, or null (position unchanged) if the buffer holds an incomplete or corrupted frame
+     * @throws IllegalStateException if a frame with a valid checksum is shorter or longer than its type
+     */
+    public static Mutation readFrame(ByteBuffer in) {
+        int frameStart = in.position();
+        if (in.remaining() < HEADER_SIZE)
+            return null;
+        int bodyLength = in.getInt(frameStart);
+        int expectedChecksum = in.getInt(frameStart + Integer.BYTES);
+        if (bodyLength <= 0 || bodyLength > in.remaining() - HEADER_SIZE
+                || checksum(in, frameStart + HEADER_SIZE, bodyLength) != expectedChecksum)
+            return null;
+
+        in.position(frameStart + HEADER_SIZE);
+        MutationType type = TYPES[in.get()];
+        long timestamp = in.getLong();
+        String userId = getString(in);
+        Mutation mutation = switch (type) {
+            case NEW_USER -> Mutation.newUser(timestamp, userId);
+            case DEPOSIT -> Mutation.deposit(timestamp, userId, CURRENCIES[in.get()], in.getLong());
+            case WITHDRAW -> Mutation.withdraw(timestamp, userId, CURRENCIES[in.get()], in.getLong());
+            case SEND -> {
+                Currency currency = CURRENCIES[in.get()];
+                long amount = in.getLong();
+                yield Mutation.send(timestamp, userId, getString(in), currency, amount);
+            }
+            case EXCHANGE -> {
+                Currency baseCurrency = CURRENCIES[in.get()];
+                Currency targetCurrency = CURRENCIES[in.get()];
+                long amount = in.getLong();
+                long receivedAmount = in.getLong();
+                yield Mutation.exchange(timestamp, userId, baseCurrency, targetCurrency, amount, receivedAmount, in.getLong());
+            }
+            case TRANSFER_OUT, TRANSFER_IN, TRANSFER_REFUND, TRANSFER_COMPLETE -> {
+                long transferId = in.getLong();
+                Currency currency = CURRENCIES[in.get()];
+                long amount = in.getLong();
+                yield Mutation.transferLeg(type, timestamp, transferId, userId, getString(in), currency, amount);
+            }
+        };
+        // a frame with a valid checksum but a body of another length was not written by this codec
+        if (in.position() != frameStart + HEADER_SIZE + bodyLength)
+            throw new IllegalStateException(type + " frame body of " + bodyLength + " bytes, decoded " + (in.position() - frameStart - HEADER_SIZE));
+        return mutation;
+    }
+
+    private static int checksum(ByteBuffer buffer, int offset, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.duplicate().limit(offset + length).position(offset));
+        return (int) crc.getValue();
+    }
+
+    private static int stringSize(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80)
+                length += 1;
+            else if (c < 0x800)
+                length += 2;
+            else if (Character.isHighSurrogate(c)) {
+                length += 4;
+                i++;
+            } else
+                length += 3;
+        }
+        return Short.BYTES + length;
+    }
+
+    private static void putString(ByteBuffer out, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.putShort((short) bytes.length);
+        out.put(bytes);
+    }
+
+    private static String getString(ByteBuffer in) {
+        byte[] bytes = new byte[Short.toUnsignedInt(in.getShort())];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,28 @@
+package com.rynkow.bankingsystem.journal;
+
+/**
+ * Ordered log of successfully applied BankingSystem mutations.
+ * BankingSystem appends a checked mutation while holding the locks of the affected accounts and applies it once the append
+ * returned, so mutations of the same account are logged in the order they are applied and a failed append changes nothing.
+ * It waits for durability after releasing the locks.
+ */
+public interface MutationLog {
+    MutationLog NONE = new MutationLog() {
+        @Override
+        public long append(Mutation mutation) {
+            return 0;
+        }
+
+        @Override
+        public void awaitDurable(long sequence) {
+        }
+    };
+
+    /**
+     * @return sequence number of the appended mutation
+     */
+    long append(Mutation mutation);
+
+    // blocks until the mutation with the given sequence number (and all preceding ones) is durable
+    void awaitDurable(long sequence);
+}
@@ -0,0 +1,5 @@
+package com.rynkow.bankingsystem.journal;
+
+public enum MutationType {
+    NEW_USER, DEPOSIT, WITHDRAW, SEND, EXCHANGE, TRANSFER_OUT, TRANSFER_IN, TRANSFER_REFUND, TRANSFER_COMPLETE
+}
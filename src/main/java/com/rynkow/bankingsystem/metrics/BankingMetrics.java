@@ -0,0 +1,267 @@
+package com.rynkow.bankingsystem.metrics;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.Closeable;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Per-operation call and failure counters, latency histograms, failure counts by exception message and lock wait time.
+ * Recording is allocation-free (once a failure message has been seen) and uses striped counters, see BankingSystem for what is recorded.
+ * Calls and failures are counted exactly, latency is measured for every n-th call - reading the clock twice costs
+ * more than the counting and, for the cheapest operations, a significant part of the operation itself.
+ * Exposed through JMX (registerMBean) and as a text report (report, startReporting).
+ */
+public class BankingMetrics implements BankingMetricsMXBean, Closeable {
+    public static final String OBJECT_NAME = "com.rynkow.bankingsystem:type=BankingMetrics";
+    // distinct failure messages are bounded, a message containing e.g. a user id must not grow the map forever
+    private static final int MAX_FAILURE_REASONS = 64;
+    private static final String OTHER_FAILURE_REASON = "(other)";
+    public static final int DEFAULT_LATENCY_SAMPLE_INTERVAL = 64;
+    // startTimer result of a call whose latency is not measured
+    private static final long NOT_TIMED = 0;
+    private static final Operation[] OPERATIONS = Operation.values();
+    // per stripe: calls and failures of every operation, padded so stripes do not share cache lines
+    private static final int STRIPE_SIZE = (2 * OPERATIONS.length + 7) / 8 * 8 + 8;
+    // records nothing, for measuring the cost of metrics, declared after the constants its constructor uses
+    public static final BankingMetrics DISABLED = new BankingMetrics(false, 1);
+
+    private final boolean enabled;
+    private final int sampleMask;
+    private final int stripeMask;
+    private final AtomicLongArray counters;
+    private final LatencyHistogram[] latencies = new LatencyHistogram[OPERATIONS.length];
+    private final Map<String, LongAdder> failureReasons = new ConcurrentHashMap<>();
+    private final LongAdder contendedLockAcquisitions = new LongAdder();
+    private final LongAdder lockWaitNanos = new LongAdder();
+    private ScheduledExecutorService reporter;
+
+    public BankingMetrics() {
+        this(DEFAULT_LATENCY_SAMPLE_INTERVAL);
+    }
+
+    /**
+     * @param latencySampleInterval latency is measured for about one call in this many, a power of two, 1 to time every call
+     */
+    public BankingMetrics(int latencySampleInterval) {
+        this(true, latencySampleInterval);
+    }
+
+    private BankingMetrics(boolean enabled, int latencySampleInterval) {
+        if (latencySampleInterval < 1 || Integer.bitCount(latencySampleInterval) != 1)
+            throw new IllegalArgumentException("latency sample interval not a power of two");
+
+        this.enabled = enabled;
+        this.sampleMask = latencySampleInterval - 1;
+        int stripes = enabled ? Striping.stripes() : 1;
+        this.stripeMask = stripes - 1;
+        this.counters = new AtomicLongArray(stripes * STRIPE_SIZE);
+        for (int i = 0; i < OPERATIONS.length; i++)
+            latencies[i] = enabled ? new LatencyHistogram() : null;
+    }
+
+    /**
+     * Counts a call of the operation, pass the result to recordSuccess or recordFailure when the operation ends.
+     * The call count of the thread's stripe decides whether the call is timed, so no extra state is touched per call.
+     */
+    public long startCall(Operation operation) {
+        if (!enabled)
+            return NOT_TIMED;
+        long calls = counters.getAndIncrement(Striping.currentStripe(stripeMask) * STRIPE_SIZE + 2 * operation.ordinal());
+        if ((calls & sampleMask) != 0)
+            return NOT_TIMED;
+        long now = System.nanoTime();
+        return now != NOT_TIMED ? now : 1;
+    }
+
+    public void recordSuccess(Operation operation, long startTime) {
+        if (startTime != NOT_TIMED)
+            latencies[operation.ordinal()].record(System.nanoTime() - startTime);
+    }
+
+    public void recordFailure(Operation operation, long startTime, RuntimeException failure) {
+        recordFailure(operation, startTime, failure.getMessage() != null ? failure.getMessage() : failure.getClass().getName());
+    }
+
+    // for failures returned as a status instead of thrown
+    public void recordFailure(Operation operation, long startTime, String reason) {
+        if (!enabled)
+            return;
+        counters.getAndIncrement(Striping.currentStripe(stripeMask) * STRIPE_SIZE + 2 * operation.ordinal() + 1);
+        if (startTime != NOT_TIMED)
+            latencies[operation.ordinal()].record(System.nanoTime() - startTime);
+        LongAdder reasonCount = failureReasons.get(reason);
+        if (reasonCount == null)
+            reasonCount = failureReasons.size() < MAX_FAILURE_REASONS
+                    ? failureReasons.computeIfAbsent(reason, key -> new LongAdder())
+                    : failureReasons.computeIfAbsent(OTHER_FAILURE_REASON, key -> new LongAdder());
+        reasonCount.increment();
+    }
+
+    // called only when a lock was not free, so uncontended locking is not timed
+    public void recordLockWait(long nanos) {
+        if (!enabled)
+            return;
+        contendedLockAcquisitions.increment();
+        lockWaitNanos.add(nanos);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public LatencyHistogram.Snapshot getLatency(Operation operation) {
+        return enabled ? latencies[operation.ordinal()].snapshot() : new LatencyHistogram().snapshot();
+    }
+
+    public long getCalls(Operation operation) {
+        return sum(2 * operation.ordinal());
+    }
+
+    public long getFailures(Operation operation) {
+        return sum(2 * operation.ordinal() + 1);
+    }
+
+    @Override
+    public Map<String, Long> getCalls() {
+        Map<String, Long> values = new LinkedHashMap<>();
+        for (Operation operation : OPERATIONS)
+            values.put(operation.name(), getCalls(operation));
+        return values;
+    }
+
+    @Override
+    public Map<String, Long> getFailures() {
+        Map<String, Long> values = new LinkedHashMap<>();
+        for (Operation operation : OPERATIONS)
+            values.put(operation.name(), getFailures(operation));
+        return values;
+    }
+
+    @Override
+    public Map<String, Long> getFailureReasons() {
+        Map<String, Long> reasons = new TreeMap<>();
+        failureReasons.forEach((reason, count) -> reasons.put(reason, count.sum()));
+        return reasons;
+    }
+
+    @Override
+    public Map<String, Double> getMeanLatencyMicros() {
+        return latencyMicros(LatencyHistogram.Snapshot::meanNanos);
+    }
+
+    @Override
+    public Map<String, Double> getP50LatencyMicros() {
+        return latencyMicros(snapshot -> snapshot.valueAtPercentile(50));
+    }
+
+    @Override
+    public Map<String, Double> getP99LatencyMicros() {
+        return latencyMicros(snapshot -> snapshot.valueAtPercentile(99));
+    }
+
+    @Override
+    public Map<String, Double> getP999LatencyMicros() {
+        return latencyMicros(snapshot -> snapshot.valueAtPercentile(99.9));
+    }
+
+    @Override
+    public Map<String, Double> getMaxLatencyMicros() {
+        return latencyMicros(snapshot -> snapshot.maxNanos);
+    }
+
+    @Override
+    public long getContendedLockAcquisitions() {
+        return contendedLockAcquisitions.sum();
+    }
+
+    @Override
+    public long getLockWaitNanos() {
+        return lockWaitNanos.sum();
+    }
+
+    @Override
+    public String getReport() {
+        return report();
+    }
+
+    @Override
+    public void reset() {
+        for (int i = 0; i < counters.length(); i++)
+            counters.set(i, 0);
+        for (int i = 0; i < OPERATIONS.length; i++)
+            if (enabled)
+                latencies[i].reset();
+        failureReasons.clear();
+        contendedLockAcquisitions.reset();
+        lockWaitNanos.reset();
+    }
+
+    public String report() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("latency of every %d. call%n", sampleMask + 1));
+        report.append(String.format("%-26s%12s%10s%12s%12s%12s%12s%12s%n", "operation", "calls", "failures", "mean us", "p50 us", "p99 us", "p99.9 us", "max us"));
+        for (Operation operation : OPERATIONS) {
+            LatencyHistogram.Snapshot latency = getLatency(operation);
+            report.append(String.format("%-26s%12d%10d%12.2f%12.2f%12.2f%12.2f%12.2f%n", operation, getCalls(operation), getFailures(operation),
+                    latency.meanNanos() / 1000, latency.valueAtPercentile(50) / 1000.0, latency.valueAtPercentile(99) / 1000.0,
+                    latency.valueAtPercentile(99.9) / 1000.0, latency.maxNanos / 1000.0));
+        }
+        report.append(String.format("contended lock acquisitions: %d, lock wait: %.3f ms%n", getContendedLockAcquisitions(), getLockWaitNanos() / 1e6));
+        getFailureReasons().forEach((reason, count) -> report.append(String.format("failure \"%s\": %d%n", reason, count)));
+        return report.toString();
+    }
+
+    // prints the report every period on a daemon thread until close
+    public synchronized void startReporting(long period, TimeUnit unit, PrintStream out) {
+        if (reporter != null)
+            throw new IllegalStateException("reporting already started");
+
+        reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleAtFixedRate(() -> out.print(report()), period, period, unit);
+    }
+
+    // registers under OBJECT_NAME in the platform MBean server
+    public ObjectName registerMBean() throws JMException {
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+        return name;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (reporter != null) {
+            reporter.shutdown();
+            reporter = null;
+        }
+    }
+
+    private long sum(int counter) {
+        long sum = 0;
+        for (int stripe = 0; stripe < counters.length(); stripe += STRIPE_SIZE)
+            sum += counters.get(stripe + counter);
+        return sum;
+    }
+
+    private Map<String, Double> latencyMicros(ToDoubleFunction<LatencyHistogram.Snapshot> statistic) {
+        Map<String, Double> values = new LinkedHashMap<>();
+        for (Operation operation : OPERATIONS)
+            values.put(operation.name(), statistic.applyAsDouble(getLatency(operation)) / 1000);
+        return values;
+    }
+}
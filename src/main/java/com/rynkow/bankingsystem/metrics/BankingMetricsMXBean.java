@@ -0,0 +1,31 @@
+package com.rynkow.bankingsystem.metrics;
+
+import java.util.Map;
+
+// JMX view of BankingMetrics, maps are keyed by Operation name
+public interface BankingMetricsMXBean {
+    Map<String, Long> getCalls();
+
+    Map<String, Long> getFailures();
+
+    // failure counts keyed by exception message
+    Map<String, Long> getFailureReasons();
+
+    Map<String, Double> getMeanLatencyMicros();
+
+    Map<String, Double> getP50LatencyMicros();
+
+    Map<String, Double> getP99LatencyMicros();
+
+    Map<String, Double> getP999LatencyMicros();
+
+    Map<String, Double> getMaxLatencyMicros();
+
+    long getContendedLockAcquisitions();
+
+    long getLockWaitNanos();
+
+    String getReport();
+
+    void reset();
+}
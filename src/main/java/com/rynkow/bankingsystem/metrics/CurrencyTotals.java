@@ -0,0 +1,203 @@
+package com.rynkow.bankingsystem.metrics;
+
+import com.rynkow.bankingsystem.model.Currency;
+import com.rynkow.bankingsystem.model.Money;
+import com.rynkow.bankingsystem.model.TransactionType;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Running totals per currency - balance held, number of accounts, and today's inflow and outflow per transaction type -
+ * which BankingSystem updates with every balance change it makes, so reading them needs no scan of the accounts.
+ * <p>
+ * Recording threads are spread over stripes, each guarded by its own lock; the changes of one operation, e.g. both legs
+ * of a transfer, are recorded in one stripe at once. A snapshot copies every stripe without locking and validates them all
+ * afterwards, so it shows all totals as of one instant between operations - if a recording interfered, it retries, finally
+ * under the stripes' read locks. Days are UTC days of the operations' timestamps.
+ */
+public class CurrencyTotals {
+    private static final Currency[] CURRENCIES = Currency.values();
+    private static final TransactionType[] TYPES = TransactionType.values();
+    private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+    // slots per currency: balance, accounts, day of the flows, then per transaction type inflow, outflow, inflow count, outflow count
+    private static final int BALANCE = 0;
+    private static final int ACCOUNTS = 1;
+    private static final int DAY = 2;
+    private static final int INFLOW = 3;
+    private static final int OUTFLOW = INFLOW + TYPES.length;
+    private static final int INFLOW_COUNT = OUTFLOW + TYPES.length;
+    private static final int OUTFLOW_COUNT = INFLOW_COUNT + TYPES.length;
+    private static final int CURRENCY_SLOTS = OUTFLOW_COUNT + TYPES.length;
+    private static final int OPTIMISTIC_ATTEMPTS = 4;
+
+    private final Stripe[] stripes;
+    private final int stripeMask;
+
+    public CurrencyTotals() {
+        int stripeCount = Striping.stripes();
+        stripes = new Stripe[stripeCount];
+        stripeMask = stripeCount - 1;
+        for (int i = 0; i < stripeCount; i++)
+            stripes[i] = new Stripe();
+    }
+
+    public void addAccount(Currency currency, long balanceUnits) {
+        Stripe stripe = stripes[Striping.currentStripe(stripeMask)];
+        long stamp = stripe.lock.writeLock();
+        try {
+            int base = currency.ordinal() * CURRENCY_SLOTS;
+            stripe.slots[base + ACCOUNTS]++;
+            stripe.slots[base + BALANCE] += balanceUnits;
+        } finally {
+            stripe.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Records a balance change.
+     *
+     * @param units positive for an inflow, negative for an outflow
+     */
+    public void record(Currency currency, TransactionType type, long units, long timestamp) {
+        Stripe stripe = stripes[Striping.currentStripe(stripeMask)];
+        long stamp = stripe.lock.writeLock();
+        try {
+            stripe.add(currency, type, units, timestamp);
+        } finally {
+            stripe.lock.unlockWrite(stamp);
+        }
+    }
+
+    // records the two balance changes of one operation at once
+    public void record(Currency currency, TransactionType type, long units, Currency otherCurrency, TransactionType otherType, long otherUnits, long timestamp) {
+        Stripe stripe = stripes[Striping.currentStripe(stripeMask)];
+        long stamp = stripe.lock.writeLock();
+        try {
+            stripe.add(currency, type, units, timestamp);
+            stripe.add(otherCurrency, otherType, otherUnits, timestamp);
+        } finally {
+            stripe.lock.unlockWrite(stamp);
+        }
+    }
+
+    public Snapshot snapshot() {
+        long[][] copies = new long[stripes.length][CURRENCIES.length * CURRENCY_SLOTS];
+        long[] stamps = new long[stripes.length];
+        for (int attempt = 0; attempt < OPTIMISTIC_ATTEMPTS; attempt++) {
+            boolean valid = true;
+            for (int i = 0; i < stripes.length && valid; i++) {
+                stamps[i] = stripes[i].lock.tryOptimisticRead();
+                valid = stamps[i] != 0;
+            }
+            if (!valid)
+                continue;
+            for (int i = 0; i < stripes.length; i++)
+                System.arraycopy(stripes[i].slots, 0, copies[i], 0, copies[i].length);
+            // every stripe was unchanged from its stamp to its validation, so from the last stamp to the first validation all were
+            for (int i = 0; i < stripes.length && valid; i++)
+                valid = stripes[i].lock.validate(stamps[i]);
+            if (valid)
+                return new Snapshot(copies);
+        }
+        for (int i = 0; i < stripes.length; i++)
+            stamps[i] = stripes[i].lock.readLock();
+        try {
+            for (int i = 0; i < stripes.length; i++)
+                System.arraycopy(stripes[i].slots, 0, copies[i], 0, copies[i].length);
+        } finally {
+            for (int i = 0; i < stripes.length; i++)
+                stripes[i].lock.unlockRead(stamps[i]);
+        }
+        return new Snapshot(copies);
+    }
+
+    private static final class Stripe {
+        final StampedLock lock = new StampedLock();
+        // guarded by the lock
+        final long[] slots = new long[CURRENCIES.length * CURRENCY_SLOTS];
+
+        void add(Currency currency, TransactionType type, long units, long timestamp) {
+            int base = currency.ordinal() * CURRENCY_SLOTS;
+            slots[base + BALANCE] += units;
+            long day = Math.floorDiv(timestamp, DAY_MILLIS);
+            // the first change of a new day starts its flows over, a late change from the day before counts to the new day
+            if (day > slots[base + DAY]) {
+                slots[base + DAY] = day;
+                for (int i = INFLOW; i < CURRENCY_SLOTS; i++)
+                    slots[base + i] = 0;
+            }
+            if (units >= 0) {
+                slots[base + INFLOW + type.ordinal()] += units;
+                slots[base + INFLOW_COUNT + type.ordinal()]++;
+            } else {
+                slots[base + OUTFLOW + type.ordinal()] -= units;
+                slots[base + OUTFLOW_COUNT + type.ordinal()]++;
+            }
+        }
+    }
+
+    public static class Snapshot {
+        // UTC day of the flows
+        public final LocalDate day;
+        private final long[] totals = new long[CURRENCIES.length * CURRENCY_SLOTS];
+
+        private Snapshot(long[][] stripes) {
+            long today = Math.floorDiv(System.currentTimeMillis(), DAY_MILLIS);
+            day = LocalDate.ofEpochDay(today);
+            for (long[] stripe : stripes) {
+                for (int base = 0; base < totals.length; base += CURRENCY_SLOTS) {
+                    totals[base + BALANCE] += stripe[base + BALANCE];
+                    totals[base + ACCOUNTS] += stripe[base + ACCOUNTS];
+                    // flows of a stripe not written to today are from an earlier day
+                    if (stripe[base + DAY] == today)
+                        for (int i = INFLOW; i < CURRENCY_SLOTS; i++)
+                            totals[base + i] += stripe[base + i];
+                }
+            }
+        }
+
+        public long getBalanceUnits(Currency currency) {
+            return totals[currency.ordinal() * CURRENCY_SLOTS + BALANCE];
+        }
+
+        public BigDecimal getBalance(Currency currency) {
+            return Money.toBigDecimal(getBalanceUnits(currency));
+        }
+
+        public long getAccounts(Currency currency) {
+            return totals[currency.ordinal() * CURRENCY_SLOTS + ACCOUNTS];
+        }
+
+        public BigDecimal getInflow(Currency currency, TransactionType type) {
+            return Money.toBigDecimal(totals[currency.ordinal() * CURRENCY_SLOTS + INFLOW + type.ordinal()]);
+        }
+
+        public BigDecimal getOutflow(Currency currency, TransactionType type) {
+            return Money.toBigDecimal(totals[currency.ordinal() * CURRENCY_SLOTS + OUTFLOW + type.ordinal()]);
+        }
+
+        public long getInflowCount(Currency currency, TransactionType type) {
+            return totals[currency.ordinal() * CURRENCY_SLOTS + INFLOW_COUNT + type.ordinal()];
+        }
+
+        public long getOutflowCount(Currency currency, TransactionType type) {
+            return totals[currency.ordinal() * CURRENCY_SLOTS + OUTFLOW_COUNT + type.ordinal()];
+        }
+
+        // one line per currency, then one per currency and transaction type with flows today
+        public String report() {
+            StringBuilder report = new StringBuilder();
+            for (Currency currency : CURRENCIES) {
+                report.append(String.format("%s balance %s in %d accounts%n", currency, getBalance(currency).toPlainString(), getAccounts(currency)));
+                for (TransactionType type : TYPES)
+                    if (getInflowCount(currency, type) + getOutflowCount(currency, type) > 0)
+                        report.append(String.format("%s %s %s in %s (%d) out %s (%d)%n", currency, type, day, getInflow(currency, type).toPlainString(),
+                                getInflowCount(currency, type), getOutflow(currency, type).toPlainString(), getOutflowCount(currency, type)));
+            }
+            return report.toString();
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.rynkow.bankingsystem.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * HDR-style histogram of nanosecond latencies: exact below 64 ns, above that 32 buckets per power of two,
+ * so a reported value is within about 3% of the recorded one. Values above about 18 minutes are recorded as 18 minutes.
+ * Recording is allocation-free and lock-free, threads record into one of several stripes to avoid contending on a single array.
+ */
+public class LatencyHistogram {
+    private static final int EXACT_BITS = 6;
+    private static final int EXACT_LIMIT = 1 << EXACT_BITS;
+    private static final int SUB_BUCKETS = EXACT_LIMIT / 2;
+    private static final int MAX_BITS = 40;
+    private static final long MAX_VALUE = (1L << MAX_BITS) - 1;
+    private static final int BUCKETS = EXACT_LIMIT + (MAX_BITS - EXACT_BITS) * SUB_BUCKETS;
+    // per stripe: buckets, total, max, then padding so stripes do not share cache lines
+    private static final int TOTAL_SLOT = BUCKETS;
+    private static final int MAX_SLOT = BUCKETS + 1;
+    private static final int STRIPE_SIZE = BUCKETS + 16;
+
+    private final int stripeMask;
+    private final AtomicLongArray slots;
+
+    public LatencyHistogram() {
+        int stripes = Striping.stripes();
+        stripeMask = stripes - 1;
+        slots = new AtomicLongArray(stripes * STRIPE_SIZE);
+    }
+
+    public void record(long nanos) {
+        long value = Math.min(Math.max(nanos, 0), MAX_VALUE);
+        int stripe = Striping.currentStripe(stripeMask) * STRIPE_SIZE;
+        slots.getAndIncrement(stripe + bucket(value));
+        slots.getAndAdd(stripe + TOTAL_SLOT, value);
+        long max;
+        while (value > (max = slots.get(stripe + MAX_SLOT)) && !slots.compareAndSet(stripe + MAX_SLOT, max, value)) ;
+    }
+
+    // not atomic with concurrent recording, values recorded meanwhile may survive partially
+    public void reset() {
+        for (int i = 0; i < slots.length(); i++)
+            slots.set(i, 0);
+    }
+
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        long total = 0, max = 0;
+        for (int stripe = 0; stripe < slots.length(); stripe += STRIPE_SIZE) {
+            for (int i = 0; i < BUCKETS; i++)
+                counts[i] += slots.get(stripe + i);
+            total += slots.get(stripe + TOTAL_SLOT);
+            max = Math.max(max, slots.get(stripe + MAX_SLOT));
+        }
+        return new Snapshot(counts, total, max);
+    }
+
+    static int bucket(long value) {
+        if (value < EXACT_LIMIT)
+            return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (EXACT_BITS - 1);
+        return EXACT_LIMIT + (shift - 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    // middle of the range of values recorded in the bucket
+    static long bucketValue(int bucket) {
+        if (bucket < EXACT_LIMIT)
+            return bucket;
+        int shift = (bucket - EXACT_LIMIT) / SUB_BUCKETS + 1;
+        long low = (long) ((bucket - EXACT_LIMIT) % SUB_BUCKETS + SUB_BUCKETS) << shift;
+        return low + (1L << shift) / 2;
+    }
+
+    public static class Snapshot {
+        private final long[] counts;
+        public final long count;
+        public final long totalNanos;
+        public final long maxNanos;
+
+        private Snapshot(long[] counts, long totalNanos, long maxNanos) {
+            long count = 0;
+            for (long bucketCount : counts)
+                count += bucketCount;
+            this.counts = counts;
+            this.count = count;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+        }
+
+        public double meanNanos() {
+            return count == 0 ? 0 : (double) totalNanos / count;
+        }
+
+        // percentile between 0 and 100, 0 if nothing was recorded
+        public long valueAtPercentile(double percentile) {
+            long rank = (long) Math.ceil(percentile / 100 * count);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= Math.max(rank, 1))
+                    return Math.min(bucketValue(i), maxNanos);
+            }
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,7 @@
+package com.rynkow.bankingsystem.metrics;
+
+// BankingSystem operations with their own metrics
+public enum Operation {
+    NEW_USER, SEND_FUNDS, SEND_FUNDS_BATCH, DEPOSIT_FUNDS, WITHDRAW_FUNDS, EXCHANGE_CURRENCY,
+    GET_ACCOUNT_HISTORY, GET_ACCOUNT_HISTORY_PAGE, GET_ACCOUNT_BALANCE
+}
@@ -0,0 +1,21 @@
+package com.rynkow.bankingsystem.metrics;
+
+/**
+ * Spreads recording threads over several copies of a counter, so they do not all contend on one cache line.
+ */
+final class Striping {
+    private static final int MAX_STRIPES = 16;
+
+    private Striping() {
+    }
+
+    // the number of processors rounded up to a power of two, at most MAX_STRIPES
+    static int stripes() {
+        return Integer.highestOneBit(Math.min(MAX_STRIPES, Runtime.getRuntime().availableProcessors()) * 2 - 1);
+    }
+
+    static int currentStripe(int stripeMask) {
+        int hash = System.identityHashCode(Thread.currentThread());
+        return (hash ^ (hash >>> 16)) & stripeMask;
+    }
+}
@@ -1,39 +1,113 @@
 package com.rynkow.bankingsystem.model;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.math.BigDecimal;
-import java.util.LinkedList;
+import java.util.Date;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class Account {
+    private static final VarHandle BALANCE;
+    private static final AtomicLong LOCK_ORDER_SEQUENCE = new AtomicLong();
+
+    static {
+        try {
+            BALANCE = MethodHandles.lookup().findVarHandle(Account.class, "balance", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
     private final String userId;
     private final Currency currency;
-    private final List<Transaction> transactionHistory;
-    private BigDecimal balance;
+    // guarded by lock
+    private final TransactionHistory transactionHistory;
+    private final ReentrantLock lock;
+    private final long lockOrder;
+    // in Money units, updated with compare-and-set
+    private volatile long balance;
+    // sequence number of the last logged mutation applied to this account, guarded by lock
+    private long lastSequence;
 
     public Account(String userId, Currency currency) {
+        this(userId, currency, 0, 0);
+    }
+
+    // restores an account from a snapshot, balance in Money units
+    public Account(String userId, Currency currency, long balance, long lastSequence) {
+        this(userId, currency, balance, lastSequence, TransactionHistory.create());
+    }
+
+    // for accounts keeping their history elsewhere than in the instance
+    protected Account(String userId, Currency currency, long balance, long lastSequence, TransactionHistory transactionHistory) {
         this.userId = userId;
         this.currency = currency;
-        this.balance = BigDecimal.ZERO;
-        this.transactionHistory = new LinkedList<>();
+        this.balance = balance;
+        this.lastSequence = lastSequence;
+        this.transactionHistory = transactionHistory;
+        this.lock = new ReentrantLock();
+        this.lockOrder = LOCK_ORDER_SEQUENCE.incrementAndGet();
     }
 
     public void deposit(BigDecimal amount) throws IllegalArgumentException {
         if (amount.signum() < 1)
-            throw new IllegalArgumentException("deposit amount not positive");
+            throw OperationStatus.INVALID_DEPOSIT_AMOUNT.toException();
+
+        deposit(Money.toUnits(amount));
+    }
+
+    /**
+     * Lock-free and allocation-free deposit.
+     *
+     * @param amount amount in Money units
+     * @return balance before the deposit, in Money units
+     */
+    public long deposit(long amount) throws IllegalArgumentException, IllegalStateException {
+        if (amount < 1)
+            throw OperationStatus.INVALID_DEPOSIT_AMOUNT.toException();
 
-        balance = balance.add(amount);
+        long current;
+        do {
+            current = balance;
+            if (current > Long.MAX_VALUE - amount)
+                throw OperationStatus.BALANCE_OVERFLOW.toException();
+        } while (!BALANCE.compareAndSet(this, current, current + amount));
+        return current;
     }
 
     public void withdraw(BigDecimal amount) throws IllegalArgumentException, IllegalStateException {
         if (amount.signum() < 1)
-            throw new IllegalArgumentException("withdraw amount not positive");
-        if (balance.compareTo(amount) < 0)
-            throw new IllegalStateException("insufficient Balance");
+            throw OperationStatus.INVALID_WITHDRAW_AMOUNT.toException();
+
+        withdraw(Money.toUnits(amount));
+    }
 
-        balance = balance.subtract(amount);
+    /**
+     * Lock-free and allocation-free withdrawal, the balance never goes below zero.
+     *
+     * @param amount amount in Money units
+     * @return balance before the withdrawal, in Money units
+     */
+    public long withdraw(long amount) throws IllegalArgumentException, IllegalStateException {
+        if (amount < 1)
+            throw OperationStatus.INVALID_WITHDRAW_AMOUNT.toException();
+
+        long current;
+        do {
+            current = balance;
+            if (current < amount)
+                throw OperationStatus.INSUFFICIENT_FUNDS.toException();
+        } while (!BALANCE.compareAndSet(this, current, current - amount));
+        return current;
     }
 
     public BigDecimal getBalance() {
+        return Money.toBigDecimal(balance);
+    }
+
+    public long getBalanceUnits() {
         return balance;
     }
 
@@ -45,11 +119,82 @@ public class Account {
         return userId;
     }
 
+    /**
+     * Lock guarding the transaction history.
+     * Operations spanning several accounts hold the locks of all of them, so balance changes and history stay in step, see BankingSystem.
+     */
+    public ReentrantLock getLock() {
+        return lock;
+    }
+
+    // unique per account, operations locking several accounts lock them in ascending lockOrder
+    public long getLockOrder() {
+        return lockOrder;
+    }
+
+    public long getLastSequence() {
+        return lastSequence;
+    }
+
+    public void setLastSequence(long lastSequence) {
+        this.lastSequence = lastSequence;
+    }
+
     public void addTransactionToHistory(Transaction transaction) {
-        transactionHistory.add(transaction);
+        lock.lock();
+        try {
+            transactionHistory.add(transaction);
+        } finally {
+            lock.unlock();
+        }
     }
 
+    // like addTransactionToHistory(Transaction), amounts in Money units, see TransactionHistory.add
+    public void addTransactionToHistory(TransactionType type, long initialBalance, long balanceChange, long timestamp) {
+        lock.lock();
+        try {
+            transactionHistory.add(type, currency, initialBalance, balanceChange, timestamp);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getTransactionHistorySize() {
+        lock.lock();
+        try {
+            return transactionHistory.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // returns a copy, the history may be appended to concurrently
     public List<Transaction> getTransactionHistory() {
-        return transactionHistory;
+        lock.lock();
+        try {
+            return transactionHistory.getAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // transactions within the given dates (inclusive) of the given type, oldest first, null arguments are not applied
+    public List<Transaction> getTransactionHistory(Date startDate, Date endDate, TransactionType transactionType) {
+        lock.lock();
+        try {
+            return transactionHistory.query(startDate, endDate, transactionType);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // a page of the history, see TransactionHistory.query
+    public List<Transaction> getTransactionHistory(Date startDate, Date endDate, TransactionType transactionType, HistoryOrder order, int skip, int limit) {
+        lock.lock();
+        try {
+            return transactionHistory.query(startDate, endDate, transactionType, order, skip, limit);
+        } finally {
+            lock.unlock();
+        }
     }
 }
@@ -0,0 +1,8 @@
+package com.rynkow.bankingsystem.model;
+
+public enum BatchMode {
+    // either every transfer of the batch is applied or none is
+    ALL_OR_NOTHING,
+    // every valid transfer is applied, failed ones are reported and skipped
+    BEST_EFFORT
+}
@@ -0,0 +1,111 @@
+package com.rynkow.bankingsystem.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Transaction history kept as Transaction objects on the heap, in chronological arrays with one more array per TransactionType,
+ * so date-bounded queries are a binary search plus a copy of the matching slice.
+ */
+public class HeapTransactionHistory implements TransactionHistory {
+    private static final int INITIAL_CAPACITY = 8;
+    private static final Transaction[] NO_TRANSACTIONS = new Transaction[0];
+    private static final long[] NO_TIMESTAMPS = new long[0];
+
+    private final TimeOrderedTransactions all = new TimeOrderedTransactions();
+    private final TimeOrderedTransactions[] byType = new TimeOrderedTransactions[TransactionType.values().length];
+
+    public HeapTransactionHistory() {
+        for (int i = 0; i < byType.length; i++)
+            byType[i] = new TimeOrderedTransactions();
+    }
+
+    @Override
+    public void add(Transaction transaction) {
+        all.add(transaction);
+        byType[transaction.type.ordinal()].add(transaction);
+    }
+
+    @Override
+    public int size() {
+        return all.size;
+    }
+
+    @Override
+    public List<Transaction> getAll() {
+        return all.slice(0, all.size);
+    }
+
+    @Override
+    public List<Transaction> query(Date startDate, Date endDate, TransactionType transactionType, HistoryOrder order, int skip, int limit) {
+        TimeOrderedTransactions transactions = transactionType == null ? all : byType[transactionType.ordinal()];
+        int from = startDate == null ? 0 : transactions.firstAtOrAfter(startDate.getTime());
+        int to = endDate == null ? transactions.size : transactions.firstAfter(endDate.getTime());
+        int count = Math.max(0, Math.min(to - from - skip, limit));
+        if (order == HistoryOrder.ASCENDING)
+            return transactions.slice(from + skip, from + skip + count);
+        return transactions.reversedSlice(to - skip - count, to - skip);
+    }
+
+    // transactions sorted by date, with dates in a parallel array for cache-friendly binary search
+    private static class TimeOrderedTransactions {
+        // allocated on the first add, most accounts never see most transaction types
+        private Transaction[] transactions = NO_TRANSACTIONS;
+        private long[] timestamps = NO_TIMESTAMPS;
+        private int size;
+
+        void add(Transaction transaction) {
+            if (size == transactions.length) {
+                transactions = Arrays.copyOf(transactions, Math.max(INITIAL_CAPACITY, size * 2));
+                timestamps = Arrays.copyOf(timestamps, Math.max(INITIAL_CAPACITY, size * 2));
+            }
+            long timestamp = transaction.transactionDate.getTime();
+            // after the equal ones, so transactions with the same date keep their insertion order
+            int position = size == 0 || timestamps[size - 1] <= timestamp ? size : firstAfter(timestamp);
+            System.arraycopy(transactions, position, transactions, position + 1, size - position);
+            System.arraycopy(timestamps, position, timestamps, position + 1, size - position);
+            transactions[position] = transaction;
+            timestamps[position] = timestamp;
+            size++;
+        }
+
+        int firstAtOrAfter(long timestamp) {
+            int low = 0, high = size;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (timestamps[middle] < timestamp)
+                    low = middle + 1;
+                else
+                    high = middle;
+            }
+            return low;
+        }
+
+        int firstAfter(long timestamp) {
+            int low = 0, high = size;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (timestamps[middle] <= timestamp)
+                    low = middle + 1;
+                else
+                    high = middle;
+            }
+            return low;
+        }
+
+        List<Transaction> slice(int from, int to) {
+            if (from >= to)
+                return new ArrayList<>();
+            return new ArrayList<>(Arrays.asList(transactions).subList(from, to));
+        }
+
+        List<Transaction> reversedSlice(int from, int to) {
+            List<Transaction> slice = new ArrayList<>(Math.max(0, to - from));
+            for (int i = to - 1; i >= from; i--)
+                slice.add(transactions[i]);
+            return slice;
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package com.rynkow.bankingsystem.model;
+
+public enum HistoryOrder {
+    // oldest first
+    ASCENDING,
+    // newest first
+    DESCENDING
+}
@@ -0,0 +1,14 @@
+package com.rynkow.bankingsystem.model;
+
+import java.util.List;
+
+public class HistoryPage {
+    public final List<Transaction> transactions;
+    // pass to the next page request to continue after this page, null on the last page
+    public final String continuationToken;
+
+    public HistoryPage(List<Transaction> transactions, String continuationToken) {
+        this.transactions = transactions;
+        this.continuationToken = continuationToken;
+    }
+}
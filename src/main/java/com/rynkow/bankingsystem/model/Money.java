@@ -0,0 +1,34 @@
+package com.rynkow.bankingsystem.model;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Conversions between BigDecimal amounts used by the API and fixed-point minor units used internally.
+ * One unit is 10^-SCALE of a currency, so 12.34 is stored as 123400.
+ */
+public final class Money {
+    public static final int SCALE = 4;
+
+    private Money() {
+    }
+
+    public static long toUnits(BigDecimal amount) throws IllegalArgumentException {
+        try {
+            return amount.setScale(SCALE, RoundingMode.UNNECESSARY).unscaledValue().longValueExact();
+        } catch (ArithmeticException e) {
+            RuntimeException exception = OperationStatus.INVALID_AMOUNT.toException();
+            exception.initCause(e);
+            throw exception;
+        }
+    }
+
+    // for computed amounts (e.g. exchanged funds), which may carry more precision than an account can hold
+    public static long roundToUnits(BigDecimal amount) throws IllegalArgumentException {
+        return toUnits(amount.setScale(SCALE, RoundingMode.HALF_EVEN));
+    }
+
+    public static BigDecimal toBigDecimal(long units) {
+        return BigDecimal.valueOf(units, SCALE);
+    }
+}
@@ -0,0 +1,242 @@
+package com.rynkow.bankingsystem.model;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Transaction history kept off the heap in a direct buffer of columns: type byte, currency byte, initial balance and balance change
+ * in Money units, epoch-nanos timestamp - 26 bytes per transaction, plus a 4 byte position per transaction in the on-heap type index.
+ * Transaction objects are created only for the transactions a query returns, so queries return equal, not the same, objects.
+ * Amounts must be representable in Money units, which holds for every transaction made by BankingSystem.
+ * <p>
+ * Nothing is allocated before the first transaction. Columns of up to MAX_SLAB_CAPACITY transactions are carved out of direct
+ * slabs shared by all histories, so a small history costs a buffer view rather than a direct buffer and a Cleaner of its own.
+ */
+public class OffHeapTransactionHistory implements TransactionHistory {
+    public static final int BYTES_PER_TRANSACTION = 2 + 3 * Long.BYTES;
+    private static final int INITIAL_CAPACITY = 8;
+    private static final int INITIAL_TYPE_CAPACITY = 4;
+    // larger histories get a direct buffer of their own
+    private static final int MAX_SLAB_CAPACITY = 1024;
+    private static final int SLAB_BYTES = 1 << 20;
+    private static final Slabs SLABS = new Slabs();
+    private static final int MAX_CAPACITY = Integer.MAX_VALUE / BYTES_PER_TRANSACTION;
+    private static final long NANOS_PER_MILLI = 1_000_000;
+    private static final TransactionType[] TYPES = TransactionType.values();
+    private static final Currency[] CURRENCIES = Currency.values();
+
+    // column offsets depend on the capacity: types, currencies, initial balances, balance changes, timestamps; null while empty
+    private ByteBuffer columns;
+    private int capacity;
+    private int size;
+    // per type, ascending positions of its transactions in the columns, null until the type's first transaction
+    private final int[][] typePositions = new int[TYPES.length][];
+    private final int[] typeSizes = new int[TYPES.length];
+
+    @Override
+    public void add(Transaction transaction) throws IllegalArgumentException, IllegalStateException {
+        add(transaction.type, transaction.currency, Money.toUnits(transaction.initialBalance), Money.toUnits(transaction.balanceChange),
+                transaction.transactionDate.getTime());
+    }
+
+    @Override
+    public void add(TransactionType transactionType, Currency currency, long initialBalance, long balanceChange, long date) throws IllegalStateException {
+        long timestamp = date * NANOS_PER_MILLI;
+        if (size == capacity)
+            grow();
+
+        // after the equal ones, so transactions with the same date keep their insertion order
+        int position = size == 0 || timestamp(size - 1) <= timestamp ? size : firstAfter(null, timestamp);
+        if (position < size)
+            shiftColumns(position);
+        columns.put(position, (byte) transactionType.ordinal());
+        columns.put(capacity + position, (byte) currency.ordinal());
+        columns.putLong(initialBalanceOffset(position), initialBalance);
+        columns.putLong(balanceChangeOffset(position), balanceChange);
+        columns.putLong(timestampOffset(position), timestamp);
+        size++;
+
+        int type = transactionType.ordinal();
+        int[] positions = typePositions[type];
+        if (positions == null)
+            positions = typePositions[type] = new int[INITIAL_TYPE_CAPACITY];
+        else if (typeSizes[type] == positions.length)
+            positions = typePositions[type] = Arrays.copyOf(positions, positions.length * 2);
+        int index = typeSizes[type];
+        while (index > 0 && positions[index - 1] >= position)
+            index--;
+        System.arraycopy(positions, index, positions, index + 1, typeSizes[type] - index);
+        positions[index] = position;
+        typeSizes[type]++;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public List<Transaction> getAll() {
+        return query(null, null, null, HistoryOrder.ASCENDING, 0, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public List<Transaction> query(Date startDate, Date endDate, TransactionType transactionType, HistoryOrder order, int skip, int limit) {
+        int from = startDate == null ? 0 : firstAtOrAfter(transactionType, startDate.getTime() * NANOS_PER_MILLI);
+        int to = endDate == null ? count(transactionType) : firstAfter(transactionType, endDate.getTime() * NANOS_PER_MILLI);
+        int count = Math.max(0, Math.min(to - from - skip, limit));
+        List<Transaction> transactions = new ArrayList<>(count);
+        if (order == HistoryOrder.ASCENDING)
+            for (int i = from + skip; i < from + skip + count; i++)
+                transactions.add(materialize(position(transactionType, i)));
+        else
+            for (int i = to - skip - 1; i >= to - skip - count; i--)
+                transactions.add(materialize(position(transactionType, i)));
+        return transactions;
+    }
+
+    private Transaction materialize(int position) {
+        return new Transaction(TYPES[columns.get(position)], CURRENCIES[columns.get(capacity + position)],
+                Money.toBigDecimal(columns.getLong(initialBalanceOffset(position))), Money.toBigDecimal(columns.getLong(balanceChangeOffset(position))),
+                new Date(timestamp(position) / NANOS_PER_MILLI));
+    }
+
+    // number of transactions of the type, all transactions for a null type
+    private int count(TransactionType transactionType) {
+        return transactionType == null ? size : typeSizes[transactionType.ordinal()];
+    }
+
+    // column position of the i-th transaction of the type
+    private int position(TransactionType transactionType, int i) {
+        return transactionType == null ? i : typePositions[transactionType.ordinal()][i];
+    }
+
+    private int firstAtOrAfter(TransactionType transactionType, long timestamp) {
+        int low = 0, high = count(transactionType);
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (timestamp(position(transactionType, middle)) < timestamp)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low;
+    }
+
+    private int firstAfter(TransactionType transactionType, long timestamp) {
+        int low = 0, high = count(transactionType);
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (timestamp(position(transactionType, middle)) <= timestamp)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low;
+    }
+
+    private long timestamp(int position) {
+        return columns.getLong(timestampOffset(position));
+    }
+
+    // makes room at position for an out-of-order transaction, rare, so element by element
+    private void shiftColumns(int position) {
+        for (int i = size; i > position; i--) {
+            columns.put(i, columns.get(i - 1));
+            columns.put(capacity + i, columns.get(capacity + i - 1));
+            columns.putLong(initialBalanceOffset(i), columns.getLong(initialBalanceOffset(i - 1)));
+            columns.putLong(balanceChangeOffset(i), columns.getLong(balanceChangeOffset(i - 1)));
+            columns.putLong(timestampOffset(i), columns.getLong(timestampOffset(i - 1)));
+        }
+        for (int type = 0; type < TYPES.length; type++)
+            for (int i = typeSizes[type] - 1; i >= 0 && typePositions[type][i] >= position; i--)
+                typePositions[type][i]++;
+    }
+
+    private void grow() throws IllegalStateException {
+        if (columns == null) {
+            columns = SLABS.allocate(INITIAL_CAPACITY);
+            capacity = INITIAL_CAPACITY;
+            return;
+        }
+        if (capacity == MAX_CAPACITY)
+            throw new IllegalStateException("transaction history full");
+
+        int newCapacity = (int) Math.min((long) capacity * 2, MAX_CAPACITY);
+        ByteBuffer grown = SLABS.allocate(newCapacity);
+        // every column moves to its offset for the new capacity
+        grown.put(0, columns, 0, size);
+        grown.put(newCapacity, columns, capacity, size);
+        grown.put(2 * newCapacity, columns, 2 * capacity, size * Long.BYTES);
+        grown.put(2 * newCapacity + newCapacity * Long.BYTES, columns, 2 * capacity + capacity * Long.BYTES, size * Long.BYTES);
+        grown.put(2 * newCapacity + 2 * newCapacity * Long.BYTES, columns, 2 * capacity + 2 * capacity * Long.BYTES, size * Long.BYTES);
+        SLABS.release(columns, capacity);
+        columns = grown;
+        capacity = newCapacity;
+    }
+
+    private int initialBalanceOffset(int position) {
+        return 2 * capacity + position * Long.BYTES;
+    }
+
+    private int balanceChangeOffset(int position) {
+        return 2 * capacity + (capacity + position) * Long.BYTES;
+    }
+
+    private int timestampOffset(int position) {
+        return 2 * capacity + (2 * capacity + position) * Long.BYTES;
+    }
+
+    /**
+     * Hands out columns for capacities of INITIAL_CAPACITY times a power of two. Up to MAX_SLAB_CAPACITY they are slices of
+     * shared slabs, and columns released by a growing history are reused by the next one of that capacity. Each free list keeps
+     * at most a slab's worth of columns, further released ones are dropped, so a slab is freed once no history and no free list
+     * refers to any of its slices.
+     */
+    private static final class Slabs {
+        // by capacity class, INITIAL_CAPACITY << class
+        private final List<ArrayDeque<ByteBuffer>> free = new ArrayList<>();
+        private ByteBuffer slab;
+        private int slabUsed;
+
+        Slabs() {
+            for (int capacity = INITIAL_CAPACITY; capacity <= MAX_SLAB_CAPACITY; capacity *= 2)
+                free.add(new ArrayDeque<>());
+        }
+
+        synchronized ByteBuffer allocate(int capacity) {
+            if (capacity > MAX_SLAB_CAPACITY)
+                return ByteBuffer.allocateDirect(capacity * BYTES_PER_TRANSACTION).order(ByteOrder.nativeOrder());
+
+            ByteBuffer columns = free.get(capacityClass(capacity)).poll();
+            if (columns != null)
+                return columns;
+            int bytes = capacity * BYTES_PER_TRANSACTION;
+            // the rest of a slab too small for the columns is left unused
+            if (slab == null || slabUsed + bytes > SLAB_BYTES) {
+                slab = ByteBuffer.allocateDirect(SLAB_BYTES);
+                slabUsed = 0;
+            }
+            columns = slab.slice(slabUsed, bytes).order(ByteOrder.nativeOrder());
+            slabUsed += bytes;
+            return columns;
+        }
+
+        synchronized void release(ByteBuffer columns, int capacity) {
+            if (capacity > MAX_SLAB_CAPACITY)
+                return;
+            ArrayDeque<ByteBuffer> columnsOfCapacity = free.get(capacityClass(capacity));
+            if (columnsOfCapacity.size() < SLAB_BYTES / (capacity * BYTES_PER_TRANSACTION))
+                columnsOfCapacity.push(columns);
+        }
+
+        private static int capacityClass(int capacity) {
+            return Integer.numberOfTrailingZeros(capacity / INITIAL_CAPACITY);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.rynkow.bankingsystem.model;
+
+/**
+ * Outcome of an operation returned instead of thrown, see BankingSystem.trySendFunds, and of every transfer of a batch.
+ * Failures carry the message and exception type the throwing operations fail with, and the exceptions carry the status back,
+ * see of(Throwable).
+ */
+public enum OperationStatus {
+    APPLIED(null),
+    READ_ONLY("read-only replica"),
+    DUPLICATED_USER("duplicated userId"),
+    ACCOUNT_NOT_FOUND("account not found"),
+    USER_NOT_FOUND("user account not found"),
+    SENDER_NOT_FOUND("sender account not found"),
+    RECEIVER_NOT_FOUND("receiver account not found"),
+    BASE_ACCOUNT_NOT_FOUND("base currency account not found"),
+    TARGET_ACCOUNT_NOT_FOUND("target currency account not found"),
+    INVALID_DEPOSIT_AMOUNT("deposit amount not positive"),
+    INVALID_WITHDRAW_AMOUNT("withdraw amount not positive"),
+    EXCHANGED_AMOUNT_TOO_SMALL("exchanged amount too small"),
+    INSUFFICIENT_FUNDS("insufficient Balance"),
+    BALANCE_OVERFLOW("balance overflow"),
+    INVALID_AMOUNT("amount must have at most " + Money.SCALE + " decimal places and fit in range"),
+    // valid transfer skipped because another transfer of an all-or-nothing batch failed
+    NOT_APPLIED("another transfer of the batch failed");
+
+    public final String message;
+
+    OperationStatus(String message) {
+        this.message = message;
+    }
+
+    public boolean isApplied() {
+        return this == APPLIED;
+    }
+
+    // the exception the throwing operations fail with, null for APPLIED
+    public RuntimeException toException() {
+        return switch (this) {
+            case APPLIED -> null;
+            case DUPLICATED_USER, INVALID_DEPOSIT_AMOUNT, INVALID_WITHDRAW_AMOUNT, EXCHANGED_AMOUNT_TOO_SMALL, INVALID_AMOUNT -> new InvalidArgument(this);
+            case READ_ONLY, INSUFFICIENT_FUNDS, BALANCE_OVERFLOW, NOT_APPLIED -> new InvalidState(this);
+            default -> new Failed(this);
+        };
+    }
+
+    // the status an exception of toException was created for, null for any other exception
+    public static OperationStatus of(Throwable exception) {
+        return exception instanceof StatusException statusException ? statusException.getStatus() : null;
+    }
+
+    private interface StatusException {
+        OperationStatus getStatus();
+    }
+
+    private static final class InvalidArgument extends IllegalArgumentException implements StatusException {
+        private final OperationStatus status;
+
+        InvalidArgument(OperationStatus status) {
+            super(status.message);
+            this.status = status;
+        }
+
+        @Override
+        public OperationStatus getStatus() {
+            return status;
+        }
+    }
+
+    private static final class InvalidState extends IllegalStateException implements StatusException {
+        private final OperationStatus status;
+
+        InvalidState(OperationStatus status) {
+            super(status.message);
+            this.status = status;
+        }
+
+        @Override
+        public OperationStatus getStatus() {
+            return status;
+        }
+    }
+
+    private static final class Failed extends RuntimeException implements StatusException {
+        private final OperationStatus status;
+
+        Failed(OperationStatus status) {
+            super(status.message);
+            this.status = status;
+        }
+
+        @Override
+        public OperationStatus getStatus() {
+            return status;
+        }
+    }
+}
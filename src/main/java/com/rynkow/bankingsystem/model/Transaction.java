@@ -2,6 +2,7 @@ package com.rynkow.bankingsystem.model;
 
 import java.math.BigDecimal;
 import java.util.Date;
+import java.util.Objects;
 
 public class Transaction {
     public final TransactionType type;
@@ -12,13 +13,34 @@ public class Transaction {
 
 
     public Transaction(TransactionType type, Currency currency, BigDecimal initialBalance, BigDecimal balanceChange) {
+        this(type, currency, initialBalance, balanceChange, new Date());
+    }
+
+    public Transaction(TransactionType type, Currency currency, BigDecimal initialBalance, BigDecimal balanceChange, Date transactionDate) {
         this.type = type;
         this.initialBalance = initialBalance;
         this.balanceChange = balanceChange;
-        this.transactionDate = new Date();
+        this.transactionDate = transactionDate;
         this.currency = currency;
     }
 
+    // amounts are compared by value, so a transaction read back from off-heap history equals the one that was added
+    @Override
+    public boolean equals(Object other) {
+        if (this == other)
+            return true;
+        if (!(other instanceof Transaction transaction))
+            return false;
+        return type == transaction.type && currency == transaction.currency
+                && initialBalance.compareTo(transaction.initialBalance) == 0 && balanceChange.compareTo(transaction.balanceChange) == 0
+                && transactionDate.equals(transaction.transactionDate);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(type, currency, initialBalance.stripTrailingZeros(), balanceChange.stripTrailingZeros(), transactionDate);
+    }
+
     @Override
     public String toString() {
         return String.format("%-16s%-16s%-25s%-25s%s", "type=" + type, "currency=" + currency, "initialBalance=" + initialBalance, "balanceChange=" + balanceChange, "transactionDate=" + transactionDate);
@@ -0,0 +1,46 @@
+package com.rynkow.bankingsystem.model;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Transaction history of one account in chronological order, indexed by date and TransactionType.
+ * Transactions usually arrive in time order, an older one (e.g. after a clock step back) is inserted in place,
+ * after the ones with the same date. Implementations are not thread safe, Account guards its history with its lock.
+ */
+public interface TransactionHistory {
+    // system property selecting the implementation used for new accounts: heap (default) or off-heap
+    String IMPLEMENTATION_PROPERTY = "bankingsystem.history";
+
+    static TransactionHistory create() {
+        return "off-heap".equals(System.getProperty(IMPLEMENTATION_PROPERTY)) ? new OffHeapTransactionHistory() : new HeapTransactionHistory();
+    }
+
+    void add(Transaction transaction);
+
+    /**
+     * Like add(Transaction), without the caller creating one: amounts in Money units, date in epoch milliseconds.
+     * Implementations storing primitives, like OffHeapTransactionHistory, create no objects.
+     */
+    default void add(TransactionType transactionType, Currency currency, long initialBalance, long balanceChange, long date) {
+        add(new Transaction(transactionType, currency, Money.toBigDecimal(initialBalance), Money.toBigDecimal(balanceChange), new Date(date)));
+    }
+
+    int size();
+
+    List<Transaction> getAll();
+
+    /**
+     * Transactions within the given dates (inclusive) of the given type, oldest first.
+     * Null bounds or type are not applied.
+     */
+    default List<Transaction> query(Date startDate, Date endDate, TransactionType transactionType) {
+        return query(startDate, endDate, transactionType, HistoryOrder.ASCENDING, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Like query, but in the given order and only up to limit transactions after skipping the first skip of them,
+     * so reading a page copies no more than the page.
+     */
+    List<Transaction> query(Date startDate, Date endDate, TransactionType transactionType, HistoryOrder order, int skip, int limit);
+}
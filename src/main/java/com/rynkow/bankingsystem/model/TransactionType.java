@@ -1,5 +1,7 @@
 package com.rynkow.bankingsystem.model;
 
 public enum TransactionType {
-    DEPOSIT, WITHDRAW, EXCHANGE, SEND, RECEIVE
+    DEPOSIT, WITHDRAW, EXCHANGE, SEND, RECEIVE,
+    // credit returning the amount of a SEND that could not be completed
+    REFUND
 }
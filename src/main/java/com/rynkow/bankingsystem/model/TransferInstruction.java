@@ -0,0 +1,39 @@
+package com.rynkow.bankingsystem.model;
+
+import java.math.BigDecimal;
+import java.util.Objects;
+
+public class TransferInstruction {
+    public final Currency currency;
+    public final BigDecimal amount;
+    public final String senderId;
+    public final String receiverId;
+
+    public TransferInstruction(Currency currency, BigDecimal amount, String senderId, String receiverId) {
+        this.currency = currency;
+        this.amount = amount;
+        this.senderId = senderId;
+        this.receiverId = receiverId;
+    }
+
+    // amounts are compared by value, so a retried batch matches the first attempt's fingerprint, see IdempotencyCache
+    @Override
+    public boolean equals(Object other) {
+        if (this == other)
+            return true;
+        if (!(other instanceof TransferInstruction transfer))
+            return false;
+        return currency == transfer.currency && amount.compareTo(transfer.amount) == 0
+                && senderId.equals(transfer.senderId) && receiverId.equals(transfer.receiverId);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(currency, amount.stripTrailingZeros(), senderId, receiverId);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %s %s -> %s", currency, amount, senderId, receiverId);
+    }
+}
@@ -0,0 +1,70 @@
+package com.rynkow.bankingsystem.pipeline;
+
+import com.rynkow.bankingsystem.model.Currency;
+import com.rynkow.bankingsystem.model.OperationStatus;
+import com.rynkow.bankingsystem.model.Transaction;
+import com.rynkow.bankingsystem.model.TransactionType;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * A slot of the CommandRing, reused for every lap around it: a caller fills in the command, the business logic thread its
+ * outcome, and the caller reads the outcome and releases the slot.
+ */
+final class Command {
+    enum Type {
+        NEW_USER, DEPOSIT, WITHDRAW, SEND, EXCHANGE, BALANCE, HISTORY;
+
+        boolean isMutation() {
+            return this != BALANCE && this != HISTORY;
+        }
+    }
+
+    // sequence of the command in this slot once it is published
+    volatile long published;
+    // sequence of the last command whose caller is done with this slot
+    volatile long released;
+
+    // written by the caller
+    Type type;
+    String userId;
+    // receiver of SEND
+    String receiverId;
+    Currency currency;
+    // target currency of EXCHANGE
+    Currency targetCurrency;
+    long amount;
+    long receivedAmount;
+    long rateVersion;
+    Date startDate;
+    Date endDate;
+    TransactionType transactionType;
+    Thread waiter;
+
+    // written by the business logic thread
+    long timestamp;
+    OperationStatus outcome;
+    // of BALANCE, in Money units by currency ordinal
+    final long[] balances = new long[Currency.values().length];
+    // of HISTORY
+    List<Transaction> history;
+    // set instead of an outcome if the command failed with an exception, or a processor failed on it
+    RuntimeException failure;
+
+    Command(long released) {
+        this.published = -1;
+        this.released = released;
+    }
+
+    // drops references to the caller's objects, so a released slot does not keep them alive
+    void clear() {
+        userId = null;
+        receiverId = null;
+        startDate = null;
+        endDate = null;
+        history = null;
+        failure = null;
+        waiter = null;
+    }
+}
@@ -0,0 +1,63 @@
+package com.rynkow.bankingsystem.pipeline;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Preallocated ring of Command slots, indexed by ever-increasing sequence numbers. Callers claim sequences, fill the slot and
+ * publish it; the business logic thread takes slots in sequence order once published. A slot is claimed again, one lap later,
+ * only after the caller of its previous command released it, so a full ring holds callers back.
+ */
+final class CommandRing {
+    private static final int CLAIM_SPINS = 100;
+    private static final long CLAIM_PARK_NANOS = 10_000;
+
+    private final Command[] slots;
+    private final int mask;
+    private final AtomicLong next = new AtomicLong();
+
+    CommandRing(int size) {
+        if (size < 2 || Integer.bitCount(size) != 1)
+            throw new IllegalArgumentException("ring size not a power of two");
+
+        this.slots = new Command[size];
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++)
+            slots[i] = new Command(i - size);
+    }
+
+    int size() {
+        return slots.length;
+    }
+
+    Command get(long sequence) {
+        return slots[(int) sequence & mask];
+    }
+
+    // the next sequence, once its slot is free
+    long claim() {
+        long sequence = next.getAndIncrement();
+        Command slot = get(sequence);
+        for (int spins = 0; slot.released != sequence - slots.length; spins++) {
+            if (spins < CLAIM_SPINS)
+                Thread.onSpinWait();
+            else
+                LockSupport.parkNanos(this, CLAIM_PARK_NANOS);
+        }
+        return sequence;
+    }
+
+    void publish(long sequence) {
+        get(sequence).published = sequence;
+    }
+
+    boolean isPublished(long sequence) {
+        return get(sequence).published == sequence;
+    }
+
+    void release(long sequence) {
+        Command slot = get(sequence);
+        slot.clear();
+        slot.released = sequence;
+    }
+}
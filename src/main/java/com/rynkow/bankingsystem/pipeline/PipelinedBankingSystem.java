@@ -0,0 +1,608 @@
+package com.rynkow.bankingsystem.pipeline;
+
+import com.rynkow.bankingsystem.BankingOperations;
+import com.rynkow.bankingsystem.BankingSystem;
+import com.rynkow.bankingsystem.journal.Mutation;
+import com.rynkow.bankingsystem.journal.MutationLog;
+import com.rynkow.bankingsystem.model.Currency;
+import com.rynkow.bankingsystem.model.HistoryOrder;
+import com.rynkow.bankingsystem.model.Money;
+import com.rynkow.bankingsystem.model.OffHeapTransactionHistory;
+import com.rynkow.bankingsystem.model.OperationStatus;
+import com.rynkow.bankingsystem.model.Transaction;
+import com.rynkow.bankingsystem.model.TransactionType;
+import com.rynkow.bankingsystem.service.CurrencyExchangeService;
+import com.rynkow.bankingsystem.service.ExchangeQuote;
+
+import java.io.Closeable;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Banking engine in the style of the LMAX architecture: callers publish every command, queries included, to a preallocated
+ * CommandRing, and a single business logic thread applies them in sequence order to accounts only it touches, so balances are
+ * plain fields and nothing is locked - a hot account costs no more than any other. Behind it the journal and the replication
+ * stage run in parallel on the same ring, each appending the applied mutations of a batch to its MutationLog and waiting for
+ * them to be durable once per batch, which groups the waits. A caller returns once every stage passed its command.
+ * <p>
+ * Command slots are reused lap after lap, and transactions are recorded in off-heap histories without creating objects,
+ * so a successful mutation creates no garbage on the business logic thread; the stages create the Mutation objects their
+ * logs take. Failures surface as the exceptions BankingSystem throws, created on the calling thread, or as the OperationStatus
+ * of the try methods. A command throwing on the business logic thread fails alone with an IllegalStateException; a processor
+ * failing on a batch - e.g. a journal write - fails the engine: the commands of the batch and every later command fail,
+ * nothing more is applied or logged, and new commands are rejected like after close.
+ * Not restored from its journal on startup, no batches, no idempotency keys, no metrics.
+ */
+public class PipelinedBankingSystem implements BankingOperations, Closeable {
+    public static final int DEFAULT_RING_SIZE = 1 << 14;
+    private static final int MAX_USER_ID_LENGTH = 256;
+    private static final int WAIT_SPINS = 100;
+    private static final long CLOSED_PARK_NANOS = 1_000_000;
+    private static final Currency[] CURRENCIES = Currency.values();
+
+    private final CurrencyExchangeService exchangeService;
+    private final CommandRing ring;
+    private final BusinessLogic businessLogic;
+    private final Processor[] stages;
+    // the processors every command has to pass before its caller returns
+    private final Processor[] last;
+    private volatile boolean running = true;
+    // first processor failure, fails every later command
+    private volatile RuntimeException failure;
+
+    public PipelinedBankingSystem(CurrencyExchangeService exchangeService) {
+        this(exchangeService, MutationLog.NONE, MutationLog.NONE, DEFAULT_RING_SIZE);
+    }
+
+    /**
+     * @param journal     log of the applied mutations, e.g. a FileJournal, MutationLog.NONE for none
+     * @param replication log shipping them to replicas, e.g. a ReplicationPublisher, MutationLog.NONE for none
+     * @param ringSize    number of command slots, a power of two
+     */
+    public PipelinedBankingSystem(CurrencyExchangeService exchangeService, MutationLog journal, MutationLog replication, int ringSize) {
+        this.exchangeService = exchangeService;
+        this.ring = new CommandRing(ringSize);
+        this.businessLogic = new BusinessLogic();
+        List<Processor> stages = new ArrayList<>();
+        if (journal != MutationLog.NONE)
+            stages.add(new MutationStage("pipeline-journal", journal));
+        if (replication != MutationLog.NONE)
+            stages.add(new MutationStage("pipeline-replication", replication));
+        this.stages = stages.toArray(new Processor[0]);
+        this.last = stages.isEmpty() ? new Processor[]{businessLogic} : this.stages;
+        businessLogic.thread.start();
+        for (Processor stage : this.stages)
+            stage.thread.start();
+    }
+
+    @Override
+    public void newUser(String userId) throws IllegalArgumentException {
+        if (userId.length() > MAX_USER_ID_LENGTH)
+            throw new IllegalArgumentException("userId too long");
+
+        long sequence = claim();
+        Command command = ring.get(sequence);
+        command.type = Command.Type.NEW_USER;
+        command.userId = userId;
+        throwIfFailed(execute(sequence, command));
+    }
+
+    @Override
+    public void sendFunds(Currency currency, BigDecimal amount, String senderId, String receiverId) throws RuntimeException {
+        throwIfFailed(trySendFunds(currency, amount, senderId, receiverId));
+    }
+
+    // like sendFunds, returning the status of a rejected transfer instead of throwing, see BankingSystem.trySendFunds
+    @Override
+    public OperationStatus trySendFunds(Currency currency, BigDecimal amount, String senderId, String receiverId) throws IllegalArgumentException {
+        long units = Money.toUnits(amount);
+        long sequence = claim();
+        Command command = ring.get(sequence);
+        command.type = Command.Type.SEND;
+        command.userId = senderId;
+        command.receiverId = receiverId;
+        command.currency = currency;
+        command.amount = units;
+        return execute(sequence, command);
+    }
+
+    @Override
+    public void depositFunds(Currency currency, BigDecimal amount, String userId) throws RuntimeException {
+        throwIfFailed(tryDepositFunds(currency, amount, userId));
+    }
+
+    // like depositFunds, returning the status of a rejected deposit instead of throwing
+    @Override
+    public OperationStatus tryDepositFunds(Currency currency, BigDecimal amount, String userId) throws IllegalArgumentException {
+        long units = Money.toUnits(amount);
+        long sequence = claim();
+        Command command = ring.get(sequence);
+        command.type = Command.Type.DEPOSIT;
+        command.userId = userId;
+        command.currency = currency;
+        command.amount = units;
+        return execute(sequence, command);
+    }
+
+    @Override
+    public void withdrawFunds(Currency currency, BigDecimal amount, String userId) throws RuntimeException {
+        throwIfFailed(tryWithdrawFunds(currency, amount, userId));
+    }
+
+    // like withdrawFunds, returning the status of a rejected withdrawal instead of throwing
+    @Override
+    public OperationStatus tryWithdrawFunds(Currency currency, BigDecimal amount, String userId) throws IllegalArgumentException {
+        long units = Money.toUnits(amount);
+        long sequence = claim();
+        Command command = ring.get(sequence);
+        command.type = Command.Type.WITHDRAW;
+        command.userId = userId;
+        command.currency = currency;
+        command.amount = units;
+        return execute(sequence, command);
+    }
+
+    @Override
+    public void exchangeCurrency(Currency baseCurrency, Currency targetCurrency, BigDecimal amount, String userId) throws RuntimeException {
+        throwIfFailed(tryExchangeCurrency(baseCurrency, targetCurrency, amount, userId));
+    }
+
+    // like exchangeCurrency, returning the status of a rejected exchange instead of throwing
+    @Override
+    public OperationStatus tryExchangeCurrency(Currency baseCurrency, Currency targetCurrency, BigDecimal amount, String userId) throws IllegalArgumentException {
+        long units = Money.toUnits(amount);
+        ExchangeQuote quote = exchangeService.quote(baseCurrency, targetCurrency, amount);
+        long receivedUnits = Money.roundToUnits(quote.amount);
+        if (units > 0 && receivedUnits < 1)
+            return OperationStatus.EXCHANGED_AMOUNT_TOO_SMALL;
+
+        long sequence = claim();
+        Command command = ring.get(sequence);
+        command.type = Command.Type.EXCHANGE;
+        command.userId = userId;
+        command.currency = baseCurrency;
+        command.targetCurrency = targetCurrency;
+        command.amount = units;
+        command.receivedAmount = receivedUnits;
+        command.rateVersion = quote.rateVersion;
+        return execute(sequence, command);
+    }
+
+    @Override
+    public List<Transaction> getAccountHistory(String userId, Currency currency, Date startDate, Date endDate, TransactionType transactionType) throws RuntimeException {
+        long sequence = claim();
+        Command command = ring.get(sequence);
+        command.type = Command.Type.HISTORY;
+        command.userId = userId;
+        command.currency = currency;
+        command.startDate = startDate;
+        command.endDate = endDate;
+        command.transactionType = transactionType;
+        run(sequence, command);
+        List<Transaction> history = command.history;
+        complete(sequence, command);
+        return history;
+    }
+
+    @Override
+    public Map<Currency, BigDecimal> getAccountBalance(String userId) throws RuntimeException {
+        long sequence = claim();
+        Command command = ring.get(sequence);
+        command.type = Command.Type.BALANCE;
+        command.userId = userId;
+        run(sequence, command);
+        Map<Currency, BigDecimal> balances = new EnumMap<>(Currency.class);
+        for (Currency currency : CURRENCIES)
+            balances.put(currency, Money.toBigDecimal(command.balances[currency.ordinal()]));
+        complete(sequence, command);
+        return balances;
+    }
+
+    // stops the threads once the commands already published passed every stage
+    @Override
+    public void close() {
+        running = false;
+        businessLogic.wake();
+        for (Processor stage : stages)
+            stage.wake();
+        try {
+            businessLogic.thread.join();
+            for (Processor stage : stages)
+                stage.thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private long claim() throws IllegalStateException {
+        if (!running)
+            throw new IllegalStateException("banking system closed");
+        RuntimeException failure = this.failure;
+        if (failure != null)
+            throw new IllegalStateException("banking system failed: " + failure.getMessage(), failure);
+        return ring.claim();
+    }
+
+    private OperationStatus execute(long sequence, Command command) throws IllegalStateException {
+        run(sequence, command);
+        return finish(sequence, command);
+    }
+
+    // releases the slot, returning the outcome of its command or throwing its failure
+    private OperationStatus finish(long sequence, Command command) throws IllegalStateException {
+        OperationStatus status = command.outcome;
+        RuntimeException failure = command.failure;
+        ring.release(sequence);
+        if (failure != null)
+            throw new IllegalStateException("command failed: " + failure.getMessage(), failure);
+        return status;
+    }
+
+    // publishes the command and waits until every stage passed it
+    private void run(long sequence, Command command) throws IllegalStateException {
+        command.waiter = Thread.currentThread();
+        ring.publish(sequence);
+        businessLogic.wake();
+        for (int spins = 0; !isDone(sequence); spins++) {
+            if (spins < WAIT_SPINS) {
+                Thread.onSpinWait();
+            } else if (running) {
+                LockSupport.park(this);
+            } else if (!businessLogic.thread.isAlive() && businessLogic.cursor < sequence) {
+                // published after close stopped the business logic thread
+                ring.release(sequence);
+                throw new IllegalStateException("banking system closed");
+            } else {
+                // no processor wakes a command published while closing, it polls
+                LockSupport.parkNanos(this, CLOSED_PARK_NANOS);
+            }
+        }
+    }
+
+    // releases the slot, throwing the failure of its command
+    private void complete(long sequence, Command command) throws RuntimeException {
+        throwIfFailed(finish(sequence, command));
+    }
+
+    private static void throwIfFailed(OperationStatus status) throws RuntimeException {
+        if (status != OperationStatus.APPLIED)
+            throw status.toException();
+    }
+
+    // called by a processor which failed on the batch, the engine fails with it
+    private void fail(Throwable cause, long from, long to) {
+        if (failure == null)
+            failure = new IllegalStateException(Thread.currentThread().getName() + " failed: " + cause, cause);
+        failBatch(from, to);
+    }
+
+    private void failBatch(long from, long to) {
+        for (long sequence = from; sequence <= to; sequence++)
+            ring.get(sequence).failure = failure;
+    }
+
+    private boolean isDone(long sequence) {
+        for (Processor processor : last)
+            if (processor.cursor < sequence)
+                return false;
+        return true;
+    }
+
+    // each of the last processors wakes the callers it finds done, at least one of them sees every processor past a command
+    private void wakeCallers(long from, long to) {
+        for (long sequence = from; sequence <= to; sequence++) {
+            if (!isDone(sequence))
+                continue;
+            Thread waiter = ring.get(sequence).waiter;
+            if (waiter != null)
+                LockSupport.unpark(waiter);
+        }
+    }
+
+    // a thread taking ring slots in batches up to what is available to it, parked while there is nothing
+    private abstract class Processor implements Runnable {
+        final Thread thread;
+        // last sequence processed
+        volatile long cursor = -1;
+        private volatile boolean idle;
+
+        Processor(String name) {
+            thread = new Thread(this, name);
+            thread.setDaemon(true);
+        }
+
+        // last sequence this processor may process
+        abstract long available();
+
+        abstract void process(long from, long to);
+
+        abstract void afterBatch(long from, long to);
+
+        void wake() {
+            if (idle)
+                LockSupport.unpark(thread);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                long available = available();
+                if (available > cursor) {
+                    long from = cursor + 1;
+                    try {
+                        process(from, available);
+                    } catch (RuntimeException | Error e) {
+                        // which commands of the batch took effect is unknown, the callers are woken with the failure
+                        fail(e, from, available);
+                    }
+                    cursor = available;
+                    afterBatch(from, available);
+                    continue;
+                }
+                // a slot published just before running was cleared is still processed
+                if (!running && !upstreamRunning() && available() <= cursor)
+                    return;
+                idle = true;
+                // a slot published before idle was set is seen here, one published after it wakes this thread
+                if (available() <= cursor && running)
+                    LockSupport.park(this);
+                idle = false;
+            }
+        }
+
+        // stages keep going until the business logic thread stopped, so they see its last batch
+        boolean upstreamRunning() {
+            return false;
+        }
+    }
+
+    private final class BusinessLogic extends Processor {
+        // touched by this thread only: user id -> accounts by currency ordinal
+        private final Map<String, PipelineAccount[]> accounts = new HashMap<>();
+
+        BusinessLogic() {
+            super("pipeline-business-logic");
+        }
+
+        @Override
+        long available() {
+            long sequence = cursor;
+            long limit = cursor + ring.size();
+            while (sequence < limit && ring.isPublished(sequence + 1))
+                sequence++;
+            return sequence;
+        }
+
+        @Override
+        void process(long from, long to) {
+            if (failure != null) {
+                failBatch(from, to);
+                return;
+            }
+            for (long sequence = from; sequence <= to; sequence++) {
+                Command command = ring.get(sequence);
+                command.timestamp = System.currentTimeMillis();
+                try {
+                    command.outcome = apply(command);
+                } catch (RuntimeException e) {
+                    // apply checks a command before it changes anything, so the failure is the command's alone
+                    command.outcome = null;
+                    command.failure = e;
+                }
+            }
+        }
+
+        @Override
+        void afterBatch(long from, long to) {
+            if (stages.length == 0)
+                wakeCallers(from, to);
+            else
+                for (Processor stage : stages)
+                    stage.wake();
+        }
+
+        private OperationStatus apply(Command command) {
+            return switch (command.type) {
+                case NEW_USER -> newUser(command.userId);
+                case DEPOSIT -> {
+                    PipelineAccount account = account(command.userId, command.currency);
+                    if (account == null)
+                        yield OperationStatus.ACCOUNT_NOT_FOUND;
+                    OperationStatus status = checkCredit(account, command.amount);
+                    if (status != OperationStatus.APPLIED)
+                        yield status;
+                    credit(account, TransactionType.DEPOSIT, command.amount, command.timestamp);
+                    yield OperationStatus.APPLIED;
+                }
+                case WITHDRAW -> {
+                    PipelineAccount account = account(command.userId, command.currency);
+                    if (account == null)
+                        yield OperationStatus.ACCOUNT_NOT_FOUND;
+                    OperationStatus status = checkDebit(account, command.amount);
+                    if (status != OperationStatus.APPLIED)
+                        yield status;
+                    debit(account, TransactionType.WITHDRAW, command.amount, command.timestamp);
+                    yield OperationStatus.APPLIED;
+                }
+                case SEND -> send(command);
+                case EXCHANGE -> exchange(command);
+                case BALANCE -> balance(command);
+                case HISTORY -> history(command);
+            };
+        }
+
+        private OperationStatus newUser(String userId) {
+            if (accounts.containsKey(userId))
+                return OperationStatus.DUPLICATED_USER;
+
+            PipelineAccount[] userAccounts = new PipelineAccount[CURRENCIES.length];
+            for (Currency currency : CURRENCIES)
+                userAccounts[currency.ordinal()] = new PipelineAccount(currency);
+            accounts.put(userId, userAccounts);
+            return OperationStatus.APPLIED;
+        }
+
+        private OperationStatus send(Command command) {
+            PipelineAccount sender = account(command.userId, command.currency);
+            if (sender == null)
+                return OperationStatus.SENDER_NOT_FOUND;
+            PipelineAccount receiver = account(command.receiverId, command.currency);
+            if (receiver == null)
+                return OperationStatus.RECEIVER_NOT_FOUND;
+            OperationStatus status = checkDebit(sender, command.amount);
+            if (status == OperationStatus.APPLIED && receiver != sender)
+                status = checkCredit(receiver, command.amount);
+            if (status != OperationStatus.APPLIED)
+                return status;
+
+            debit(sender, TransactionType.SEND, command.amount, command.timestamp);
+            credit(receiver, TransactionType.RECEIVE, command.amount, command.timestamp);
+            return OperationStatus.APPLIED;
+        }
+
+        private OperationStatus exchange(Command command) {
+            PipelineAccount base = account(command.userId, command.currency);
+            if (base == null)
+                return OperationStatus.BASE_ACCOUNT_NOT_FOUND;
+            PipelineAccount target = account(command.userId, command.targetCurrency);
+            if (target == null)
+                return OperationStatus.TARGET_ACCOUNT_NOT_FOUND;
+            OperationStatus status = checkDebit(base, command.amount);
+            if (status == OperationStatus.APPLIED)
+                status = checkCredit(target, command.receivedAmount);
+            if (status != OperationStatus.APPLIED)
+                return status;
+
+            debit(base, TransactionType.EXCHANGE, command.amount, command.timestamp);
+            credit(target, TransactionType.EXCHANGE, command.receivedAmount, command.timestamp);
+            return OperationStatus.APPLIED;
+        }
+
+        private OperationStatus balance(Command command) {
+            PipelineAccount[] userAccounts = accounts.get(command.userId);
+            if (userAccounts == null)
+                return OperationStatus.USER_NOT_FOUND;
+            for (PipelineAccount account : userAccounts)
+                command.balances[account.currency.ordinal()] = account.balance;
+            return OperationStatus.APPLIED;
+        }
+
+        private OperationStatus history(Command command) {
+            PipelineAccount[] userAccounts = accounts.get(command.userId);
+            if (userAccounts == null)
+                return OperationStatus.ACCOUNT_NOT_FOUND;
+            List<List<Transaction>> histories = new ArrayList<>();
+            for (PipelineAccount account : userAccounts)
+                if (command.currency == null || account.currency == command.currency)
+                    histories.add(account.history.query(command.startDate, command.endDate, command.transactionType));
+            command.history = Collections.unmodifiableList(BankingSystem.mergeByDate(histories, HistoryOrder.ASCENDING, Integer.MAX_VALUE));
+            return OperationStatus.APPLIED;
+        }
+
+        private PipelineAccount account(String userId, Currency currency) {
+            PipelineAccount[] userAccounts = accounts.get(userId);
+            return userAccounts == null ? null : userAccounts[currency.ordinal()];
+        }
+
+        private static OperationStatus checkDebit(PipelineAccount account, long units) {
+            if (units < 1)
+                return OperationStatus.INVALID_WITHDRAW_AMOUNT;
+            if (account.balance < units)
+                return OperationStatus.INSUFFICIENT_FUNDS;
+            return OperationStatus.APPLIED;
+        }
+
+        private static OperationStatus checkCredit(PipelineAccount account, long units) {
+            if (units < 1)
+                return OperationStatus.INVALID_DEPOSIT_AMOUNT;
+            if (account.balance > Long.MAX_VALUE - units)
+                return OperationStatus.BALANCE_OVERFLOW;
+            return OperationStatus.APPLIED;
+        }
+
+        private static void debit(PipelineAccount account, TransactionType type, long units, long timestamp) {
+            long balance = account.balance;
+            account.balance = balance - units;
+            account.history.add(type, account.currency, balance, -units, timestamp);
+        }
+
+        private static void credit(PipelineAccount account, TransactionType type, long units, long timestamp) {
+            long balance = account.balance;
+            account.balance = balance + units;
+            account.history.add(type, account.currency, balance, units, timestamp);
+        }
+    }
+
+    // appends the applied mutations of each batch to its log, then waits once for the last of them to be durable
+    private final class MutationStage extends Processor {
+        private final MutationLog log;
+
+        MutationStage(String name, MutationLog log) {
+            super(name);
+            this.log = log;
+        }
+
+        @Override
+        long available() {
+            return businessLogic.cursor;
+        }
+
+        @Override
+        void process(long from, long to) {
+            if (failure != null) {
+                failBatch(from, to);
+                return;
+            }
+            long sequence = -1;
+            boolean appended = false;
+            for (long i = from; i <= to; i++) {
+                Command command = ring.get(i);
+                if (command.type.isMutation() && command.outcome == OperationStatus.APPLIED) {
+                    sequence = log.append(mutation(command));
+                    appended = true;
+                }
+            }
+            if (appended)
+                log.awaitDurable(sequence);
+        }
+
+        @Override
+        void afterBatch(long from, long to) {
+            wakeCallers(from, to);
+        }
+
+        @Override
+        boolean upstreamRunning() {
+            return businessLogic.thread.isAlive() || businessLogic.cursor > cursor;
+        }
+
+        private Mutation mutation(Command command) {
+            return switch (command.type) {
+                case NEW_USER -> Mutation.newUser(command.timestamp, command.userId);
+                case DEPOSIT -> Mutation.deposit(command.timestamp, command.userId, command.currency, command.amount);
+                case WITHDRAW -> Mutation.withdraw(command.timestamp, command.userId, command.currency, command.amount);
+                case SEND -> Mutation.send(command.timestamp, command.userId, command.receiverId, command.currency, command.amount);
+                case EXCHANGE -> Mutation.exchange(command.timestamp, command.userId, command.currency, command.targetCurrency, command.amount,
+                        command.receivedAmount, command.rateVersion);
+                default -> throw new IllegalStateException("not a mutation: " + command.type);
+            };
+        }
+    }
+
+    private static final class PipelineAccount {
+        final Currency currency;
+        final OffHeapTransactionHistory history = new OffHeapTransactionHistory();
+        long balance;
+
+        PipelineAccount(Currency currency) {
+            this.currency = currency;
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package com.rynkow.bankingsystem.replication;
+
+import com.rynkow.bankingsystem.BankingSystem;
+import com.rynkow.bankingsystem.journal.Mutation;
+import com.rynkow.bankingsystem.journal.MutationCodec;
+import com.rynkow.bankingsystem.journal.MutationLog;
+import com.rynkow.bankingsystem.metrics.LatencyHistogram;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Read replica of a primary publishing its mutations with a ReplicationPublisher. Applies the primary's mutations in order,
+ * with BankingSystem.apply, to its own BankingSystem and repository - which are read-only meanwhile and serve reads, e.g. through a BankingServer.
+ * Every mutation is also appended to the replica's log with the primary's sequence number: a FileJournal lets the replica restart
+ * where it stopped, a ReplicationPublisher feeds further replicas.
+ * <p>
+ * A lost connection is retried, continuing after the last applied mutation. promote stops following the primary and makes
+ * the BankingSystem writable, its log continues the primary's sequence - replicas of the old primary can follow the promoted one
+ * if they did not apply more of the old primary's mutations than it did.
+ * <p>
+ * The lag is the age of the newest primary state the replica is known to reflect: the primary's time of the last applied mutation,
+ * or of the last heartbeat if the replica had applied everything the heartbeat announced. Heartbeats follow every batch sent and
+ * come at least every 10 ms, so an idle replica which is up to date shows at most that. Primary and replica compare wall clock times,
+ * so the lag is accurate for replicas on the primary's machine or with synchronized clocks.
+ */
+public class Replica implements Closeable {
+    private static final long RECONNECT_DELAY_MILLIS = 100;
+
+    private final BankingSystem bankingSystem;
+    private final MutationLog log;
+    private final InetSocketAddress primary;
+    // time from the primary applying a mutation to this replica applying it, millisecond resolution
+    private final LatencyHistogram delay = new LatencyHistogram();
+    private final ReentrantLock appliedLock = new ReentrantLock();
+    private final Condition applied = appliedLock.newCondition();
+    private volatile long appliedSequence;
+    private volatile long primarySequence;
+    private volatile long currentAsOfMillis;
+    private volatile boolean connected;
+    private volatile String failure;
+    private volatile boolean closed;
+    private volatile SocketChannel channel;
+    private Thread follower;
+
+    /**
+     * Makes the BankingSystem read-only, start begins following the primary.
+     *
+     * @param log             log of the replica's BankingSystem, MutationLog.NONE if it has none
+     * @param appliedSequence sequence of the last primary mutation the BankingSystem reflects, e.g. after replaying the replica's journal, 0 for none
+     */
+    public Replica(BankingSystem bankingSystem, MutationLog log, long appliedSequence, InetSocketAddress primary) {
+        this.bankingSystem = bankingSystem;
+        this.log = log;
+        this.appliedSequence = appliedSequence;
+        this.primarySequence = appliedSequence;
+        this.primary = primary;
+        bankingSystem.setReadOnly(true);
+    }
+
+    public synchronized void start() {
+        if (follower != null)
+            throw new IllegalStateException("replica already started");
+
+        follower = new Thread(this::follow, "replica-follower");
+        follower.setDaemon(true);
+        follower.start();
+    }
+
+    public BankingSystem getBankingSystem() {
+        return bankingSystem;
+    }
+
+    public long getAppliedSequence() {
+        return appliedSequence;
+    }
+
+    // the primary's last sequence as of the last heartbeat
+    public long getPrimarySequence() {
+        return primarySequence;
+    }
+
+    public long getLagMutations() {
+        return Math.max(0, primarySequence - appliedSequence);
+    }
+
+    public long getLagMillis() {
+        return Math.max(0, System.currentTimeMillis() - currentAsOfMillis);
+    }
+
+    public LatencyHistogram.Snapshot getDelay() {
+        return delay.snapshot();
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    // why the last connection ended, null while connected
+    public String getFailure() {
+        return failure;
+    }
+
+    /**
+     * Waits until the replica applied the mutation with the given sequence, e.g. one the client's own write got on the primary.
+     *
+     * @return false if it did not within the timeout
+     */
+    public boolean awaitSequence(long sequence, long timeout, TimeUnit unit) throws InterruptedException {
+        long remaining = unit.toNanos(timeout);
+        appliedLock.lock();
+        try {
+            while (appliedSequence < sequence) {
+                if (remaining <= 0)
+                    return false;
+                remaining = applied.awaitNanos(remaining);
+            }
+            return true;
+        } finally {
+            appliedLock.unlock();
+        }
+    }
+
+    // stops following the primary and makes the BankingSystem writable, it is the primary from now on
+    public BankingSystem promote() throws InterruptedException {
+        close();
+        bankingSystem.setReadOnly(false);
+        return bankingSystem;
+    }
+
+    // stops following the primary, the BankingSystem stays read-only
+    @Override
+    public void close() {
+        closed = true;
+        closeChannel();
+        Thread follower;
+        synchronized (this) {
+            follower = this.follower;
+        }
+        if (follower != null && follower != Thread.currentThread()) {
+            try {
+                follower.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void follow() {
+        while (!closed) {
+            try (SocketChannel channel = SocketChannel.open()) {
+                this.channel = channel;
+                // closed before the channel was published
+                if (closed)
+                    return;
+                channel.connect(primary);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                ByteBuffer request = ByteBuffer.allocate(Long.BYTES).putLong(appliedSequence + 1).flip();
+                while (request.hasRemaining())
+                    channel.write(request);
+                connected = true;
+                failure = null;
+                ByteBuffer in = ByteBuffer.allocateDirect(ReplicationProtocol.BUFFER_SIZE);
+                while (channel.read(in) >= 0) {
+                    in.flip();
+                    long before = appliedSequence;
+                    while (applyMessage(in)) ;
+                    in.compact();
+                    if (!in.hasRemaining())
+                        throw new IOException("invalid replication message");
+                    if (appliedSequence > before) {
+                        log.awaitDurable(appliedSequence);
+                        signalApplied();
+                    }
+                }
+                failure = "primary closed the connection";
+            } catch (IOException | RuntimeException e) {
+                failure = e.getMessage() != null ? e.getMessage() : e.getClass().getName();
+            } finally {
+                connected = false;
+            }
+            if (!closed) {
+                try {
+                    Thread.sleep(RECONNECT_DELAY_MILLIS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    // applies the complete message at the buffer position and moves past it, false (position unchanged) if it is incomplete
+    private boolean applyMessage(ByteBuffer in) throws IllegalStateException {
+        int start = in.position();
+        if (!in.hasRemaining())
+            return false;
+        switch (in.get(start)) {
+            case ReplicationProtocol.MUTATION -> {
+                if (in.remaining() < Byte.BYTES + Long.BYTES)
+                    return false;
+                long sequence = in.getLong(start + Byte.BYTES);
+                Mutation mutation = MutationCodec.readFrame(in.position(start + Byte.BYTES + Long.BYTES));
+                if (mutation == null) {
+                    in.position(start);
+                    return false;
+                }
+                apply(mutation, sequence);
+            }
+            case ReplicationProtocol.HEARTBEAT -> {
+                if (in.remaining() < ReplicationProtocol.HEARTBEAT_SIZE)
+                    return false;
+                long sequence = in.getLong(start + Byte.BYTES);
+                long timeMillis = in.getLong(start + Byte.BYTES + Long.BYTES);
+                in.position(start + ReplicationProtocol.HEARTBEAT_SIZE);
+                primarySequence = Math.max(primarySequence, sequence);
+                if (appliedSequence >= sequence)
+                    currentAsOfMillis = Math.max(currentAsOfMillis, timeMillis);
+            }
+            case ReplicationProtocol.ERROR -> {
+                String message = ReplicationProtocol.getError(in);
+                if (message == null)
+                    return false;
+                throw new IllegalStateException("primary: " + message);
+            }
+            default -> throw new IllegalStateException("invalid replication message");
+        }
+        return true;
+    }
+
+    private void apply(Mutation mutation, long sequence) throws IllegalStateException {
+        if (sequence != appliedSequence + 1)
+            throw new IllegalStateException("replication gap after sequence " + appliedSequence + ", received " + sequence);
+
+        long logged = log.append(mutation);
+        if (logged != 0 && logged != sequence)
+            throw new IllegalStateException("replica log at sequence " + logged + ", primary at " + sequence);
+        bankingSystem.apply(mutation, sequence);
+        appliedSequence = sequence;
+        primarySequence = Math.max(primarySequence, sequence);
+        long now = System.currentTimeMillis();
+        delay.record(TimeUnit.MILLISECONDS.toNanos(Math.max(0, now - mutation.timestamp)));
+        currentAsOfMillis = Math.max(currentAsOfMillis, mutation.timestamp);
+    }
+
+    private void signalApplied() {
+        appliedLock.lock();
+        try {
+            applied.signalAll();
+        } finally {
+            appliedLock.unlock();
+        }
+    }
+
+    private void closeChannel() {
+        SocketChannel channel = this.channel;
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // closing anyway
+            }
+        }
+    }
+}
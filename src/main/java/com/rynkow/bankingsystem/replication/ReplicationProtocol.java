@@ -0,0 +1,62 @@
+package com.rynkow.bankingsystem.replication;
+
+import com.rynkow.bankingsystem.journal.Mutation;
+import com.rynkow.bankingsystem.journal.MutationCodec;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Messages between a ReplicationPublisher and a Replica, all numbers big-endian:
+ * <pre>
+ * replica -> primary: long sequence of the first mutation to send
+ * primary -> replica, any number of:
+ * MUTATION  byte 1, long sequence, MutationCodec frame
+ * HEARTBEAT byte 2, long sequence of the primary's last mutation, long primary time in epoch millis when it was the last one
+ * ERROR     byte 3, short byte length, UTF-8 message - the primary cannot serve the replica, the connection ends
+ * </pre>
+ * Mutations follow each other without gaps, in the primary's sequence order.
+ */
+final class ReplicationProtocol {
+    static final byte MUTATION = 1;
+    static final byte HEARTBEAT = 2;
+    static final byte ERROR = 3;
+
+    static final int BUFFER_SIZE = 64 * 1024;
+    // bounds a mutation frame, BankingSystem limits user ids to 256 characters
+    static final int MAX_MESSAGE_SIZE = 4 * 1024;
+    static final int HEARTBEAT_SIZE = Byte.BYTES + 2 * Long.BYTES;
+    static final int MAX_ERROR_LENGTH = 1024;
+    static final long HEARTBEAT_INTERVAL_MILLIS = 10;
+
+    private ReplicationProtocol() {
+    }
+
+    static void putMutation(ByteBuffer out, long sequence, Mutation mutation) {
+        out.put(MUTATION).putLong(sequence);
+        MutationCodec.writeFrame(mutation, out);
+    }
+
+    static void putHeartbeat(ByteBuffer out, long sequence, long timeMillis) {
+        out.put(HEARTBEAT).putLong(sequence).putLong(timeMillis);
+    }
+
+    static void putError(ByteBuffer out, String message) {
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(bytes.length, MAX_ERROR_LENGTH);
+        out.put(ERROR).putShort((short) length).put(bytes, 0, length);
+    }
+
+    // the message of a complete ERROR at the buffer position, moving past it, or null (position unchanged) if incomplete
+    static String getError(ByteBuffer in) {
+        int start = in.position();
+        if (in.remaining() < Byte.BYTES + Short.BYTES)
+            return null;
+        int length = Short.toUnsignedInt(in.getShort(start + 1));
+        if (in.remaining() < Byte.BYTES + Short.BYTES + length)
+            return null;
+        byte[] bytes = new byte[length];
+        in.position(start + Byte.BYTES + Short.BYTES).get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
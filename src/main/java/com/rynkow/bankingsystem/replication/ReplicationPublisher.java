@@ -0,0 +1,277 @@
+package com.rynkow.bankingsystem.replication;
+
+import com.rynkow.bankingsystem.journal.FileJournal;
+import com.rynkow.bankingsystem.journal.Mutation;
+import com.rynkow.bankingsystem.journal.MutationLog;
+import com.rynkow.bankingsystem.server.VirtualThreads;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * MutationLog streaming every appended mutation to the Replicas connected over TCP, see ReplicationProtocol.
+ * Wraps the BankingSystem's journal, if it has one: sequence numbers are the journal's, and a replica too far behind for the
+ * in-memory backlog of recent mutations catches up from the journal files - as long as no Checkpointer deleted the segments it needs.
+ * Without a journal, sequence numbers start at 1 and a replica can only start within the backlog.
+ * With a journal only durable mutations are sent, so a replica never holds a mutation a restarted primary has lost.
+ * <p>
+ * Replication is asynchronous: operations never wait for replicas, which apply a mutation shortly after the primary did, see Replica.getLagMillis.
+ * Each replica is served by its own thread, which encodes whatever was appended since its last write into one buffer and writes it at once,
+ * so a slow replica holds up neither the primary nor the other replicas.
+ */
+public class ReplicationPublisher implements MutationLog, Closeable {
+    public static final int DEFAULT_BACKLOG_SIZE = 1 << 16;
+    private static final int ACCEPT_BACKLOG = 64;
+
+    // null without a journal
+    private final FileJournal journal;
+    private final int backlogMask;
+    // recent mutations by sequence modulo the backlog size, a slot's sequence is -1 while the slot is rewritten
+    private final AtomicReferenceArray<Mutation> backlog;
+    private final AtomicLongArray backlogSequences;
+    private final ReentrantLock appendLock = new ReentrantLock();
+    // signalled when mutations become publishable: appended without a journal, durable with one
+    private final Condition published = appendLock.newCondition();
+    private final ServerSocketChannel serverChannel;
+    private final ExecutorService senders = VirtualThreads.newThreadPerTaskExecutor("replication-sender");
+    private final Set<SocketChannel> replicas = ConcurrentHashMap.newKeySet();
+    // written under appendLock
+    private volatile int waitingSenders;
+    private volatile long lastSequence;
+    private volatile boolean closed;
+    private Thread acceptor;
+
+    // publishes without journaling, sequence numbers start at 1
+    public ReplicationPublisher(int port) throws IOException {
+        this(null, port, DEFAULT_BACKLOG_SIZE);
+    }
+
+    public ReplicationPublisher(FileJournal journal, int port) throws IOException {
+        this(journal, port, DEFAULT_BACKLOG_SIZE);
+    }
+
+    /**
+     * @param journal     journal every mutation is appended to before it is published, null for none
+     * @param port        0 for any free port, see getPort
+     * @param backlogSize number of recent mutations kept in memory for replicas, a power of two
+     */
+    public ReplicationPublisher(FileJournal journal, int port, int backlogSize) throws IOException {
+        if (backlogSize < 1 || Integer.bitCount(backlogSize) != 1)
+            throw new IllegalArgumentException("backlog size not a power of two");
+
+        this.journal = journal;
+        this.backlogMask = backlogSize - 1;
+        this.backlog = new AtomicReferenceArray<>(backlogSize);
+        this.backlogSequences = new AtomicLongArray(backlogSize);
+        for (int i = 0; i < backlogSize; i++)
+            backlogSequences.set(i, -1);
+        this.lastSequence = journal != null ? journal.getAppendedSequence() : 0;
+        this.serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port), ACCEPT_BACKLOG);
+    }
+
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    public int getReplicaCount() {
+        return replicas.size();
+    }
+
+    public long getLastSequence() {
+        return lastSequence;
+    }
+
+    // accepts replicas on a new thread until close
+    public synchronized void start() {
+        if (acceptor != null)
+            throw new IllegalStateException("publisher already started");
+
+        acceptor = new Thread(this::acceptReplicas, "replication-acceptor");
+        acceptor.start();
+    }
+
+    @Override
+    public long append(Mutation mutation) {
+        appendLock.lock();
+        try {
+            long sequence = journal != null ? journal.append(mutation) : lastSequence + 1;
+            int slot = (int) sequence & backlogMask;
+            backlogSequences.set(slot, -1);
+            backlog.set(slot, mutation);
+            backlogSequences.set(slot, sequence);
+            lastSequence = sequence;
+            if (journal == null && waitingSenders > 0)
+                published.signalAll();
+            return sequence;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    @Override
+    public void awaitDurable(long sequence) {
+        if (journal == null)
+            return;
+        journal.awaitDurable(sequence);
+        // in ASYNC mode nothing may be durable yet, waiting senders then look again after a heartbeat interval
+        if (waitingSenders > 0) {
+            appendLock.lock();
+            try {
+                published.signalAll();
+            } finally {
+                appendLock.unlock();
+            }
+        }
+    }
+
+    // the last mutation replicas may get, with a journal the last durable one
+    private long publishedSequence() {
+        return journal != null ? Math.min(lastSequence, journal.getDurableSequence()) : lastSequence;
+    }
+
+    private void acceptReplicas() {
+        while (serverChannel.isOpen()) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                senders.execute(() -> serve(channel));
+            } catch (IOException e) {
+                // closed, or a connection failed before it was accepted
+            }
+        }
+    }
+
+    private void serve(SocketChannel channel) {
+        replicas.add(channel);
+        try (channel) {
+            ByteBuffer request = ByteBuffer.allocate(Long.BYTES);
+            while (request.hasRemaining())
+                if (channel.read(request) < 0)
+                    return;
+            long next = request.flip().getLong();
+            ByteBuffer out = ByteBuffer.allocateDirect(ReplicationProtocol.BUFFER_SIZE);
+            long primarySequence = publishedSequence();
+            if (next < 1 || next > primarySequence + 1) {
+                ReplicationProtocol.putError(out, "sequence " + next + " requested, primary at " + primarySequence);
+                write(channel, out);
+                return;
+            }
+
+            while (!closed) {
+                long now = System.currentTimeMillis();
+                long last = publishedSequence();
+                while (next <= last) {
+                    long sent = putBacklog(channel, out, next, last);
+                    // the next mutation is no longer in the backlog, being durable it is in the journal files
+                    if (sent < next)
+                        sent = putJournal(channel, out, next);
+                    if (sent < next) {
+                        ReplicationProtocol.putError(out, "sequence " + next + " no longer available");
+                        write(channel, out);
+                        return;
+                    }
+                    next = sent + 1;
+                }
+                ReplicationProtocol.putHeartbeat(out, last, now);
+                write(channel, out);
+                awaitPublished(next);
+            }
+        } catch (IOException | UncheckedIOException e) {
+            // replica gone or publisher closed
+        } finally {
+            replicas.remove(channel);
+        }
+    }
+
+    // puts mutations from next up to last found in the backlog, writing out full buffers, returns the sequence of the last one put
+    private long putBacklog(SocketChannel channel, ByteBuffer out, long next, long last) throws IOException {
+        long sequence = next;
+        for (; sequence <= last; sequence++) {
+            int slot = (int) sequence & backlogMask;
+            if (backlogSequences.get(slot) != sequence)
+                break;
+            Mutation mutation = backlog.get(slot);
+            // overwritten while it was read
+            if (backlogSequences.get(slot) != sequence)
+                break;
+            if (out.remaining() < ReplicationProtocol.MAX_MESSAGE_SIZE)
+                write(channel, out);
+            ReplicationProtocol.putMutation(out, sequence, mutation);
+        }
+        return sequence - 1;
+    }
+
+    // puts the journaled mutations from next on, returns the sequence of the last one put
+    private long putJournal(SocketChannel channel, ByteBuffer out, long next) throws IOException {
+        if (journal == null)
+            return next - 1;
+        long[] sent = {next - 1};
+        journal.replay(next, (mutation, sequence) -> {
+            // the replay starts at the segment holding next
+            if (sequence != sent[0] + 1)
+                return;
+            try {
+                if (out.remaining() < ReplicationProtocol.MAX_MESSAGE_SIZE)
+                    write(channel, out);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            ReplicationProtocol.putMutation(out, sequence, mutation);
+            sent[0] = sequence;
+        });
+        return sent[0];
+    }
+
+    // waits until the mutation with the given sequence may be published, at most a heartbeat interval
+    private void awaitPublished(long sequence) {
+        appendLock.lock();
+        try {
+            waitingSenders++;
+            if (publishedSequence() < sequence && !closed)
+                published.await(ReplicationProtocol.HEARTBEAT_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            waitingSenders--;
+            appendLock.unlock();
+        }
+    }
+
+    private static void write(SocketChannel channel, ByteBuffer out) throws IOException {
+        out.flip();
+        while (out.hasRemaining())
+            channel.write(out);
+        out.clear();
+    }
+
+    // stops publishing and disconnects the replicas, the wrapped journal stays open
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverChannel.close();
+        for (SocketChannel replica : replicas)
+            replica.close();
+        senders.shutdown();
+        appendLock.lock();
+        try {
+            published.signalAll();
+        } finally {
+            appendLock.unlock();
+        }
+    }
+}
@@ -16,4 +16,9 @@ public interface AccountRepository {
     Optional<Account> getAccountByUserIdAndCurrency(String userId, Currency currency);
 
     void save(Account account) throws IllegalArgumentException;
+
+    // an account to be saved to this repository, repositories keeping accounts off the heap hand out their own instances
+    default Account newAccount(String userId, Currency currency) {
+        return new Account(userId, currency);
+    }
 }
@@ -0,0 +1,238 @@
+package com.rynkow.bankingsystem.repository;
+
+import com.rynkow.bankingsystem.model.Account;
+import com.rynkow.bankingsystem.model.Currency;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps the most frequently used accounts of a slower repository, e.g. a MappedAccountRepository, on the heap.
+ * Lookups by userId and currency are served from a concurrent map; scans (getAccounts, getAccountsByCurrency) and saves go to
+ * the backing repository, saves before anything is cached, so the cache never holds an account the backing repository
+ * does not. Accounts change in place, so there is nothing to write back: the cached instance is the backing repository's.
+ * <p>
+ * Eviction follows W-TinyLFU: new accounts enter a small LRU window (1% of the size), accounts leaving it compete with
+ * the least recently used account of the probation segment of the main segmented LRU, and the one accessed more often
+ * according to a FrequencySketch stays. Accounts accessed again in probation move to the protected segment (80% of the main part).
+ * One-off lookups, such as a scan through all users, therefore do not push out frequently used accounts.
+ * <p>
+ * The policy is guarded by one lock. Hits record their access only if the lock is free; when it is contended the access is
+ * dropped, which costs some precision of the policy, but hits never wait.
+ */
+public class CachingAccountRepository implements AccountRepository {
+    private static final Currency[] CURRENCIES = Currency.values();
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+    private static final int EVICTED = -1;
+
+    private final AccountRepository backing;
+    private final int maximumSize;
+    private final int windowMaximum;
+    private final int protectedMaximum;
+    private final Map<Key, Node> nodes = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final ReentrantLock policyLock = new ReentrantLock();
+    // guarded by policyLock: sketch, segments as circular lists around sentinels, segment sizes
+    private final FrequencySketch sketch;
+    private final Node[] segments = {new Node(null, null), new Node(null, null), new Node(null, null)};
+    private final int[] sizes = new int[3];
+
+    public CachingAccountRepository(AccountRepository backing, int maximumSize) {
+        if (maximumSize < 2)
+            throw new IllegalArgumentException("cache size below 2");
+
+        this.backing = backing;
+        this.maximumSize = maximumSize;
+        this.windowMaximum = Math.max(1, maximumSize / 100);
+        this.protectedMaximum = (maximumSize - windowMaximum) * 4 / 5;
+        this.sketch = new FrequencySketch(maximumSize);
+        for (Node sentinel : segments) {
+            sentinel.previous = sentinel;
+            sentinel.next = sentinel;
+        }
+    }
+
+    @Override
+    public List<Account> getAccounts() {
+        return backing.getAccounts();
+    }
+
+    @Override
+    public List<Account> getAccountsByUserId(String userId) {
+        List<Account> accounts = new ArrayList<>(CURRENCIES.length);
+        for (Currency currency : CURRENCIES)
+            getAccountByUserIdAndCurrency(userId, currency).ifPresent(accounts::add);
+        return accounts;
+    }
+
+    @Override
+    public List<Account> getAccountsByCurrency(Currency currency) {
+        return backing.getAccountsByCurrency(currency);
+    }
+
+    @Override
+    public Optional<Account> getAccountByUserIdAndCurrency(String userId, Currency currency) {
+        Key key = new Key(userId, currency);
+        Node node = nodes.get(key);
+        if (node != null) {
+            hits.increment();
+            if (policyLock.tryLock()) {
+                try {
+                    onHit(node);
+                } finally {
+                    policyLock.unlock();
+                }
+            }
+            return Optional.of(node.account);
+        }
+
+        misses.increment();
+        Optional<Account> account = backing.getAccountByUserIdAndCurrency(userId, currency);
+        policyLock.lock();
+        try {
+            sketch.increment(key.hash);
+            if (account.isPresent() && !nodes.containsKey(key))
+                add(new Node(key, account.get()));
+        } finally {
+            policyLock.unlock();
+        }
+        return account;
+    }
+
+    @Override
+    public void save(Account account) throws IllegalArgumentException {
+        backing.save(account);
+    }
+
+    @Override
+    public Account newAccount(String userId, Currency currency) {
+        return backing.newAccount(userId, currency);
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public int getSize() {
+        return nodes.size();
+    }
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    // guarded by policyLock
+    private void onHit(Node node) {
+        sketch.increment(node.key.hash);
+        switch (node.segment) {
+            case WINDOW, PROTECTED -> moveTo(node, node.segment);
+            case PROBATION -> {
+                moveTo(node, PROTECTED);
+                if (sizes[PROTECTED] > protectedMaximum)
+                    moveTo(segments[PROTECTED].next, PROBATION);
+            }
+            default -> {
+                // evicted meanwhile
+            }
+        }
+    }
+
+    // guarded by policyLock
+    private void add(Node node) {
+        nodes.put(node.key, node);
+        link(node, WINDOW);
+        while (sizes[WINDOW] > windowMaximum)
+            moveTo(segments[WINDOW].next, PROBATION);
+        // the accounts just moved from the window are at the probation tail, the victim at its head
+        while (sizes[WINDOW] + sizes[PROBATION] + sizes[PROTECTED] > maximumSize) {
+            Node victim = segments[PROBATION].next;
+            Node candidate = segments[PROBATION].previous;
+            if (victim == segments[PROBATION])
+                victim = sizes[PROTECTED] > 0 ? segments[PROTECTED].next : segments[WINDOW].next;
+            else if (candidate != victim && sketch.frequency(candidate.key.hash) <= sketch.frequency(victim.key.hash))
+                victim = candidate;
+            evict(victim);
+        }
+    }
+
+    private void evict(Node node) {
+        unlink(node);
+        node.segment = EVICTED;
+        nodes.remove(node.key, node);
+        evictions.increment();
+    }
+
+    private void moveTo(Node node, int segment) {
+        unlink(node);
+        link(node, segment);
+    }
+
+    private void link(Node node, int segment) {
+        Node sentinel = segments[segment];
+        node.previous = sentinel.previous;
+        node.next = sentinel;
+        sentinel.previous.next = node;
+        sentinel.previous = node;
+        node.segment = segment;
+        sizes[segment]++;
+    }
+
+    private void unlink(Node node) {
+        node.previous.next = node.next;
+        node.next.previous = node.previous;
+        sizes[node.segment]--;
+    }
+
+    private static final class Key {
+        final String userId;
+        final Currency currency;
+        final int hash;
+
+        Key(String userId, Currency currency) {
+            this.userId = userId;
+            this.currency = currency;
+            this.hash = userId.hashCode() * 31 + currency.ordinal();
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key key && key.hash == hash && key.currency == currency && key.userId.equals(userId);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class Node {
+        final Key key;
+        final Account account;
+        // guarded by policyLock
+        int segment;
+        Node previous;
+        Node next;
+
+        Node(Key key, Account account) {
+            this.key = key;
+            this.account = account;
+        }
+    }
+}
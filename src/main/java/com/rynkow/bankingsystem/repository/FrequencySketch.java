@@ -0,0 +1,61 @@
+package com.rynkow.bankingsystem.repository;
+
+/**
+ * Approximate access frequencies for the admission policy of CachingAccountRepository: a count-min sketch of 4-bit counters,
+ * four per key, sixteen to a long. Once ten times the cache size accesses are counted, all counters are halved, so
+ * frequencies follow the recent popularity of keys. Not thread safe.
+ */
+final class FrequencySketch {
+    private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final int MAX_COUNT = 15;
+
+    private final long[] table;
+    private final int mask;
+    private final int sampleSize;
+    private int size;
+
+    FrequencySketch(int maximumSize) {
+        int length = Integer.highestOneBit(Math.max(maximumSize, 16) - 1) << 1;
+        this.table = new long[length];
+        this.mask = length - 1;
+        this.sampleSize = 10 * Math.max(maximumSize, 16);
+    }
+
+    int frequency(int hash) {
+        int start = (hash & 3) << 2;
+        int frequency = MAX_COUNT;
+        for (int i = 0; i < 4; i++) {
+            int offset = (start + i) << 2;
+            frequency = Math.min(frequency, (int) ((table[indexOf(hash, i)] >>> offset) & MAX_COUNT));
+        }
+        return frequency;
+    }
+
+    void increment(int hash) {
+        int start = (hash & 3) << 2;
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            int index = indexOf(hash, i);
+            int offset = (start + i) << 2;
+            if (((table[index] >>> offset) & MAX_COUNT) != MAX_COUNT) {
+                table[index] += 1L << offset;
+                added = true;
+            }
+        }
+        if (added && ++size == sampleSize)
+            reset();
+    }
+
+    private void reset() {
+        for (int i = 0; i < table.length; i++)
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        size /= 2;
+    }
+
+    private int indexOf(int hash, int i) {
+        long h = (hash + SEEDS[i]) * SEEDS[i];
+        h += h >>> 32;
+        return (int) h & mask;
+    }
+}
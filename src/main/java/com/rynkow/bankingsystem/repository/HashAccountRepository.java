@@ -0,0 +1,80 @@
+package com.rynkow.bankingsystem.repository;
+
+import com.rynkow.bankingsystem.model.Account;
+import com.rynkow.bankingsystem.model.Currency;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+public class HashAccountRepository implements AccountRepository {
+    private static HashAccountRepository instance;
+
+    // userId -> accounts of that user, the per-user map is never modified after it is published
+    private final Map<String, Map<Currency, Account>> accountsByUserId;
+    // secondary index used by getAccountsByCurrency
+    private final Map<Currency, Queue<Account>> accountsByCurrency;
+
+    public HashAccountRepository() {
+        accountsByUserId = new ConcurrentHashMap<>();
+        accountsByCurrency = new EnumMap<>(Currency.class);
+        for (Currency currency : Currency.values())
+            accountsByCurrency.put(currency, new ConcurrentLinkedQueue<>());
+    }
+
+    public static synchronized HashAccountRepository getInstance() {
+        if (instance == null)
+            instance = new HashAccountRepository();
+        return instance;
+    }
+
+    @Override
+    public List<Account> getAccounts() {
+        List<Account> accounts = new ArrayList<>();
+        for (Queue<Account> currencyAccounts : accountsByCurrency.values())
+            accounts.addAll(currencyAccounts);
+        return accounts;
+    }
+
+    @Override
+    public List<Account> getAccountsByUserId(String userId) {
+        Map<Currency, Account> userAccounts = accountsByUserId.get(userId);
+        if (userAccounts == null)
+            return List.of();
+        return List.copyOf(userAccounts.values());
+    }
+
+    @Override
+    public List<Account> getAccountsByCurrency(Currency currency) {
+        return List.copyOf(accountsByCurrency.get(currency));
+    }
+
+    @Override
+    public Optional<Account> getAccountByUserIdAndCurrency(String userId, Currency currency) {
+        Map<Currency, Account> userAccounts = accountsByUserId.get(userId);
+        if (userAccounts == null)
+            return Optional.empty();
+        return Optional.ofNullable(userAccounts.get(currency));
+    }
+
+    @Override
+    public void save(Account account) throws IllegalArgumentException {
+        // copy-on-write, so readers never see an EnumMap that is being modified
+        accountsByUserId.compute(account.getUserId(), (userId, userAccounts) -> {
+            if (userAccounts != null && userAccounts.containsKey(account.getCurrency()))
+                throw new IllegalArgumentException("Duplicated account");
+
+            Map<Currency, Account> updatedAccounts = userAccounts == null ? new EnumMap<>(Currency.class) : new EnumMap<>(userAccounts);
+            updatedAccounts.put(account.getCurrency(), account);
+            return updatedAccounts;
+        });
+        accountsByCurrency.get(account.getCurrency()).add(account);
+    }
+
+    // for testing
+    public void clear() {
+        accountsByUserId.clear();
+        for (Queue<Account> currencyAccounts : accountsByCurrency.values())
+            currencyAccounts.clear();
+    }
+}
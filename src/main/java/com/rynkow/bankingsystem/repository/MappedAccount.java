@@ -0,0 +1,87 @@
+package com.rynkow.bankingsystem.repository;
+
+import com.rynkow.bankingsystem.model.Account;
+import com.rynkow.bankingsystem.model.Currency;
+import com.rynkow.bankingsystem.model.Money;
+import com.rynkow.bankingsystem.model.OperationStatus;
+import com.rynkow.bankingsystem.model.TransactionHistory;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+
+/**
+ * Account of a MappedAccountRepository: balance and last sequence live in the account's record in the mapped file,
+ * the balance is updated with compare-and-set on the mapped memory. The record offset is the lock order, so it stays the same
+ * when a collected instance is read again. The transaction history is in the repository's histories file, found through the record.
+ */
+final class MappedAccount extends Account {
+    private static final int BALANCE = 0;
+    private static final int LAST_SEQUENCE = Long.BYTES;
+
+    final MappedAccountRepository repository;
+    final long offset;
+    private final ByteBuffer segment;
+    private final int position;
+
+    MappedAccount(MappedAccountRepository repository, String userId, Currency currency, long offset, ByteBuffer segment, int position,
+                  TransactionHistory transactionHistory) {
+        super(userId, currency, 0, 0, transactionHistory);
+        this.repository = repository;
+        this.offset = offset;
+        this.segment = segment;
+        this.position = position;
+    }
+
+    @Override
+    public long deposit(long amount) throws IllegalArgumentException, IllegalStateException {
+        if (amount < 1)
+            throw OperationStatus.INVALID_DEPOSIT_AMOUNT.toException();
+
+        long current;
+        do {
+            current = getBalanceUnits();
+            if (current > Long.MAX_VALUE - amount)
+                throw OperationStatus.BALANCE_OVERFLOW.toException();
+        } while (!MappedSegments.LONGS.compareAndSet(segment, position + BALANCE, current, current + amount));
+        return current;
+    }
+
+    @Override
+    public long withdraw(long amount) throws IllegalArgumentException, IllegalStateException {
+        if (amount < 1)
+            throw OperationStatus.INVALID_WITHDRAW_AMOUNT.toException();
+
+        long current;
+        do {
+            current = getBalanceUnits();
+            if (current < amount)
+                throw OperationStatus.INSUFFICIENT_FUNDS.toException();
+        } while (!MappedSegments.LONGS.compareAndSet(segment, position + BALANCE, current, current - amount));
+        return current;
+    }
+
+    @Override
+    public BigDecimal getBalance() {
+        return Money.toBigDecimal(getBalanceUnits());
+    }
+
+    @Override
+    public long getBalanceUnits() {
+        return (long) MappedSegments.LONGS.getVolatile(segment, position + BALANCE);
+    }
+
+    @Override
+    public long getLockOrder() {
+        return offset;
+    }
+
+    @Override
+    public long getLastSequence() {
+        return (long) MappedSegments.LONGS.get(segment, position + LAST_SEQUENCE);
+    }
+
+    @Override
+    public void setLastSequence(long lastSequence) {
+        MappedSegments.LONGS.set(segment, position + LAST_SEQUENCE, lastSequence);
+    }
+}
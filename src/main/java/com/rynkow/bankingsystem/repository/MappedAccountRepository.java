@@ -0,0 +1,474 @@
+package com.rynkow.bankingsystem.repository;
+
+import com.rynkow.bankingsystem.model.Account;
+import com.rynkow.bankingsystem.model.Currency;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Repository keeping accounts in memory-mapped files in a directory, so it can hold more accounts than fit the heap and
+ * opening it reads nothing but the file headers:
+ * <ul>
+ * <li>accounts.dat - records of balance, last sequence, newest history block, currency and UTF-8 userId, appended in segments
+ * of SEGMENT_SIZE bytes</li>
+ * <li>accounts.idx - open-addressing hash table of (userId, currency) hash and record offset, linear probing, at most half full</li>
+ * <li>accounts-(currency).ord - record offsets of each currency in creation order, backing getAccounts and getAccountsByCurrency</li>
+ * <li>histories.dat - transaction histories, see MappedHistories</li>
+ * </ul>
+ * Balances are updated in place with compare-and-set on the mapped memory and reach the file through the page cache, so they
+ * survive a process crash; force() writes them to the storage device. Last sequences are kept in the record too, so a journal
+ * tail replayed over the reopened repository skips what it already reflects. Files are in native byte order.
+ * <p>
+ * Lookups read the index without locking. There is one Account instance per account while it is referenced, held weakly,
+ * and the HOT_ACCOUNTS most recently looked up accounts are kept strongly in a direct-mapped cache; scans through the list views
+ * do not enter it. Transaction histories are in the mapped files too, so accounts with history leave the heap like any other,
+ * and histories survive closing the repository.
+ * Accounts should be created with newAccount; its record is reused by a later newAccount of the same account until it is saved.
+ * save copies the balance of other accounts into a new record and later changes go through the instance the repository returns.
+ */
+public class MappedAccountRepository implements AccountRepository, Closeable {
+    public static final int DEFAULT_HOT_ACCOUNTS = 1 << 16;
+    static final int SEGMENT_SIZE = 1 << 26;
+    private static final int ORDER_SEGMENT_SIZE = 1 << 23;
+    private static final int MIN_INDEX_CAPACITY = 1 << 12;
+    private static final int MAX_INDEX_CAPACITY = 1 << 26;
+    private static final long MAGIC = 0x42414e4b41434332L;
+    private static final String RECORDS_FILE = "accounts.dat";
+    private static final String HISTORIES_FILE = "histories.dat";
+    private static final String INDEX_FILE = "accounts.idx";
+    private static final Currency[] CURRENCIES = Currency.values();
+
+    // accounts.dat header: magic, end of the records, account count per currency
+    private static final int HEADER = 64;
+    private static final long END = 8;
+    private static final long COUNTS = 16;
+    // record: balance, last sequence, newest history block, currency, userId length, userId, padded to 8 bytes
+    private static final int RECORD_HISTORY = 16;
+    private static final int RECORD_CURRENCY = 24;
+    private static final int RECORD_USER_ID_LENGTH = 26;
+    private static final int RECORD_USER_ID = 28;
+    private static final int MAX_USER_ID_BYTES = Short.MAX_VALUE;
+
+    private final Path directory;
+    private final MappedSegments records;
+    private final MappedSegments[] orders;
+    private final MappedHistories histories;
+    private volatile Index index;
+    // one instance per account while it is referenced, keyed by record offset
+    private final Map<Long, AccountReference> instances = new ConcurrentHashMap<>();
+    private final ReferenceQueue<MappedAccount> collected = new ReferenceQueue<>();
+    private final AtomicReferenceArray<MappedAccount> hot;
+    // accounts from newAccount not saved yet, keyed by currency and userId, guarded by this
+    private final Map<String, MappedAccount> unsaved = new HashMap<>();
+    private final int hotMask;
+
+    private MappedAccountRepository(Path directory, int hotAccounts) throws IOException {
+        if (hotAccounts < 1 || Integer.bitCount(hotAccounts) != 1)
+            throw new IllegalArgumentException("hot accounts not a positive power of two");
+
+        this.directory = directory;
+        this.records = new MappedSegments(directory.resolve(RECORDS_FILE), SEGMENT_SIZE);
+        long magic = records.getLong(0);
+        if (magic == 0) {
+            records.putLong(END, HEADER);
+            records.putLong(0, MAGIC);
+        } else if (magic != MAGIC) {
+            throw new IOException("not an accounts file: " + directory.resolve(RECORDS_FILE));
+        }
+        this.orders = new MappedSegments[CURRENCIES.length];
+        for (Currency currency : CURRENCIES)
+            orders[currency.ordinal()] = new MappedSegments(directory.resolve("accounts-" + currency + ".ord"), ORDER_SEGMENT_SIZE);
+        this.histories = new MappedHistories(directory.resolve(HISTORIES_FILE));
+        this.hot = new AtomicReferenceArray<>(hotAccounts);
+        this.hotMask = hotAccounts - 1;
+
+        // the index is written before the account counts, after a crash in between it is rebuilt
+        long count = totalCount();
+        Index existing = Index.open(directory.resolve(INDEX_FILE));
+        if (existing != null && existing.count() == count) {
+            this.index = existing;
+        } else {
+            if (existing != null)
+                existing.channel.close();
+            this.index = rebuildIndex(capacityFor(count));
+        }
+    }
+
+    public static MappedAccountRepository open(Path directory) throws IOException {
+        return open(directory, DEFAULT_HOT_ACCOUNTS);
+    }
+
+    // hotAccounts - size of the cache of recently looked up accounts, a power of two
+    public static MappedAccountRepository open(Path directory, int hotAccounts) throws IOException {
+        Files.createDirectories(directory);
+        return new MappedAccountRepository(directory, hotAccounts);
+    }
+
+    @Override
+    public List<Account> getAccounts() {
+        return new AccountsView(CURRENCIES);
+    }
+
+    @Override
+    public List<Account> getAccountsByUserId(String userId) {
+        List<Account> accounts = new ArrayList<>(CURRENCIES.length);
+        for (Currency currency : CURRENCIES)
+            getAccountByUserIdAndCurrency(userId, currency).ifPresent(accounts::add);
+        return accounts;
+    }
+
+    @Override
+    public List<Account> getAccountsByCurrency(Currency currency) {
+        return new AccountsView(new Currency[]{currency});
+    }
+
+    @Override
+    public Optional<Account> getAccountByUserIdAndCurrency(String userId, Currency currency) {
+        long hash = hash(userId, currency);
+        int hotSlot = (int) hash & hotMask;
+        MappedAccount account = hot.get(hotSlot);
+        if (account != null && account.getCurrency() == currency && account.getUserId().equals(userId))
+            return Optional.of(account);
+
+        long offset = find(index, hash, encode(userId), currency);
+        if (offset < 0)
+            return Optional.empty();
+        account = account(offset);
+        hot.lazySet(hotSlot, account);
+        return Optional.of(account);
+    }
+
+    // a new account with a record of its own, found by lookups once it is saved
+    @Override
+    public synchronized Account newAccount(String userId, Currency currency) throws IllegalArgumentException {
+        byte[] key = encode(userId);
+        if (find(index, hash(userId, currency), key, currency) >= 0)
+            throw new IllegalArgumentException("Duplicated account");
+
+        // a concurrent or retried creation gets the same record, so records are not left behind unsaved
+        return unsaved.computeIfAbsent(currency + " " + userId, name -> account(appendRecord(key, currency, 0, 0)));
+    }
+
+    @Override
+    public synchronized void save(Account account) throws IllegalArgumentException {
+        Currency currency = account.getCurrency();
+        byte[] key = encode(account.getUserId());
+        long hash = hash(account.getUserId(), currency);
+        if (find(index, hash, key, currency) >= 0)
+            throw new IllegalArgumentException("Duplicated account");
+
+        long offset = account instanceof MappedAccount mapped && mapped.repository == this
+                ? mapped.offset
+                : appendRecord(key, currency, account.getBalanceUnits(), account.getLastSequence());
+        insert(hash, offset);
+        unsaved.remove(currency + " " + account.getUserId());
+        long countOffset = COUNTS + (long) Long.BYTES * currency.ordinal();
+        long count = records.getLong(countOffset);
+        orders[currency.ordinal()].putLong(count * Long.BYTES, offset);
+        records.putLong(countOffset, count + 1);
+    }
+
+    // writes all changes to the storage device
+    public void force() {
+        records.force();
+        for (MappedSegments order : orders)
+            order.force();
+        histories.force();
+        index.buffer.force();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        records.close();
+        for (MappedSegments order : orders)
+            order.close();
+        histories.close();
+        index.buffer.force();
+        index.channel.close();
+    }
+
+    private long totalCount() {
+        long count = 0;
+        for (Currency currency : CURRENCIES)
+            count += records.getLong(COUNTS + (long) Long.BYTES * currency.ordinal());
+        return count;
+    }
+
+    private long appendRecord(byte[] key, Currency currency, long balance, long lastSequence) {
+        int size = (RECORD_USER_ID + key.length + Long.BYTES - 1) & -Long.BYTES;
+        long offset = records.getLong(END);
+        // records do not cross segments
+        if (records.position(offset) + size > SEGMENT_SIZE)
+            offset = (offset & -SEGMENT_SIZE) + SEGMENT_SIZE;
+        ByteBuffer segment = records.segment(offset);
+        int position = records.position(offset);
+        MappedSegments.LONGS.set(segment, position, balance);
+        MappedSegments.LONGS.set(segment, position + Long.BYTES, lastSequence);
+        MappedSegments.LONGS.set(segment, position + RECORD_HISTORY, 0L);
+        segment.put(position + RECORD_CURRENCY, (byte) currency.ordinal());
+        segment.putShort(position + RECORD_USER_ID_LENGTH, (short) key.length);
+        segment.put(position + RECORD_USER_ID, key);
+        records.putLong(END, offset + size);
+        return offset;
+    }
+
+    // record offset of the account, or -1
+    private long find(Index index, long hash, byte[] key, Currency currency) {
+        for (int slot = (int) hash & index.mask; ; slot = (slot + 1) & index.mask) {
+            long slotHash = index.hash(slot);
+            if (slotHash == 0)
+                return -1;
+            if (slotHash == hash) {
+                long offset = index.offset(slot);
+                if (matches(offset, key, currency))
+                    return offset;
+            }
+        }
+    }
+
+    private boolean matches(long offset, byte[] key, Currency currency) {
+        ByteBuffer segment = records.segment(offset);
+        int position = records.position(offset);
+        if (segment.get(position + RECORD_CURRENCY) != currency.ordinal() || segment.getShort(position + RECORD_USER_ID_LENGTH) != key.length)
+            return false;
+        for (int i = 0; i < key.length; i++)
+            if (segment.get(position + RECORD_USER_ID + i) != key[i])
+                return false;
+        return true;
+    }
+
+    // guarded by this
+    private void insert(long hash, long offset) {
+        Index index = this.index;
+        long count = index.count() + 1;
+        if (count > (index.mask + 1L) / 2)
+            index = rebuildIndex((index.mask + 1) * 2);
+        int slot = (int) hash & index.mask;
+        while (index.hash(slot) != 0)
+            slot = (slot + 1) & index.mask;
+        index.put(slot, hash, offset);
+        index.setCount(count);
+    }
+
+    // writes a new index of all counted accounts next to the current one and renames it over it, lookups go on meanwhile
+    private Index rebuildIndex(int capacity) {
+        if (capacity > MAX_INDEX_CAPACITY)
+            throw new IllegalStateException("account index full");
+
+        Path file = directory.resolve(INDEX_FILE);
+        Path temporary = directory.resolve(INDEX_FILE + ".tmp");
+        try {
+            Index rebuilt = Index.create(temporary, capacity);
+            long count = 0;
+            for (Currency currency : CURRENCIES) {
+                long currencyCount = records.getLong(COUNTS + (long) Long.BYTES * currency.ordinal());
+                for (long i = 0; i < currencyCount; i++) {
+                    long offset = orders[currency.ordinal()].getLong(i * Long.BYTES);
+                    long hash = hash(readUserId(offset), currency);
+                    int slot = (int) hash & rebuilt.mask;
+                    while (rebuilt.hash(slot) != 0)
+                        slot = (slot + 1) & rebuilt.mask;
+                    rebuilt.put(slot, hash, offset);
+                }
+                count += currencyCount;
+            }
+            rebuilt.setCount(count);
+            rebuilt.buffer.force();
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Index previous = this.index;
+            this.index = rebuilt;
+            if (previous != null)
+                previous.channel.close();
+            return rebuilt;
+        } catch (IOException e) {
+            throw new IllegalStateException("cannot write account index", e);
+        }
+    }
+
+    private static int capacityFor(long count) {
+        int capacity = MIN_INDEX_CAPACITY;
+        while (capacity < MAX_INDEX_CAPACITY && capacity / 2 < count)
+            capacity *= 2;
+        return capacity;
+    }
+
+    private MappedAccount account(long offset) {
+        while (true) {
+            AccountReference reference = instances.get(offset);
+            MappedAccount account = reference == null ? null : reference.get();
+            if (account != null)
+                return account;
+
+            expungeCollected();
+            MappedAccount read = readAccount(offset);
+            AccountReference created = new AccountReference(read, offset, collected);
+            AccountReference current = instances.merge(offset, created, (old, fresh) -> old.get() != null ? old : fresh);
+            if (current == created)
+                return read;
+            account = current.get();
+            if (account != null)
+                return account;
+        }
+    }
+
+    private void expungeCollected() {
+        Reference<? extends MappedAccount> reference;
+        while ((reference = collected.poll()) != null)
+            instances.remove(((AccountReference) reference).offset, reference);
+    }
+
+    private MappedAccount readAccount(long offset) {
+        ByteBuffer segment = records.segment(offset);
+        int position = records.position(offset);
+        Currency currency = CURRENCIES[segment.get(position + RECORD_CURRENCY)];
+        return new MappedAccount(this, readUserId(offset), currency, offset, segment, position, histories.history(segment, position + RECORD_HISTORY));
+    }
+
+    private String readUserId(long offset) {
+        ByteBuffer segment = records.segment(offset);
+        int position = records.position(offset);
+        byte[] key = new byte[segment.getShort(position + RECORD_USER_ID_LENGTH)];
+        segment.get(position + RECORD_USER_ID, key);
+        return new String(key, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] encode(String userId) {
+        byte[] key = userId.getBytes(StandardCharsets.UTF_8);
+        if (key.length > MAX_USER_ID_BYTES)
+            throw new IllegalArgumentException("userId too long");
+        return key;
+    }
+
+    // FNV-1a over the userId characters and the currency, finished with the MurmurHash3 mix; never 0, which marks empty slots
+    static long hash(String userId, Currency currency) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < userId.length(); i++)
+            hash = (hash ^ userId.charAt(i)) * 0x100000001b3L;
+        hash = (hash ^ currency.ordinal()) * 0x100000001b3L;
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash == 0 ? 1 : hash;
+    }
+
+    private static final class AccountReference extends WeakReference<MappedAccount> {
+        final long offset;
+
+        AccountReference(MappedAccount account, long offset, ReferenceQueue<MappedAccount> queue) {
+            super(account, queue);
+            this.offset = offset;
+        }
+    }
+
+    // accounts of the given currencies counted when the view was created, read on access
+    private final class AccountsView extends AbstractList<Account> implements RandomAccess {
+        private final Currency[] currencies;
+        private final long[] counts;
+        private final int size;
+
+        AccountsView(Currency[] currencies) {
+            this.currencies = currencies;
+            this.counts = new long[currencies.length];
+            long size = 0;
+            for (int i = 0; i < currencies.length; i++) {
+                counts[i] = records.getLong(COUNTS + (long) Long.BYTES * currencies[i].ordinal());
+                size += counts[i];
+            }
+            this.size = Math.toIntExact(size);
+        }
+
+        @Override
+        public Account get(int index) {
+            Objects.checkIndex(index, size);
+            long position = index;
+            int i = 0;
+            while (position >= counts[i])
+                position -= counts[i++];
+            return account(orders[currencies[i].ordinal()].getLong(position * Long.BYTES));
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    // header: magic, capacity, count, then slots of hash and record offset
+    private static final class Index {
+        private static final int INDEX_HEADER = 64;
+        private static final int CAPACITY = 8;
+        private static final int COUNT = 16;
+        private static final int SLOT = 16;
+
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+        final int mask;
+
+        private Index(FileChannel channel, MappedByteBuffer buffer, int capacity) {
+            this.channel = channel;
+            this.buffer = buffer;
+            this.mask = capacity - 1;
+        }
+
+        static Index create(Path file, int capacity) throws IOException {
+            Files.deleteIfExists(file);
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, INDEX_HEADER + (long) capacity * SLOT);
+            MappedSegments.LONGS.set(buffer, CAPACITY, (long) capacity);
+            MappedSegments.LONGS.set(buffer, 0, MAGIC);
+            return new Index(channel, buffer, capacity);
+        }
+
+        // null if the file is missing or not a complete index
+        static Index open(Path file) throws IOException {
+            if (!Files.exists(file) || Files.size(file) < INDEX_HEADER)
+                return null;
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, INDEX_HEADER);
+            long capacity = (long) MappedSegments.LONGS.get(header, CAPACITY);
+            if ((long) MappedSegments.LONGS.get(header, 0) != MAGIC || capacity < MIN_INDEX_CAPACITY || capacity > MAX_INDEX_CAPACITY
+                    || Long.bitCount(capacity) != 1 || channel.size() != INDEX_HEADER + capacity * SLOT) {
+                channel.close();
+                return null;
+            }
+            return new Index(channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()), (int) capacity);
+        }
+
+        long hash(int slot) {
+            return (long) MappedSegments.LONGS.getAcquire(buffer, INDEX_HEADER + slot * SLOT);
+        }
+
+        long offset(int slot) {
+            return (long) MappedSegments.LONGS.get(buffer, INDEX_HEADER + slot * SLOT + Long.BYTES);
+        }
+
+        // the hash is published last, so a reader seeing it sees the offset
+        void put(int slot, long hash, long offset) {
+            MappedSegments.LONGS.set(buffer, INDEX_HEADER + slot * SLOT + Long.BYTES, offset);
+            MappedSegments.LONGS.setRelease(buffer, INDEX_HEADER + slot * SLOT, hash);
+        }
+
+        long count() {
+            return (long) MappedSegments.LONGS.getVolatile(buffer, COUNT);
+        }
+
+        void setCount(long count) {
+            MappedSegments.LONGS.setVolatile(buffer, COUNT, count);
+        }
+    }
+}
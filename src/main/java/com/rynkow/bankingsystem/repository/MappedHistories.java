@@ -0,0 +1,267 @@
+package com.rynkow.bankingsystem.repository;
+
+import com.rynkow.bankingsystem.model.Currency;
+import com.rynkow.bankingsystem.model.HistoryOrder;
+import com.rynkow.bankingsystem.model.Money;
+import com.rynkow.bankingsystem.model.Transaction;
+import com.rynkow.bankingsystem.model.TransactionHistory;
+import com.rynkow.bankingsystem.model.TransactionType;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Transaction histories of a MappedAccountRepository in a memory-mapped file, so an account with history costs no heap
+ * once its instance is collected. A history is a chain of blocks of rows, each block linked to the one before it, capacities
+ * doubling from FIRST_BLOCK_ROWS up to MAX_BLOCK_ROWS; the account's record holds the offset of the newest block, 0 while
+ * there is none. Rows are kept in date order: an older transaction is moved into place row by row, which is rare.
+ * Queries binary search the dates and scan the range, skipping other types.
+ */
+final class MappedHistories implements Closeable {
+    private static final int SEGMENT_SIZE = 1 << 26;
+    private static final long MAGIC = 0x42414e4b48495354L;
+    private static final int FIRST_BLOCK_ROWS = 4;
+    private static final int MAX_BLOCK_ROWS = 1 << 12;
+    private static final TransactionType[] TYPES = TransactionType.values();
+    private static final Currency[] CURRENCIES = Currency.values();
+
+    // file header: magic, end of the blocks
+    private static final int HEADER = 64;
+    private static final long END = 8;
+    // block: previous block, rows in the blocks before it, capacity, used rows, then the rows
+    private static final int BLOCK_PREVIOUS = 0;
+    private static final int BLOCK_BASE = 8;
+    private static final int BLOCK_CAPACITY = 16;
+    private static final int BLOCK_USED = 24;
+    private static final int BLOCK_HEADER = 32;
+    // row: epoch-millis date, initial balance and balance change in Money units, type, currency
+    private static final int ROW_DATE = 0;
+    private static final int ROW_INITIAL_BALANCE = 8;
+    private static final int ROW_BALANCE_CHANGE = 16;
+    private static final int ROW_TYPE = 24;
+    private static final int ROW_CURRENCY = 25;
+    private static final int ROW = 32;
+
+    private final MappedSegments blocks;
+
+    MappedHistories(Path file) throws IOException {
+        this.blocks = new MappedSegments(file, SEGMENT_SIZE);
+        long magic = blocks.getLong(0);
+        if (magic == 0) {
+            blocks.putLong(END, HEADER);
+            blocks.putLong(0, MAGIC);
+        } else if (magic != MAGIC) {
+            throw new IOException("not a histories file: " + file);
+        }
+    }
+
+    // the history whose newest block offset is the long at position of record
+    TransactionHistory history(ByteBuffer record, int position) {
+        return new History(record, position);
+    }
+
+    void force() {
+        blocks.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        blocks.close();
+    }
+
+    private synchronized long allocate(long previous, long base, int capacity) {
+        int size = BLOCK_HEADER + capacity * ROW;
+        long offset = blocks.getLong(END);
+        // blocks do not cross segments
+        if (blocks.position(offset) + size > SEGMENT_SIZE)
+            offset = (offset & -SEGMENT_SIZE) + SEGMENT_SIZE;
+        put(offset + BLOCK_PREVIOUS, previous);
+        put(offset + BLOCK_BASE, base);
+        put(offset + BLOCK_CAPACITY, capacity);
+        put(offset + BLOCK_USED, 0);
+        blocks.putLong(END, offset + size);
+        return offset;
+    }
+
+    private long get(long offset) {
+        return (long) MappedSegments.LONGS.get(blocks.segment(offset), blocks.position(offset));
+    }
+
+    private void put(long offset, long value) {
+        MappedSegments.LONGS.set(blocks.segment(offset), blocks.position(offset), value);
+    }
+
+    private byte getByte(long offset) {
+        return blocks.segment(offset).get(blocks.position(offset));
+    }
+
+    private void putByte(long offset, byte value) {
+        blocks.segment(offset).put(blocks.position(offset), value);
+    }
+
+    // guarded by the lock of its account like any TransactionHistory
+    private final class History implements TransactionHistory {
+        private final ByteBuffer record;
+        private final int position;
+
+        History(ByteBuffer record, int position) {
+            this.record = record;
+            this.position = position;
+        }
+
+        @Override
+        public void add(Transaction transaction) throws IllegalArgumentException, IllegalStateException {
+            add(transaction.type, transaction.currency, Money.toUnits(transaction.initialBalance), Money.toUnits(transaction.balanceChange),
+                    transaction.transactionDate.getTime());
+        }
+
+        @Override
+        public void add(TransactionType transactionType, Currency currency, long initialBalance, long balanceChange, long date) throws IllegalStateException {
+            long tail = tail();
+            long size = size(tail);
+            if (size == Integer.MAX_VALUE)
+                throw new IllegalStateException("transaction history full");
+            if (tail == 0 || get(tail + BLOCK_USED) == get(tail + BLOCK_CAPACITY)) {
+                int capacity = tail == 0 ? FIRST_BLOCK_ROWS : (int) Math.min(get(tail + BLOCK_CAPACITY) * 2, MAX_BLOCK_ROWS);
+                tail = allocate(tail, size, capacity);
+                MappedSegments.LONGS.setVolatile(record, position, tail);
+            }
+
+            long used = get(tail + BLOCK_USED);
+            long row = tail + BLOCK_HEADER + used * ROW;
+            if (size > 0 && get((used > 0 ? row - ROW : previousRow(tail)) + ROW_DATE) > date) {
+                // after the equal ones, so transactions with the same date keep their insertion order
+                Chain chain = new Chain(tail);
+                long index = chain.firstAfter(size, date);
+                for (long i = size; i > index; i--)
+                    copyRow(chain.row(i - 1), chain.row(i));
+                row = chain.row(index);
+            }
+            put(row + ROW_DATE, date);
+            put(row + ROW_INITIAL_BALANCE, initialBalance);
+            put(row + ROW_BALANCE_CHANGE, balanceChange);
+            putByte(row + ROW_TYPE, (byte) transactionType.ordinal());
+            putByte(row + ROW_CURRENCY, (byte) currency.ordinal());
+            put(tail + BLOCK_USED, used + 1);
+        }
+
+        @Override
+        public int size() {
+            return (int) size(tail());
+        }
+
+        @Override
+        public List<Transaction> getAll() {
+            return query(null, null, null, HistoryOrder.ASCENDING, 0, Integer.MAX_VALUE);
+        }
+
+        @Override
+        public List<Transaction> query(Date startDate, Date endDate, TransactionType transactionType, HistoryOrder order, int skip, int limit) {
+            List<Transaction> transactions = new ArrayList<>();
+            long tail = tail();
+            if (tail == 0 || limit <= 0)
+                return transactions;
+
+            Chain chain = new Chain(tail);
+            long size = size(tail);
+            long from = startDate == null ? 0 : chain.firstAtOrAfter(size, startDate.getTime());
+            long to = endDate == null ? size : chain.firstAfter(size, endDate.getTime());
+            // without a type every row matches, so the skipped ones need not be read
+            long skipped = transactionType == null ? Math.min(skip, Math.max(0, to - from)) : 0;
+            if (order == HistoryOrder.ASCENDING)
+                from += skipped;
+            else
+                to -= skipped;
+            for (long i = 0; i < to - from && transactions.size() < limit; i++) {
+                long row = chain.row(order == HistoryOrder.ASCENDING ? from + i : to - 1 - i);
+                if (transactionType != null && getByte(row + ROW_TYPE) != transactionType.ordinal())
+                    continue;
+                if (skipped++ < skip)
+                    continue;
+                transactions.add(new Transaction(TYPES[getByte(row + ROW_TYPE)], CURRENCIES[getByte(row + ROW_CURRENCY)],
+                        Money.toBigDecimal(get(row + ROW_INITIAL_BALANCE)), Money.toBigDecimal(get(row + ROW_BALANCE_CHANGE)),
+                        new Date(get(row + ROW_DATE))));
+            }
+            return transactions;
+        }
+
+        private long tail() {
+            return (long) MappedSegments.LONGS.getVolatile(record, position);
+        }
+
+        private long size(long tail) {
+            return tail == 0 ? 0 : get(tail + BLOCK_BASE) + get(tail + BLOCK_USED);
+        }
+
+        // last row of the block before the given one, which is full
+        private long previousRow(long block) {
+            long previous = get(block + BLOCK_PREVIOUS);
+            return previous + BLOCK_HEADER + (get(previous + BLOCK_CAPACITY) - 1) * ROW;
+        }
+
+        private void copyRow(long from, long to) {
+            for (int i = 0; i < ROW; i += Long.BYTES)
+                put(to + i, get(from + i));
+        }
+    }
+
+    // the blocks of a history oldest first, for finding rows by their index
+    private final class Chain {
+        private final long[] offsets;
+        private final long[] bases;
+
+        Chain(long tail) {
+            int count = 0;
+            for (long block = tail; block != 0; block = get(block + BLOCK_PREVIOUS))
+                count++;
+            offsets = new long[count];
+            bases = new long[count];
+            for (long block = tail; block != 0; block = get(block + BLOCK_PREVIOUS)) {
+                offsets[--count] = block;
+                bases[count] = get(block + BLOCK_BASE);
+            }
+        }
+
+        // offset of the row at index, which may be the first free row of the tail block
+        long row(long index) {
+            int low = 0, high = offsets.length - 1;
+            while (low < high) {
+                int middle = (low + high + 1) >>> 1;
+                if (bases[middle] <= index)
+                    low = middle;
+                else
+                    high = middle - 1;
+            }
+            return offsets[low] + BLOCK_HEADER + (index - bases[low]) * ROW;
+        }
+
+        long firstAtOrAfter(long size, long date) {
+            long low = 0, high = size;
+            while (low < high) {
+                long middle = (low + high) >>> 1;
+                if (get(row(middle) + ROW_DATE) < date)
+                    low = middle + 1;
+                else
+                    high = middle;
+            }
+            return low;
+        }
+
+        long firstAfter(long size, long date) {
+            long low = 0, high = size;
+            while (low < high) {
+                long middle = (low + high) >>> 1;
+                if (get(row(middle) + ROW_DATE) <= date)
+                    low = middle + 1;
+                else
+                    high = middle;
+            }
+            return low;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.rynkow.bankingsystem.repository;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A file mapped in segments of a fixed power-of-two size, mapped on first access - mapping a segment past the end grows the file.
+ * Longs are accessed in native byte order and must be aligned to 8 bytes.
+ */
+final class MappedSegments implements Closeable {
+    static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private final FileChannel channel;
+    private final int segmentShift;
+    private final int segmentMask;
+    private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+
+    MappedSegments(Path file, int segmentSize) throws IOException {
+        if (Integer.bitCount(segmentSize) != 1)
+            throw new IllegalArgumentException("segment size not a power of two");
+
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.segmentShift = Integer.numberOfTrailingZeros(segmentSize);
+        this.segmentMask = segmentSize - 1;
+    }
+
+    int segmentSize() {
+        return segmentMask + 1;
+    }
+
+    MappedByteBuffer segment(long offset) {
+        int index = (int) (offset >>> segmentShift);
+        MappedByteBuffer[] segments = this.segments;
+        if (index < segments.length && segments[index] != null)
+            return segments[index];
+        return map(index);
+    }
+
+    // position of the offset within its segment
+    int position(long offset) {
+        return (int) (offset & segmentMask);
+    }
+
+    long getLong(long offset) {
+        return (long) LONGS.getVolatile(segment(offset), position(offset));
+    }
+
+    void putLong(long offset, long value) {
+        LONGS.setVolatile(segment(offset), position(offset), value);
+    }
+
+    // writes the changes of all mapped segments to the storage device
+    void force() {
+        for (MappedByteBuffer segment : segments)
+            if (segment != null)
+                segment.force();
+    }
+
+    private synchronized MappedByteBuffer map(int index) {
+        MappedByteBuffer[] segments = this.segments;
+        if (index < segments.length && segments[index] != null)
+            return segments[index];
+        MappedByteBuffer[] grown = Arrays.copyOf(segments, Math.max(segments.length, index + 1));
+        try {
+            grown[index] = channel.map(FileChannel.MapMode.READ_WRITE, (long) index << segmentShift, segmentMask + 1);
+        } catch (IOException e) {
+            throw new IllegalStateException("cannot map segment " + index, e);
+        }
+        this.segments = grown;
+        return grown[index];
+    }
+
+    // mapped segments stay usable until they are garbage collected
+    @Override
+    public void close() throws IOException {
+        force();
+        channel.close();
+    }
+}
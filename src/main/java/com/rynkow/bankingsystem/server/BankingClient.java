@@ -0,0 +1,60 @@
+package com.rynkow.bankingsystem.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Client of BankingServer, not thread safe - one client is one session.
+ */
+public class BankingClient implements Closeable {
+    private final LineConnection connection;
+
+    public BankingClient(String host, int port) throws IOException {
+        Socket socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        connection = new LineConnection(socket);
+    }
+
+    /**
+     * Sends a command and waits for its answer.
+     *
+     * @return data lines of the answer
+     * @throws RuntimeException with the server's message when the command failed
+     */
+    public List<String> execute(String command) throws IOException, RuntimeException {
+        send(command);
+        flush();
+        return receive();
+    }
+
+    // pipelining: several commands may be sent before their answers are received, in the same order
+    public void send(String command) throws IOException {
+        connection.writeLine(command);
+    }
+
+    public void flush() throws IOException {
+        connection.flush();
+    }
+
+    // answer of the oldest command not yet received
+    public List<String> receive() throws IOException, RuntimeException {
+        List<String> lines = new ArrayList<>();
+        String line;
+        while ((line = connection.readLine()) != null) {
+            if (line.equals(BankingSession.OK))
+                return lines;
+            if (line.startsWith(BankingSession.ERROR))
+                throw new RuntimeException(line.substring(BankingSession.ERROR.length()));
+            lines.add(line);
+        }
+        throw new IOException("connection closed");
+    }
+
+    @Override
+    public void close() throws IOException {
+        connection.close();
+    }
+}
@@ -0,0 +1,107 @@
+package com.rynkow.bankingsystem.server;
+
+import com.rynkow.bankingsystem.BankingSystem;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Serves the BankingSession text protocol over TCP, every connection is a session handled by its own thread -
+ * a virtual thread where the runtime has them, so tens of thousands of mostly idle sessions cost little.
+ * Commands sent without waiting for answers are answered in order, with the answers flushed together.
+ */
+public class BankingServer implements Closeable {
+    // pending connections, a burst of clients connecting at once must not be refused
+    private static final int ACCEPT_BACKLOG = 4096;
+
+    private final BankingSystem bankingSystem;
+    private final ServerSocket serverSocket;
+    private final ExecutorService sessions = VirtualThreads.newThreadPerTaskExecutor("banking-session");
+    private final Set<LineConnection> connections = ConcurrentHashMap.newKeySet();
+    private Thread acceptor;
+
+    /**
+     * @param port 0 for any free port, see getPort
+     */
+    public BankingServer(BankingSystem bankingSystem, int port) throws IOException {
+        this.bankingSystem = bankingSystem;
+        this.serverSocket = new ServerSocket();
+        serverSocket.bind(new InetSocketAddress(port), ACCEPT_BACKLOG);
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public int getSessionCount() {
+        return connections.size();
+    }
+
+    // accepts connections on a new thread until close
+    public synchronized void start() {
+        if (acceptor != null)
+            throw new IllegalStateException("server already started");
+
+        acceptor = new Thread(this::acceptConnections, "banking-server-acceptor");
+        acceptor.start();
+    }
+
+    private void acceptConnections() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                sessions.execute(() -> serve(socket));
+            } catch (IOException e) {
+                // closed, or a connection failed before it was accepted
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        LineConnection connection;
+        try {
+            connection = new LineConnection(socket);
+        } catch (IOException e) {
+            closeQuietly(socket);
+            return;
+        }
+        connections.add(connection);
+        try (connection) {
+            BankingSession session = new BankingSession(bankingSystem);
+            String line;
+            boolean open = true;
+            while (open && (line = connection.readLine()) != null) {
+                open = session.execute(line, connection);
+                if (!open || !connection.hasBufferedInput())
+                    connection.flush();
+            }
+        } catch (IOException e) {
+            // client gone or sent garbage, the session just ends
+        } finally {
+            connections.remove(connection);
+        }
+    }
+
+    // stops accepting and drops all open sessions
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        for (LineConnection connection : connections)
+            connection.close();
+        sessions.shutdown();
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
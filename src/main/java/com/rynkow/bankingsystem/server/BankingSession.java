@@ -0,0 +1,130 @@
+package com.rynkow.bankingsystem.server;
+
+import com.rynkow.bankingsystem.BankingSystem;
+import com.rynkow.bankingsystem.model.Currency;
+import com.rynkow.bankingsystem.model.HistoryOrder;
+import com.rynkow.bankingsystem.model.Transaction;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * One client session of the text protocol, the commands of BankingSystemCLI with their arguments on one line:
+ * <pre>
+ * create|login userId
+ * balance | history | metrics | totals | quit
+ * deposit|withdraw PLN|EUR|USD amount
+ * send PLN|EUR|USD amount receiverId
+ * exchange baseCurrency targetCurrency amount
+ * </pre>
+ * Every command is answered with zero or more data lines and then "OK" or "ERROR message".
+ * Account commands need a prior create or login. create, deposit, withdraw, send and exchange take an optional idempotency key
+ * as their last argument: a client retrying the command with the same key gets the first attempt's answer, see BankingSystem.
+ */
+class BankingSession {
+    static final String OK = "OK";
+    static final String ERROR = "ERROR ";
+
+    private final BankingSystem bankingSystem;
+    private String activeUser;
+
+    BankingSession(BankingSystem bankingSystem) {
+        this.bankingSystem = bankingSystem;
+    }
+
+    // returns false once the session is over
+    boolean execute(String line, LineConnection connection) throws IOException {
+        String[] command = line.trim().split("\\s+");
+        try {
+            switch (command[0]) {
+                case "quit" -> {
+                    connection.writeLine(OK);
+                    return false;
+                }
+                case "create" -> {
+                    String key = expectArgumentsAndKey(command, 1);
+                    // scoped to the new user like userKey, there is no active user yet
+                    bankingSystem.newUser(command[1], key != null ? command[1] + " " + key : null);
+                    activeUser = command[1];
+                }
+                case "login" -> {
+                    expectArguments(command, 1);
+                    bankingSystem.getAccountBalance(command[1]);
+                    activeUser = command[1];
+                }
+                case "balance" -> {
+                    expectArguments(command, 0);
+                    Map<Currency, BigDecimal> balance = bankingSystem.getAccountBalance(getActiveUser());
+                    for (Currency currency : Currency.values())
+                        connection.writeLine(currency.name() + " " + balance.get(currency).toPlainString());
+                }
+                case "history" -> {
+                    expectArguments(command, 0);
+                    // streamed page by page, a long history is never held in memory at once
+                    Iterator<Transaction> history = bankingSystem.streamAccountHistory(getActiveUser(), null, null, null, null, HistoryOrder.ASCENDING).iterator();
+                    while (history.hasNext())
+                        connection.writeLine(history.next().toString());
+                }
+                case "deposit" -> {
+                    String key = userKey(expectArgumentsAndKey(command, 2));
+                    bankingSystem.depositFunds(Currency.valueOf(command[1]), new BigDecimal(command[2]), getActiveUser(), key);
+                }
+                case "withdraw" -> {
+                    String key = userKey(expectArgumentsAndKey(command, 2));
+                    bankingSystem.withdrawFunds(Currency.valueOf(command[1]), new BigDecimal(command[2]), getActiveUser(), key);
+                }
+                case "send" -> {
+                    String key = userKey(expectArgumentsAndKey(command, 3));
+                    bankingSystem.sendFunds(Currency.valueOf(command[1]), new BigDecimal(command[2]), getActiveUser(), command[3], key);
+                }
+                case "exchange" -> {
+                    String key = userKey(expectArgumentsAndKey(command, 3));
+                    bankingSystem.exchangeCurrency(Currency.valueOf(command[1]), Currency.valueOf(command[2]), new BigDecimal(command[3]), getActiveUser(), key);
+                }
+                case "metrics" -> {
+                    expectArguments(command, 0);
+                    for (String reportLine : bankingSystem.getMetrics().report().split(System.lineSeparator()))
+                        connection.writeLine(reportLine);
+                }
+                case "totals" -> {
+                    expectArguments(command, 0);
+                    for (String reportLine : bankingSystem.getTotals().report().split(System.lineSeparator()))
+                        connection.writeLine(reportLine);
+                }
+                default -> throw new RuntimeException("invalid command: " + command[0]);
+            }
+        } catch (RuntimeException e) {
+            // protocol lines must not contain line breaks
+            connection.writeLine(ERROR + String.valueOf(e.getMessage()).replace('\n', ' '));
+            return true;
+        }
+        connection.writeLine(OK);
+        return true;
+    }
+
+    private String getActiveUser() throws RuntimeException {
+        if (activeUser == null)
+            throw new RuntimeException("not logged in");
+        return activeUser;
+    }
+
+    // keys of different users never collide, user ids contain no spaces
+    private String userKey(String key) throws RuntimeException {
+        return key != null ? getActiveUser() + " " + key : null;
+    }
+
+    private static void expectArguments(String[] command, int count) throws RuntimeException {
+        if (command.length != count + 1)
+            throw new RuntimeException("invalid " + command[0] + " command");
+    }
+
+    // returns the idempotency key following the arguments, null if there is none
+    private static String expectArgumentsAndKey(String[] command, int count) throws RuntimeException {
+        if (command.length == count + 2)
+            return command[count + 1];
+        expectArguments(command, count);
+        return null;
+    }
+}
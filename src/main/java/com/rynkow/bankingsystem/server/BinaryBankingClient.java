@@ -0,0 +1,127 @@
+package com.rynkow.bankingsystem.server;
+
+import com.rynkow.bankingsystem.model.Currency;
+import com.rynkow.bankingsystem.model.HistoryOrder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Client of BinaryBankingServer, not thread safe. Request methods only buffer the request and return its id,
+ * so many requests can be pipelined - send them, flush, then receive the answers, which carry the ids.
+ * Keep the number of unanswered requests to a few thousand: the server stops reading while its answers are not read,
+ * so with both directions' socket buffers full the client would block in flush forever.
+ * Amounts are in Money units.
+ */
+public class BinaryBankingClient implements Closeable {
+    private final SocketChannel channel;
+    private final ByteBuffer out = ByteBuffer.allocateDirect(BinaryProtocol.BUFFER_SIZE);
+    private final ByteBuffer in = ByteBuffer.allocateDirect(BinaryProtocol.BUFFER_SIZE);
+    private final byte[] scratch = new byte[BinaryProtocol.MAX_STRING_LENGTH];
+    private long nextRequestId = 1;
+
+    public BinaryBankingClient(String host, int port) throws IOException {
+        channel = SocketChannel.open(new InetSocketAddress(host, port));
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        in.flip();
+    }
+
+    public long newUser(String userId) throws IOException {
+        int start = beginRequest(BinaryProtocol.NEW_USER, userId);
+        return endRequest(start);
+    }
+
+    public long deposit(String userId, Currency currency, long units) throws IOException {
+        int start = beginRequest(BinaryProtocol.DEPOSIT, userId);
+        out.put((byte) currency.ordinal()).putLong(units);
+        return endRequest(start);
+    }
+
+    public long withdraw(String userId, Currency currency, long units) throws IOException {
+        int start = beginRequest(BinaryProtocol.WITHDRAW, userId);
+        out.put((byte) currency.ordinal()).putLong(units);
+        return endRequest(start);
+    }
+
+    public long send(String senderId, Currency currency, long units, String receiverId) throws IOException {
+        int start = beginRequest(BinaryProtocol.SEND, senderId);
+        out.put((byte) currency.ordinal()).putLong(units);
+        BinaryProtocol.putString(out, receiverId);
+        return endRequest(start);
+    }
+
+    public long exchange(String userId, Currency baseCurrency, Currency targetCurrency, long units) throws IOException {
+        int start = beginRequest(BinaryProtocol.EXCHANGE, userId);
+        out.put((byte) baseCurrency.ordinal()).put((byte) targetCurrency.ordinal()).putLong(units);
+        return endRequest(start);
+    }
+
+    public long balance(String userId) throws IOException {
+        int start = beginRequest(BinaryProtocol.BALANCE, userId);
+        return endRequest(start);
+    }
+
+    /**
+     * @param currency          null for all currencies
+     * @param pageSize          capped by the server
+     * @param continuationToken null for the first page
+     */
+    public long history(String userId, Currency currency, HistoryOrder order, int pageSize, String continuationToken) throws IOException {
+        int start = beginRequest(BinaryProtocol.HISTORY, userId);
+        out.put(currency == null ? BinaryProtocol.ALL_CURRENCIES : (byte) currency.ordinal()).put((byte) order.ordinal()).putInt(pageSize);
+        BinaryProtocol.putString(out, continuationToken == null ? "" : continuationToken);
+        return endRequest(start);
+    }
+
+    // sends all buffered requests
+    public void flush() throws IOException {
+        out.flip();
+        while (out.hasRemaining())
+            channel.write(out);
+        out.clear();
+    }
+
+    /**
+     * Waits for the next answer.
+     *
+     * @param response overwritten with the answer and returned
+     */
+    public BinaryResponse receive(BinaryResponse response) throws IOException {
+        int length;
+        while ((length = BinaryProtocol.completeFrameLength(in)) < 0) {
+            in.compact();
+            if (channel.read(in) < 0)
+                throw new IOException("connection closed");
+            in.flip();
+        }
+        int end = in.position() + Integer.BYTES + length;
+        int limit = in.limit();
+        in.limit(end).position(in.position() + Integer.BYTES);
+        response.read(in, scratch);
+        in.limit(limit).position(end);
+        return response;
+    }
+
+    private int beginRequest(byte opcode, String userId) throws IOException {
+        // a request is much smaller than half a buffer
+        if (out.remaining() < BinaryProtocol.MAX_ANSWER_SIZE)
+            flush();
+        int start = BinaryProtocol.beginFrame(out, nextRequestId, opcode);
+        BinaryProtocol.putString(out, userId);
+        return start;
+    }
+
+    private long endRequest(int start) {
+        BinaryProtocol.endFrame(out, start);
+        return nextRequestId++;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
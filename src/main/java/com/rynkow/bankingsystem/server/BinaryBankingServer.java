@@ -0,0 +1,182 @@
+package com.rynkow.bankingsystem.server;
+
+import com.rynkow.bankingsystem.BankingSystem;
+import com.rynkow.bankingsystem.model.Currency;
+import com.rynkow.bankingsystem.model.HistoryOrder;
+import com.rynkow.bankingsystem.model.HistoryPage;
+import com.rynkow.bankingsystem.model.Money;
+import com.rynkow.bankingsystem.model.Transaction;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Serves BinaryProtocol over TCP, a thread per connection as in BankingServer.
+ * Requests are decoded straight from the connection's receive buffer and answers encoded straight into its send buffer,
+ * both direct and reused for the life of the connection. Everything received in one read is answered with one write,
+ * so pipelined requests share system calls.
+ */
+public class BinaryBankingServer implements Closeable {
+    private static final int ACCEPT_BACKLOG = 4096;
+
+    private final BankingSystem bankingSystem;
+    private final ServerSocketChannel serverChannel;
+    private final ExecutorService sessions = VirtualThreads.newThreadPerTaskExecutor("binary-banking-session");
+    private final Set<SocketChannel> connections = ConcurrentHashMap.newKeySet();
+    private Thread acceptor;
+
+    /**
+     * @param port 0 for any free port, see getPort
+     */
+    public BinaryBankingServer(BankingSystem bankingSystem, int port) throws IOException {
+        this.bankingSystem = bankingSystem;
+        this.serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port), ACCEPT_BACKLOG);
+    }
+
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    public int getSessionCount() {
+        return connections.size();
+    }
+
+    // accepts connections on a new thread until close
+    public synchronized void start() {
+        if (acceptor != null)
+            throw new IllegalStateException("server already started");
+
+        acceptor = new Thread(this::acceptConnections, "binary-banking-server-acceptor");
+        acceptor.start();
+    }
+
+    private void acceptConnections() {
+        while (serverChannel.isOpen()) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                sessions.execute(() -> serve(channel));
+            } catch (IOException e) {
+                // closed, or a connection failed before it was accepted
+            }
+        }
+    }
+
+    private void serve(SocketChannel channel) {
+        connections.add(channel);
+        try (channel) {
+            ByteBuffer in = ByteBuffer.allocateDirect(BinaryProtocol.BUFFER_SIZE);
+            ByteBuffer out = ByteBuffer.allocateDirect(BinaryProtocol.BUFFER_SIZE);
+            byte[] scratch = new byte[BinaryProtocol.MAX_STRING_LENGTH];
+            while (channel.read(in) >= 0) {
+                in.flip();
+                int length;
+                while ((length = BinaryProtocol.completeFrameLength(in)) >= 0) {
+                    if (out.remaining() < BinaryProtocol.MAX_ANSWER_SIZE)
+                        write(channel, out);
+                    int end = in.position() + Integer.BYTES + length;
+                    int limit = in.limit();
+                    // reading past the frame fails instead of reading the next request
+                    in.limit(end).position(in.position() + Integer.BYTES);
+                    handleRequest(in, out, scratch);
+                    in.limit(limit).position(end);
+                }
+                in.compact();
+                write(channel, out);
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            // client gone or sent an invalid frame, the connection just ends
+        } finally {
+            connections.remove(channel);
+        }
+    }
+
+    private void handleRequest(ByteBuffer in, ByteBuffer out, byte[] scratch) {
+        long requestId = in.getLong();
+        byte opcode = in.get();
+        int start = out.position();
+        try {
+            BinaryProtocol.beginFrame(out, requestId, opcode);
+            String userId = BinaryProtocol.getString(in, scratch);
+            switch (opcode) {
+                case BinaryProtocol.NEW_USER -> bankingSystem.newUser(userId);
+                case BinaryProtocol.DEPOSIT -> bankingSystem.depositFunds(BinaryProtocol.getCurrency(in), getAmount(in), userId);
+                case BinaryProtocol.WITHDRAW -> bankingSystem.withdrawFunds(BinaryProtocol.getCurrency(in), getAmount(in), userId);
+                case BinaryProtocol.SEND -> bankingSystem.sendFunds(BinaryProtocol.getCurrency(in), getAmount(in), userId, BinaryProtocol.getString(in, scratch));
+                case BinaryProtocol.EXCHANGE -> bankingSystem.exchangeCurrency(BinaryProtocol.getCurrency(in), BinaryProtocol.getCurrency(in), getAmount(in), userId);
+                case BinaryProtocol.BALANCE -> writeBalance(out, bankingSystem.getAccountBalance(userId));
+                case BinaryProtocol.HISTORY -> {
+                    Currency currency = BinaryProtocol.getOptionalCurrency(in);
+                    HistoryOrder order = BinaryProtocol.getOrder(in);
+                    int pageSize = Math.min(in.getInt(), BinaryProtocol.MAX_PAGE_SIZE);
+                    String token = BinaryProtocol.getString(in, scratch);
+                    writeHistory(out, bankingSystem.getAccountHistoryPage(userId, currency, null, null, null, order, pageSize, token.isEmpty() ? null : token));
+                }
+                default -> throw new IllegalArgumentException("invalid opcode " + opcode);
+            }
+            BinaryProtocol.endFrame(out, start);
+        } catch (RuntimeException e) {
+            // a partly written answer is replaced by the error
+            out.position(start);
+            BinaryProtocol.beginFrame(out, requestId, BinaryProtocol.ERROR);
+            BinaryProtocol.putString(out, errorMessage(e));
+            BinaryProtocol.endFrame(out, start);
+        }
+    }
+
+    private static BigDecimal getAmount(ByteBuffer in) {
+        return Money.toBigDecimal(in.getLong());
+    }
+
+    private static void writeBalance(ByteBuffer out, Map<Currency, BigDecimal> balance) {
+        out.put((byte) balance.size());
+        for (Map.Entry<Currency, BigDecimal> entry : balance.entrySet())
+            out.put((byte) entry.getKey().ordinal()).putLong(Money.toUnits(entry.getValue()));
+    }
+
+    private static void writeHistory(ByteBuffer out, HistoryPage page) {
+        out.putInt(page.transactions.size());
+        for (Transaction transaction : page.transactions)
+            out.put((byte) transaction.type.ordinal())
+                    .put((byte) transaction.currency.ordinal())
+                    .putLong(Money.toUnits(transaction.initialBalance))
+                    .putLong(Money.toUnits(transaction.balanceChange))
+                    .putLong(transaction.transactionDate.getTime());
+        BinaryProtocol.putString(out, page.continuationToken != null ? page.continuationToken : "");
+    }
+
+    private static String errorMessage(RuntimeException e) {
+        if (e instanceof BufferUnderflowException)
+            return "malformed request";
+        String message = String.valueOf(e.getMessage());
+        return message.length() > BinaryProtocol.MAX_STRING_LENGTH / 4 ? message.substring(0, BinaryProtocol.MAX_STRING_LENGTH / 4) : message;
+    }
+
+    private static void write(SocketChannel channel, ByteBuffer out) throws IOException {
+        out.flip();
+        while (out.hasRemaining())
+            channel.write(out);
+        out.clear();
+    }
+
+    // stops accepting and drops all open sessions
+    @Override
+    public void close() throws IOException {
+        serverChannel.close();
+        for (SocketChannel connection : connections)
+            connection.close();
+        sessions.shutdown();
+    }
+}
@@ -0,0 +1,130 @@
+package com.rynkow.bankingsystem.server;
+
+import com.rynkow.bankingsystem.model.Currency;
+import com.rynkow.bankingsystem.model.HistoryOrder;
+import com.rynkow.bankingsystem.model.TransactionType;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Frames of the binary protocol, all numbers big-endian:
+ * <pre>
+ * frame:    int length of the rest, long request id, byte opcode, payload
+ *           an answer has the opcode of its request, or ERROR if the request failed
+ * string:   short byte length, UTF-8 bytes
+ * amount:   long units of Money, so 12.34 is 123400
+ * currency: byte ordinal of Currency, -1 for all currencies where allowed
+ *
+ * NEW_USER  userId                                      -> empty
+ * DEPOSIT   userId, currency, amount                    -> empty
+ * WITHDRAW  userId, currency, amount                    -> empty
+ * SEND      userId, currency, amount, receiverId        -> empty
+ * EXCHANGE  userId, base currency, target currency, amount -> empty
+ * BALANCE   userId                                      -> byte count, (currency, amount) per account
+ * HISTORY   userId, currency or -1, byte HistoryOrder ordinal, int page size, continuation token or ""
+ *           -> int count, (byte TransactionType ordinal, currency, amount initial balance, amount change, long epoch millis) per transaction,
+ *              continuation token or "" on the last page
+ * any request -> ERROR, string message
+ * </pre>
+ * A client may send any number of requests without waiting, answers carry the request id of their request.
+ */
+final class BinaryProtocol {
+    static final byte NEW_USER = 1;
+    static final byte DEPOSIT = 2;
+    static final byte WITHDRAW = 3;
+    static final byte SEND = 4;
+    static final byte EXCHANGE = 5;
+    static final byte BALANCE = 6;
+    static final byte HISTORY = 7;
+
+    static final byte ERROR = 0;
+
+    static final byte ALL_CURRENCIES = -1;
+    // frames are at most one buffer, which bounds the memory of a connection
+    static final int BUFFER_SIZE = 16 * 1024;
+    // half a buffer, so a buffer with less room than that can be written out before the next answer
+    static final int MAX_ANSWER_SIZE = BUFFER_SIZE / 2;
+    static final int HEADER_SIZE = Integer.BYTES + Long.BYTES + Byte.BYTES;
+    static final int TRANSACTION_SIZE = 2 * Byte.BYTES + 3 * Long.BYTES;
+    static final int MAX_STRING_LENGTH = 1024;
+    static final int MAX_PAGE_SIZE = (MAX_ANSWER_SIZE - HEADER_SIZE - Integer.BYTES - Short.BYTES - MAX_STRING_LENGTH) / TRANSACTION_SIZE;
+    private static final Currency[] CURRENCIES = Currency.values();
+    private static final TransactionType[] TRANSACTION_TYPES = TransactionType.values();
+    private static final HistoryOrder[] ORDERS = HistoryOrder.values();
+
+    private BinaryProtocol() {
+    }
+
+    // starts a frame, returns its position for endFrame
+    static int beginFrame(ByteBuffer buffer, long requestId, byte opcode) {
+        int start = buffer.position();
+        buffer.putInt(0).putLong(requestId).put(opcode);
+        return start;
+    }
+
+    static void endFrame(ByteBuffer buffer, int start) {
+        buffer.putInt(start, buffer.position() - start - Integer.BYTES);
+    }
+
+    // length of the frame at the buffer's position once it is complete in the buffer, otherwise -1
+    static int completeFrameLength(ByteBuffer buffer) throws IllegalArgumentException {
+        if (buffer.remaining() < Integer.BYTES)
+            return -1;
+        int length = buffer.getInt(buffer.position());
+        if (length < HEADER_SIZE - Integer.BYTES || length > BUFFER_SIZE - Integer.BYTES)
+            throw new IllegalArgumentException("invalid frame length " + length);
+        return buffer.remaining() >= Integer.BYTES + length ? length : -1;
+    }
+
+    // ASCII strings, the usual user ids, are written without an intermediate array
+    static void putString(ByteBuffer buffer, String value) throws IllegalArgumentException {
+        int length = value.length();
+        boolean ascii = length <= MAX_STRING_LENGTH;
+        for (int i = 0; ascii && i < length; i++)
+            ascii = value.charAt(i) < 0x80;
+        if (ascii) {
+            buffer.putShort((short) length);
+            for (int i = 0; i < length; i++)
+                buffer.put((byte) value.charAt(i));
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_STRING_LENGTH)
+            throw new IllegalArgumentException("string too long");
+        buffer.putShort((short) bytes.length).put(bytes);
+    }
+
+    // scratch holds the bytes on their way to the String, at least MAX_STRING_LENGTH long
+    static String getString(ByteBuffer buffer, byte[] scratch) throws IllegalArgumentException {
+        int length = buffer.getShort();
+        if (length < 0 || length > MAX_STRING_LENGTH)
+            throw new IllegalArgumentException("invalid string length");
+        buffer.get(scratch, 0, length);
+        return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+
+    static Currency getCurrency(ByteBuffer buffer) throws IllegalArgumentException {
+        return valueOf(CURRENCIES, buffer.get(), "currency");
+    }
+
+    // null for ALL_CURRENCIES
+    static Currency getOptionalCurrency(ByteBuffer buffer) throws IllegalArgumentException {
+        byte ordinal = buffer.get();
+        return ordinal == ALL_CURRENCIES ? null : valueOf(CURRENCIES, ordinal, "currency");
+    }
+
+    static TransactionType getTransactionType(ByteBuffer buffer) throws IllegalArgumentException {
+        return valueOf(TRANSACTION_TYPES, buffer.get(), "transaction type");
+    }
+
+    static HistoryOrder getOrder(ByteBuffer buffer) throws IllegalArgumentException {
+        return valueOf(ORDERS, buffer.get(), "history order");
+    }
+
+    private static <T> T valueOf(T[] values, byte ordinal, String name) throws IllegalArgumentException {
+        if (ordinal < 0 || ordinal >= values.length)
+            throw new IllegalArgumentException("invalid " + name);
+        return values[ordinal];
+    }
+}
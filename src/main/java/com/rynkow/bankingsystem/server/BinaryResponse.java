@@ -0,0 +1,91 @@
+package com.rynkow.bankingsystem.server;
+
+import com.rynkow.bankingsystem.model.Currency;
+import com.rynkow.bankingsystem.model.Money;
+import com.rynkow.bankingsystem.model.Transaction;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * An answer read by BinaryBankingClient. Reused: receive overwrites it with the next answer.
+ */
+public class BinaryResponse {
+    private static final Currency[] CURRENCIES = Currency.values();
+
+    private long requestId;
+    private byte opcode;
+    private String error;
+    private final long[] balances = new long[CURRENCIES.length];
+    private final boolean[] hasBalance = new boolean[CURRENCIES.length];
+    private final List<Transaction> transactions = new ArrayList<>();
+    private String continuationToken;
+
+    public long getRequestId() {
+        return requestId;
+    }
+
+    public boolean isSuccessful() {
+        return opcode != BinaryProtocol.ERROR;
+    }
+
+    // message of the exception the request failed with, null if it succeeded
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * @return balance in Money units, of the answer to a balance request
+     */
+    public long getBalanceUnits(Currency currency) throws IllegalStateException {
+        if (!hasBalance[currency.ordinal()])
+            throw new IllegalStateException("no balance of " + currency + " in response");
+        return balances[currency.ordinal()];
+    }
+
+    // of the answer to a history request
+    public List<Transaction> getTransactions() {
+        return Collections.unmodifiableList(transactions);
+    }
+
+    // of the answer to a history request, null on the last page
+    public String getContinuationToken() {
+        return continuationToken;
+    }
+
+    // frame at the buffer's position, without its length
+    void read(ByteBuffer in, byte[] scratch) {
+        requestId = in.getLong();
+        opcode = in.get();
+        error = null;
+        continuationToken = null;
+        transactions.clear();
+        for (int i = 0; i < CURRENCIES.length; i++)
+            hasBalance[i] = false;
+        switch (opcode) {
+            case BinaryProtocol.ERROR -> error = BinaryProtocol.getString(in, scratch);
+            case BinaryProtocol.BALANCE -> {
+                int count = in.get();
+                for (int i = 0; i < count; i++) {
+                    Currency currency = BinaryProtocol.getCurrency(in);
+                    balances[currency.ordinal()] = in.getLong();
+                    hasBalance[currency.ordinal()] = true;
+                }
+            }
+            case BinaryProtocol.HISTORY -> {
+                int count = in.getInt();
+                for (int i = 0; i < count; i++)
+                    transactions.add(new Transaction(BinaryProtocol.getTransactionType(in), BinaryProtocol.getCurrency(in),
+                            Money.toBigDecimal(in.getLong()), Money.toBigDecimal(in.getLong()), new Date(in.getLong())));
+                String token = BinaryProtocol.getString(in, scratch);
+                continuationToken = token.isEmpty() ? null : token;
+            }
+            default -> {
+                // answers to mutations have no payload
+            }
+        }
+    }
+}
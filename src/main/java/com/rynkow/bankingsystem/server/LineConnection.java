@@ -0,0 +1,69 @@
+package com.rynkow.bankingsystem.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * UTF-8 lines over a socket, with small buffers - a server holds tens of thousands of these,
+ * Reader and Writer wrappers would cost tens of kilobytes each.
+ */
+class LineConnection implements Closeable {
+    static final int MAX_LINE_LENGTH = 1024;
+    private static final int BUFFER_SIZE = 1024;
+
+    private final Socket socket;
+    private final InputStream in;
+    private final OutputStream out;
+    private final byte[] line = new byte[MAX_LINE_LENGTH];
+
+    LineConnection(Socket socket) throws IOException {
+        this.socket = socket;
+        this.in = new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE);
+        this.out = new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE);
+    }
+
+    // null at the end of the stream, a trailing carriage return is dropped
+    String readLine() throws IOException {
+        int length = 0;
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0) {
+                if (length == 0)
+                    return null;
+                break;
+            }
+            if (length == MAX_LINE_LENGTH)
+                throw new IOException("line too long");
+            line[length++] = (byte) b;
+        }
+        if (length > 0 && line[length - 1] == '\r')
+            length--;
+        return new String(line, 0, length, StandardCharsets.UTF_8);
+    }
+
+    // buffered until flush
+    void writeLine(String text) throws IOException {
+        out.write(text.getBytes(StandardCharsets.UTF_8));
+        out.write('\n');
+    }
+
+    // whether more input arrived already, e.g. pipelined commands
+    boolean hasBufferedInput() throws IOException {
+        return in.available() > 0;
+    }
+
+    void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
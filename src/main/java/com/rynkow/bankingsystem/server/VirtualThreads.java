@@ -0,0 +1,30 @@
+package com.rynkow.bankingsystem.server;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Thread per task executors, with virtual threads when the runtime has them.
+ * The code is compiled for a release without virtual threads, so they are looked up reflectively.
+ */
+public final class VirtualThreads {
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * @param name name of the platform threads used when virtual threads are not available
+     */
+    public static ExecutorService newThreadPerTaskExecutor(String name) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            // older runtime, or virtual threads still a preview feature
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+}
@@ -6,4 +6,9 @@ import java.math.BigDecimal;
 
 public interface CurrencyExchangeService {
     BigDecimal exchange(Currency baseCurrency, Currency targetCurrency, BigDecimal amount);
+
+    // exchange together with the version of the rates used
+    default ExchangeQuote quote(Currency baseCurrency, Currency targetCurrency, BigDecimal amount) {
+        return new ExchangeQuote(exchange(baseCurrency, targetCurrency, amount), 0);
+    }
 }
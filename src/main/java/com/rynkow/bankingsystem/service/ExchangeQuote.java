@@ -0,0 +1,14 @@
+package com.rynkow.bankingsystem.service;
+
+import java.math.BigDecimal;
+
+public class ExchangeQuote {
+    public final BigDecimal amount;
+    // version of the exchange rate table the amount was computed with, 0 if the service does not version its rates
+    public final long rateVersion;
+
+    public ExchangeQuote(BigDecimal amount, long rateVersion) {
+        this.amount = amount;
+        this.rateVersion = rateVersion;
+    }
+}
@@ -0,0 +1,31 @@
+package com.rynkow.bankingsystem.service;
+
+import com.rynkow.bankingsystem.model.Currency;
+
+import java.math.BigDecimal;
+
+// immutable, so a table can be shared between threads once published
+final class ExchangeRateTable {
+    private static final int CURRENCY_COUNT = Currency.values().length;
+
+    final long version;
+    // rate from base to target at base.ordinal() * CURRENCY_COUNT + target.ordinal(), null on the diagonal
+    private final BigDecimal[] rates;
+
+    ExchangeRateTable(long version, BigDecimal[] rates) {
+        this.version = version;
+        this.rates = rates.clone();
+    }
+
+    static int index(Currency baseCurrency, Currency targetCurrency) {
+        return baseCurrency.ordinal() * CURRENCY_COUNT + targetCurrency.ordinal();
+    }
+
+    static BigDecimal[] emptyRates() {
+        return new BigDecimal[CURRENCY_COUNT * CURRENCY_COUNT];
+    }
+
+    BigDecimal rate(Currency baseCurrency, Currency targetCurrency) {
+        return rates[index(baseCurrency, targetCurrency)];
+    }
+}
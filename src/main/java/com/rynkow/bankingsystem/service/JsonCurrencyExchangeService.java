@@ -5,52 +5,147 @@ import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
 
-import java.io.FileReader;
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.Reader;
 import java.math.BigDecimal;
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 
-public class JsonCurrencyExchangeService implements CurrencyExchangeService {
+/**
+ * Exchange rates read from a JSON file. The rates can be reloaded while the service is in use, see reload and watch:
+ * a new immutable table is parsed and published with a single volatile write, so exchanges never block and never see a half-updated table.
+ */
+public class JsonCurrencyExchangeService implements CurrencyExchangeService, Closeable {
     private final static String EXCHANGE_RATE_FILE_PATH = "src/main/resources/exchangeRates.json";
     private static JsonCurrencyExchangeService instance;
-    private final Map<Currency, Map<Currency, BigDecimal>> exchangeRates;
+    private final Path exchangeRateFile;
+    private volatile ExchangeRateTable exchangeRates;
+    private WatchService watchService;
+    // reloads of the watcher that failed, and the last failure, written by the watcher thread
+    private volatile long failedReloads;
+    private volatile Exception lastReloadFailure;
 
-    private JsonCurrencyExchangeService() throws IOException, ParseException {
-        exchangeRates = new HashMap<>();
-        exchangeRates.put(Currency.PLN, new HashMap<>());
-        exchangeRates.put(Currency.EUR, new HashMap<>());
-        exchangeRates.put(Currency.USD, new HashMap<>());
-
-        JSONParser jsonParser = new JSONParser();
-        try (FileReader reader = new FileReader(EXCHANGE_RATE_FILE_PATH)) {
-            JSONObject jsonExchangeRates = (JSONObject) jsonParser.parse(reader);
-            for (Currency currency : Currency.values())
-                readCurrencyExchangeRates(currency, jsonExchangeRates);
-        }
+    public JsonCurrencyExchangeService(Path exchangeRateFile) throws IOException, ParseException {
+        this.exchangeRateFile = exchangeRateFile;
+        this.exchangeRates = readExchangeRates(1);
     }
 
-    public static JsonCurrencyExchangeService getInstance() throws IOException, ParseException {
+    public static synchronized JsonCurrencyExchangeService getInstance() throws IOException, ParseException {
         if (instance == null)
-            instance = new JsonCurrencyExchangeService();
+            instance = new JsonCurrencyExchangeService(Path.of(EXCHANGE_RATE_FILE_PATH));
 
         return instance;
     }
 
-    private void readCurrencyExchangeRates(Currency baseCurrency, JSONObject jsonExchangeRates) {
+    /**
+     * Reads the rate file again and publishes it as the next rate version.
+     * If the file cannot be read or is incomplete, the current rates stay in use and the exception is thrown.
+     */
+    public synchronized void reload() throws IOException, ParseException, IllegalArgumentException {
+        exchangeRates = readExchangeRates(exchangeRates.version + 1);
+    }
+
+    /**
+     * Reloads the rates whenever the rate file is written or replaced, on a daemon thread until close.
+     * Failed reloads (e.g. a partially written file) keep the previous rates, see getFailedReloads and getLastReloadFailure.
+     */
+    public synchronized void watch() throws IOException {
+        if (watchService != null)
+            return;
+
+        Path directory = exchangeRateFile.toAbsolutePath().getParent();
+        watchService = directory.getFileSystem().newWatchService();
+        directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        WatchService service = watchService;
+        Thread watcher = new Thread(() -> watchRateFile(service), "exchange-rates-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    private void watchRateFile(WatchService service) {
+        try {
+            while (true) {
+                WatchKey key = service.take();
+                boolean changed = false;
+                for (WatchEvent<?> event : key.pollEvents())
+                    if (exchangeRateFile.getFileName().equals(event.context()))
+                        changed = true;
+                key.reset();
+                if (changed) {
+                    try {
+                        reload();
+                    } catch (IOException | ParseException | RuntimeException e) {
+                        lastReloadFailure = e;
+                        failedReloads++;
+                    }
+                }
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            // closed, stop watching
+        }
+    }
+
+    public long getRateVersion() {
+        return exchangeRates.version;
+    }
+
+    public long getFailedReloads() {
+        return failedReloads;
+    }
+
+    // null if no reload of the watcher failed
+    public Exception getLastReloadFailure() {
+        return lastReloadFailure;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (watchService != null) {
+            watchService.close();
+            watchService = null;
+        }
+    }
+
+    private ExchangeRateTable readExchangeRates(long version) throws IOException, ParseException, IllegalArgumentException {
+        BigDecimal[] rates = ExchangeRateTable.emptyRates();
+        JSONParser jsonParser = new JSONParser();
+        try (Reader reader = Files.newBufferedReader(exchangeRateFile)) {
+            JSONObject jsonExchangeRates = (JSONObject) jsonParser.parse(reader);
+            for (Currency currency : Currency.values())
+                readCurrencyExchangeRates(currency, jsonExchangeRates, rates);
+        }
+        return new ExchangeRateTable(version, rates);
+    }
+
+    private void readCurrencyExchangeRates(Currency baseCurrency, JSONObject jsonExchangeRates, BigDecimal[] rates) throws IllegalArgumentException {
         JSONObject currencyExchangeRates = (JSONObject) jsonExchangeRates.get(baseCurrency.name());
         for (Currency targetCurrency : Currency.values()) {
             if (baseCurrency.equals(targetCurrency)) continue;
-            BigDecimal exchangeRate = BigDecimal.valueOf((double) currencyExchangeRates.get(targetCurrency.name()));
-            exchangeRates.get(baseCurrency).put(targetCurrency, exchangeRate);
+            Object exchangeRate = currencyExchangeRates == null ? null : currencyExchangeRates.get(targetCurrency.name());
+            if (!(exchangeRate instanceof Number) || ((Number) exchangeRate).doubleValue() <= 0)
+                throw new IllegalArgumentException("missing or invalid exchange rate " + baseCurrency + " -> " + targetCurrency);
+            rates[ExchangeRateTable.index(baseCurrency, targetCurrency)] = BigDecimal.valueOf(((Number) exchangeRate).doubleValue());
         }
     }
 
     @Override
     public BigDecimal exchange(Currency baseCurrency, Currency targetCurrency, BigDecimal amount) {
+        return quote(baseCurrency, targetCurrency, amount).amount;
+    }
+
+    @Override
+    public ExchangeQuote quote(Currency baseCurrency, Currency targetCurrency, BigDecimal amount) {
         if (baseCurrency.equals(targetCurrency))
             throw new IllegalArgumentException("target currency cannot be the same as base currency");
 
-        return amount.multiply(exchangeRates.get(baseCurrency).get(targetCurrency));
+        // read once, the rate and its version come from the same table
+        ExchangeRateTable table = exchangeRates;
+        return new ExchangeQuote(amount.multiply(table.rate(baseCurrency, targetCurrency)), table.version);
     }
 }
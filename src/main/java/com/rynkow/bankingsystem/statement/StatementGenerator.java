@@ -0,0 +1,223 @@
+package com.rynkow.bankingsystem.statement;
+
+import com.rynkow.bankingsystem.model.Account;
+import com.rynkow.bankingsystem.model.Currency;
+import com.rynkow.bankingsystem.model.Money;
+import com.rynkow.bankingsystem.model.Transaction;
+import com.rynkow.bankingsystem.repository.AccountRepository;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Writes the statements of all users for a date window: per user and currency the opening balance, the closing balance
+ * and the transactions within the window. Users are taken from the accounts of the first currency - every user has an account
+ * in each currency - and split between fork/join tasks; every part of PART_USERS users is streamed to its own file
+ * statements-(part number).txt, written under a temporary name and renamed once complete, so only one user's statement per task
+ * is in memory at a time. The repository has to find a user's accounts without a scan, as HashAccountRepository does.
+ * <p>
+ * Balances are computed back from the current balance and the transactions since the window start, read together under the
+ * account lock, so they are right even for histories which do not go back to the account's first transaction, e.g. after restoring
+ * a snapshot. Operations may run meanwhile, each account's statement is consistent in itself.
+ * <pre>
+ * USER userId
+ * ACCOUNT currency opening openingBalance closing closingBalance transactions count
+ * date type balanceChange balance
+ * </pre>
+ * Dates are ISO-8601 instants, amounts plain decimals.
+ */
+public class StatementGenerator {
+    public static final int PART_USERS = 16_384;
+    private static final String PART_PREFIX = "statements-";
+    private static final String PART_SUFFIX = ".txt";
+    private static final int WRITE_BUFFER_SIZE = 1 << 16;
+    private static final Currency[] CURRENCIES = Currency.values();
+
+    private final AccountRepository accountRepository;
+    private final ForkJoinPool pool;
+
+    public StatementGenerator(AccountRepository accountRepository) {
+        this(accountRepository, ForkJoinPool.commonPool());
+    }
+
+    public StatementGenerator(AccountRepository accountRepository, ForkJoinPool pool) {
+        this.accountRepository = accountRepository;
+        this.pool = pool;
+    }
+
+    // statements of the given day in the given time zone
+    public Summary generate(LocalDate day, ZoneId zone, Path directory) throws IOException {
+        Date start = Date.from(day.atStartOfDay(zone).toInstant());
+        Date end = Date.from(day.plusDays(1).atStartOfDay(zone).toInstant().minusMillis(1));
+        return generate(start, end, directory);
+    }
+
+    /**
+     * @param start first instant of the window
+     * @param end   last instant of the window, inclusive
+     */
+    public Summary generate(Date start, Date end, Path directory) throws IOException {
+        if (end.before(start))
+            throw new IllegalArgumentException("window ends before it starts");
+
+        Files.createDirectories(directory);
+        List<Account> users = accountRepository.getAccountsByCurrency(CURRENCIES[0]);
+        Counters counters = new Counters();
+        try {
+            pool.invoke(new PartsTask(users, 0, (users.size() + PART_USERS - 1) / PART_USERS, start, end, directory, counters));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return new Summary(counters.users.sum(), counters.transactions.sum(), (int) counters.parts.sum());
+    }
+
+    public static class Summary {
+        public final long users;
+        public final long transactions;
+        public final int files;
+
+        Summary(long users, long transactions, int files) {
+            this.users = users;
+            this.transactions = transactions;
+            this.files = files;
+        }
+
+        @Override
+        public String toString() {
+            return users + " users, " + transactions + " transactions, " + files + " files";
+        }
+    }
+
+    private static final class Counters {
+        final LongAdder users = new LongAdder();
+        final LongAdder transactions = new LongAdder();
+        final LongAdder parts = new LongAdder();
+    }
+
+    // writes parts from (inclusive) to to (exclusive), splitting the range in halves down to single parts
+    private final class PartsTask extends RecursiveAction {
+        private final List<Account> users;
+        private final int from;
+        private final int to;
+        private final Date start;
+        private final Date end;
+        private final Path directory;
+        private final Counters counters;
+
+        PartsTask(List<Account> users, int from, int to, Date start, Date end, Path directory, Counters counters) {
+            this.users = users;
+            this.from = from;
+            this.to = to;
+            this.start = start;
+            this.end = end;
+            this.directory = directory;
+            this.counters = counters;
+        }
+
+        @Override
+        protected void compute() {
+            if (from >= to)
+                return;
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new PartsTask(users, from, middle, start, end, directory, counters),
+                        new PartsTask(users, middle, to, start, end, directory, counters));
+                return;
+            }
+            try {
+                writePart(from);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void writePart(int part) throws IOException {
+            Path file = directory.resolve(PART_PREFIX + part + PART_SUFFIX);
+            Path temporary = directory.resolve(PART_PREFIX + part + PART_SUFFIX + ".tmp");
+            int last = Math.min(users.size(), (part + 1) * PART_USERS);
+            long transactions = 0;
+            try (Writer out = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(temporary), StandardCharsets.UTF_8), WRITE_BUFFER_SIZE)) {
+                for (int i = part * PART_USERS; i < last; i++)
+                    transactions += writeStatement(out, users.get(i).getUserId());
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            counters.users.add(last - part * PART_USERS);
+            counters.transactions.add(transactions);
+            counters.parts.increment();
+        }
+
+        // returns the number of transactions written
+        private long writeStatement(Writer out, String userId) throws IOException {
+            out.write("USER ");
+            out.write(userId);
+            out.write('\n');
+            long transactions = 0;
+            for (Currency currency : CURRENCIES) {
+                Account account = accountRepository.getAccountByUserIdAndCurrency(userId, currency).orElse(null);
+                if (account == null)
+                    continue;
+                long balance;
+                List<Transaction> sinceStart;
+                account.getLock().lock();
+                try {
+                    balance = account.getBalanceUnits();
+                    sinceStart = account.getTransactionHistory(start, null, null);
+                } finally {
+                    account.getLock().unlock();
+                }
+                // back from the current balance: closing undoes what came after the window, opening also what came within
+                long closing = balance;
+                int inWindow = 0;
+                for (Transaction transaction : sinceStart) {
+                    if (transaction.transactionDate.after(end))
+                        closing -= Money.toUnits(transaction.balanceChange);
+                    else
+                        inWindow++;
+                }
+                long opening = closing;
+                for (int i = 0; i < inWindow; i++)
+                    opening -= Money.toUnits(sinceStart.get(i).balanceChange);
+
+                out.write("ACCOUNT ");
+                out.write(currency.name());
+                out.write(" opening ");
+                out.write(Money.toBigDecimal(opening).toPlainString());
+                out.write(" closing ");
+                out.write(Money.toBigDecimal(closing).toPlainString());
+                out.write(" transactions ");
+                out.write(Integer.toString(inWindow));
+                out.write('\n');
+                for (int i = 0; i < inWindow; i++) {
+                    Transaction transaction = sinceStart.get(i);
+                    BigDecimal balanceAfter = transaction.initialBalance.add(transaction.balanceChange);
+                    out.write(Instant.ofEpochMilli(transaction.transactionDate.getTime()).toString());
+                    out.write(' ');
+                    out.write(transaction.type.name());
+                    out.write(' ');
+                    out.write(transaction.balanceChange.toPlainString());
+                    out.write(' ');
+                    out.write(balanceAfter.toPlainString());
+                    out.write('\n');
+                }
+                transactions += inWindow;
+            }
+            return transactions;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.rynkow.bankingsystem;
+
+import com.rynkow.bankingsystem.model.Currency;
+import com.rynkow.bankingsystem.repository.HashAccountRepository;
+import com.rynkow.bankingsystem.service.JsonCurrencyExchangeService;
+import org.json.simple.parser.ParseException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BankingSystemConcurrencyTest {
+    private static final int USERS = 50;
+    private static final int THREADS = 16;
+    private static final int OPERATIONS_PER_THREAD = 20_000;
+    private static final BigDecimal INITIAL_BALANCE = BigDecimal.valueOf(1000);
+
+    private BankingSystem bankingSystem;
+
+    @BeforeEach
+    void CreateBankingSystem() throws IOException, ParseException {
+        bankingSystem = new BankingSystem(new HashAccountRepository(), JsonCurrencyExchangeService.getInstance());
+        for (int i = 0; i < USERS; i++) {
+            bankingSystem.newUser("user" + i);
+            for (Currency currency : Currency.values())
+                bankingSystem.depositFunds(currency, INITIAL_BALANCE, "user" + i);
+        }
+    }
+
+    @Test
+    void ShouldConserveBalancesUnderConcurrentTransfers() {
+        // when many threads send random amounts between random users
+        assertTimeoutPreemptively(Duration.ofMinutes(1), () -> runConcurrently(seed -> {
+            SplittableRandom random = new SplittableRandom(seed);
+            for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+                Currency currency = Currency.values()[random.nextInt(Currency.values().length)];
+                BigDecimal amount = BigDecimal.valueOf(random.nextInt(1, 300));
+                try {
+                    bankingSystem.sendFunds(currency, amount, "user" + random.nextInt(USERS), "user" + random.nextInt(USERS));
+                } catch (IllegalStateException ignored) {
+                    // insufficient balance is expected
+                }
+            }
+        }));
+
+        // then the sum of balances in every currency is unchanged and no balance is negative
+        for (Currency currency : Currency.values()) {
+            BigDecimal total = BigDecimal.ZERO;
+            for (int i = 0; i < USERS; i++) {
+                BigDecimal balance = bankingSystem.getAccountBalance("user" + i).get(currency);
+                assertTrue(balance.signum() >= 0);
+                total = total.add(balance);
+            }
+            assertEquals(0, total.compareTo(INITIAL_BALANCE.multiply(BigDecimal.valueOf(USERS))));
+        }
+    }
+
+    @Test
+    void ShouldNotDeadlockOnOpposingTransfers() {
+        // when two groups of threads keep sending funds in opposite directions, including currency exchanges
+        // then all of them finish
+        assertTimeoutPreemptively(Duration.ofMinutes(1), () -> runConcurrently(seed -> {
+            for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+                try {
+                    if (seed % 2 == 0) {
+                        bankingSystem.sendFunds(Currency.PLN, BigDecimal.ONE, "user0", "user1");
+                        bankingSystem.exchangeCurrency(Currency.PLN, Currency.EUR, BigDecimal.ONE, "user0");
+                    } else {
+                        bankingSystem.sendFunds(Currency.PLN, BigDecimal.ONE, "user1", "user0");
+                        bankingSystem.exchangeCurrency(Currency.EUR, Currency.PLN, BigDecimal.ONE, "user0");
+                    }
+                } catch (IllegalStateException ignored) {
+                    // insufficient balance is expected
+                }
+            }
+        }));
+    }
+
+    private void runConcurrently(ThreadTask task) throws InterruptedException, ExecutionException {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < THREADS; thread++) {
+                long seed = thread;
+                futures.add(executor.submit(() -> task.run(seed)));
+            }
+            for (Future<?> future : futures)
+                future.get();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private interface ThreadTask {
+        void run(long seed);
+    }
+}
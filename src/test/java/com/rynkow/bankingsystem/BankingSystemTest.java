@@ -1,8 +1,16 @@
 package com.rynkow.bankingsystem;
 
+import com.rynkow.bankingsystem.journal.Mutation;
+import com.rynkow.bankingsystem.journal.MutationLog;
+import com.rynkow.bankingsystem.model.BatchMode;
 import com.rynkow.bankingsystem.model.Currency;
+import com.rynkow.bankingsystem.model.HistoryOrder;
+import com.rynkow.bankingsystem.model.HistoryPage;
+import com.rynkow.bankingsystem.model.OperationStatus;
 import com.rynkow.bankingsystem.model.Transaction;
 import com.rynkow.bankingsystem.model.TransactionType;
+import com.rynkow.bankingsystem.model.TransferInstruction;
+import com.rynkow.bankingsystem.repository.HashAccountRepository;
 import com.rynkow.bankingsystem.repository.ListAccountRepository;
 import com.rynkow.bankingsystem.service.JsonCurrencyExchangeService;
 import org.json.simple.parser.ParseException;
@@ -10,12 +18,16 @@ import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class BankingSystemTest {
     private static BankingSystem bankingSystem;
@@ -136,6 +148,130 @@ public class BankingSystemTest {
         assertEquals(0, bankingSystem.getAccountBalance("receiver2").get(Currency.PLN).compareTo(BigDecimal.valueOf(0)));
     }
 
+    @Test
+    void ShouldReturnStatusOfRejectedOperations() {
+        // given two users, one holding 100 PLN
+        bankingSystem.newUser("trySender");
+        bankingSystem.newUser("tryReceiver");
+        bankingSystem.depositFunds(Currency.PLN, BigDecimal.valueOf(100), "trySender");
+
+        // when operations are rejected
+        // then they return why instead of throwing, and change nothing
+        assertEquals(OperationStatus.INSUFFICIENT_FUNDS, bankingSystem.trySendFunds(Currency.PLN, BigDecimal.valueOf(500), "trySender", "tryReceiver"));
+        assertEquals(OperationStatus.RECEIVER_NOT_FOUND, bankingSystem.trySendFunds(Currency.PLN, BigDecimal.ONE, "trySender", "tryNobody"));
+        assertEquals(OperationStatus.INVALID_DEPOSIT_AMOUNT, bankingSystem.tryDepositFunds(Currency.PLN, BigDecimal.ZERO, "trySender"));
+        assertEquals(OperationStatus.ACCOUNT_NOT_FOUND, bankingSystem.tryWithdrawFunds(Currency.PLN, BigDecimal.ONE, "tryNobody"));
+        assertEquals(OperationStatus.INSUFFICIENT_FUNDS, bankingSystem.tryExchangeCurrency(Currency.EUR, Currency.PLN, BigDecimal.ONE, "trySender"));
+        assertEquals(0, BigDecimal.valueOf(100).compareTo(bankingSystem.getAccountBalance("trySender").get(Currency.PLN)));
+
+        // and accepted operations are applied
+        assertEquals(OperationStatus.APPLIED, bankingSystem.trySendFunds(Currency.PLN, BigDecimal.valueOf(40), "trySender", "tryReceiver"));
+        assertEquals(0, BigDecimal.valueOf(40).compareTo(bankingSystem.getAccountBalance("tryReceiver").get(Currency.PLN)));
+    }
+
+    @Test
+    void ShouldNotDebitSenderWhenReceiverBalanceWouldOverflow() {
+        // given a receiver holding nearly the largest balance
+        bankingSystem.newUser("overflowSender");
+        bankingSystem.newUser("overflowReceiver");
+        bankingSystem.depositFunds(Currency.PLN, BigDecimal.TEN, "overflowSender");
+        bankingSystem.depositFunds(Currency.PLN, new BigDecimal("922337203685477.5807"), "overflowReceiver");
+
+        // when a transfer would overflow the receiver's balance
+        IllegalStateException e = assertThrows(IllegalStateException.class,
+                () -> bankingSystem.sendFunds(Currency.PLN, BigDecimal.ONE, "overflowSender", "overflowReceiver"));
+
+        // then it is rejected before the sender is debited
+        assertEquals("balance overflow", e.getMessage());
+        assertEquals(0, BigDecimal.TEN.compareTo(bankingSystem.getAccountBalance("overflowSender").get(Currency.PLN)));
+    }
+
+    @Test
+    void ShouldApplyBatchTransfers() {
+        // given three users
+        bankingSystem.newUser("batchSender1");
+        bankingSystem.newUser("batchReceiver1");
+        bankingSystem.newUser("batchReceiver2");
+        bankingSystem.depositFunds(Currency.PLN, BigDecimal.valueOf(100), "batchSender1");
+
+        // when sending a batch of transfers
+        List<OperationStatus> results = bankingSystem.sendFundsBatch(List.of(
+                new TransferInstruction(Currency.PLN, BigDecimal.valueOf(30), "batchSender1", "batchReceiver1"),
+                new TransferInstruction(Currency.PLN, BigDecimal.valueOf(50), "batchSender1", "batchReceiver2"),
+                new TransferInstruction(Currency.PLN, BigDecimal.valueOf(10), "batchReceiver2", "batchReceiver1")
+        ), BatchMode.ALL_OR_NOTHING);
+
+        // then all transfers are applied
+        assertEquals(List.of(OperationStatus.APPLIED, OperationStatus.APPLIED, OperationStatus.APPLIED), results);
+        assertEquals(0, bankingSystem.getAccountBalance("batchSender1").get(Currency.PLN).compareTo(BigDecimal.valueOf(100 - 30 - 50)));
+        assertEquals(0, bankingSystem.getAccountBalance("batchReceiver1").get(Currency.PLN).compareTo(BigDecimal.valueOf(30 + 10)));
+        assertEquals(0, bankingSystem.getAccountBalance("batchReceiver2").get(Currency.PLN).compareTo(BigDecimal.valueOf(50 - 10)));
+    }
+
+    @Test
+    void ShouldReportFailedTransfersInBestEffortBatch() {
+        // given two users
+        bankingSystem.newUser("batchSender2");
+        bankingSystem.newUser("batchReceiver3");
+        bankingSystem.depositFunds(Currency.EUR, BigDecimal.valueOf(100), "batchSender2");
+
+        // when sending a best effort batch containing invalid transfers
+        List<OperationStatus> results = bankingSystem.sendFundsBatch(List.of(
+                new TransferInstruction(Currency.EUR, BigDecimal.valueOf(60), "batchSender2", "batchReceiver3"),
+                new TransferInstruction(Currency.EUR, BigDecimal.valueOf(60), "batchSender2", "batchReceiver3"),
+                new TransferInstruction(Currency.EUR, BigDecimal.valueOf(5), "batchSender2", "f#4nonexistent"),
+                new TransferInstruction(Currency.EUR, BigDecimal.valueOf(-5), "batchSender2", "batchReceiver3"),
+                new TransferInstruction(Currency.EUR, BigDecimal.valueOf(40), "batchSender2", "batchReceiver3")
+        ), BatchMode.BEST_EFFORT);
+
+        // then valid transfers are applied and failed ones are reported
+        assertEquals(List.of(OperationStatus.APPLIED, OperationStatus.INSUFFICIENT_FUNDS, OperationStatus.RECEIVER_NOT_FOUND,
+                OperationStatus.INVALID_WITHDRAW_AMOUNT, OperationStatus.APPLIED), results);
+        assertEquals(0, bankingSystem.getAccountBalance("batchSender2").get(Currency.EUR).compareTo(BigDecimal.ZERO));
+        assertEquals(0, bankingSystem.getAccountBalance("batchReceiver3").get(Currency.EUR).compareTo(BigDecimal.valueOf(100)));
+    }
+
+    @Test
+    void ShouldNotApplyAnyTransferOfFailedAllOrNothingBatch() {
+        // given two users
+        bankingSystem.newUser("batchSender3");
+        bankingSystem.newUser("batchReceiver4");
+        bankingSystem.depositFunds(Currency.USD, BigDecimal.valueOf(100), "batchSender3");
+
+        // when one transfer of an all-or-nothing batch cannot be applied
+        List<OperationStatus> results = bankingSystem.sendFundsBatch(List.of(
+                new TransferInstruction(Currency.USD, BigDecimal.valueOf(60), "batchSender3", "batchReceiver4"),
+                new TransferInstruction(Currency.USD, BigDecimal.valueOf(60), "batchSender3", "batchReceiver4")
+        ), BatchMode.ALL_OR_NOTHING);
+
+        // then no transfer is applied
+        assertEquals(List.of(OperationStatus.NOT_APPLIED, OperationStatus.INSUFFICIENT_FUNDS), results);
+        assertEquals(0, bankingSystem.getAccountBalance("batchSender3").get(Currency.USD).compareTo(BigDecimal.valueOf(100)));
+        assertEquals(0, bankingSystem.getAccountBalance("batchReceiver4").get(Currency.USD).compareTo(BigDecimal.ZERO));
+    }
+
+    @Test
+    void ShouldReportReceiverOverflowInBatches() {
+        // given a receiver close to the largest balance
+        bankingSystem.newUser("batchSender4");
+        bankingSystem.newUser("batchReceiver5");
+        bankingSystem.depositFunds(Currency.PLN, BigDecimal.TEN, "batchSender4");
+        bankingSystem.depositFunds(Currency.PLN, new BigDecimal("922337203685477.5807"), "batchReceiver5");
+        List<TransferInstruction> transfers = List.of(
+                new TransferInstruction(Currency.PLN, BigDecimal.ONE, "batchSender4", "batchReceiver5"),
+                new TransferInstruction(Currency.PLN, BigDecimal.ONE, "batchReceiver5", "batchSender4"));
+
+        // when the first transfer of each batch would overflow the receiver's balance
+        List<OperationStatus> allOrNothing = bankingSystem.sendFundsBatch(transfers, BatchMode.ALL_OR_NOTHING);
+        List<OperationStatus> bestEffort = bankingSystem.sendFundsBatch(transfers, BatchMode.BEST_EFFORT);
+
+        // then it is reported and no money is lost
+        assertEquals(List.of(OperationStatus.BALANCE_OVERFLOW, OperationStatus.NOT_APPLIED), allOrNothing);
+        assertEquals(List.of(OperationStatus.BALANCE_OVERFLOW, OperationStatus.APPLIED), bestEffort);
+        assertEquals(0, bankingSystem.getAccountBalance("batchSender4").get(Currency.PLN).compareTo(BigDecimal.valueOf(11)));
+        assertEquals(0, bankingSystem.getAccountBalance("batchReceiver5").get(Currency.PLN).compareTo(new BigDecimal("922337203685476.5807")));
+    }
+
     @Test
     void ShouldNotSendNonPositiveAmount() {
         // given two users
@@ -252,4 +388,87 @@ public class BankingSystemTest {
             assertEquals(TransactionType.WITHDRAW, transaction.type);
         }
     }
+
+    @Test
+    void ShouldPageThroughHistoryInBothOrders() {
+        // given user with activity in every currency, many transactions sharing a date
+        bankingSystem.newUser("historyPages");
+        for (int i = 0; i < 20; i++)
+            for (Currency currency : Currency.values())
+                bankingSystem.depositFunds(currency, BigDecimal.valueOf(i + 1), "historyPages");
+        List<Transaction> history = bankingSystem.getAccountHistory("historyPages", null, null, null, null);
+
+        for (HistoryOrder order : HistoryOrder.values()) {
+            // when reading the history in pages
+            List<Transaction> paged = new ArrayList<>();
+            String continuationToken = null;
+            do {
+                HistoryPage page = bankingSystem.getAccountHistoryPage("historyPages", null, null, null, null, order, 7, continuationToken);
+                assertTrue(page.transactions.size() <= 7);
+                paged.addAll(page.transactions);
+                continuationToken = page.continuationToken;
+            } while (continuationToken != null);
+            List<Transaction> streamed = bankingSystem.streamAccountHistory("historyPages", null, null, null, null, order).toList();
+
+            // then every transaction is returned once in the requested order
+            List<Transaction> expected = new ArrayList<>(history);
+            if (order == HistoryOrder.DESCENDING)
+                Collections.reverse(expected);
+            assertEquals(60, paged.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i), paged.get(i));
+                assertEquals(expected.get(i), streamed.get(i));
+            }
+        }
+    }
+
+    @Test
+    void ShouldRejectInvalidContinuationToken() {
+        // given user with history
+        bankingSystem.newUser("historyToken");
+
+        // when requesting a page with a malformed token, then it is rejected
+        assertThrows(IllegalArgumentException.class, () -> bankingSystem.getAccountHistoryPage("historyToken", null, null, null, null, HistoryOrder.ASCENDING, 10, "not a token"));
+        assertThrows(IllegalArgumentException.class, () -> bankingSystem.getAccountHistoryPage("historyToken", null, null, null, null, HistoryOrder.ASCENDING, 0, null));
+    }
+
+    @Test
+    void ShouldLeaveStateUnchangedWhenJournalFails() throws IOException, ParseException {
+        // given a banking system whose journal fails once the users hold funds
+        boolean[] failing = {false};
+        MutationLog journal = new MutationLog() {
+            @Override
+            public long append(Mutation mutation) {
+                if (failing[0])
+                    throw new UncheckedIOException(new IOException("disk full"));
+                return 1;
+            }
+
+            @Override
+            public void awaitDurable(long sequence) {
+            }
+        };
+        BankingSystem failingSystem = new BankingSystem(new HashAccountRepository(), JsonCurrencyExchangeService.getInstance(), journal);
+        failingSystem.newUser("journalSender");
+        failingSystem.newUser("journalReceiver");
+        failingSystem.depositFunds(Currency.PLN, BigDecimal.valueOf(100), "journalSender");
+        failing[0] = true;
+
+        // when mutations cannot be journaled
+        for (int i = 0; i < 3; i++)
+            assertThrows(UncheckedIOException.class, () -> failingSystem.depositFunds(Currency.PLN, BigDecimal.TEN, "journalSender"));
+        assertThrows(UncheckedIOException.class, () -> failingSystem.withdrawFunds(Currency.PLN, BigDecimal.TEN, "journalSender"));
+        assertThrows(UncheckedIOException.class, () -> failingSystem.sendFunds(Currency.PLN, BigDecimal.TEN, "journalSender", "journalReceiver"));
+        assertThrows(UncheckedIOException.class, () -> failingSystem.exchangeCurrency(Currency.PLN, Currency.EUR, BigDecimal.TEN, "journalSender"));
+        assertThrows(UncheckedIOException.class, () -> failingSystem.newUser("journalLate"));
+
+        // then balances, histories and totals are as the journal has them
+        assertEquals(0, BigDecimal.valueOf(100).compareTo(failingSystem.getAccountBalance("journalSender").get(Currency.PLN)));
+        assertEquals(0, failingSystem.getAccountBalance("journalSender").get(Currency.EUR).signum());
+        assertEquals(0, failingSystem.getAccountBalance("journalReceiver").get(Currency.PLN).signum());
+        assertEquals(1, failingSystem.getAccountHistory("journalSender", null, null, null, null).size());
+        assertTrue(failingSystem.getAccountHistory("journalReceiver", null, null, null, null).isEmpty());
+        assertThrows(RuntimeException.class, () -> failingSystem.getAccountBalance("journalLate"));
+        failingSystem.checkTotals();
+    }
 }
@@ -0,0 +1,158 @@
+package com.rynkow.bankingsystem;
+
+import com.rynkow.bankingsystem.model.Currency;
+import com.rynkow.bankingsystem.model.Transaction;
+import com.rynkow.bankingsystem.model.TransactionType;
+import com.rynkow.bankingsystem.service.JsonCurrencyExchangeService;
+import org.json.simple.parser.ParseException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ShardedBankingSystemTest {
+    private static final int SHARDS = 4;
+    private static final int USERS = 40;
+    private static final int THREADS = 8;
+    private static final int OPERATIONS_PER_THREAD = 5000;
+    private static final BigDecimal INITIAL_BALANCE = BigDecimal.valueOf(1000);
+
+    private ShardedBankingSystem bankingSystem;
+
+    @BeforeEach
+    void CreateBankingSystem() throws IOException, ParseException {
+        bankingSystem = new ShardedBankingSystem(SHARDS, JsonCurrencyExchangeService.getInstance());
+        for (int i = 0; i < USERS; i++) {
+            bankingSystem.newUser("user" + i);
+            for (Currency currency : Currency.values())
+                bankingSystem.depositFunds(currency, INITIAL_BALANCE, "user" + i);
+        }
+    }
+
+    @AfterEach
+    void CloseBankingSystem() {
+        bankingSystem.close();
+    }
+
+    @Test
+    void ShouldMoveFundsWithinAndBetweenShards() {
+        // when every user sends to every other user, on the same shard or not
+        for (int i = 0; i < USERS; i++)
+            for (int j = 0; j < USERS; j++)
+                if (i != j)
+                    bankingSystem.sendFunds(Currency.PLN, BigDecimal.ONE, "user" + i, "user" + j);
+        bankingSystem.exchangeCurrency(Currency.PLN, Currency.EUR, BigDecimal.TEN, "user0");
+        bankingSystem.withdrawFunds(Currency.USD, BigDecimal.TEN, "user1");
+
+        // then balances and histories reflect all of it
+        assertEquals(0, BigDecimal.valueOf(990).compareTo(bankingSystem.getAccountBalance("user0").get(Currency.PLN)));
+        assertTrue(bankingSystem.getAccountBalance("user0").get(Currency.EUR).compareTo(INITIAL_BALANCE) > 0);
+        assertEquals(0, BigDecimal.valueOf(990).compareTo(bankingSystem.getAccountBalance("user1").get(Currency.USD)));
+        List<Transaction> history = bankingSystem.getAccountHistory("user2", Currency.PLN, null, null, null);
+        assertEquals(1 + 2 * (USERS - 1), history.size());
+        assertEquals(USERS - 1, bankingSystem.getAccountHistory("user2", null, null, null, TransactionType.RECEIVE).size());
+    }
+
+    @Test
+    void ShouldFailAsBankingSystemDoes() {
+        // when operations are invalid
+        // then they fail with the messages of BankingSystem and change nothing
+        assertEquals("duplicated userId", assertThrows(IllegalArgumentException.class, () -> bankingSystem.newUser("user0")).getMessage());
+        assertEquals("insufficient Balance", assertThrows(IllegalStateException.class,
+                () -> bankingSystem.sendFunds(Currency.PLN, BigDecimal.valueOf(5000), "user0", "user1")).getMessage());
+        assertEquals("sender account not found", assertThrows(RuntimeException.class,
+                () -> bankingSystem.sendFunds(Currency.PLN, BigDecimal.ONE, "unknown", "user1")).getMessage());
+        for (int i = 0; i < USERS; i++) {
+            String senderId = "user" + i;
+            assertEquals("receiver account not found", assertThrows(RuntimeException.class,
+                    () -> bankingSystem.sendFunds(Currency.PLN, BigDecimal.ONE, senderId, "unknown")).getMessage());
+        }
+        assertEquals("deposit amount not positive", assertThrows(IllegalArgumentException.class,
+                () -> bankingSystem.depositFunds(Currency.PLN, BigDecimal.ZERO, "user0")).getMessage());
+        assertEquals("user account not found", assertThrows(RuntimeException.class, () -> bankingSystem.getAccountBalance("unknown")).getMessage());
+        for (int i = 0; i < USERS; i++)
+            assertEquals(0, INITIAL_BALANCE.compareTo(bankingSystem.getAccountBalance("user" + i).get(Currency.PLN)));
+    }
+
+    @Test
+    void ShouldRecordRefundOfTransferThatCouldNotBeCredited() {
+        // given a receiver on another shard than the sender, holding nearly the largest balance
+        String receiverId = "user1";
+        for (int i = 2; shardIndex(receiverId) == shardIndex("user0"); i++)
+            receiverId = "user" + i;
+        bankingSystem.depositFunds(Currency.PLN, new BigDecimal("922337203685477.5807").subtract(INITIAL_BALANCE), receiverId);
+
+        // when a transfer cannot be credited to the receiver
+        String receiver = receiverId;
+        assertEquals("balance overflow", assertThrows(IllegalStateException.class,
+                () -> bankingSystem.sendFunds(Currency.PLN, BigDecimal.ONE, "user0", receiver)).getMessage());
+
+        // then the sender gets the amount back as a refund, not as funds received
+        assertEquals(0, INITIAL_BALANCE.compareTo(bankingSystem.getAccountBalance("user0").get(Currency.PLN)));
+        List<Transaction> history = bankingSystem.getAccountHistory("user0", Currency.PLN, null, null, null);
+        assertEquals(List.of(TransactionType.DEPOSIT, TransactionType.SEND, TransactionType.REFUND),
+                history.stream().map(transaction -> transaction.type).toList());
+        assertTrue(bankingSystem.getAccountHistory("user0", null, null, null, TransactionType.RECEIVE).isEmpty());
+    }
+
+    @Test
+    void ShouldRejectOperationsAfterClose() {
+        // given a closed banking system
+        bankingSystem.close();
+
+        // when an operation is sent
+        // then it is rejected instead of waiting forever
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> assertEquals("sharded banking system closed",
+                assertThrows(IllegalStateException.class, () -> bankingSystem.getAccountBalance("user0")).getMessage()));
+    }
+
+    @Test
+    void ShouldConserveBalancesUnderConcurrentTransfers() {
+        // when many threads send random amounts between random users
+        assertTimeoutPreemptively(Duration.ofMinutes(1), () -> {
+            ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+            List<Future<?>> results = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                SplittableRandom random = new SplittableRandom(t);
+                results.add(executor.submit(() -> {
+                    for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+                        try {
+                            bankingSystem.sendFunds(Currency.USD, BigDecimal.valueOf(random.nextInt(1, 300)), "user" + random.nextInt(USERS), "user" + random.nextInt(USERS));
+                        } catch (IllegalStateException ignored) {
+                            // insufficient balance is expected
+                        }
+                    }
+                }));
+            }
+            for (Future<?> result : results)
+                result.get();
+            executor.shutdown();
+        });
+
+        // then the sum of balances is unchanged and no balance is negative
+        BigDecimal total = BigDecimal.ZERO;
+        for (int i = 0; i < USERS; i++) {
+            BigDecimal balance = bankingSystem.getAccountBalance("user" + i).get(Currency.USD);
+            assertTrue(balance.signum() >= 0);
+            total = total.add(balance);
+        }
+        assertEquals(0, INITIAL_BALANCE.multiply(BigDecimal.valueOf(USERS)).compareTo(total));
+    }
+
+    // the shard ShardedBankingSystem places a user on
+    private static int shardIndex(String userId) {
+        int hash = userId.hashCode();
+        return ((hash ^ (hash >>> 16)) & Integer.MAX_VALUE) % SHARDS;
+    }
+}
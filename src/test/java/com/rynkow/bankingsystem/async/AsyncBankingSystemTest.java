@@ -0,0 +1,128 @@
+package com.rynkow.bankingsystem.async;
+
+import com.rynkow.bankingsystem.BankingSystem;
+import com.rynkow.bankingsystem.ShardedBankingSystem;
+import com.rynkow.bankingsystem.model.Currency;
+import com.rynkow.bankingsystem.model.OperationStatus;
+import com.rynkow.bankingsystem.repository.HashAccountRepository;
+import com.rynkow.bankingsystem.service.JsonCurrencyExchangeService;
+import org.json.simple.parser.ParseException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AsyncBankingSystemTest {
+    private BankingSystem bankingSystem;
+
+    @BeforeEach
+    void CreateBankingSystem() throws IOException, ParseException {
+        bankingSystem = new BankingSystem(new HashAccountRepository(), JsonCurrencyExchangeService.getInstance());
+        bankingSystem.newUser("alice");
+        bankingSystem.newUser("bob");
+        bankingSystem.depositFunds(Currency.PLN, BigDecimal.valueOf(100), "alice");
+    }
+
+    @Test
+    void ShouldCompleteOperationsOnVirtualThreads() throws Exception {
+        // given the asynchronous facade with its default executor
+        try (AsyncBankingSystem async = new AsyncBankingSystem(bankingSystem)) {
+            // when funds are sent and the balance is read after it
+            CompletableFuture<Map<Currency, BigDecimal>> balance = async.sendFundsAsync(Currency.PLN, BigDecimal.valueOf(30), "alice", "bob")
+                    .thenCompose(done -> async.getAccountBalanceAsync("bob"));
+
+            // then the balance reflects the transfer and no operation is left in flight
+            assertEquals(0, BigDecimal.valueOf(30).compareTo(balance.get().get(Currency.PLN)));
+            assertEquals(0, async.getInFlight());
+        }
+    }
+
+    @Test
+    void ShouldFailWithTypedFailures() throws Exception {
+        // given the asynchronous facade
+        try (AsyncBankingSystem async = new AsyncBankingSystem(bankingSystem)) {
+            // when operations fail for different reasons
+            // then their futures tell why
+            assertEquals(Failure.INSUFFICIENT_FUNDS, failureOf(async.withdrawFundsAsync(Currency.PLN, BigDecimal.valueOf(500), "alice")));
+            assertEquals(Failure.UNKNOWN_ACCOUNT, failureOf(async.sendFundsAsync(Currency.PLN, BigDecimal.ONE, "alice", "carol")));
+            assertEquals(Failure.INVALID_AMOUNT, failureOf(async.depositFundsAsync(Currency.PLN, BigDecimal.valueOf(-1), "alice")));
+            assertEquals(Failure.DUPLICATED_USER, failureOf(async.newUserAsync("bob")));
+            assertEquals(Failure.INVALID_ARGUMENT, failureOf(async.exchangeCurrencyAsync(Currency.PLN, Currency.PLN, BigDecimal.ONE, "alice")));
+            assertEquals(Failure.INVALID_AMOUNT, failureOf(async.depositFundsAsync(Currency.PLN, new BigDecimal("0.00001"), "alice")));
+        }
+    }
+
+    @Test
+    void ShouldFailRejectedOperationsWithTheirStatus() throws Exception {
+        // given the asynchronous facade over banking systems with and without their own try methods
+        try (ShardedBankingSystem sharded = new ShardedBankingSystem(2, JsonCurrencyExchangeService.getInstance());
+             AsyncBankingSystem async = new AsyncBankingSystem(bankingSystem);
+             AsyncBankingSystem shardedAsync = new AsyncBankingSystem(sharded)) {
+            sharded.newUser("alice");
+
+            // when operations are rejected
+            ExecutionException rejected = assertThrows(ExecutionException.class,
+                    () -> async.withdrawFundsAsync(Currency.PLN, BigDecimal.valueOf(500), "alice").get());
+
+            // then the futures tell the failure of the status, the rejection of BankingSystem costing no exception
+            assertEquals(Failure.INSUFFICIENT_FUNDS, assertInstanceOf(BankingFailureException.class, rejected.getCause()).getFailure());
+            assertNull(rejected.getCause().getCause());
+            assertEquals(Failure.INSUFFICIENT_FUNDS, failureOf(shardedAsync.withdrawFundsAsync(Currency.PLN, BigDecimal.ONE, "alice")));
+            assertEquals(Failure.UNKNOWN_ACCOUNT, failureOf(shardedAsync.depositFundsAsync(Currency.PLN, BigDecimal.ONE, "carol")));
+        }
+    }
+
+    @Test
+    void ShouldNotClassifyFailuresByMessage() throws Exception {
+        // given a banking system failing with an exception which only looks like a banking failure
+        BankingSystem failing = new BankingSystem(new HashAccountRepository(), JsonCurrencyExchangeService.getInstance()) {
+            @Override
+            public OperationStatus tryDepositFunds(Currency currency, BigDecimal amount, String userId) {
+                throw new IllegalStateException("insufficient Balance");
+            }
+        };
+        try (AsyncBankingSystem async = new AsyncBankingSystem(failing)) {
+            // when an operation fails with it
+            // then the failure is not taken for one of the banking system
+            assertEquals(Failure.INTERNAL_ERROR, failureOf(async.depositFundsAsync(Currency.PLN, BigDecimal.ONE, "alice")));
+        }
+    }
+
+    @Test
+    void ShouldRejectOperationsBeyondInFlightLimit() throws Exception {
+        // given a facade allowing two operations in flight, on an executor which runs them only when asked to
+        Queue<Runnable> submitted = new ArrayDeque<>();
+        AsyncBankingSystem async = new AsyncBankingSystem(bankingSystem, submitted::add, 2);
+        CompletableFuture<Void> first = async.depositFundsAsync(Currency.PLN, BigDecimal.ONE, "alice");
+        CompletableFuture<Void> second = async.depositFundsAsync(Currency.PLN, BigDecimal.ONE, "alice");
+
+        // when a third operation is submitted before they finish
+        CompletableFuture<Void> third = async.depositFundsAsync(Currency.PLN, BigDecimal.ONE, "alice");
+
+        // then it fails without running, and operations are accepted again once the others finished
+        assertEquals(Failure.OVERLOADED, failureOf(third));
+        assertEquals(1, async.getRejected());
+        assertEquals(2, async.getInFlight());
+        while (!submitted.isEmpty())
+            submitted.poll().run();
+        assertNull(first.get());
+        assertNull(second.get());
+        CompletableFuture<Void> fourth = async.depositFundsAsync(Currency.PLN, BigDecimal.ONE, "alice");
+        submitted.poll().run();
+        assertNull(fourth.get());
+        assertEquals(0, BigDecimal.valueOf(103).compareTo(bankingSystem.getAccountBalance("alice").get(Currency.PLN)));
+    }
+
+    private static Failure failureOf(CompletableFuture<?> future) {
+        ExecutionException e = assertThrows(ExecutionException.class, future::get);
+        return assertInstanceOf(BankingFailureException.class, e.getCause()).getFailure();
+    }
+}
@@ -0,0 +1,145 @@
+package com.rynkow.bankingsystem.cluster;
+
+import com.rynkow.bankingsystem.journal.JournalMode;
+import com.rynkow.bankingsystem.model.Currency;
+import com.rynkow.bankingsystem.model.Money;
+import com.rynkow.bankingsystem.service.JsonCurrencyExchangeService;
+import org.json.simple.parser.ParseException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BankingClusterTest {
+    private static final int NODES = 3;
+    private static final int USERS = 30;
+    private static final int THREADS = 4;
+    private static final int TRANSFERS_PER_THREAD = 500;
+    private static final BigDecimal INITIAL_BALANCE = BigDecimal.valueOf(1000);
+
+    @TempDir
+    Path directory;
+
+    private BankingCluster cluster;
+    private String sender;
+    private String receiver;
+
+    @BeforeEach
+    void CreateCluster() throws IOException, ParseException {
+        cluster = new BankingCluster(NODES, directory, JournalMode.GROUP_COMMIT, JsonCurrencyExchangeService.getInstance());
+        for (int i = 0; i < USERS; i++) {
+            cluster.newUser("user" + i);
+            cluster.depositFunds(Currency.PLN, INITIAL_BALANCE, "user" + i);
+        }
+        sender = "user0";
+        for (int i = 1; receiver == null; i++)
+            if (cluster.nodeOf("user" + i) != cluster.nodeOf(sender))
+                receiver = "user" + i;
+    }
+
+    @AfterEach
+    void CloseCluster() {
+        cluster.close();
+    }
+
+    @Test
+    void ShouldFinishTransferWhenSenderCrashesBeforeCredit() throws IOException {
+        // given the sender's node crashing right after debiting the sender
+        cluster.getNetwork().scheduleFault(ClusterNetwork.Message.CREDIT, ClusterNetwork.Fault.CRASH_SENDER);
+
+        // when
+        assertThrows(NodeUnavailableException.class, () -> cluster.sendFunds(Currency.PLN, BigDecimal.TEN, sender, receiver));
+        cluster.restart(cluster.nodeOf(sender));
+
+        // then the restarted node finds the debited transfer in its journal and delivers it
+        assertEquals(0, BigDecimal.valueOf(990).compareTo(cluster.getAccountBalance(sender).get(Currency.PLN)));
+        assertEquals(0, BigDecimal.valueOf(1010).compareTo(cluster.getAccountBalance(receiver).get(Currency.PLN)));
+        FundsAudit audit = FundsAudit.run(cluster);
+        assertTrue(audit.isBalanced(), audit.toString());
+        assertEquals(0, audit.inFlightTransfers);
+    }
+
+    @Test
+    void ShouldCreditOnceWhenReceiverCrashesAfterCredit() throws IOException {
+        // given the receiver's node crashing after crediting, before acknowledging
+        cluster.getNetwork().scheduleFault(ClusterNetwork.Message.CREDIT, ClusterNetwork.Fault.CRASH_RECEIVER);
+
+        // when the transfer is delivered again after the receiver's node restarts
+        cluster.sendFunds(Currency.PLN, BigDecimal.TEN, sender, receiver);
+        assertEquals(1, cluster.getNode(cluster.nodeOf(sender)).getPendingTransferCount());
+        cluster.restart(cluster.nodeOf(receiver));
+        assertEquals(0, cluster.recoverTransfers());
+
+        // then the receiver's node recognizes the credit it journaled before the crash
+        assertEquals(0, BigDecimal.valueOf(990).compareTo(cluster.getAccountBalance(sender).get(Currency.PLN)));
+        assertEquals(0, BigDecimal.valueOf(1010).compareTo(cluster.getAccountBalance(receiver).get(Currency.PLN)));
+        FundsAudit audit = FundsAudit.run(cluster);
+        assertTrue(audit.isBalanced(), audit.toString());
+    }
+
+    @Test
+    void ShouldConserveFundsUnderLostMessagesAndCrashes() throws Exception {
+        // given lost messages and nodes crashing and restarting while users send funds to each other
+        cluster.getNetwork().setLossRates(0.05, 0.05);
+        AtomicBoolean running = new AtomicBoolean(true);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS + 1);
+        Future<?> chaos = executor.submit(() -> {
+            SplittableRandom random = new SplittableRandom(1);
+            while (running.get()) {
+                int nodeId = random.nextInt(NODES);
+                cluster.crash(nodeId);
+                Thread.sleep(2);
+                cluster.restart(nodeId);
+                cluster.recoverTransfers();
+                Thread.sleep(5);
+            }
+            return null;
+        });
+        List<Future<?>> results = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            int seed = t;
+            results.add(executor.submit(() -> {
+                SplittableRandom random = new SplittableRandom(seed);
+                for (int i = 0; i < TRANSFERS_PER_THREAD; i++)
+                    try {
+                        cluster.sendFunds(Currency.PLN, BigDecimal.valueOf(random.nextInt(1, 50)), "user" + random.nextInt(USERS), "user" + random.nextInt(USERS));
+                    } catch (RuntimeException e) {
+                        // unavailable node or insufficient balance
+                    }
+            }));
+        }
+
+        // when the faults stop and every transfer left pending is delivered
+        for (Future<?> result : results)
+            result.get();
+        running.set(false);
+        chaos.get();
+        executor.shutdown();
+        cluster.getNetwork().setLossRates(0, 0);
+        for (int i = 0; i < NODES; i++)
+            if (cluster.getNode(i) == null)
+                cluster.restart(i);
+        while (cluster.recoverTransfers() > 0)
+            Thread.onSpinWait();
+
+        // then the cluster holds exactly what was deposited, and no transfer is in flight
+        FundsAudit audit = FundsAudit.run(cluster);
+        assertTrue(audit.isBalanced(), audit.toString());
+        assertEquals(0, audit.inFlightTransfers);
+        assertEquals(Money.toUnits(INITIAL_BALANCE) * USERS, audit.balances.get(Currency.PLN));
+        assertTrue(cluster.getNetwork().getLostMessages() > 0);
+    }
+}
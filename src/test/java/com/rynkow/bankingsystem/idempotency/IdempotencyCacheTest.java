@@ -0,0 +1,146 @@
+package com.rynkow.bankingsystem.idempotency;
+
+import com.rynkow.bankingsystem.BankingSystem;
+import com.rynkow.bankingsystem.journal.MutationLog;
+import com.rynkow.bankingsystem.metrics.BankingMetrics;
+import com.rynkow.bankingsystem.metrics.Operation;
+import com.rynkow.bankingsystem.model.Currency;
+import com.rynkow.bankingsystem.model.OperationStatus;
+import com.rynkow.bankingsystem.repository.HashAccountRepository;
+import com.rynkow.bankingsystem.service.JsonCurrencyExchangeService;
+import org.json.simple.parser.ParseException;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IdempotencyCacheTest {
+    private static final long MIN_BYTES = 64 * (128 + 1024);
+
+    @Test
+    void ShouldReturnFirstOutcomeForRepeatedKey() throws IOException, ParseException {
+        // given a user with funds
+        BankingSystem bankingSystem = new BankingSystem(new HashAccountRepository(), JsonCurrencyExchangeService.getInstance());
+        bankingSystem.newUser("sender");
+        bankingSystem.newUser("receiver");
+        bankingSystem.depositFunds(Currency.PLN, BigDecimal.valueOf(100), "sender", "deposit-1");
+
+        // when operations are retried with their keys
+        bankingSystem.depositFunds(Currency.PLN, BigDecimal.valueOf(100), "sender", "deposit-1");
+        bankingSystem.sendFunds(Currency.PLN, BigDecimal.TEN, "sender", "receiver", "send-1");
+        bankingSystem.sendFunds(Currency.PLN, BigDecimal.TEN, "sender", "receiver", "send-1");
+        RuntimeException failure = assertThrows(RuntimeException.class, () -> bankingSystem.withdrawFunds(Currency.PLN, BigDecimal.valueOf(1000), "sender", "withdraw-1"));
+        bankingSystem.depositFunds(Currency.PLN, BigDecimal.valueOf(1000), "sender");
+
+        // then each ran once, a retried failure fails the same way although it would succeed now
+        assertEquals(0, BigDecimal.valueOf(1090).compareTo(bankingSystem.getAccountBalance("sender").get(Currency.PLN)));
+        assertEquals(0, BigDecimal.TEN.compareTo(bankingSystem.getAccountBalance("receiver").get(Currency.PLN)));
+        RuntimeException retried = assertThrows(RuntimeException.class, () -> bankingSystem.withdrawFunds(Currency.PLN, BigDecimal.valueOf(1000), "sender", "withdraw-1"));
+        assertEquals(failure.getClass(), retried.getClass());
+        assertEquals(failure.getMessage(), retried.getMessage());
+        assertEquals(3, bankingSystem.getIdempotencyCache().getHits());
+        // and a key cannot be reused for another operation
+        Exception exception = assertThrows(IllegalArgumentException.class, () -> bankingSystem.withdrawFunds(Currency.PLN, BigDecimal.ONE, "sender", "send-1"));
+        assertEquals("idempotency key already used for SEND_FUNDS", exception.getMessage());
+        // nor for the same operation with other arguments, an equal amount is not another argument
+        bankingSystem.sendFunds(Currency.PLN, new BigDecimal("10.00"), "sender", "receiver", "send-1");
+        exception = assertThrows(IllegalArgumentException.class, () -> bankingSystem.sendFunds(Currency.PLN, BigDecimal.ONE, "sender", "receiver", "send-1"));
+        assertEquals("idempotency key already used for SEND_FUNDS with other arguments", exception.getMessage());
+        assertEquals(0, BigDecimal.TEN.compareTo(bankingSystem.getAccountBalance("receiver").get(Currency.PLN)));
+    }
+
+    @Test
+    void ShouldRunConcurrentRetriesOnce() throws Exception {
+        // given a slow operation
+        IdempotencyCache cache = new IdempotencyCache();
+        AtomicInteger runs = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+
+        // when it is retried while it runs
+        List<Future<Integer>> results = new ArrayList<>();
+        results.add(executor.submit(() -> cache.execute("key", Operation.DEPOSIT_FUNDS, 0, () -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            return runs.incrementAndGet();
+        })));
+        started.await();
+        for (int i = 0; i < 7; i++)
+            results.add(executor.submit(() -> cache.execute("key", Operation.DEPOSIT_FUNDS, 0, runs::incrementAndGet)));
+        release.countDown();
+
+        // then the retries wait for its result instead of running again
+        for (Future<Integer> result : results)
+            assertEquals(1, result.get(10, TimeUnit.SECONDS));
+        assertEquals(1, runs.get());
+        executor.shutdown();
+    }
+
+    @Test
+    void ShouldStayWithinMemoryCeilingAndExpire() throws InterruptedException, IOException, ParseException {
+        // given a small cache with a short time to live
+        IdempotencyCache cache = new IdempotencyCache(MIN_BYTES, 100, TimeUnit.MILLISECONDS);
+        BankingSystem bankingSystem = new BankingSystem(new HashAccountRepository(), JsonCurrencyExchangeService.getInstance(), MutationLog.NONE,
+                new BankingMetrics(), cache);
+        bankingSystem.newUser("user");
+
+        // when far more keys are used than fit
+        for (int i = 0; i < 100_000; i++)
+            bankingSystem.depositFunds(Currency.EUR, BigDecimal.ONE, "user", "deposit-" + i);
+
+        // then the least recently used ones were evicted
+        assertTrue(cache.getEstimatedBytes() <= MIN_BYTES);
+        assertTrue(cache.getEvictions() > 0);
+        assertTrue(cache.getSize() > 0);
+        // and a key runs again once it expired
+        bankingSystem.depositFunds(Currency.USD, BigDecimal.ONE, "user", "expiring");
+        bankingSystem.depositFunds(Currency.USD, BigDecimal.ONE, "user", "expiring");
+        Thread.sleep(200);
+        bankingSystem.depositFunds(Currency.USD, BigDecimal.ONE, "user", "expiring");
+        assertEquals(0, BigDecimal.valueOf(2).compareTo(bankingSystem.getAccountBalance("user").get(Currency.USD)));
+    }
+
+    @Test
+    void ShouldRunAgainOnlyAfterFailuresOtherThanRejections() {
+        // given a cache and operations failing with a rejection and with an I/O error
+        IdempotencyCache cache = new IdempotencyCache();
+        AtomicInteger rejectedRuns = new AtomicInteger();
+        AtomicInteger failedRuns = new AtomicInteger();
+        Supplier<Object> rejected = () -> {
+            rejectedRuns.incrementAndGet();
+            throw OperationStatus.INVALID_AMOUNT.toException();
+        };
+        Supplier<Object> failed = () -> {
+            failedRuns.incrementAndGet();
+            throw new UncheckedIOException(new IOException("disk full"));
+        };
+
+        // when each is retried with its key
+        for (int i = 0; i < 2; i++) {
+            assertThrows(IllegalArgumentException.class, () -> cache.execute("rejected", Operation.DEPOSIT_FUNDS, 1, rejected));
+            assertThrows(UncheckedIOException.class, () -> cache.execute("failed", Operation.DEPOSIT_FUNDS, 1, failed));
+        }
+
+        // then the rejection is answered from the cache, the failed operation runs again
+        assertEquals(1, rejectedRuns.get());
+        assertEquals(2, failedRuns.get());
+        assertEquals(1, cache.getSize());
+    }
+}
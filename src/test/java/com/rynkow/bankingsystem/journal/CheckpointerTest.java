@@ -0,0 +1,128 @@
+package com.rynkow.bankingsystem.journal;
+
+import com.rynkow.bankingsystem.BankingSystem;
+import com.rynkow.bankingsystem.model.Account;
+import com.rynkow.bankingsystem.model.Currency;
+import com.rynkow.bankingsystem.repository.HashAccountRepository;
+import com.rynkow.bankingsystem.service.JsonCurrencyExchangeService;
+import org.json.simple.parser.ParseException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CheckpointerTest {
+
+    @TempDir
+    Path journalDirectory;
+
+    @Test
+    void ShouldRestoreStateFromSnapshotAndJournalTail() throws IOException, ParseException {
+        // given activity before and after a checkpoint
+        FileJournal journal = FileJournal.open(journalDirectory, JournalMode.GROUP_COMMIT);
+        HashAccountRepository repository = new HashAccountRepository();
+        BankingSystem bankingSystem = new BankingSystem(repository, JsonCurrencyExchangeService.getInstance(), journal);
+        Checkpointer checkpointer = new Checkpointer(journalDirectory, journal, repository);
+        bankingSystem.newUser("user1");
+        bankingSystem.newUser("user2");
+        bankingSystem.depositFunds(Currency.PLN, BigDecimal.valueOf(100), "user1");
+        bankingSystem.sendFunds(Currency.PLN, BigDecimal.valueOf(30), "user1", "user2");
+        long snapshotSequence = checkpointer.checkpoint();
+        bankingSystem.newUser("user3");
+        bankingSystem.sendFunds(Currency.PLN, new BigDecimal("12.5"), "user2", "user3");
+        bankingSystem.exchangeCurrency(Currency.PLN, Currency.EUR, BigDecimal.valueOf(10), "user1");
+        journal.close();
+
+        // when the snapshot is loaded and the journal tail replayed
+        HashAccountRepository restoredRepository = new HashAccountRepository();
+        long restoredSequence = Checkpointer.restore(journalDirectory, restoredRepository);
+        FileJournal reopenedJournal = FileJournal.open(journalDirectory, JournalMode.GROUP_COMMIT);
+        BankingSystem restoredSystem = new BankingSystem(restoredRepository, JsonCurrencyExchangeService.getInstance(), reopenedJournal);
+        reopenedJournal.replay(restoredSequence + 1, restoredSystem::apply);
+        reopenedJournal.close();
+
+        // then balances and history match and the journal before the snapshot is gone
+        assertEquals(4, snapshotSequence);
+        assertEquals(snapshotSequence, restoredSequence);
+        for (String userId : List.of("user1", "user2", "user3")) {
+            for (Currency currency : Currency.values())
+                assertEquals(0, bankingSystem.getAccountBalance(userId).get(currency).compareTo(restoredSystem.getAccountBalance(userId).get(currency)));
+            assertEquals(bankingSystem.getAccountHistory(userId, null, null, null, null), restoredSystem.getAccountHistory(userId, null, null, null, null));
+        }
+        assertEquals(4, restoredSystem.getAccountHistory("user1", null, null, null, null).size());
+        try (Stream<Path> files = Files.list(journalDirectory)) {
+            assertEquals(List.of("journal-00000000000000000005.log", "snapshot-00000000000000000004.snap"),
+                    files.map(file -> file.getFileName().toString()).sorted().toList());
+        }
+    }
+
+    @Test
+    void ShouldNotApplyMutationsTwiceToAccountsCapturedAfterThem() throws IOException, ParseException {
+        // given an account whose snapshot already reflects a mutation logged after the snapshot sequence
+        FileJournal journal = FileJournal.open(journalDirectory, JournalMode.FSYNC_PER_OP);
+        HashAccountRepository repository = new HashAccountRepository();
+        BankingSystem bankingSystem = new BankingSystem(repository, JsonCurrencyExchangeService.getInstance(), journal);
+        bankingSystem.newUser("user1");
+        bankingSystem.depositFunds(Currency.USD, BigDecimal.valueOf(50), "user1");
+        journal.close();
+        HashAccountRepository restoredRepository = new HashAccountRepository();
+        BankingSystem restoredSystem = new BankingSystem(restoredRepository, JsonCurrencyExchangeService.getInstance());
+        restoredRepository.save(new Account("user1", Currency.USD, 500000, 2));
+
+        // when the whole journal is replayed over it
+        FileJournal reopenedJournal = FileJournal.open(journalDirectory, JournalMode.FSYNC_PER_OP);
+        reopenedJournal.replay(restoredSystem::apply);
+        reopenedJournal.close();
+
+        // then the deposit is counted once and missing accounts are created
+        assertEquals(0, BigDecimal.valueOf(50).compareTo(restoredSystem.getAccountBalance("user1").get(Currency.USD)));
+        assertEquals(Currency.values().length, restoredRepository.getAccountsByUserId("user1").size());
+    }
+
+    @Test
+    void ShouldRejectSnapshotsOfOtherVersions() throws IOException {
+        // given a snapshot of an unknown version
+        ByteBuffer header = ByteBuffer.allocate(24).putInt(0x534E4150).putInt(1).putLong(3).putLong(0);
+        Files.write(journalDirectory.resolve("snapshot-00000000000000000003.snap"), header.array());
+
+        // when it is restored
+        // then it is rejected instead of restoring accounts without history
+        IOException exception = assertThrows(IOException.class, () -> Checkpointer.restore(journalDirectory, new HashAccountRepository()));
+        assertTrue(exception.getMessage().startsWith("unsupported snapshot version 1"));
+    }
+
+    @Test
+    void ShouldThrowFailureOfScheduledCheckpointFromNextCheckpoint() throws IOException, InterruptedException {
+        // given checkpoints scheduled over a repository that cannot be read
+        FileJournal journal = FileJournal.open(journalDirectory, JournalMode.GROUP_COMMIT);
+        HashAccountRepository repository = new HashAccountRepository() {
+            @Override
+            public List<Account> getAccounts() {
+                throw new IllegalStateException("repository unavailable");
+            }
+        };
+        Checkpointer checkpointer = new Checkpointer(journalDirectory, journal, repository);
+
+        // when a scheduled checkpoint fails
+        checkpointer.schedule(10, TimeUnit.MILLISECONDS);
+        while (checkpointer.getFailedCheckpoints() == 0)
+            Thread.sleep(10);
+        checkpointer.close();
+
+        // then it is counted and the next checkpoint throws it
+        IOException exception = assertThrows(IOException.class, checkpointer::checkpoint);
+        assertEquals("scheduled checkpoint failed", exception.getMessage());
+        assertEquals("repository unavailable", exception.getCause().getMessage());
+        assertTrue(checkpointer.getFailedCheckpoints() > 0);
+        journal.close();
+    }
+}
@@ -0,0 +1,157 @@
+package com.rynkow.bankingsystem.journal;
+
+import com.rynkow.bankingsystem.BankingSystem;
+import com.rynkow.bankingsystem.model.Currency;
+import com.rynkow.bankingsystem.model.Transaction;
+import com.rynkow.bankingsystem.repository.HashAccountRepository;
+import com.rynkow.bankingsystem.service.JsonCurrencyExchangeService;
+import org.json.simple.parser.ParseException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FileJournalTest {
+
+    @TempDir
+    Path journalDirectory;
+
+    @Test
+    void ShouldRebuildStateFromJournalInEveryMode() throws IOException, ParseException {
+        for (JournalMode mode : JournalMode.values())
+            rebuildStateFromJournal(journalDirectory.resolve(mode.name()), mode);
+    }
+
+    private void rebuildStateFromJournal(Path directory, JournalMode mode) throws IOException, ParseException {
+        // given a banking system with some activity written to a journal
+        FileJournal journal = FileJournal.open(directory, mode);
+        BankingSystem bankingSystem = new BankingSystem(new HashAccountRepository(), JsonCurrencyExchangeService.getInstance(), journal);
+        bankingSystem.newUser("user1");
+        bankingSystem.newUser("user2");
+        bankingSystem.depositFunds(Currency.PLN, BigDecimal.valueOf(100), "user1");
+        bankingSystem.withdrawFunds(Currency.PLN, new BigDecimal("10.5"), "user1");
+        bankingSystem.sendFunds(Currency.PLN, BigDecimal.valueOf(20), "user1", "user2");
+        bankingSystem.exchangeCurrency(Currency.PLN, Currency.EUR, BigDecimal.valueOf(50), "user1");
+        assertThrows(IllegalStateException.class, () -> bankingSystem.withdrawFunds(Currency.USD, BigDecimal.ONE, "user2"));
+        journal.close();
+
+        // when the journal is replayed into an empty banking system
+        FileJournal reopenedJournal = FileJournal.open(directory, mode);
+        BankingSystem restoredSystem = new BankingSystem(new HashAccountRepository(), JsonCurrencyExchangeService.getInstance(), reopenedJournal);
+        reopenedJournal.replay(restoredSystem::apply);
+
+        // then balances and history are restored, failed operations are not
+        for (String userId : List.of("user1", "user2"))
+            for (Currency currency : Currency.values())
+                assertEquals(0, bankingSystem.getAccountBalance(userId).get(currency).compareTo(restoredSystem.getAccountBalance(userId).get(currency)));
+        List<Transaction> history = bankingSystem.getAccountHistory("user1", null, null, null, null);
+        List<Transaction> restoredHistory = restoredSystem.getAccountHistory("user1", null, null, null, null);
+        assertEquals(history.size(), restoredHistory.size());
+        for (int i = 0; i < history.size(); i++) {
+            assertEquals(history.get(i).type, restoredHistory.get(i).type);
+            assertEquals(history.get(i).transactionDate, restoredHistory.get(i).transactionDate);
+            assertEquals(0, history.get(i).balanceChange.compareTo(restoredHistory.get(i).balanceChange));
+        }
+        assertEquals(6, reopenedJournal.getAppendedSequence());
+        reopenedJournal.close();
+    }
+
+    @Test
+    void ShouldDropTornRecordAtTheEndOfJournal() throws IOException {
+        // given a journal whose last record was only partially written
+        FileJournal journal = FileJournal.open(journalDirectory, JournalMode.FSYNC_PER_OP);
+        journal.append(Mutation.newUser(1, "user1"));
+        journal.append(Mutation.deposit(2, "user1", Currency.EUR, 100));
+        journal.close();
+        Path segment;
+        try (Stream<Path> files = Files.list(journalDirectory)) {
+            segment = files.findFirst().orElseThrow();
+        }
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+
+        // when the journal is reopened and appended to
+        FileJournal reopenedJournal = FileJournal.open(journalDirectory, JournalMode.FSYNC_PER_OP);
+        reopenedJournal.append(Mutation.withdraw(3, "user1", Currency.EUR, 50));
+        List<Mutation> mutations = new ArrayList<>();
+        reopenedJournal.replay((mutation, sequence) -> mutations.add(mutation));
+        reopenedJournal.close();
+
+        // then the torn record is gone and new records follow the last complete one
+        assertEquals(2, mutations.size());
+        assertEquals(MutationType.NEW_USER, mutations.get(0).type);
+        assertEquals(MutationType.WITHDRAW, mutations.get(1).type);
+        assertEquals(50, mutations.get(1).amount);
+    }
+
+    @Test
+    void ShouldStopAfterFailedWrite() throws IOException {
+        // given a journal whose write fails - an interrupt closes the channel
+        FileJournal journal = FileJournal.open(journalDirectory, JournalMode.GROUP_COMMIT);
+        long sequence = journal.append(Mutation.newUser(1, "user1"));
+        Thread.currentThread().interrupt();
+        assertThrows(UncheckedIOException.class, () -> journal.awaitDurable(sequence));
+        Thread.interrupted();
+
+        // when it is used again
+        // then the lost record is never acknowledged and nothing more is accepted
+        assertThrows(UncheckedIOException.class, () -> journal.awaitDurable(sequence));
+        assertThrows(UncheckedIOException.class, () -> journal.append(Mutation.newUser(2, "user2")));
+        assertThrows(IOException.class, journal::close);
+        assertEquals(0, journal.getDurableSequence());
+    }
+
+    @Test
+    void ShouldEncodeAndDecodeAllMutationTypes() {
+        // given mutations of every type
+        List<Mutation> mutations = List.of(
+                Mutation.newUser(1, "użytkownik"),
+                Mutation.deposit(2, "user1", Currency.PLN, 123),
+                Mutation.withdraw(3, "user1", Currency.USD, 45),
+                Mutation.send(4, "user1", "user2", Currency.EUR, 678),
+                Mutation.exchange(5, "user1", Currency.PLN, Currency.EUR, 1000, 220, 3));
+
+        // when they are encoded and decoded
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        for (Mutation mutation : mutations)
+            MutationCodec.writeFrame(mutation, buffer);
+        buffer.flip();
+
+        // then decoded mutations are equal to the original ones
+        for (Mutation mutation : mutations)
+            assertEquals(mutation.toString(), MutationCodec.readFrame(buffer).toString());
+        assertNull(MutationCodec.readFrame(buffer));
+    }
+
+    @Test
+    void ShouldRejectExchangeFrameWithoutRateVersion() {
+        // given an exchange frame cut short by its rate version, with a valid checksum, followed by other bytes
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        MutationCodec.writeFrame(Mutation.exchange(5, "user1", Currency.PLN, Currency.EUR, 1000, 220, 3), buffer);
+        int bodyLength = buffer.position() - MutationCodec.HEADER_SIZE - Long.BYTES;
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.duplicate().limit(MutationCodec.HEADER_SIZE + bodyLength).position(MutationCodec.HEADER_SIZE));
+        buffer.putInt(0, bodyLength).putInt(Integer.BYTES, (int) crc.getValue());
+        buffer.flip();
+
+        // when it is decoded
+        // then it fails instead of reading a rate version of 0 or the bytes after the frame
+        assertThrows(IllegalStateException.class, () -> MutationCodec.readFrame(buffer));
+        assertThrows(BufferUnderflowException.class, () -> MutationCodec.readFrame(buffer.position(0).limit(MutationCodec.HEADER_SIZE + bodyLength)));
+    }
+}
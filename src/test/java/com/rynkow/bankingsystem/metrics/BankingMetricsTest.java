@@ -0,0 +1,84 @@
+package com.rynkow.bankingsystem.metrics;
+
+import com.rynkow.bankingsystem.BankingSystem;
+import com.rynkow.bankingsystem.journal.MutationLog;
+import com.rynkow.bankingsystem.model.Currency;
+import com.rynkow.bankingsystem.repository.HashAccountRepository;
+import com.rynkow.bankingsystem.service.JsonCurrencyExchangeService;
+import org.json.simple.parser.ParseException;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BankingMetricsTest {
+
+    @Test
+    void ShouldReportPercentilesWithinBucketPrecision() {
+        // given latencies of 1 to 10000 microseconds
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long micros = 1; micros <= 10_000; micros++)
+            histogram.record(micros * 1000);
+
+        // when taking a snapshot
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+
+        // then counts and extremes are exact and percentiles are within the 3% bucket width
+        assertEquals(10_000, snapshot.count);
+        assertEquals(10_000_000, snapshot.maxNanos);
+        assertEquals(5_000_500, snapshot.meanNanos(), 1);
+        assertWithinPercent(5_000_000, snapshot.valueAtPercentile(50), 3);
+        assertWithinPercent(9_900_000, snapshot.valueAtPercentile(99), 3);
+        assertWithinPercent(9_990_000, snapshot.valueAtPercentile(99.9), 3);
+    }
+
+    @Test
+    void ShouldMapEveryValueToBucketContainingIt() {
+        // given values around every power of two
+        for (int bit = 0; bit < 40; bit++)
+            for (long value : new long[]{(1L << bit) - 1, 1L << bit, (1L << bit) + 1}) {
+                // when bucketing the value
+                long bucketValue = LatencyHistogram.bucketValue(LatencyHistogram.bucket(value));
+
+                // then the bucket's value is at most 1/64 away from the value
+                assertTrue(Math.abs(bucketValue - value) <= Math.max(1, value / 64), value + " -> " + bucketValue);
+            }
+    }
+
+    @Test
+    void ShouldCountCallsFailuresAndFailureReasons() throws IOException, ParseException {
+        // given a banking system with its own metrics, timing every call
+        BankingMetrics metrics = new BankingMetrics(1);
+        BankingSystem bankingSystem = new BankingSystem(new HashAccountRepository(), JsonCurrencyExchangeService.getInstance(), MutationLog.NONE, metrics);
+        bankingSystem.newUser("metricsTest");
+        bankingSystem.depositFunds(Currency.PLN, BigDecimal.TEN, "metricsTest");
+
+        // when operations succeed and fail
+        bankingSystem.withdrawFunds(Currency.PLN, BigDecimal.ONE, "metricsTest");
+        assertThrows(IllegalStateException.class, () -> bankingSystem.withdrawFunds(Currency.PLN, BigDecimal.valueOf(100), "metricsTest"));
+        assertThrows(IllegalStateException.class, () -> bankingSystem.withdrawFunds(Currency.PLN, BigDecimal.valueOf(100), "metricsTest"));
+        assertThrows(RuntimeException.class, () -> bankingSystem.getAccountBalance("unknownUser"));
+
+        // then every call is counted and failures are counted by their message
+        assertEquals(1, metrics.getCalls(Operation.NEW_USER));
+        assertEquals(1, metrics.getCalls(Operation.DEPOSIT_FUNDS));
+        assertEquals(3, metrics.getCalls(Operation.WITHDRAW_FUNDS));
+        assertEquals(2, metrics.getFailures(Operation.WITHDRAW_FUNDS));
+        assertEquals(3, metrics.getLatency(Operation.WITHDRAW_FUNDS).count);
+        assertEquals(1, metrics.getFailures(Operation.GET_ACCOUNT_BALANCE));
+        assertEquals(2, metrics.getFailureReasons().get("insufficient Balance"));
+        assertEquals(1, metrics.getFailureReasons().get("user account not found"));
+        assertTrue(metrics.report().contains("WITHDRAW_FUNDS"));
+
+        // and disabled metrics record nothing
+        assertEquals(0, BankingMetrics.DISABLED.getCalls(Operation.NEW_USER));
+    }
+
+    private static void assertWithinPercent(long expected, long actual, double percent) {
+        assertTrue(Math.abs(actual - expected) <= expected * percent / 100, "expected " + expected + " but was " + actual);
+    }
+}
@@ -0,0 +1,100 @@
+package com.rynkow.bankingsystem.metrics;
+
+import com.rynkow.bankingsystem.BankingSystem;
+import com.rynkow.bankingsystem.model.Account;
+import com.rynkow.bankingsystem.model.Currency;
+import com.rynkow.bankingsystem.model.Money;
+import com.rynkow.bankingsystem.model.TransactionType;
+import com.rynkow.bankingsystem.repository.HashAccountRepository;
+import com.rynkow.bankingsystem.service.JsonCurrencyExchangeService;
+import org.json.simple.parser.ParseException;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CurrencyTotalsTest {
+    private static final int USERS = 100;
+    private static final int THREADS = 4;
+    private static final int OPERATIONS = 20_000;
+
+    @Test
+    void ShouldTrackTotalsOfOperations() throws IOException, ParseException {
+        // given a repository with a restored account
+        HashAccountRepository repository = new HashAccountRepository();
+        repository.save(new Account("restored", Currency.PLN, Money.toUnits(BigDecimal.valueOf(50)), 1));
+        BankingSystem bankingSystem = new BankingSystem(repository, JsonCurrencyExchangeService.getInstance());
+        bankingSystem.newUser("sender");
+        bankingSystem.newUser("receiver");
+
+        // when funds are deposited, sent, withdrawn and exchanged
+        bankingSystem.depositFunds(Currency.PLN, BigDecimal.valueOf(100), "sender");
+        bankingSystem.sendFunds(Currency.PLN, BigDecimal.valueOf(30), "sender", "receiver");
+        bankingSystem.withdrawFunds(Currency.PLN, BigDecimal.valueOf(20), "receiver");
+        bankingSystem.exchangeCurrency(Currency.PLN, Currency.EUR, BigDecimal.valueOf(10), "sender");
+
+        // then the totals reflect every change, and match the accounts
+        CurrencyTotals.Snapshot totals = bankingSystem.checkTotals();
+        assertEquals(0, BigDecimal.valueOf(120).compareTo(totals.getBalance(Currency.PLN)));
+        assertEquals(3, totals.getAccounts(Currency.PLN));
+        assertEquals(2, totals.getAccounts(Currency.EUR));
+        assertEquals(0, bankingSystem.getAccountBalance("sender").get(Currency.EUR).compareTo(totals.getBalance(Currency.EUR)));
+        assertEquals(0, BigDecimal.valueOf(30).compareTo(totals.getOutflow(Currency.PLN, TransactionType.SEND)));
+        assertEquals(0, BigDecimal.valueOf(30).compareTo(totals.getInflow(Currency.PLN, TransactionType.RECEIVE)));
+        assertEquals(1, totals.getInflowCount(Currency.PLN, TransactionType.DEPOSIT));
+        assertEquals(1, totals.getOutflowCount(Currency.PLN, TransactionType.WITHDRAW));
+        assertEquals(1, totals.getOutflowCount(Currency.PLN, TransactionType.EXCHANGE));
+        assertEquals(1, totals.getInflowCount(Currency.EUR, TransactionType.EXCHANGE));
+        assertEquals(0, totals.getOutflowCount(Currency.PLN, TransactionType.DEPOSIT));
+    }
+
+    @Test
+    void ShouldReadConsistentTotalsDuringConcurrentOperations() throws Exception {
+        // given users with funds
+        BankingSystem bankingSystem = new BankingSystem(new HashAccountRepository(), JsonCurrencyExchangeService.getInstance());
+        for (int i = 0; i < USERS; i++) {
+            bankingSystem.newUser("user" + i);
+            bankingSystem.depositFunds(Currency.PLN, BigDecimal.valueOf(1000), "user" + i);
+        }
+        BigDecimal total = BigDecimal.valueOf(1000L * USERS);
+
+        // when transfers, which never change the total, run while the totals are read and checked
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS + 1);
+        List<Future<?>> transfers = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++)
+            transfers.add(executor.submit(() -> {
+                SplittableRandom random = new SplittableRandom();
+                for (int i = 0; i < OPERATIONS; i++)
+                    bankingSystem.sendFunds(Currency.PLN, BigDecimal.ONE, "user" + random.nextInt(USERS), "user" + random.nextInt(USERS));
+            }));
+        Future<Integer> reads = executor.submit(() -> {
+            int count = 0;
+            while (!transfers.stream().allMatch(Future::isDone)) {
+                // then every snapshot shows whole transfers only
+                CurrencyTotals.Snapshot totals = count % 100 == 0 ? bankingSystem.checkTotals() : bankingSystem.getTotals();
+                assertEquals(0, total.compareTo(totals.getBalance(Currency.PLN)));
+                assertEquals(totals.getOutflowCount(Currency.PLN, TransactionType.SEND), totals.getInflowCount(Currency.PLN, TransactionType.RECEIVE));
+                count++;
+            }
+            return count;
+        });
+        for (Future<?> transfer : transfers)
+            transfer.get(1, TimeUnit.MINUTES);
+        assertTrue(reads.get(1, TimeUnit.MINUTES) > 0);
+        executor.shutdown();
+
+        // and the final totals count every transfer
+        CurrencyTotals.Snapshot totals = bankingSystem.checkTotals();
+        assertEquals((long) THREADS * OPERATIONS, totals.getOutflowCount(Currency.PLN, TransactionType.SEND));
+        assertEquals(0, BigDecimal.valueOf((long) THREADS * OPERATIONS).compareTo(totals.getInflow(Currency.PLN, TransactionType.RECEIVE)));
+    }
+}
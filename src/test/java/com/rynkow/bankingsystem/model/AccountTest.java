@@ -111,4 +111,39 @@ public class AccountTest {
         assertEquals(Currency.EUR, accountEUR.getCurrency());
         assertEquals(Currency.USD, accountUSD.getCurrency());
     }
+
+    @Test
+    void ShouldNotAcceptAmountsWithMoreThanSupportedPrecision() {
+        // given an account
+        Account account = new Account("userID", Currency.PLN);
+
+        // when depositing an amount finer than the smallest unit
+        // then exception is thrown and balance is not updated
+        assertThrows(IllegalArgumentException.class, () -> account.deposit(new BigDecimal("0.00001")));
+        assertEquals(0, account.getBalance().compareTo(BigDecimal.ZERO));
+    }
+
+    @Test
+    void ShouldKeepBalanceConsistentUnderConcurrentUpdates() throws InterruptedException {
+        // given an account with positive balance
+        Account account = new Account("userID", Currency.PLN);
+        account.deposit(Money.toUnits(BigDecimal.valueOf(1000)));
+
+        // when many threads deposit and withdraw concurrently
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 100_000; j++) {
+                    account.deposit(3);
+                    account.withdraw(2);
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+
+        // then no update is lost
+        assertEquals(Money.toUnits(BigDecimal.valueOf(1000)) + threads.length * 100_000L, account.getBalanceUnits());
+    }
 }
@@ -0,0 +1,129 @@
+package com.rynkow.bankingsystem.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TransactionHistoryTest {
+
+    private static Transaction transaction(TransactionType type, long timestamp) {
+        return new Transaction(type, Currency.PLN, BigDecimal.ZERO, BigDecimal.valueOf(timestamp), new Date(timestamp));
+    }
+
+    private static List<TransactionHistory> histories() {
+        return List.of(new HeapTransactionHistory(), new OffHeapTransactionHistory());
+    }
+
+    @Test
+    void ShouldReturnTransactionsWithinDatesInclusive() {
+        for (TransactionHistory history : histories())
+            returnTransactionsWithinDatesInclusive(history);
+    }
+
+    private void returnTransactionsWithinDatesInclusive(TransactionHistory history) {
+        // given a history with one transaction per millisecond
+        for (long timestamp = 0; timestamp < 1000; timestamp++)
+            history.add(transaction(timestamp % 2 == 0 ? TransactionType.DEPOSIT : TransactionType.WITHDRAW, timestamp));
+
+        // when querying date ranges
+        List<Transaction> range = history.query(new Date(100), new Date(199), null);
+        List<Transaction> deposits = history.query(new Date(100), new Date(199), TransactionType.DEPOSIT);
+        List<Transaction> fromStart = history.query(null, new Date(9), null);
+        List<Transaction> empty = history.query(new Date(2000), null, null);
+
+        // then exactly the matching slice is returned in order
+        assertEquals(100, range.size());
+        assertEquals(100, range.get(0).transactionDate.getTime());
+        assertEquals(199, range.get(99).transactionDate.getTime());
+        assertEquals(50, deposits.size());
+        for (Transaction deposit : deposits)
+            assertEquals(TransactionType.DEPOSIT, deposit.type);
+        assertEquals(10, fromStart.size());
+        assertTrue(empty.isEmpty());
+    }
+
+    @Test
+    void ShouldKeepChronologicalOrderForOutOfOrderTransactions() {
+        for (TransactionHistory history : histories())
+            keepChronologicalOrderForOutOfOrderTransactions(history);
+    }
+
+    private void keepChronologicalOrderForOutOfOrderTransactions(TransactionHistory history) {
+        // given transactions added out of date order, two of them with the same date
+        Transaction first = transaction(TransactionType.DEPOSIT, 30);
+        Transaction sameDate = transaction(TransactionType.SEND, 30);
+        history.add(transaction(TransactionType.DEPOSIT, 10));
+        history.add(first);
+        history.add(transaction(TransactionType.SEND, 20));
+        history.add(sameDate);
+        history.add(transaction(TransactionType.DEPOSIT, 5));
+
+        // when reading the history
+        List<Transaction> all = history.getAll();
+        List<Transaction> sends = history.query(null, null, TransactionType.SEND);
+
+        // then it is sorted by date, equal dates in insertion order
+        assertEquals(5, history.size());
+        for (int i = 1; i < all.size(); i++)
+            assertFalse(all.get(i).transactionDate.before(all.get(i - 1).transactionDate));
+        assertEquals(first.type, all.get(3).type);
+        assertEquals(sameDate.type, all.get(4).type);
+        assertEquals(2, sends.size());
+        assertEquals(20, sends.get(0).transactionDate.getTime());
+        assertEquals(TransactionType.DEPOSIT, history.query(null, null, TransactionType.DEPOSIT, HistoryOrder.DESCENDING, 0, 1).get(0).type);
+        assertEquals(30, history.query(null, null, TransactionType.DEPOSIT, HistoryOrder.DESCENDING, 0, 1).get(0).transactionDate.getTime());
+    }
+
+    @Test
+    void ShouldStoreTransactionsOffHeapWithoutLosingPrecision() {
+        // given an off-heap history growing past its initial capacity
+        OffHeapTransactionHistory history = new OffHeapTransactionHistory();
+        for (int i = 0; i < 100; i++)
+            history.add(new Transaction(TransactionType.values()[i % TransactionType.values().length], Currency.values()[i % Currency.values().length],
+                    new BigDecimal("1234567.8901").add(BigDecimal.valueOf(i)), new BigDecimal("-0.0001"), new Date(1_700_000_000_000L + i)));
+
+        // when materializing transactions
+        List<Transaction> all = history.getAll();
+
+        // then every column is read back as written
+        assertEquals(100, all.size());
+        for (int i = 0; i < 100; i++) {
+            Transaction transaction = all.get(i);
+            assertEquals(TransactionType.values()[i % TransactionType.values().length], transaction.type);
+            assertEquals(Currency.values()[i % Currency.values().length], transaction.currency);
+            assertEquals(0, new BigDecimal("1234567.8901").add(BigDecimal.valueOf(i)).compareTo(transaction.initialBalance));
+            assertEquals(0, new BigDecimal("-0.0001").compareTo(transaction.balanceChange));
+            assertEquals(1_700_000_000_000L + i, transaction.transactionDate.getTime());
+        }
+        assertThrows(IllegalArgumentException.class, () -> history.add(new Transaction(TransactionType.DEPOSIT, Currency.PLN, BigDecimal.ZERO, new BigDecimal("0.00001"), new Date())));
+    }
+
+    @Test
+    void ShouldKeepOffHeapHistoriesSharingSlabsApart() {
+        // given many off-heap histories, some empty, growing in turns so their columns are carved and reused from shared slabs
+        List<OffHeapTransactionHistory> histories = new ArrayList<>();
+        for (int i = 0; i < 3000; i++)
+            histories.add(new OffHeapTransactionHistory());
+        for (int round = 0; round < 40; round++)
+            for (int i = 0; i < histories.size(); i++)
+                if (round < i % 50)
+                    histories.get(i).add(TransactionType.DEPOSIT, Currency.PLN, i, round, 1_700_000_000_000L + round);
+
+        // when reading them back
+        // then every history holds exactly its own transactions
+        for (int i = 0; i < histories.size(); i++) {
+            List<Transaction> all = histories.get(i).getAll();
+            assertEquals(Math.min(i % 50, 40), all.size());
+            for (int round = 0; round < all.size(); round++) {
+                assertEquals(0, Money.toBigDecimal(i).compareTo(all.get(round).initialBalance));
+                assertEquals(0, Money.toBigDecimal(round).compareTo(all.get(round).balanceChange));
+            }
+            assertTrue(histories.get(i).query(null, null, TransactionType.WITHDRAW).isEmpty());
+        }
+    }
+}
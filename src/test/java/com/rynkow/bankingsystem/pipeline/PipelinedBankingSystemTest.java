@@ -0,0 +1,198 @@
+package com.rynkow.bankingsystem.pipeline;
+
+import com.rynkow.bankingsystem.journal.Mutation;
+import com.rynkow.bankingsystem.journal.MutationLog;
+import com.rynkow.bankingsystem.journal.MutationType;
+import com.rynkow.bankingsystem.model.Currency;
+import com.rynkow.bankingsystem.model.Transaction;
+import com.rynkow.bankingsystem.model.TransactionType;
+import com.rynkow.bankingsystem.service.JsonCurrencyExchangeService;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PipelinedBankingSystemTest {
+
+    @Test
+    void ShouldApplyOperationsInOrder() throws Exception {
+        // given a pipelined banking system with two users
+        try (PipelinedBankingSystem bankingSystem = new PipelinedBankingSystem(JsonCurrencyExchangeService.getInstance())) {
+            bankingSystem.newUser("alice");
+            bankingSystem.newUser("bob");
+
+            // when funds are deposited, sent, withdrawn and exchanged
+            bankingSystem.depositFunds(Currency.PLN, BigDecimal.valueOf(100), "alice");
+            bankingSystem.sendFunds(Currency.PLN, BigDecimal.valueOf(30), "alice", "bob");
+            bankingSystem.withdrawFunds(Currency.PLN, BigDecimal.valueOf(10), "bob");
+            bankingSystem.exchangeCurrency(Currency.PLN, Currency.EUR, BigDecimal.valueOf(20), "alice");
+
+            // then balances and histories reflect every operation
+            Map<Currency, BigDecimal> alice = bankingSystem.getAccountBalance("alice");
+            assertEquals(0, BigDecimal.valueOf(50).compareTo(alice.get(Currency.PLN)));
+            assertTrue(alice.get(Currency.EUR).signum() > 0);
+            assertEquals(0, BigDecimal.valueOf(20).compareTo(bankingSystem.getAccountBalance("bob").get(Currency.PLN)));
+            assertEquals(4, bankingSystem.getAccountHistory("alice", null, null, null, null).size());
+            List<Transaction> history = bankingSystem.getAccountHistory("alice", Currency.PLN, null, null, null);
+            assertEquals(List.of(TransactionType.DEPOSIT, TransactionType.SEND, TransactionType.EXCHANGE),
+                    history.stream().map(transaction -> transaction.type).toList());
+            assertEquals(1, bankingSystem.getAccountHistory("bob", Currency.PLN, null, null, TransactionType.RECEIVE).size());
+        }
+    }
+
+    @Test
+    void ShouldThrowTheExceptionsOfBankingSystem() throws Exception {
+        // given a pipelined banking system with a user holding 100 PLN
+        try (PipelinedBankingSystem bankingSystem = new PipelinedBankingSystem(JsonCurrencyExchangeService.getInstance())) {
+            bankingSystem.newUser("alice");
+            bankingSystem.depositFunds(Currency.PLN, BigDecimal.valueOf(100), "alice");
+
+            // when operations fail
+            // then they throw the exception type and message BankingSystem does, and change nothing
+            assertEquals("duplicated userId", assertThrows(IllegalArgumentException.class, () -> bankingSystem.newUser("alice")).getMessage());
+            assertEquals("insufficient Balance", assertThrows(IllegalStateException.class,
+                    () -> bankingSystem.withdrawFunds(Currency.PLN, BigDecimal.valueOf(500), "alice")).getMessage());
+            assertEquals("receiver account not found", assertThrows(RuntimeException.class,
+                    () -> bankingSystem.sendFunds(Currency.PLN, BigDecimal.ONE, "alice", "carol")).getMessage());
+            assertEquals("deposit amount not positive", assertThrows(IllegalArgumentException.class,
+                    () -> bankingSystem.depositFunds(Currency.PLN, BigDecimal.valueOf(-1), "alice")).getMessage());
+            assertEquals("user account not found", assertThrows(RuntimeException.class, () -> bankingSystem.getAccountBalance("carol")).getMessage());
+            assertEquals(0, BigDecimal.valueOf(100).compareTo(bankingSystem.getAccountBalance("alice").get(Currency.PLN)));
+        }
+    }
+
+    @Test
+    void ShouldJournalAndReplicateAppliedMutationsInOrder() throws Exception {
+        // given a pipelined banking system with a journal and a replication log
+        RecordingLog journal = new RecordingLog();
+        RecordingLog replication = new RecordingLog();
+        try (PipelinedBankingSystem bankingSystem = new PipelinedBankingSystem(JsonCurrencyExchangeService.getInstance(), journal, replication, 8)) {
+            // when mutations are applied, one of them failing
+            bankingSystem.newUser("alice");
+            bankingSystem.depositFunds(Currency.PLN, BigDecimal.valueOf(100), "alice");
+            assertThrows(IllegalStateException.class, () -> bankingSystem.withdrawFunds(Currency.PLN, BigDecimal.valueOf(500), "alice"));
+            bankingSystem.withdrawFunds(Currency.PLN, BigDecimal.valueOf(40), "alice");
+            bankingSystem.getAccountBalance("alice");
+        }
+
+        // then both logs received the applied mutations only, in the order they were applied, and waited for them
+        for (RecordingLog log : List.of(journal, replication)) {
+            assertEquals(List.of(MutationType.NEW_USER, MutationType.DEPOSIT, MutationType.WITHDRAW), log.types());
+            assertEquals(400_000, log.mutations.get(2).amount);
+            assertEquals(log.mutations.size(), log.durable);
+        }
+    }
+
+    @Test
+    void ShouldFailCommandsOnceJournalFails() throws Exception {
+        // given a pipelined banking system whose journal fails after the first mutation
+        MutationLog journal = new MutationLog() {
+            @Override
+            public long append(Mutation mutation) {
+                if (mutation.type != MutationType.NEW_USER)
+                    throw new UncheckedIOException(new IOException("disk full"));
+                return 1;
+            }
+
+            @Override
+            public void awaitDurable(long sequence) {
+            }
+        };
+        try (PipelinedBankingSystem bankingSystem = new PipelinedBankingSystem(JsonCurrencyExchangeService.getInstance(), journal, MutationLog.NONE, 8)) {
+            bankingSystem.newUser("alice");
+
+            // when a mutation cannot be journaled
+            IllegalStateException exception = assertThrows(IllegalStateException.class,
+                    () -> bankingSystem.depositFunds(Currency.PLN, BigDecimal.TEN, "alice"));
+
+            // then its caller gets the failure, and every later command is rejected
+            assertTrue(exception.getMessage().contains("disk full"));
+            assertThrows(IllegalStateException.class, () -> bankingSystem.depositFunds(Currency.PLN, BigDecimal.ONE, "alice"));
+            assertThrows(IllegalStateException.class, () -> bankingSystem.getAccountBalance("alice"));
+        }
+    }
+
+    @Test
+    void ShouldRejectCommandsAfterClose() throws Exception {
+        // given a closed pipelined banking system
+        PipelinedBankingSystem bankingSystem = new PipelinedBankingSystem(JsonCurrencyExchangeService.getInstance());
+        bankingSystem.newUser("alice");
+        bankingSystem.close();
+
+        // when a command is sent
+        // then it is rejected instead of waiting forever
+        IllegalStateException exception = assertThrows(IllegalStateException.class, () -> bankingSystem.getAccountBalance("alice"));
+        assertEquals("banking system closed", exception.getMessage());
+    }
+
+    @Test
+    void ShouldConserveFundsUnderConcurrentTransfers() throws Exception {
+        // given a small ring and users holding 1000 PLN each
+        int users = 10;
+        try (PipelinedBankingSystem bankingSystem = new PipelinedBankingSystem(JsonCurrencyExchangeService.getInstance(), new RecordingLog(),
+                MutationLog.NONE, 16)) {
+            for (int i = 0; i < users; i++) {
+                bankingSystem.newUser("user" + i);
+                bankingSystem.depositFunds(Currency.PLN, BigDecimal.valueOf(1000), "user" + i);
+            }
+
+            // when threads send random amounts between them, some failing for lack of funds
+            ExecutorService executor = Executors.newFixedThreadPool(8);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++)
+                futures.add(executor.submit(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for (int i = 0; i < 2_000; i++) {
+                        try {
+                            bankingSystem.sendFunds(Currency.PLN, BigDecimal.valueOf(random.nextInt(1, 300)), "user" + random.nextInt(users),
+                                    "user" + random.nextInt(users));
+                        } catch (IllegalStateException ignored) {
+                        }
+                    }
+                }));
+            for (Future<?> future : futures)
+                future.get();
+            executor.shutdown();
+
+            // then no funds were created or lost
+            BigDecimal total = BigDecimal.ZERO;
+            for (int i = 0; i < users; i++)
+                total = total.add(bankingSystem.getAccountBalance("user" + i).get(Currency.PLN));
+            assertEquals(0, BigDecimal.valueOf(1000L * users).compareTo(total));
+        }
+    }
+
+    private static final class RecordingLog implements MutationLog {
+        final List<Mutation> mutations = new CopyOnWriteArrayList<>();
+        volatile long durable;
+
+        @Override
+        public long append(Mutation mutation) {
+            mutations.add(mutation);
+            return mutations.size();
+        }
+
+        @Override
+        public void awaitDurable(long sequence) {
+            durable = sequence;
+        }
+
+        List<MutationType> types() {
+            List<MutationType> types = new ArrayList<>();
+            for (Mutation mutation : mutations)
+                types.add(mutation.type);
+            return types;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.rynkow.bankingsystem.replication;
+
+import com.rynkow.bankingsystem.BankingSystem;
+import com.rynkow.bankingsystem.journal.FileJournal;
+import com.rynkow.bankingsystem.journal.JournalMode;
+import com.rynkow.bankingsystem.journal.Mutation;
+import com.rynkow.bankingsystem.journal.MutationLog;
+import com.rynkow.bankingsystem.model.Currency;
+import com.rynkow.bankingsystem.repository.HashAccountRepository;
+import com.rynkow.bankingsystem.service.JsonCurrencyExchangeService;
+import org.json.simple.parser.ParseException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReplicationTest {
+    private static final int USERS = 20;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void ShouldReplicateMutationsToReadOnlyReplica() throws IOException, ParseException, InterruptedException {
+        // given a primary publishing its mutations and a replica following it
+        ReplicationPublisher publisher = new ReplicationPublisher(0);
+        publisher.start();
+        BankingSystem primary = new BankingSystem(new HashAccountRepository(), JsonCurrencyExchangeService.getInstance(), publisher);
+        Replica replica = new Replica(new BankingSystem(new HashAccountRepository(), JsonCurrencyExchangeService.getInstance()), MutationLog.NONE, 0,
+                new InetSocketAddress("localhost", publisher.getPort()));
+        replica.start();
+
+        // when the primary changes accounts
+        createUsers(primary);
+        primary.sendFunds(Currency.PLN, BigDecimal.TEN, "user0", "user1");
+        primary.exchangeCurrency(Currency.PLN, Currency.EUR, BigDecimal.TEN, "user2");
+
+        // then the replica reflects all of it and rejects changes of its own
+        assertTrue(replica.awaitSequence(publisher.getLastSequence(), 10, TimeUnit.SECONDS));
+        assertSameBalances(primary, replica.getBankingSystem());
+        assertEquals(primary.getAccountHistory("user0", null, null, null, null).size(), replica.getBankingSystem().getAccountHistory("user0", null, null, null, null).size());
+        assertEquals(0, replica.getLagMutations());
+        assertTrue(replica.getDelay().count > 0);
+        Exception exception = assertThrows(IllegalStateException.class, () -> replica.getBankingSystem().depositFunds(Currency.PLN, BigDecimal.ONE, "user0"));
+        assertEquals("read-only replica", exception.getMessage());
+        replica.close();
+        publisher.close();
+    }
+
+    @Test
+    void ShouldCatchUpFromJournalBeyondBacklog() throws IOException, ParseException, InterruptedException {
+        // given a primary with many more journaled mutations than its backlog holds
+        FileJournal journal = FileJournal.open(directory.resolve("primary"), JournalMode.GROUP_COMMIT);
+        ReplicationPublisher publisher = new ReplicationPublisher(journal, 0, 16);
+        publisher.start();
+        BankingSystem primary = new BankingSystem(new HashAccountRepository(), JsonCurrencyExchangeService.getInstance(), publisher);
+        createUsers(primary);
+
+        // when a replica starts from the beginning
+        Replica replica = new Replica(new BankingSystem(new HashAccountRepository(), JsonCurrencyExchangeService.getInstance()), MutationLog.NONE, 0,
+                new InetSocketAddress("localhost", publisher.getPort()));
+        replica.start();
+
+        // then it reads the start from the journal, the rest from the backlog
+        assertTrue(replica.awaitSequence(publisher.getLastSequence(), 10, TimeUnit.SECONDS), String.valueOf(replica.getFailure()));
+        primary.depositFunds(Currency.USD, BigDecimal.ONE, "user3");
+        assertTrue(replica.awaitSequence(publisher.getLastSequence(), 10, TimeUnit.SECONDS), String.valueOf(replica.getFailure()));
+        assertSameBalances(primary, replica.getBankingSystem());
+        replica.close();
+        publisher.close();
+        journal.close();
+    }
+
+    @Test
+    void ShouldPublishOnlyDurableMutations() throws IOException, ParseException, InterruptedException {
+        // given a journaled primary and a replica following it
+        FileJournal journal = FileJournal.open(directory.resolve("primary"), JournalMode.GROUP_COMMIT);
+        ReplicationPublisher publisher = new ReplicationPublisher(journal, 0);
+        publisher.start();
+        Replica replica = new Replica(new BankingSystem(new HashAccountRepository(), JsonCurrencyExchangeService.getInstance()), MutationLog.NONE, 0,
+                new InetSocketAddress("localhost", publisher.getPort()));
+        replica.start();
+
+        // when a mutation is appended but not yet durable
+        long sequence = publisher.append(Mutation.newUser(System.currentTimeMillis(), "user0"));
+
+        // then the replica gets it only once it is durable
+        assertFalse(replica.awaitSequence(sequence, 200, TimeUnit.MILLISECONDS));
+        publisher.awaitDurable(sequence);
+        assertTrue(replica.awaitSequence(sequence, 10, TimeUnit.SECONDS), String.valueOf(replica.getFailure()));
+        assertTrue(replica.getBankingSystem().getAccountBalance("user0").containsKey(Currency.PLN));
+        replica.close();
+        publisher.close();
+        journal.close();
+    }
+
+    @Test
+    void ShouldPromoteReplicaAndKeepItsReplicasFollowing() throws IOException, ParseException, InterruptedException {
+        // given a chain: primary -> replica journaling and publishing -> second replica
+        ReplicationPublisher primaryPublisher = new ReplicationPublisher(0);
+        primaryPublisher.start();
+        BankingSystem primary = new BankingSystem(new HashAccountRepository(), JsonCurrencyExchangeService.getInstance(), primaryPublisher);
+        FileJournal replicaJournal = FileJournal.open(directory.resolve("replica"), JournalMode.GROUP_COMMIT);
+        ReplicationPublisher replicaPublisher = new ReplicationPublisher(replicaJournal, 0);
+        replicaPublisher.start();
+        Replica replica = new Replica(new BankingSystem(new HashAccountRepository(), JsonCurrencyExchangeService.getInstance(), replicaPublisher), replicaPublisher, 0,
+                new InetSocketAddress("localhost", primaryPublisher.getPort()));
+        replica.start();
+        Replica secondReplica = new Replica(new BankingSystem(new HashAccountRepository(), JsonCurrencyExchangeService.getInstance()), MutationLog.NONE, 0,
+                new InetSocketAddress("localhost", replicaPublisher.getPort()));
+        secondReplica.start();
+        createUsers(primary);
+        assertTrue(secondReplica.awaitSequence(primaryPublisher.getLastSequence(), 10, TimeUnit.SECONDS));
+
+        // when the primary fails and the replica is promoted
+        primaryPublisher.close();
+        BankingSystem promoted = replica.promote();
+        promoted.sendFunds(Currency.PLN, BigDecimal.TEN, "user0", "user1");
+
+        // then the promoted replica continues the sequence, and the second replica follows it
+        assertEquals(primaryPublisher.getLastSequence() + 1, replicaPublisher.getLastSequence());
+        assertTrue(secondReplica.awaitSequence(replicaPublisher.getLastSequence(), 10, TimeUnit.SECONDS));
+        assertSameBalances(promoted, secondReplica.getBankingSystem());
+        assertEquals(0, BigDecimal.valueOf(990).compareTo(secondReplica.getBankingSystem().getAccountBalance("user0").get(Currency.PLN)));
+        secondReplica.close();
+        replicaPublisher.close();
+        replicaJournal.close();
+    }
+
+    private static void createUsers(BankingSystem bankingSystem) {
+        for (int i = 0; i < USERS; i++) {
+            bankingSystem.newUser("user" + i);
+            for (Currency currency : Currency.values())
+                bankingSystem.depositFunds(currency, BigDecimal.valueOf(1000), "user" + i);
+        }
+    }
+
+    private static void assertSameBalances(BankingSystem expected, BankingSystem actual) {
+        for (int i = 0; i < USERS; i++)
+            for (Currency currency : Currency.values())
+                assertEquals(0, expected.getAccountBalance("user" + i).get(currency).compareTo(actual.getAccountBalance("user" + i).get(currency)));
+    }
+}
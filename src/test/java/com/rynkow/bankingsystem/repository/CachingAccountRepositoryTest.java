@@ -0,0 +1,58 @@
+package com.rynkow.bankingsystem.repository;
+
+import com.rynkow.bankingsystem.model.Account;
+import com.rynkow.bankingsystem.model.Currency;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CachingAccountRepositoryTest {
+
+    @Test
+    void ShouldServeRepeatedLookupsFromCache() {
+        // given a cache in front of a repository with an account
+        HashAccountRepository backing = new HashAccountRepository();
+        CachingAccountRepository repository = new CachingAccountRepository(backing, 10);
+        Account account = repository.newAccount("alice", Currency.PLN);
+        repository.save(account);
+
+        // when the account is looked up twice, and a missing one once
+        Account first = repository.getAccountByUserIdAndCurrency("alice", Currency.PLN).orElseThrow();
+        Account second = repository.getAccountByUserIdAndCurrency("alice", Currency.PLN).orElseThrow();
+        boolean missingFound = repository.getAccountByUserIdAndCurrency("bob", Currency.PLN).isPresent();
+
+        // then the backing repository's instance is returned and only the first lookup of each misses
+        assertSame(account, first);
+        assertSame(account, second);
+        assertFalse(missingFound);
+        assertEquals(1, repository.getHits());
+        assertEquals(2, repository.getMisses());
+        assertEquals(1, repository.getSize());
+        assertSame(account, backing.getAccountByUserIdAndCurrency("alice", Currency.PLN).orElseThrow());
+    }
+
+    @Test
+    void ShouldKeepFrequentlyUsedAccountsDuringScan() {
+        // given a cache whose frequently used accounts were looked up several times
+        HashAccountRepository backing = new HashAccountRepository();
+        CachingAccountRepository repository = new CachingAccountRepository(backing, 100);
+        int scanned = 1_000;
+        for (int i = 0; i < scanned; i++)
+            backing.save(new Account("user" + i, Currency.EUR));
+        for (int round = 0; round < 5; round++)
+            for (int i = 0; i < 50; i++)
+                repository.getAccountByUserIdAndCurrency("user" + i, Currency.EUR);
+
+        // when every account is looked up once
+        for (int i = 50; i < scanned; i++)
+            repository.getAccountByUserIdAndCurrency("user" + i, Currency.EUR);
+
+        // then the cache stays bounded and the frequently used accounts are still hits
+        long hits = repository.getHits();
+        for (int i = 0; i < 50; i++)
+            repository.getAccountByUserIdAndCurrency("user" + i, Currency.EUR);
+        assertEquals(50, repository.getHits() - hits);
+        assertTrue(repository.getSize() <= 100);
+        assertTrue(repository.getEvictions() >= scanned - 50 - 100);
+    }
+}
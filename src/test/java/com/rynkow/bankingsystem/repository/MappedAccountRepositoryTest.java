@@ -0,0 +1,222 @@
+package com.rynkow.bankingsystem.repository;
+
+import com.rynkow.bankingsystem.BankingSystem;
+import com.rynkow.bankingsystem.model.Account;
+import com.rynkow.bankingsystem.model.Currency;
+import com.rynkow.bankingsystem.model.HistoryOrder;
+import com.rynkow.bankingsystem.model.Money;
+import com.rynkow.bankingsystem.model.Transaction;
+import com.rynkow.bankingsystem.model.TransactionType;
+import com.rynkow.bankingsystem.service.JsonCurrencyExchangeService;
+import org.json.simple.parser.ParseException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MappedAccountRepositoryTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void ShouldFindSavedAccountsAfterReopening() throws IOException {
+        // given accounts saved and changed in a repository which is then closed
+        try (MappedAccountRepository repository = MappedAccountRepository.open(directory)) {
+            Account created = repository.newAccount("alice", Currency.PLN);
+            repository.save(created);
+            created.deposit(1500);
+            created.setLastSequence(7);
+            repository.save(new Account("bob", Currency.USD, 300, 3));
+            repository.save(new Account("żaneta", Currency.PLN));
+        }
+
+        // when the repository is opened again
+        try (MappedAccountRepository repository = MappedAccountRepository.open(directory)) {
+            // then accounts keep their balances and sequences, and duplicates are still rejected
+            Account alice = repository.getAccountByUserIdAndCurrency("alice", Currency.PLN).orElseThrow();
+            assertEquals(1500, alice.getBalanceUnits());
+            assertEquals(7, alice.getLastSequence());
+            assertEquals(300, repository.getAccountByUserIdAndCurrency("bob", Currency.USD).orElseThrow().getBalanceUnits());
+            assertTrue(repository.getAccountByUserIdAndCurrency("żaneta", Currency.PLN).isPresent());
+            assertTrue(repository.getAccountByUserIdAndCurrency("alice", Currency.USD).isEmpty());
+            assertEquals(2, repository.getAccountsByCurrency(Currency.PLN).size());
+            assertEquals(3, repository.getAccounts().size());
+            assertThrows(IllegalArgumentException.class, () -> repository.save(new Account("bob", Currency.USD)));
+        }
+    }
+
+    @Test
+    void ShouldKeepOneInstancePerAccountWhileIndexGrows() throws IOException {
+        // given a repository with a small hot cache
+        try (MappedAccountRepository repository = MappedAccountRepository.open(directory, 4)) {
+            Account first = repository.newAccount("user0", Currency.EUR);
+            repository.save(first);
+
+            // when far more accounts are saved than fit the initial index
+            int users = 20_000;
+            for (int i = 1; i < users; i++)
+                repository.save(repository.newAccount("user" + i, Currency.EUR));
+
+            // then every account is found, and a referenced account is always the same instance
+            for (int i = 0; i < users; i++)
+                assertEquals("user" + i, repository.getAccountByUserIdAndCurrency("user" + i, Currency.EUR).orElseThrow().getUserId());
+            assertSame(first, repository.getAccountByUserIdAndCurrency("user0", Currency.EUR).orElseThrow());
+            assertSame(first, repository.getAccounts().get(0));
+            assertEquals(users, repository.getAccountsByCurrency(Currency.EUR).size());
+        }
+    }
+
+    @Test
+    void ShouldKeepHistoryOfAccountsNoLongerReferenced() throws IOException, ParseException {
+        // given accounts with history in a repository with a small hot cache
+        try (MappedAccountRepository repository = MappedAccountRepository.open(directory, 4)) {
+            BankingSystem bankingSystem = new BankingSystem(repository, JsonCurrencyExchangeService.getInstance());
+            for (int i = 0; i < 100; i++) {
+                bankingSystem.newUser("user" + i);
+                bankingSystem.depositFunds(Currency.PLN, BigDecimal.valueOf(i + 1), "user" + i);
+            }
+
+            // when their instances are no longer referenced and garbage is collected
+            for (int i = 0; i < 3; i++)
+                System.gc();
+
+            // then the history is still there
+            for (int i = 0; i < 100; i++) {
+                List<Transaction> history = bankingSystem.getAccountHistory("user" + i, null, null, null, null);
+                assertEquals(1, history.size());
+                assertEquals(0, BigDecimal.valueOf(i + 1).compareTo(history.get(0).balanceChange));
+            }
+        }
+    }
+
+    @Test
+    void ShouldNotHoldAccountsWithHistory() throws IOException, ParseException {
+        // given an account with history in a repository with a small hot cache
+        try (MappedAccountRepository repository = MappedAccountRepository.open(directory, 4)) {
+            BankingSystem bankingSystem = new BankingSystem(repository, JsonCurrencyExchangeService.getInstance());
+            bankingSystem.newUser("alice");
+            bankingSystem.depositFunds(Currency.PLN, BigDecimal.TEN, "alice");
+            WeakReference<Account> account = new WeakReference<>(repository.getAccountByUserIdAndCurrency("alice", Currency.PLN).orElseThrow());
+
+            // when other accounts push it out of the hot cache and garbage is collected
+            for (int i = 0; i < 10; i++)
+                bankingSystem.newUser("user" + i);
+            for (int i = 0; i < 10; i++)
+                repository.getAccountByUserIdAndCurrency("user" + i, Currency.PLN);
+            for (int i = 0; i < 3 && account.get() != null; i++)
+                System.gc();
+
+            // then its instance is collected and a new one has the history
+            assertNull(account.get());
+            assertEquals(1, repository.getAccountByUserIdAndCurrency("alice", Currency.PLN).orElseThrow().getTransactionHistorySize());
+        }
+    }
+
+    @Test
+    void ShouldKeepHistoriesInDateOrderAfterReopening() throws IOException {
+        // given accounts with histories spanning several blocks, some transactions added out of date order
+        try (MappedAccountRepository repository = MappedAccountRepository.open(directory)) {
+            for (Currency currency : List.of(Currency.PLN, Currency.USD)) {
+                Account account = repository.newAccount("alice", currency);
+                repository.save(account);
+                for (int i = 0; i < 100; i++) {
+                    long date = i % 10 == 9 ? 1000 + i - 15 : 1000 + i;
+                    account.addTransactionToHistory(i % 2 == 0 ? TransactionType.DEPOSIT : TransactionType.WITHDRAW, currency.ordinal(), i, date);
+                }
+            }
+        }
+
+        // when the repository is opened again
+        try (MappedAccountRepository repository = MappedAccountRepository.open(directory)) {
+            // then each account has its own history, sorted by date, and queries see the same order
+            for (Currency currency : List.of(Currency.PLN, Currency.USD)) {
+                Account account = repository.getAccountByUserIdAndCurrency("alice", currency).orElseThrow();
+                List<Transaction> all = account.getTransactionHistory();
+                assertEquals(100, account.getTransactionHistorySize());
+                assertEquals(100, all.size());
+                for (int i = 1; i < all.size(); i++)
+                    assertFalse(all.get(i).transactionDate.before(all.get(i - 1).transactionDate));
+                for (Transaction transaction : all)
+                    assertEquals(0, Money.toBigDecimal(currency.ordinal()).compareTo(transaction.initialBalance));
+
+                List<Transaction> range = account.getTransactionHistory(new Date(1010), new Date(1019), null);
+                assertEquals(10, range.size());
+                List<Transaction> page = account.getTransactionHistory(null, null, TransactionType.WITHDRAW, HistoryOrder.DESCENDING, 2, 3);
+                assertEquals(3, page.size());
+                assertEquals(TransactionType.WITHDRAW, page.get(0).type);
+                assertEquals(1093, page.get(0).transactionDate.getTime());
+                assertEquals(1091, page.get(1).transactionDate.getTime());
+            }
+        }
+    }
+
+    @Test
+    void ShouldNotAppendRecordsForDuplicatedNewAccounts() throws IOException {
+        // given an account created but not saved yet
+        try (MappedAccountRepository repository = MappedAccountRepository.open(directory)) {
+            Account created = repository.newAccount("alice", Currency.PLN);
+
+            // when it is created again before and after it is saved
+            // then the same record is handed out until it is saved, and a duplicate is rejected after
+            assertSame(created, repository.newAccount("alice", Currency.PLN));
+            repository.save(created);
+            assertThrows(IllegalArgumentException.class, () -> repository.newAccount("alice", Currency.PLN));
+            assertNotSame(created, repository.newAccount("alice", Currency.EUR));
+        }
+    }
+
+    @Test
+    void ShouldKeepBankingOperationsAfterReopening() throws Exception {
+        // given a banking system over a mapped repository
+        List<String> users = new ArrayList<>();
+        try (MappedAccountRepository repository = MappedAccountRepository.open(directory)) {
+            BankingSystem bankingSystem = new BankingSystem(repository, JsonCurrencyExchangeService.getInstance());
+            for (int i = 0; i < 8; i++) {
+                users.add("user" + i);
+                bankingSystem.newUser("user" + i);
+                bankingSystem.depositFunds(Currency.PLN, BigDecimal.valueOf(100), "user" + i);
+            }
+
+            // when users send funds to each other concurrently
+            ExecutorService executor = Executors.newFixedThreadPool(4);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                int thread = t;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 200; i++)
+                        bankingSystem.sendFunds(Currency.PLN, BigDecimal.ONE, users.get((thread + i) % 8), users.get((thread + 3 * i + 1) % 8));
+                }));
+            }
+            for (Future<?> future : futures)
+                future.get();
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+            bankingSystem.checkTotals();
+        }
+
+        // then the reopened repository holds all funds
+        try (MappedAccountRepository repository = MappedAccountRepository.open(directory)) {
+            BankingSystem bankingSystem = new BankingSystem(repository, JsonCurrencyExchangeService.getInstance());
+            BigDecimal total = BigDecimal.ZERO;
+            for (String user : users)
+                total = total.add(bankingSystem.getAccountBalance(user).get(Currency.PLN));
+            assertEquals(0, BigDecimal.valueOf(800).compareTo(total));
+            assertEquals(8, bankingSystem.getTotals().getAccounts(Currency.PLN));
+            assertTrue(Files.exists(directory.resolve("accounts.idx")));
+        }
+    }
+}
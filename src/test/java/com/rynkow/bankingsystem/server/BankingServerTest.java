@@ -0,0 +1,156 @@
+package com.rynkow.bankingsystem.server;
+
+import com.rynkow.bankingsystem.BankingSystem;
+import com.rynkow.bankingsystem.model.Currency;
+import com.rynkow.bankingsystem.repository.HashAccountRepository;
+import com.rynkow.bankingsystem.service.JsonCurrencyExchangeService;
+import org.json.simple.parser.ParseException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BankingServerTest {
+    private static final int SESSIONS = 1000;
+
+    private BankingSystem bankingSystem;
+    private BankingServer server;
+
+    @BeforeEach
+    void StartServer() throws IOException, ParseException {
+        bankingSystem = new BankingSystem(new HashAccountRepository(), JsonCurrencyExchangeService.getInstance());
+        server = new BankingServer(bankingSystem, 0);
+        server.start();
+    }
+
+    @AfterEach
+    void StopServer() throws IOException {
+        server.close();
+    }
+
+    @Test
+    void ShouldExecuteCommandsOfSession() throws IOException {
+        // given a session of a new user
+        try (BankingClient client = new BankingClient("localhost", server.getPort())) {
+            client.execute("create serverTest");
+            bankingSystem.newUser("serverReceiver");
+
+            // when depositing and sending funds
+            client.execute("deposit PLN 100.5");
+            client.execute("send PLN 0.5 serverReceiver");
+
+            // then balances and history reflect the commands
+            assertTrue(client.execute("balance").contains("PLN 100.0000"));
+            assertEquals(2, client.execute("history").size());
+            assertEquals(0, new BigDecimal("0.5").compareTo(bankingSystem.getAccountBalance("serverReceiver").get(Currency.PLN)));
+            // and failures are reported without ending the session
+            RuntimeException exception = assertThrows(RuntimeException.class, () -> client.execute("withdraw PLN 1000"));
+            assertEquals("insufficient Balance", exception.getMessage());
+            assertThrows(RuntimeException.class, () -> client.execute("deposit XYZ 1"));
+            assertEquals(3, client.execute("balance").size());
+        }
+    }
+
+    @Test
+    void ShouldExecuteRetriedCommandOnce() throws IOException {
+        // given a session of a new user
+        try (BankingClient client = new BankingClient("localhost", server.getPort())) {
+            client.execute("create retryTest");
+
+            // when a command is retried with its idempotency key
+            client.execute("deposit PLN 10 deposit-1");
+            client.execute("deposit PLN 10 deposit-1");
+
+            // then it was executed once
+            assertEquals(0, BigDecimal.TEN.compareTo(bankingSystem.getAccountBalance("retryTest").get(Currency.PLN)));
+        }
+    }
+
+    @Test
+    void ShouldScopeCreateKeysToTheCreatedUser() throws IOException {
+        // given a user created with an idempotency key
+        try (BankingClient client = new BankingClient("localhost", server.getPort())) {
+            client.execute("create createKeyTest1 create-1");
+
+            // when another user is created with the same key
+            client.execute("create createKeyTest2 create-1");
+
+            // then both users exist
+            assertEquals(0, BigDecimal.ZERO.compareTo(bankingSystem.getAccountBalance("createKeyTest2").get(Currency.PLN)));
+        }
+    }
+
+    @Test
+    void ShouldRequireLogin() throws IOException {
+        // given a session without a user
+        try (BankingClient client = new BankingClient("localhost", server.getPort())) {
+            // when sending an account command
+            // then it is rejected
+            RuntimeException exception = assertThrows(RuntimeException.class, () -> client.execute("balance"));
+            assertEquals("not logged in", exception.getMessage());
+        }
+    }
+
+    @Test
+    void ShouldAnswerPipelinedCommandsInOrder() throws IOException {
+        // given a logged in session
+        try (BankingClient client = new BankingClient("localhost", server.getPort())) {
+            client.execute("create pipelineTest");
+
+            // when sending many commands before reading any answer
+            for (int i = 0; i < 100; i++)
+                client.send("deposit EUR 1");
+            client.send("balance");
+            client.flush();
+
+            // then every command is answered, in order
+            for (int i = 0; i < 100; i++)
+                assertEquals(List.of(), client.receive());
+            assertTrue(client.receive().contains("EUR 100.0000"));
+        }
+    }
+
+    @Test
+    void ShouldServeManyConcurrentSessions() {
+        // when many clients are connected at the same time, each depositing to its own user
+        List<BankingClient> clients = new ArrayList<>();
+        assertTimeoutPreemptively(Duration.ofMinutes(1), () -> {
+            ExecutorService executor = VirtualThreads.newThreadPerTaskExecutor("test-client");
+            try {
+                for (int i = 0; i < SESSIONS; i++)
+                    clients.add(new BankingClient("localhost", server.getPort()));
+                List<Future<?>> results = new ArrayList<>();
+                for (int i = 0; i < SESSIONS; i++) {
+                    BankingClient client = clients.get(i);
+                    String userId = "sessionUser" + i;
+                    results.add(executor.submit(() -> {
+                        client.execute("create " + userId);
+                        for (int j = 0; j < 10; j++)
+                            client.execute("deposit USD 1");
+                        return null;
+                    }));
+                }
+                for (Future<?> result : results)
+                    result.get();
+                assertEquals(SESSIONS, server.getSessionCount());
+            } finally {
+                executor.shutdown();
+                for (BankingClient client : clients)
+                    client.close();
+            }
+        });
+
+        // then all sessions were served
+        for (int i = 0; i < SESSIONS; i++)
+            assertEquals(0, BigDecimal.TEN.compareTo(bankingSystem.getAccountBalance("sessionUser" + i).get(Currency.USD)));
+    }
+}
@@ -0,0 +1,118 @@
+package com.rynkow.bankingsystem.server;
+
+import com.rynkow.bankingsystem.BankingSystem;
+import com.rynkow.bankingsystem.model.Currency;
+import com.rynkow.bankingsystem.model.HistoryOrder;
+import com.rynkow.bankingsystem.model.TransactionType;
+import com.rynkow.bankingsystem.repository.HashAccountRepository;
+import com.rynkow.bankingsystem.service.JsonCurrencyExchangeService;
+import org.json.simple.parser.ParseException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.Socket;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BinaryBankingServerTest {
+    private BankingSystem bankingSystem;
+    private BinaryBankingServer server;
+
+    @BeforeEach
+    void StartServer() throws IOException, ParseException {
+        bankingSystem = new BankingSystem(new HashAccountRepository(), JsonCurrencyExchangeService.getInstance());
+        server = new BinaryBankingServer(bankingSystem, 0);
+        server.start();
+    }
+
+    @AfterEach
+    void StopServer() throws IOException {
+        server.close();
+    }
+
+    @Test
+    void ShouldExecuteEveryRequest() throws IOException {
+        // given a client
+        try (BinaryBankingClient client = new BinaryBankingClient("localhost", server.getPort())) {
+            BinaryResponse response = new BinaryResponse();
+
+            // when creating users and moving funds
+            assertTrue(receive(client, client.newUser("binaryTest"), response).isSuccessful());
+            assertTrue(receive(client, client.newUser("binaryReceiver"), response).isSuccessful());
+            assertTrue(receive(client, client.deposit("binaryTest", Currency.PLN, 1_000_000), response).isSuccessful());
+            assertTrue(receive(client, client.withdraw("binaryTest", Currency.PLN, 100_000), response).isSuccessful());
+            assertTrue(receive(client, client.send("binaryTest", Currency.PLN, 100_000, "binaryReceiver"), response).isSuccessful());
+            assertTrue(receive(client, client.exchange("binaryTest", Currency.PLN, Currency.EUR, 100_000), response).isSuccessful());
+
+            // then balances and history are as in the banking system
+            receive(client, client.balance("binaryTest"), response);
+            assertEquals(700_000, response.getBalanceUnits(Currency.PLN));
+            assertEquals(0, BigDecimal.valueOf(response.getBalanceUnits(Currency.EUR), 4)
+                    .compareTo(bankingSystem.getAccountBalance("binaryTest").get(Currency.EUR)));
+            receive(client, client.history("binaryTest", Currency.PLN, HistoryOrder.ASCENDING, 2, null), response);
+            assertEquals(2, response.getTransactions().size());
+            assertEquals(TransactionType.DEPOSIT, response.getTransactions().get(0).type);
+            assertNotNull(response.getContinuationToken());
+            receive(client, client.history("binaryTest", Currency.PLN, HistoryOrder.ASCENDING, 2, response.getContinuationToken()), response);
+            assertEquals(2, response.getTransactions().size());
+            assertNull(response.getContinuationToken());
+        }
+    }
+
+    @Test
+    void ShouldCorrelatePipelinedAnswersByRequestId() throws IOException {
+        // given a user
+        bankingSystem.newUser("pipelineBinaryTest");
+        try (BinaryBankingClient client = new BinaryBankingClient("localhost", server.getPort())) {
+            // when sending many requests before reading answers, some of them failing
+            long[] requestIds = new long[2000];
+            for (int i = 0; i < requestIds.length; i++)
+                requestIds[i] = i % 2 == 0 ? client.deposit("pipelineBinaryTest", Currency.USD, 10_000) : client.withdraw("pipelineBinaryTest", Currency.USD, 100_000_000);
+            client.flush();
+
+            // then every request is answered with its id and outcome
+            BinaryResponse response = new BinaryResponse();
+            for (int i = 0; i < requestIds.length; i++) {
+                client.receive(response);
+                assertEquals(requestIds[i], response.getRequestId());
+                if (i % 2 == 0)
+                    assertTrue(response.isSuccessful());
+                else
+                    assertEquals("insufficient Balance", response.getError());
+            }
+            assertEquals(0, BigDecimal.valueOf(1000).compareTo(bankingSystem.getAccountBalance("pipelineBinaryTest").get(Currency.USD)));
+        }
+    }
+
+    @Test
+    void ShouldRejectInvalidRequestsAndFrames() throws IOException {
+        // given a client
+        try (BinaryBankingClient client = new BinaryBankingClient("localhost", server.getPort())) {
+            // when the request fails in the banking system
+            // then the error is answered and the connection stays usable
+            assertEquals("user account not found", receive(client, client.balance("unknownBinaryUser"), new BinaryResponse()).getError());
+            assertEquals("user account not found", receive(client, client.balance("unknownBinaryUser"), new BinaryResponse()).getError());
+        }
+
+        // when a frame has an invalid length
+        try (Socket socket = new Socket("localhost", server.getPort())) {
+            OutputStream out = socket.getOutputStream();
+            out.write(new byte[]{(byte) 0x7f, 0, 0, 0});
+            out.flush();
+
+            // then the connection is closed
+            assertEquals(-1, socket.getInputStream().read());
+        }
+    }
+
+    private static BinaryResponse receive(BinaryBankingClient client, long requestId, BinaryResponse response) throws IOException {
+        client.flush();
+        client.receive(response);
+        assertEquals(requestId, response.getRequestId());
+        return response;
+    }
+}
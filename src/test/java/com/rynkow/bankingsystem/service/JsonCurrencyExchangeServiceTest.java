@@ -3,9 +3,13 @@ package com.rynkow.bankingsystem.service;
 import com.rynkow.bankingsystem.model.Currency;
 import org.json.simple.parser.ParseException;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 import java.io.IOException;
 import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -63,4 +67,76 @@ public class JsonCurrencyExchangeServiceTest {
         assertEquals(0, usdToPln.compareTo(BigDecimal.valueOf(795).multiply(BigDecimal.valueOf(4.26))));
         assertEquals(0, usdToEur.compareTo(BigDecimal.valueOf(611).multiply(BigDecimal.valueOf(0.93))));
     }
+
+    private static String rates(double plnToEur) {
+        return "{\"PLN\": {\"USD\": 0.23, \"EUR\": " + plnToEur + "}, \"EUR\": {\"PLN\": 4.58, \"USD\": 1.07}, \"USD\": {\"PLN\": 4.26, \"EUR\": 0.93}}";
+    }
+
+    @Test
+    void ShouldReloadRatesAndKeepOldRatesOnInvalidFile(@TempDir Path directory) throws IOException, ParseException {
+        // given a service reading a rate file
+        Path rateFile = directory.resolve("exchangeRates.json");
+        Files.writeString(rateFile, rates(0.22));
+        JsonCurrencyExchangeService exchangeService = new JsonCurrencyExchangeService(rateFile);
+        ExchangeQuote before = exchangeService.quote(Currency.PLN, Currency.EUR, BigDecimal.valueOf(100));
+
+        // when the file changes and is reloaded, then is broken and reloaded again
+        Files.writeString(rateFile, rates(0.25));
+        exchangeService.reload();
+        ExchangeQuote after = exchangeService.quote(Currency.PLN, Currency.EUR, BigDecimal.valueOf(100));
+        Files.writeString(rateFile, "{\"PLN\": {\"USD\": 0.23");
+        assertThrows(ParseException.class, exchangeService::reload);
+
+        // then new rates are used with a new version, broken files do not replace them
+        assertEquals(1, before.rateVersion);
+        assertEquals(0, before.amount.compareTo(BigDecimal.valueOf(22)));
+        assertEquals(2, after.rateVersion);
+        assertEquals(0, after.amount.compareTo(BigDecimal.valueOf(25)));
+        assertEquals(2, exchangeService.getRateVersion());
+        assertEquals(0, exchangeService.exchange(Currency.PLN, Currency.EUR, BigDecimal.valueOf(100)).compareTo(BigDecimal.valueOf(25)));
+    }
+
+    @Test
+    void ShouldReloadRatesWhenWatchedFileChanges(@TempDir Path directory) throws IOException, ParseException, InterruptedException {
+        // given a service watching its rate file
+        Path rateFile = directory.resolve("exchangeRates.json");
+        Files.writeString(rateFile, rates(0.22));
+        try (JsonCurrencyExchangeService exchangeService = new JsonCurrencyExchangeService(rateFile)) {
+            exchangeService.watch();
+
+            // when the file is replaced
+            Path newRateFile = directory.resolve("exchangeRates.json.new");
+            Files.writeString(newRateFile, rates(0.3));
+            Files.move(newRateFile, rateFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            // then the new rates are picked up
+            long deadline = System.currentTimeMillis() + 30_000;
+            while (exchangeService.getRateVersion() == 1 && System.currentTimeMillis() < deadline)
+                Thread.sleep(10);
+            assertEquals(0, exchangeService.exchange(Currency.PLN, Currency.EUR, BigDecimal.valueOf(100)).compareTo(BigDecimal.valueOf(30)));
+        }
+    }
+
+    @Test
+    void ShouldKeepFailureOfWatchedReload(@TempDir Path directory) throws IOException, ParseException, InterruptedException {
+        // given a service watching its rate file
+        Path rateFile = directory.resolve("exchangeRates.json");
+        Files.writeString(rateFile, rates(0.22));
+        try (JsonCurrencyExchangeService exchangeService = new JsonCurrencyExchangeService(rateFile)) {
+            exchangeService.watch();
+
+            // when the file is replaced with a broken one
+            Path newRateFile = directory.resolve("exchangeRates.json.new");
+            Files.writeString(newRateFile, "{\"PLN\": {\"USD\": 0.23");
+            Files.move(newRateFile, rateFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            // then the failed reload is counted and kept, and the previous rates stay in use
+            long deadline = System.currentTimeMillis() + 30_000;
+            while (exchangeService.getFailedReloads() == 0 && System.currentTimeMillis() < deadline)
+                Thread.sleep(10);
+            assertTrue(exchangeService.getFailedReloads() > 0);
+            assertInstanceOf(ParseException.class, exchangeService.getLastReloadFailure());
+            assertEquals(1, exchangeService.getRateVersion());
+        }
+    }
 }
@@ -0,0 +1,91 @@
+package com.rynkow.bankingsystem.statement;
+
+import com.rynkow.bankingsystem.BankingSystem;
+import com.rynkow.bankingsystem.journal.Mutation;
+import com.rynkow.bankingsystem.model.Account;
+import com.rynkow.bankingsystem.model.Currency;
+import com.rynkow.bankingsystem.model.Money;
+import com.rynkow.bankingsystem.repository.HashAccountRepository;
+import com.rynkow.bankingsystem.service.JsonCurrencyExchangeService;
+import org.json.simple.parser.ParseException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StatementGeneratorTest {
+    private static final LocalDate DAY = LocalDate.of(2024, 3, 15);
+    private static final long DAY_START = DAY.atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+    private static final long HOUR = 3_600_000;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void ShouldWriteBalancesAndTransactionsOfTheDay() throws IOException, ParseException {
+        // given a restored account, and transactions before, during and after the day
+        HashAccountRepository repository = new HashAccountRepository();
+        for (Currency currency : Currency.values())
+            repository.save(new Account("alice", currency, currency == Currency.PLN ? Money.toUnits(BigDecimal.valueOf(50)) : 0, 1));
+        BankingSystem bankingSystem = new BankingSystem(repository, JsonCurrencyExchangeService.getInstance());
+        long sequence = 2;
+        bankingSystem.apply(Mutation.newUser(DAY_START - 2 * HOUR, "bob"), sequence++);
+        bankingSystem.apply(Mutation.deposit(DAY_START - HOUR, "alice", Currency.PLN, Money.toUnits(BigDecimal.valueOf(100))), sequence++);
+        bankingSystem.apply(Mutation.send(DAY_START + HOUR, "alice", "bob", Currency.PLN, Money.toUnits(BigDecimal.valueOf(30))), sequence++);
+        bankingSystem.apply(Mutation.withdraw(DAY_START + 2 * HOUR, "alice", Currency.PLN, Money.toUnits(BigDecimal.valueOf(20))), sequence++);
+        bankingSystem.apply(Mutation.deposit(DAY_START + 25 * HOUR, "alice", Currency.PLN, Money.toUnits(BigDecimal.valueOf(5))), sequence);
+
+        // when the statements of the day are generated
+        StatementGenerator.Summary summary = new StatementGenerator(repository).generate(DAY, ZoneOffset.UTC, directory);
+
+        // then each account shows the balances at the start and end of the day and the transactions between them
+        assertEquals(2, summary.users);
+        assertEquals(3, summary.transactions);
+        assertEquals(1, summary.files);
+        List<String> lines = Files.readAllLines(directory.resolve("statements-0.txt"));
+        int alice = lines.indexOf("USER alice");
+        assertEquals("ACCOUNT EUR opening 0.0000 closing 0.0000 transactions 0", lines.get(alice + 1));
+        int alicePln = lines.indexOf("ACCOUNT PLN opening 150.0000 closing 100.0000 transactions 2");
+        assertTrue(alicePln > alice);
+        assertEquals(Instant.ofEpochMilli(DAY_START + HOUR) + " SEND -30.0000 120.0000", lines.get(alicePln + 1));
+        assertEquals(Instant.ofEpochMilli(DAY_START + 2 * HOUR) + " WITHDRAW -20.0000 100.0000", lines.get(alicePln + 2));
+        assertTrue(lines.contains("ACCOUNT PLN opening 0.0000 closing 30.0000 transactions 1"));
+    }
+
+    @Test
+    void ShouldSplitUsersBetweenFiles() throws IOException, ParseException {
+        // given more users than fit one file
+        HashAccountRepository repository = new HashAccountRepository();
+        BankingSystem bankingSystem = new BankingSystem(repository, JsonCurrencyExchangeService.getInstance());
+        int users = StatementGenerator.PART_USERS * 2 + 10;
+        for (int i = 0; i < users; i++)
+            bankingSystem.newUser("user" + i);
+
+        // when their statements are generated
+        StatementGenerator.Summary summary = new StatementGenerator(repository).generate(LocalDate.now(ZoneOffset.UTC), ZoneOffset.UTC, directory);
+
+        // then every user is in exactly one complete file
+        assertEquals(users, summary.users);
+        assertEquals(3, summary.files);
+        long statements = 0;
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.toList()) {
+                assertTrue(file.getFileName().toString().endsWith(".txt"));
+                try (Stream<String> lines = Files.lines(file)) {
+                    statements += lines.filter(line -> line.startsWith("USER ")).count();
+                }
+            }
+        }
+        assertEquals(users, statements);
+    }
+}